@@ -22,5 +22,5 @@ iptables-restore < /etc/iptables/rules.v4
 echo "net.ipv4.ip_forward=1" >> /etc/sysctl.conf
 sysctl -w net.ipv4.ip_forward=1
 
-# run spring application
-java -jar yaws-0.0.1-SNAPSHOT.jar
\ No newline at end of file
+# run spring application, --enable-preview for the netlink reader, see build.gradle
+java --enable-preview -jar yaws-0.0.1-SNAPSHOT.jar
\ No newline at end of file
@@ -0,0 +1,84 @@
+package com.brcsrc.yaws.aggregates;
+
+import com.brcsrc.yaws.lifecycle.PeerState;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * Summary of all peers as of one provider refresh, globally and per network, see PeerAggregator
+ */
+public record PeerAggregates(
+        long version,
+        long refreshedEpochMillis,
+        Summary global,
+        Map<String, Summary> networks
+) {
+
+    /**
+     * Peers of one network, or of all of them
+     * @param receiveBytesPerSecond smoothed rate summed over the peers, likewise sendBytesPerSecond
+     * @param topByRate peers with the highest smoothed receive plus send rate, highest first
+     * @param topByVolume peers with the most lifetime bytes received plus sent, most first
+     */
+    public record Summary(
+            int peers,
+            Map<PeerState, Integer> stateCounts,
+            HandshakeAgeHistogram handshakeAges,
+            double receiveBytesPerSecond,
+            double sendBytesPerSecond,
+            List<TopPeer> topByRate,
+            List<TopPeer> topByVolume
+    ) {}
+
+    /**
+     * Peers by the age of their latest handshake. counts has one entry more than upperBoundsSeconds,
+     * counts[i] are the peers whose handshake is at most upperBoundsSeconds[i] old and older than
+     * the bound before, the last entry all older ones. Peers that never handshook are only in
+     * neverConnected.
+     */
+    public record HandshakeAgeHistogram(
+            List<Long> upperBoundsSeconds,
+            List<Integer> counts,
+            int neverConnected
+    ) {}
+
+    /**
+     * One entry of a top list, totals are lifetime totals across counter resets
+     */
+    public record TopPeer(
+            String publicKey,
+            String networkPublicKey,
+            double receiveBytesPerSecond,
+            double sendBytesPerSecond,
+            long totalBytesReceived,
+            long totalBytesSent
+    ) {}
+
+    /**
+     * @return boolean - true if other summarizes the peers the same way, whatever its version
+     */
+    public boolean sameContent(PeerAggregates other) {
+        return other != null && Objects.equals(global, other.global) && Objects.equals(networks, other.networks);
+    }
+
+    /**
+     * @return PeerAggregates - the same aggregates with only the given networks, all of them if empty
+     */
+    public PeerAggregates forNetworks(Set<String> networkPublicKeys) {
+        if (networkPublicKeys.isEmpty()) {
+            return this;
+        }
+        Map<String, Summary> selected = new LinkedHashMap<>();
+        for (String networkPublicKey : networkPublicKeys) {
+            Summary summary = networks.get(networkPublicKey);
+            if (summary != null) {
+                selected.put(networkPublicKey, summary);
+            }
+        }
+        return new PeerAggregates(version, refreshedEpochMillis, global, selected);
+    }
+}
@@ -0,0 +1,13 @@
+package com.brcsrc.yaws.aggregates;
+
+/**
+ * Notified by PeerAggregator when a refresh changed the aggregates, on the provider's refresh
+ * thread. Implementations should hand off anything slow.
+ */
+@FunctionalInterface
+public interface PeerAggregatesListener {
+    /**
+     * @param aggregates PeerAggregates - the new aggregates, never null
+     */
+    void onAggregates(PeerAggregates aggregates);
+}
@@ -0,0 +1,373 @@
+package com.brcsrc.yaws.aggregates;
+
+import com.brcsrc.yaws.aggregates.PeerAggregates.HandshakeAgeHistogram;
+import com.brcsrc.yaws.aggregates.PeerAggregates.Summary;
+import com.brcsrc.yaws.aggregates.PeerAggregates.TopPeer;
+import com.brcsrc.yaws.history.TransferTotalsStore;
+import com.brcsrc.yaws.history.TransferTotalsStore.TransferTotals;
+import com.brcsrc.yaws.lifecycle.PeerLifecycleDetector;
+import com.brcsrc.yaws.lifecycle.PeerState;
+import com.brcsrc.yaws.system.ClientConnectionInformation;
+import com.brcsrc.yaws.system.NetworkConnectionInformation;
+import com.brcsrc.yaws.system.WireguardChangeListener;
+import com.brcsrc.yaws.system.WireguardConnectionDiff;
+import com.brcsrc.yaws.system.WireguardInformationProvider;
+import com.brcsrc.yaws.system.WireguardInformationProvider.WireguardConnectionData;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.env.Environment;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+
+/**
+ * Keeps top talkers and per network summaries up to date on every refresh, so finding the
+ * heaviest peers does not take sending every peer to the browser.
+ *
+ * Every peer has an entry in two ordered indexes, by smoothed rate and by lifetime volume, one
+ * pair per network and one over all networks. A refresh only moves the entries of the peers in
+ * its diff, a peer whose counters and rates did not change keeps its place, so the top lists
+ * cost O(changed peers * log peers) instead of a sort of everything. When peers or networks come
+ * or go the indexes are rebuilt from the snapshot, which is rare.
+ *
+ * State counts and handshake age histograms depend on the clock, not only on the dump, so they
+ * are recounted from the snapshot on every refresh, one pass without sorting. States use the
+ * thresholds of PeerLifecycleDetector, lifetime volumes the totals of TransferTotalsStore, which
+ * is updated earlier in the same refresh since it registers with the provider first.
+ *
+ * Everything is updated on the refresh thread, the published PeerAggregates are immutable.
+ */
+@Component
+public class PeerAggregator implements WireguardChangeListener {
+    private static final Logger logger = LoggerFactory.getLogger(PeerAggregator.class);
+
+    static final String TOP_N_PROPERTY = "yaws.aggregates.top-n";
+    static final int DEFAULT_TOP_N = 10;
+    static final int MAX_TOP_N = 1000;
+    static final List<Long> HANDSHAKE_AGE_BOUNDS_SECONDS = List.of(60L, 120L, 180L, 300L, 600L, 1800L, 3600L, 21600L, 86400L);
+
+    private static final Comparator<PeerEntry> BY_RATE = Comparator
+            .comparingDouble(PeerEntry::rate).reversed()
+            .thenComparing(entry -> entry.publicKey);
+    private static final Comparator<PeerEntry> BY_VOLUME = Comparator
+            .comparingLong(PeerEntry::volume).reversed()
+            .thenComparing(entry -> entry.publicKey);
+
+    private final WireguardInformationProvider wireguardInfo;
+    private final BiFunction<Long, Long, PeerState> classifier;
+    private final Function<String, TransferTotals> lifetimeTotals;
+    private final int topN;
+    private final List<PeerAggregatesListener> listeners = new CopyOnWriteArrayList<>();
+
+    // only touched on the refresh thread
+    private final Map<String, PeerEntry> entries = new HashMap<>();
+    private final Ranking globalRanking = new Ranking();
+    private final Map<String, Ranking> networkRankings = new HashMap<>();
+    private boolean seeded = false;
+
+    private volatile PeerAggregates aggregates = new PeerAggregates(0, 0, emptySummary(), Map.of());
+
+    @Autowired
+    public PeerAggregator(WireguardInformationProvider wireguardInfo, PeerLifecycleDetector lifecycleDetector,
+                          TransferTotalsStore transferTotals, Environment env) {
+        this(
+            wireguardInfo,
+            lifecycleDetector::classify,
+            transferTotals::getTotals,
+            env.getProperty(TOP_N_PROPERTY, Integer.class, DEFAULT_TOP_N)
+        );
+    }
+
+    /**
+     * @param classifier BiFunction - state of a peer from its latest handshake in epoch seconds and the time in epoch millis
+     * @param lifetimeTotals Function - lifetime totals of a peer by public key, null for the current counters
+     */
+    PeerAggregator(WireguardInformationProvider wireguardInfo, BiFunction<Long, Long, PeerState> classifier,
+                   Function<String, TransferTotals> lifetimeTotals, int topN) {
+        if (topN < 1 || topN > MAX_TOP_N) {
+            throw new IllegalArgumentException(String.format("top-n must be between 1 and %d", MAX_TOP_N));
+        }
+        this.wireguardInfo = wireguardInfo;
+        this.classifier = classifier;
+        this.lifetimeTotals = lifetimeTotals;
+        this.topN = topN;
+    }
+
+    @PostConstruct
+    public void initialize() {
+        logger.info("Aggregating the top {} peers by rate and volume on every refresh", topN);
+        wireguardInfo.addChangeListener(this);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        wireguardInfo.removeChangeListener(this);
+    }
+
+    public void addListener(PeerAggregatesListener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(PeerAggregatesListener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * @return PeerAggregates - as of the last refresh, empty before the first one
+     */
+    public PeerAggregates getAggregates() {
+        return aggregates;
+    }
+
+    @Override
+    public void onChange(WireguardConnectionDiff diff) {
+        WireguardConnectionData current = diff.getCurrent();
+        long timestamp = current.getRefreshedEpochMillis() > 0 ? current.getRefreshedEpochMillis() : System.currentTimeMillis();
+        aggregate(diff, timestamp);
+    }
+
+    void aggregate(WireguardConnectionDiff diff, long nowEpochMillis) {
+        WireguardConnectionData current = diff.getCurrent();
+        // registered after the provider's first refresh, the first diff does not hold every peer
+        if (!seeded || membershipChanged(diff)) {
+            seeded = true;
+            rebuild(current);
+        } else {
+            for (WireguardConnectionDiff.PeerChange change : diff.getChangedPeers().values()) {
+                PeerEntry entry = entries.get(change.publicKey());
+                if (entry != null) {
+                    update(entry, change.current(), entry.networkPublicKey);
+                }
+            }
+        }
+        publish(summarize(current, nowEpochMillis));
+    }
+
+    /**
+     * @return boolean - true if a peer or network came or went, or moved between networks
+     */
+    private static boolean membershipChanged(WireguardConnectionDiff diff) {
+        if (!diff.getAddedPeers().isEmpty() || !diff.getRemovedPeers().isEmpty()
+                || !diff.getAddedNetworks().isEmpty() || !diff.getRemovedNetworks().isEmpty()) {
+            return true;
+        }
+        for (WireguardConnectionDiff.NetworkChange change : diff.getChangedNetworks().values()) {
+            // two peers trading networks leave both counts as they were
+            if (change.peersChanged() && !change.previous().getPeers().keySet().equals(change.current().getPeers().keySet())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void rebuild(WireguardConnectionData data) {
+        entries.clear();
+        globalRanking.clear();
+        networkRankings.clear();
+        for (NetworkConnectionInformation network : data.getNetworksByPublicKey().values()) {
+            for (ClientConnectionInformation peer : network.getPeers().values()) {
+                PeerEntry entry = new PeerEntry(peer.getPublicKey());
+                entries.put(peer.getPublicKey(), entry);
+                update(entry, peer, network.getPublicKey());
+            }
+        }
+    }
+
+    private void update(PeerEntry entry, ClientConnectionInformation peer, String networkPublicKey) {
+        if (entry.networkPublicKey != null) {
+            globalRanking.remove(entry);
+            networkRankings.get(entry.networkPublicKey).remove(entry);
+        }
+        entry.networkPublicKey = networkPublicKey;
+        entry.receiveBytesPerSecond = rateOf(peer.getSmoothedReceiveBytesPerSecond(), peer.getReceiveBytesPerSecond());
+        entry.sendBytesPerSecond = rateOf(peer.getSmoothedSendBytesPerSecond(), peer.getSendBytesPerSecond());
+        TransferTotals totals = lifetimeTotals.apply(peer.getPublicKey());
+        entry.totalBytesReceived = totals != null ? totals.bytesReceived() : valueOf(peer.getBytesReceived());
+        entry.totalBytesSent = totals != null ? totals.bytesSent() : valueOf(peer.getBytesSent());
+        globalRanking.add(entry);
+        networkRankings.computeIfAbsent(networkPublicKey, key -> new Ranking()).add(entry);
+    }
+
+    private PeerAggregates summarize(WireguardConnectionData data, long nowEpochMillis) {
+        Counts global = new Counts();
+        Map<String, Summary> networks = new LinkedHashMap<>();
+        for (NetworkConnectionInformation network : data.getNetworksByPublicKey().values()) {
+            Counts counts = new Counts();
+            for (ClientConnectionInformation peer : network.getPeers().values()) {
+                counts.add(peer, nowEpochMillis);
+            }
+            global.addAll(counts);
+            Ranking ranking = networkRankings.getOrDefault(network.getPublicKey(), Ranking.EMPTY);
+            networks.put(network.getPublicKey(), counts.toSummary(ranking, topN));
+        }
+        return new PeerAggregates(data.getVersion(), data.getRefreshedEpochMillis(),
+                global.toSummary(globalRanking, topN), networks);
+    }
+
+    private void publish(PeerAggregates next) {
+        PeerAggregates previous = aggregates;
+        aggregates = next;
+        if (next.sameContent(previous)) {
+            return;
+        }
+        for (PeerAggregatesListener listener : listeners) {
+            try {
+                listener.onAggregates(next);
+            } catch (Exception e) {
+                // same as the provider's change listeners, one broken listener must not starve the others
+                logger.error("Error in peer aggregates listener {}", listener, e);
+            }
+        }
+    }
+
+    private Summary emptySummary() {
+        return new Counts().toSummary(Ranking.EMPTY, 0);
+    }
+
+    private static double rateOf(Double smoothed, Double instant) {
+        if (smoothed != null) {
+            return smoothed;
+        }
+        return instant != null ? instant : 0;
+    }
+
+    private static long valueOf(Long value) {
+        return value == null ? 0 : value;
+    }
+
+    /**
+     * Rank of one peer in the indexes. Must be taken out of them before any ranked field changes.
+     */
+    private static final class PeerEntry {
+        private final String publicKey;
+        private String networkPublicKey;
+        private double receiveBytesPerSecond;
+        private double sendBytesPerSecond;
+        private long totalBytesReceived;
+        private long totalBytesSent;
+
+        PeerEntry(String publicKey) {
+            this.publicKey = publicKey;
+        }
+
+        double rate() {
+            return receiveBytesPerSecond + sendBytesPerSecond;
+        }
+
+        long volume() {
+            return totalBytesReceived + totalBytesSent;
+        }
+
+        TopPeer toTopPeer() {
+            return new TopPeer(publicKey, networkPublicKey, receiveBytesPerSecond, sendBytesPerSecond,
+                    totalBytesReceived, totalBytesSent);
+        }
+    }
+
+    /**
+     * Peers ordered by rate and by volume
+     */
+    private static final class Ranking {
+        static final Ranking EMPTY = new Ranking();
+
+        private final TreeSet<PeerEntry> byRate = new TreeSet<>(BY_RATE);
+        private final TreeSet<PeerEntry> byVolume = new TreeSet<>(BY_VOLUME);
+
+        void add(PeerEntry entry) {
+            byRate.add(entry);
+            byVolume.add(entry);
+        }
+
+        void remove(PeerEntry entry) {
+            byRate.remove(entry);
+            byVolume.remove(entry);
+        }
+
+        void clear() {
+            byRate.clear();
+            byVolume.clear();
+        }
+
+        static List<TopPeer> top(TreeSet<PeerEntry> index, int n) {
+            List<TopPeer> top = new ArrayList<>(Math.min(n, index.size()));
+            for (PeerEntry entry : index) {
+                if (top.size() == n) {
+                    break;
+                }
+                top.add(entry.toTopPeer());
+            }
+            return List.copyOf(top);
+        }
+    }
+
+    /**
+     * State counts, handshake ages and rate sums of a set of peers
+     */
+    private final class Counts {
+        private int peers = 0;
+        private final int[] states = new int[PeerState.values().length];
+        private final int[] ages = new int[HANDSHAKE_AGE_BOUNDS_SECONDS.size() + 1];
+        private int neverConnected = 0;
+        private double receiveBytesPerSecond = 0;
+        private double sendBytesPerSecond = 0;
+
+        void add(ClientConnectionInformation peer, long nowEpochMillis) {
+            peers++;
+            Long handshake = peer.knownLatestHandshakeEpochSeconds();
+            states[classifier.apply(handshake, nowEpochMillis).ordinal()]++;
+            if (handshake == null) {
+                neverConnected++;
+            } else {
+                long age = nowEpochMillis / 1000 - handshake;
+                int bucket = 0;
+                while (bucket < HANDSHAKE_AGE_BOUNDS_SECONDS.size() && age > HANDSHAKE_AGE_BOUNDS_SECONDS.get(bucket)) {
+                    bucket++;
+                }
+                ages[bucket]++;
+            }
+            receiveBytesPerSecond += rateOf(peer.getSmoothedReceiveBytesPerSecond(), peer.getReceiveBytesPerSecond());
+            sendBytesPerSecond += rateOf(peer.getSmoothedSendBytesPerSecond(), peer.getSendBytesPerSecond());
+        }
+
+        void addAll(Counts other) {
+            peers += other.peers;
+            for (int i = 0; i < states.length; i++) {
+                states[i] += other.states[i];
+            }
+            for (int i = 0; i < ages.length; i++) {
+                ages[i] += other.ages[i];
+            }
+            neverConnected += other.neverConnected;
+            receiveBytesPerSecond += other.receiveBytesPerSecond;
+            sendBytesPerSecond += other.sendBytesPerSecond;
+        }
+
+        Summary toSummary(Ranking ranking, int n) {
+            Map<PeerState, Integer> stateCounts = new EnumMap<>(PeerState.class);
+            for (PeerState state : PeerState.values()) {
+                stateCounts.put(state, states[state.ordinal()]);
+            }
+            List<Integer> ageCounts = new ArrayList<>(ages.length);
+            for (int count : ages) {
+                ageCounts.add(count);
+            }
+            return new Summary(peers, stateCounts,
+                    new HandshakeAgeHistogram(HANDSHAKE_AGE_BOUNDS_SECONDS, List.copyOf(ageCounts), neverConnected),
+                    receiveBytesPerSecond, sendBytesPerSecond,
+                    Ranking.top(ranking.byRate, n), Ranking.top(ranking.byVolume, n));
+        }
+    }
+}
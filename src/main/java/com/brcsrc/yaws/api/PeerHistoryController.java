@@ -0,0 +1,160 @@
+package com.brcsrc.yaws.api;
+
+import com.brcsrc.yaws.history.HistoryPoint;
+import com.brcsrc.yaws.history.PeerHistoryStore;
+import com.brcsrc.yaws.history.TelemetryStore;
+import com.brcsrc.yaws.model.Constants;
+import com.brcsrc.yaws.model.requests.GetConnectionHistoryRequest;
+import io.swagger.v3.oas.annotations.Operation;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.util.List;
+
+/**
+ * REST controller for the bandwidth history of peers.
+ *
+ * <h2>Bandwidth History</h2>
+ * {@code /wg-show/history/client} and {@code /wg-show/history/network} return the recent
+ * transfer counters and rates of peers from {@link PeerHistoryStore}, which samples every peer
+ * into a fixed size ring buffer on each refresh. Ranges reaching further back than the rings are
+ * answered from {@link TelemetryStore}, which keeps raw, per minute and per hour samples on disk.
+ * Downsampling to the requested number of points happens on the server.
+ *
+ * @see PeerHistoryStore
+ * @see TelemetryStore
+ */
+@RestController
+@RequestMapping(Constants.BASE_URL + "/system")
+public class PeerHistoryController {
+
+    private static final Logger logger = LoggerFactory.getLogger(PeerHistoryController.class);
+
+    /** Keeps recent bandwidth samples of every peer */
+    private final PeerHistoryStore historyStore;
+
+    /** Keeps weeks of bandwidth samples on disk, used for ranges older than the in-memory history */
+    private final TelemetryStore telemetryStore;
+
+    /** History range and resolution used when a request does not give them */
+    private static final long DEFAULT_HISTORY_RANGE_MS = 60 * 60 * 1000L;
+    private static final int DEFAULT_HISTORY_POINTS = 200;
+    private static final int MAX_HISTORY_POINTS = 2000;
+
+    @Autowired
+    public PeerHistoryController(PeerHistoryStore historyStore, TelemetryStore telemetryStore) {
+        this.historyStore = historyStore;
+        this.telemetryStore = telemetryStore;
+    }
+
+    /**
+     * Returns the bandwidth history of a client/peer, downsampled on the server.
+     *
+     * <pre>
+     * POST /api/v1/system/wg-show/history/client
+     * {"publicKeyValue":"uRj...","fromEpochMillis":1701230000000,"toEpochMillis":1701233600000,"maxPoints":120}
+     *
+     * {"publicKey":"uRj...","points":[{"timestampEpochMillis":1701230010000,"bytesReceived":1048576,
+     *   "bytesSent":524288,"latestHandshakeEpochSeconds":1701229990,"receiveBytesPerSecond":2048.0,...}]}
+     * </pre>
+     * The range is split into maxPoints equal buckets and the newest sample of each is returned,
+     * the counters are cumulative and the rates are per second since the previous point. A client
+     * that is no longer in the dump is answered from the persisted telemetry history.
+     *
+     * @param request Contains publicKeyValue and the optional fromEpochMillis, toEpochMillis and maxPoints
+     * @return PeerHistory of the client, 404 if the client is unknown and has no persisted history
+     */
+    @Operation(
+            summary = "Get Client Bandwidth History",
+            description = "Returns the downsampled transfer history of a specific client/peer"
+    )
+    @PostMapping("/wg-show/history/client")
+    public PeerHistoryStore.PeerHistory getClientHistory(@RequestBody GetConnectionHistoryRequest request) {
+        HistoryRange range = toHistoryRange(request);
+        PeerHistoryStore.PeerHistory history = historyStore.queryPeer(
+                request.getPublicKeyValue(), range.fromEpochMillis(), range.toEpochMillis(), range.maxPoints());
+        if (history != null && useTelemetryStore(range)) {
+            history = new PeerHistoryStore.PeerHistory(history.publicKey(), telemetryStore.queryPeer(
+                    history.publicKey(), range.fromEpochMillis(), range.toEpochMillis(), range.maxPoints()));
+        }
+        if (history == null && telemetryStore.isEnabled()) {
+            // a peer that is gone from the dump only has its persisted history left
+            List<HistoryPoint> points = telemetryStore.queryPeer(
+                    request.getPublicKeyValue(), range.fromEpochMillis(), range.toEpochMillis(), range.maxPoints());
+            if (!points.isEmpty()) {
+                history = new PeerHistoryStore.PeerHistory(request.getPublicKeyValue(), points);
+            }
+        }
+        if (history == null) {
+            String errMsg = String.format("client with public key '%s' not found", request.getPublicKeyValue());
+            logger.error(errMsg);
+            throw new ResponseStatusException(HttpStatus.NOT_FOUND, errMsg);
+        }
+        return history;
+    }
+
+    /**
+     * Returns the bandwidth history of every client/peer currently on a network, each downsampled
+     * the same way as /wg-show/history/client.
+     *
+     * @param request Contains publicKeyValue of the network and the optional fromEpochMillis, toEpochMillis and maxPoints
+     * @return NetworkHistory with one series per peer, 404 if the network is unknown
+     */
+    @Operation(
+            summary = "Get Network Bandwidth History",
+            description = "Returns the downsampled transfer history of every peer of a specific network"
+    )
+    @PostMapping("/wg-show/history/network")
+    public PeerHistoryStore.NetworkHistory getNetworkHistory(@RequestBody GetConnectionHistoryRequest request) {
+        HistoryRange range = toHistoryRange(request);
+        PeerHistoryStore.NetworkHistory history = historyStore.queryNetwork(
+                request.getPublicKeyValue(), range.fromEpochMillis(), range.toEpochMillis(), range.maxPoints());
+        if (history != null && useTelemetryStore(range)) {
+            history.peers().putAll(telemetryStore.queryPeers(
+                    history.peers().keySet(), range.fromEpochMillis(), range.toEpochMillis(), range.maxPoints()));
+        }
+        if (history == null) {
+            String errMsg = String.format("network with public key '%s' not found", request.getPublicKeyValue());
+            logger.error(errMsg);
+            throw new ResponseStatusException(HttpStatus.NOT_FOUND, errMsg);
+        }
+        return history;
+    }
+
+    private record HistoryRange(long fromEpochMillis, long toEpochMillis, int maxPoints) {}
+
+    // the in-memory rings only reach back getRetainedSpanMs, older ranges come from disk
+    private boolean useTelemetryStore(HistoryRange range) {
+        return telemetryStore.isEnabled()
+                && range.fromEpochMillis() < System.currentTimeMillis() - historyStore.getRetainedSpanMs();
+    }
+
+    private static HistoryRange toHistoryRange(GetConnectionHistoryRequest request) {
+        if (request.getPublicKeyValue() == null) {
+            String errMsg = "publicKeyValue is required";
+            logger.error(errMsg);
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, errMsg);
+        }
+        long to = request.getToEpochMillis() != null ? request.getToEpochMillis() : System.currentTimeMillis();
+        long from = request.getFromEpochMillis() != null ? request.getFromEpochMillis() : to - DEFAULT_HISTORY_RANGE_MS;
+        int maxPoints = request.getMaxPoints() != null ? request.getMaxPoints() : DEFAULT_HISTORY_POINTS;
+        if (from < 0 || from > to) {
+            String errMsg = "fromEpochMillis must not be negative or after toEpochMillis";
+            logger.error(errMsg);
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, errMsg);
+        }
+        if (maxPoints < 1 || maxPoints > MAX_HISTORY_POINTS) {
+            String errMsg = String.format("maxPoints must be between 1 and %d", MAX_HISTORY_POINTS);
+            logger.error(errMsg);
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, errMsg);
+        }
+        return new HistoryRange(from, to, maxPoints);
+    }
+}
@@ -0,0 +1,228 @@
+package com.brcsrc.yaws.api;
+
+import com.brcsrc.yaws.aggregates.PeerAggregates;
+import com.brcsrc.yaws.aggregates.PeerAggregator;
+import com.brcsrc.yaws.lifecycle.PeerLifecycleDetector;
+import com.brcsrc.yaws.lifecycle.PeerLifecycleEvent;
+import com.brcsrc.yaws.lifecycle.PeerState;
+import com.brcsrc.yaws.model.Constants;
+import com.brcsrc.yaws.model.requests.QueryPeersRequest;
+import com.brcsrc.yaws.query.PeerQuery;
+import com.brcsrc.yaws.query.PeerQueryEngine;
+import com.brcsrc.yaws.query.PeerQueryResult;
+import io.swagger.v3.oas.annotations.Operation;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.*;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * REST controller answering questions about many peers at once without sending all of them.
+ *
+ * <h2>Peer Lifecycle Events</h2>
+ * {@link PeerLifecycleDetector} classifies every peer ONLINE, IDLE or OFFLINE from its handshake
+ * age and detects roaming and handshake churn. {@code GET /wg-show/events?afterSequence=N}
+ * returns the recent events for polling, {@link SystemController} streams them as they happen.
+ *
+ * <h2>Top Talkers and Summaries</h2>
+ * {@link PeerAggregator} keeps the top peers by rate and by lifetime volume, the peer counts per
+ * state and handshake age histograms, per network and over all of them, up to date on every
+ * refresh. {@code GET /wg-show/aggregates} returns them.
+ *
+ * <h2>Peer Queries</h2>
+ * A network with thousands of peers should not be sent whole for the browser to filter.
+ * {@code POST /wg-show/peers/query} filters the live peers by network, state, handshake age,
+ * rate, allowed IP prefix and client name prefix, sorts them and returns one page with a cursor
+ * for the next. {@link PeerQueryEngine} evaluates queries against indexes built once per snapshot.
+ */
+@RestController
+@RequestMapping(Constants.BASE_URL + "/system")
+public class PeerInsightsController {
+
+    private static final Logger logger = LoggerFactory.getLogger(PeerInsightsController.class);
+
+    /** Classifies peers from their handshakes and keeps the recent lifecycle events */
+    private final PeerLifecycleDetector lifecycleDetector;
+
+    /** Keeps the top talkers and per network summaries of every refresh */
+    private final PeerAggregator peerAggregator;
+
+    /** Answers filtered and paginated queries over the live peers */
+    private final PeerQueryEngine peerQueryEngine;
+
+    /** Lifecycle events returned by one poll when the request does not give a limit, and at most */
+    private static final int DEFAULT_EVENTS_LIMIT = 100;
+    private static final int MAX_EVENTS_LIMIT = 1000;
+
+    /** Peers returned by one query when the request does not give a limit */
+    private static final int DEFAULT_QUERY_LIMIT = 50;
+
+    /**
+     * Lifecycle events after the requested sequence, and the peer counts per state as of the last refresh
+     */
+    public record PeerEventsResponse(
+            List<PeerLifecycleEvent> events,
+            long lastSequence,
+            Map<PeerState, Integer> stateCounts
+    ) {}
+
+    @Autowired
+    public PeerInsightsController(
+            PeerLifecycleDetector lifecycleDetector,
+            PeerAggregator peerAggregator,
+            PeerQueryEngine peerQueryEngine
+    ) {
+        this.lifecycleDetector = lifecycleDetector;
+        this.peerAggregator = peerAggregator;
+        this.peerQueryEngine = peerQueryEngine;
+    }
+
+    /**
+     * Returns the retained peer lifecycle events after a sequence number, oldest first.
+     *
+     * <pre>
+     * GET /api/v1/system/wg-show/events?afterSequence=41&limit=100
+     * {"events":[{"sequence":42,"type":"ROAMED",...}],"lastSequence":42,"stateCounts":{"ONLINE":812,"IDLE":40,"OFFLINE":3}}
+     * </pre>
+     * Passing the sequence of the last event received pages through the feed. A first event with
+     * a sequence above afterSequence + 1 means older events were dropped from the buffer.
+     *
+     * @param afterSequence optional, only events after this sequence, by default all retained
+     * @param limit optional, the most events to return
+     * @return PeerEventsResponse
+     */
+    @Operation(
+            summary = "Get Peer Lifecycle Events",
+            description = "Returns the recent peer lifecycle events after a sequence number and the number of peers per state"
+    )
+    @GetMapping("/wg-show/events")
+    public PeerEventsResponse getPeerEvents(
+            @RequestParam(required = false, defaultValue = "0") long afterSequence,
+            @RequestParam(required = false) Integer limit
+    ) {
+        int eventsLimit = limit != null ? limit : DEFAULT_EVENTS_LIMIT;
+        if (eventsLimit < 1 || eventsLimit > MAX_EVENTS_LIMIT) {
+            String errMsg = String.format("limit must be between 1 and %d", MAX_EVENTS_LIMIT);
+            logger.error(errMsg);
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, errMsg);
+        }
+        // read before the events, so a client paging by lastSequence never skips one
+        long lastSequence = lifecycleDetector.getLastSequence();
+        List<PeerLifecycleEvent> events = lifecycleDetector.getEventsAfter(afterSequence, eventsLimit);
+        return new PeerEventsResponse(events, lastSequence, lifecycleDetector.getStateCounts());
+    }
+
+    /**
+     * Returns the top peers by rate and lifetime volume, the peer counts per state and the
+     * handshake age histograms, over all networks and per network, as of the last refresh.
+     *
+     * <pre>
+     * GET /api/v1/system/wg-show/aggregates?networkPublicKeyValue=pHI...
+     * {"version":42,"refreshedEpochMillis":1701234567890,
+     *  "global":{"peers":855,"stateCounts":{"ONLINE":812,"IDLE":40,"OFFLINE":3},
+     *            "handshakeAges":{"upperBoundsSeconds":[60,120,...],"counts":[640,150,...],"neverConnected":2},
+     *            "receiveBytesPerSecond":18250.0,"sendBytesPerSecond":1048576.0,
+     *            "topByRate":[{"publicKey":"uRj...","networkPublicKey":"pHI...","receiveBytesPerSecond":...}],
+     *            "topByVolume":[...]},
+     *  "networks":{"pHI...":{...}}}
+     * </pre>
+     *
+     * @param networkPublicKeyValue optional, only this network's summary, the global one is always included
+     * @return PeerAggregates
+     */
+    @Operation(
+            summary = "Get Peer Aggregates",
+            description = "Returns the top peers by rate and lifetime volume, peer counts per state and handshake age histograms per network and globally"
+    )
+    @GetMapping("/wg-show/aggregates")
+    public PeerAggregates getPeerAggregates(@RequestParam(required = false) String networkPublicKeyValue) {
+        PeerAggregates aggregates = peerAggregator.getAggregates();
+        if (networkPublicKeyValue == null) {
+            return aggregates;
+        }
+        if (!aggregates.networks().containsKey(networkPublicKeyValue)) {
+            String errMsg = String.format("network with public key '%s' not found", networkPublicKeyValue);
+            logger.error(errMsg);
+            throw new ResponseStatusException(HttpStatus.NOT_FOUND, errMsg);
+        }
+        return aggregates.forNetworks(Set.of(networkPublicKeyValue));
+    }
+
+    /**
+     * Returns one page of the live peers matching the request, as of the current snapshot.
+     *
+     * <pre>
+     * POST /api/v1/system/wg-show/peers/query
+     * {"networkPublicKeyValue":"pHI...","states":["ONLINE"],"minBytesPerSecond":1048576,
+     *  "clientNamePrefix":"alice","clientTag":"laptops","sort":"RATE","descending":true,"limit":2}
+     * {"version":42,"refreshedEpochMillis":1701234567890,
+     *  "peers":[{"publicKey":"uRj...","networkPublicKey":"pHI...","interfaceName":"wg0",
+     *            "clientName":"alice-laptop","clientTag":"laptops","allowedIps":"10.0.0.2/32",
+     *            "endpoint":"203.0.113.7:51820",
+     *            "latestHandshakeEpochSeconds":1701234560,"state":"ONLINE",
+     *            "receiveBytesPerSecond":18250.0,"sendBytesPerSecond":3145728.0,
+     *            "bytesReceived":2764800,"bytesSent":1440000000}, {...}],
+     *  "nextCursor":"UkFURQpkZXNj..."}
+     * </pre>
+     * Passing nextCursor with otherwise the same request returns the next page, nextCursor is
+     * null on the last one. A cursor only fits requests with the same sort and direction.
+     *
+     * @param request the optional criteria, sort (PUBLIC_KEY by default), limit and cursor
+     * @return PeerQueryResult
+     */
+    @Operation(
+            summary = "Query Peers",
+            description = "Returns one page of the live peers filtered by state, handshake age, rate, allowed IP, client name and client tag, sorted and cursor paginated"
+    )
+    @PostMapping("/wg-show/peers/query")
+    public PeerQueryResult queryPeers(@RequestBody QueryPeersRequest request) {
+        int limit = request.getLimit() != null ? request.getLimit() : DEFAULT_QUERY_LIMIT;
+        if (limit < 1 || limit > PeerQueryEngine.MAX_LIMIT) {
+            String errMsg = String.format("limit must be between 1 and %d", PeerQueryEngine.MAX_LIMIT);
+            logger.error(errMsg);
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, errMsg);
+        }
+        PeerQuery.SortField sort = PeerQuery.SortField.PUBLIC_KEY;
+        if (request.getSort() != null) {
+            try {
+                sort = PeerQuery.SortField.valueOf(request.getSort());
+            } catch (IllegalArgumentException e) {
+                String errMsg = String.format("unknown sort field '%s'", request.getSort());
+                logger.error(errMsg);
+                throw new ResponseStatusException(HttpStatus.BAD_REQUEST, errMsg);
+            }
+        }
+        Set<PeerState> states = EnumSet.noneOf(PeerState.class);
+        if (request.getStates() != null) {
+            for (String state : request.getStates()) {
+                try {
+                    states.add(PeerState.valueOf(state));
+                } catch (IllegalArgumentException | NullPointerException e) {
+                    String errMsg = String.format("unknown peer state '%s'", state);
+                    logger.error(errMsg);
+                    throw new ResponseStatusException(HttpStatus.BAD_REQUEST, errMsg);
+                }
+            }
+        }
+
+        PeerQuery query = new PeerQuery(request.getNetworkPublicKeyValue(), states,
+                request.getMinHandshakeAgeSeconds(), request.getMaxHandshakeAgeSeconds(),
+                request.getMinBytesPerSecond(), request.getMaxBytesPerSecond(),
+                request.getAllowedIpPrefix(), request.getClientNamePrefix(), request.getClientTag(),
+                sort, request.isDescending(), limit, request.getCursor());
+        try {
+            return peerQueryEngine.query(query);
+        } catch (IllegalArgumentException e) {
+            String errMsg = e.getMessage();
+            logger.error(errMsg);
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, errMsg);
+        }
+    }
+}
@@ -0,0 +1,246 @@
+package com.brcsrc.yaws.api;
+
+import com.brcsrc.yaws.model.Constants;
+import com.brcsrc.yaws.model.requests.StreamClientConnectionInfoRequest;
+import com.brcsrc.yaws.model.requests.StreamNetworkConnectionInfoRequest;
+import com.brcsrc.yaws.system.ClientConnectionInformation;
+import com.brcsrc.yaws.system.NetworkConnectionInformation;
+import com.brcsrc.yaws.system.WireguardInformationProvider;
+import com.brcsrc.yaws.system.WireguardInformationProvider.WireguardConnectionData;
+import io.swagger.v3.oas.annotations.Operation;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.async.DeferredResult;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Function;
+
+/**
+ * REST controller serving the cached WireGuard connection data to polling clients.
+ *
+ * <h2>Snapshots for Polling Clients</h2>
+ * Scripts, collectors and proxies that buffer SSE can read the data the streams of
+ * {@link SystemController} push with plain requests to {@code /wg-show/snapshot}. Every response
+ * carries an ETag derived from the snapshot version and the start of this run, versions start
+ * over on a restart and an ETag from before never matches:
+ * <ul>
+ *   <li>{@code If-None-Match} with the current ETag is answered with 304 and no body</li>
+ *   <li>{@code waitForVersion=N} holds the request until a snapshot with version N or later is
+ *       published, or LONG_POLL_TIMEOUT passes. The request is parked as a DeferredResult, no
+ *       servlet thread waits for it</li>
+ * </ul>
+ * Passing the last seen version + 1 together with its ETag gives a poll that only returns when
+ * there is something new and only transfers data when it changed.
+ *
+ * {@code GET /wg-show/refresh-status} reports how often {@link WireguardInformationProvider}
+ * currently refreshes the data.
+ *
+ * @see WireguardInformationProvider
+ */
+@RestController
+@RequestMapping(Constants.BASE_URL + "/system")
+public class SnapshotController {
+
+    private static final Logger logger = LoggerFactory.getLogger(SnapshotController.class);
+
+    /** Provides cached WireGuard connection data updated by background thread */
+    private final WireguardInformationProvider wireguardInfo;
+
+    // ETag prefix of this run, versions start over with the provider
+    private final String snapshotEpoch = Long.toString(System.currentTimeMillis(), 36);
+
+    /** Longest a snapshot request with waitForVersion is held before the current snapshot is returned (30 seconds) */
+    private static final long LONG_POLL_TIMEOUT = 30 * 1000L;
+
+    /**
+     * All networks with their peers, as of the snapshot with the given version
+     */
+    public record WireguardSnapshotResponse(
+            long version,
+            long refreshedEpochMillis,
+            Map<String, NetworkConnectionInformation> networks
+    ) {}
+
+    @Autowired
+    public SnapshotController(WireguardInformationProvider wireguardInfo) {
+        this.wireguardInfo = wireguardInfo;
+    }
+
+    /**
+     * Returns all networks and their peers from the current snapshot.
+     *
+     * <pre>
+     * GET /api/v1/system/wg-show/snapshot?waitForVersion=42
+     * If-None-Match: "lq3k9x2a-41"
+     *
+     * HTTP/1.1 200 OK
+     * ETag: "lq3k9x2a-42"
+     * {"version":42,"refreshedEpochMillis":1701234567890,"networks":{"pHI...":{"interfaceName":"wg0",...}}}
+     * </pre>
+     *
+     * @param waitForVersion optional, hold the request until this version is published or the long poll times out
+     * @param ifNoneMatch optional ETag of a snapshot the caller already has
+     * @return WireguardSnapshotResponse, or 304 if the snapshot still matches ifNoneMatch
+     */
+    @Operation(
+            summary = "Get WireGuard Snapshot",
+            description = "Returns the current WireGuard connection data for all networks, supports If-None-Match and waitForVersion long polling"
+    )
+    @GetMapping("/wg-show/snapshot")
+    public DeferredResult<ResponseEntity<?>> getSnapshot(
+            @RequestParam(required = false) Long waitForVersion,
+            @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch
+    ) {
+        return snapshotResponse(waitForVersion, ifNoneMatch, data -> new WireguardSnapshotResponse(
+                data.getVersion(), data.getRefreshedEpochMillis(), data.getNetworksByPublicKey()));
+    }
+
+    /**
+     * Returns one network and its peers from the current snapshot, the same payload as a
+     * network-info-update event. Supports If-None-Match and waitForVersion like /wg-show/snapshot.
+     *
+     * @param request Contains networkPublicKeyValue (WireGuard public key with =, +, / characters)
+     * @return NetworkConnectionInformation, 304 if the snapshot still matches ifNoneMatch, 404 if there is no such network
+     */
+    @Operation(
+            summary = "Get Network WireGuard Snapshot",
+            description = "Returns the current WireGuard connection data for a specific network, supports If-None-Match and waitForVersion long polling"
+    )
+    @PostMapping("/wg-show/snapshot/network")
+    public DeferredResult<ResponseEntity<?>> getNetworkSnapshot(
+            @RequestBody StreamNetworkConnectionInfoRequest request,
+            @RequestParam(required = false) Long waitForVersion,
+            @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch
+    ) {
+        String networkPublicKey = request.getNetworkPublicKeyValue();
+        return snapshotResponse(waitForVersion, ifNoneMatch, data -> {
+            NetworkConnectionInformation network = data.getNetworksByPublicKey().get(networkPublicKey);
+            if (network == null) {
+                String errMsg = String.format("network with public key '%s' not found", networkPublicKey);
+                logger.error(errMsg);
+                throw new ResponseStatusException(HttpStatus.NOT_FOUND, errMsg);
+            }
+            return network;
+        });
+    }
+
+    /**
+     * Returns one client/peer from the current snapshot, the same payload as a client-info-update
+     * event. Supports If-None-Match and waitForVersion like /wg-show/snapshot.
+     *
+     * @param request Contains clientPublicKeyValue (WireGuard public key with =, +, / characters)
+     * @return ClientConnectionInformation, 304 if the snapshot still matches ifNoneMatch, 404 if there is no such client
+     */
+    @Operation(
+            summary = "Get Client WireGuard Snapshot",
+            description = "Returns the current WireGuard connection data for a specific client/peer, supports If-None-Match and waitForVersion long polling"
+    )
+    @PostMapping("/wg-show/snapshot/client")
+    public DeferredResult<ResponseEntity<?>> getClientSnapshot(
+            @RequestBody StreamClientConnectionInfoRequest request,
+            @RequestParam(required = false) Long waitForVersion,
+            @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch
+    ) {
+        String clientPublicKey = request.getClientPublicKeyValue();
+        return snapshotResponse(waitForVersion, ifNoneMatch, data -> {
+            ClientConnectionInformation client = data.getPeersByPublicKey().get(clientPublicKey);
+            if (client == null) {
+                String errMsg = String.format("client with public key '%s' not found", clientPublicKey);
+                logger.error(errMsg);
+                throw new ResponseStatusException(HttpStatus.NOT_FOUND, errMsg);
+            }
+            return client;
+        });
+    }
+
+    /**
+     * Resolves once the snapshot to answer with is known: right away without waitForVersion,
+     * otherwise when the provider publishes that version or the long poll times out, in which
+     * case the then current snapshot is used. Errors thrown by body reach the GlobalExceptionHandler.
+     */
+    private DeferredResult<ResponseEntity<?>> snapshotResponse(
+            Long waitForVersion,
+            String ifNoneMatch,
+            Function<WireguardConnectionData, Object> body
+    ) {
+        DeferredResult<ResponseEntity<?>> result = new DeferredResult<>(LONG_POLL_TIMEOUT);
+        if (waitForVersion == null) {
+            completeSnapshotResponse(result, wireguardInfo.getConnectionData(), ifNoneMatch, body);
+            return result;
+        }
+
+        CompletableFuture<WireguardConnectionData> published = wireguardInfo.awaitVersion(waitForVersion);
+        result.onTimeout(() -> {
+            // cancelling releases the provider subscription, answer with what is there now
+            published.cancel(false);
+            completeSnapshotResponse(result, wireguardInfo.getConnectionData(), ifNoneMatch, body);
+        });
+        result.onCompletion(() -> published.cancel(false));
+        published.thenAccept(data -> completeSnapshotResponse(result, data, ifNoneMatch, body));
+        return result;
+    }
+
+    private void completeSnapshotResponse(
+            DeferredResult<ResponseEntity<?>> result,
+            WireguardConnectionData data,
+            String ifNoneMatch,
+            Function<WireguardConnectionData, Object> body
+    ) {
+        String etag = snapshotEtag(data);
+        if (matchesEtag(ifNoneMatch, etag)) {
+            result.setResult(ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(etag).build());
+            return;
+        }
+        try {
+            result.setResult(ResponseEntity.ok().eTag(etag).body(body.apply(data)));
+        } catch (ResponseStatusException e) {
+            result.setErrorResult(e);
+        }
+    }
+
+    String snapshotEtag(WireguardConnectionData data) {
+        return "\"" + snapshotEpoch + "-" + data.getVersion() + "\"";
+    }
+
+    static boolean matchesEtag(String ifNoneMatch, String etag) {
+        if (ifNoneMatch == null) {
+            return false;
+        }
+        for (String candidate : ifNoneMatch.split(",")) {
+            String value = candidate.trim();
+            // a weak validator matches too, the epoch and version are all the ETag encodes
+            if (value.startsWith("W/")) {
+                value = value.substring(2);
+            }
+            if (value.equals("*") || value.equals(etag)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns the provider's current refresh mode and interval for monitoring.
+     *
+     * <pre>
+     * GET /api/v1/system/wg-show/refresh-status
+     * {"mode":"ACTIVE","effectiveIntervalMs":2000,"idleIntervalMs":60000,"activeIntervalMs":2000,
+     *  "subscribers":1,"lastRefreshEpochMillis":1701234567890,"nextRefreshInMs":1450}
+     * </pre>
+     */
+    @Operation(
+            summary = "Get WireGuard Refresh Status",
+            description = "Returns whether connection data is refreshed at the idle or active interval and how many streams are subscribed"
+    )
+    @GetMapping("/wg-show/refresh-status")
+    public WireguardInformationProvider.RefreshStatus getRefreshStatus() {
+        return wireguardInfo.getRefreshStatus();
+    }
+}
@@ -1,25 +1,43 @@
 package com.brcsrc.yaws.api;
 
+import com.brcsrc.yaws.aggregates.PeerAggregator;
+import com.brcsrc.yaws.lifecycle.PeerLifecycleDetector;
+import com.brcsrc.yaws.lifecycle.PeerLifecycleEvent;
 import com.brcsrc.yaws.model.Constants;
 import com.brcsrc.yaws.model.requests.StreamClientConnectionInfoRequest;
+import com.brcsrc.yaws.model.requests.StreamConnectionInfoRequest;
+import com.brcsrc.yaws.model.requests.StreamInterfaceStatsRequest;
 import com.brcsrc.yaws.model.requests.StreamNetworkConnectionInfoRequest;
-import com.brcsrc.yaws.system.ClientConnectionInformation;
-import com.brcsrc.yaws.system.NetworkConnectionInformation;
+import com.brcsrc.yaws.model.requests.StreamPeerAggregatesRequest;
+import com.brcsrc.yaws.model.requests.StreamPeerEventsRequest;
+import com.brcsrc.yaws.sse.ConnectionInfoBroadcaster;
+import com.brcsrc.yaws.sse.InterfaceStatsBroadcaster;
+import com.brcsrc.yaws.sse.NetworkDeltaBroadcaster;
+import com.brcsrc.yaws.sse.PeerAggregatesBroadcaster;
+import com.brcsrc.yaws.sse.PeerEventBroadcaster;
+import com.brcsrc.yaws.sse.SseConnection;
+import com.brcsrc.yaws.sse.SseConnectionRegistry;
+import com.brcsrc.yaws.sse.SseMetrics;
+import com.brcsrc.yaws.system.InterfaceStatsSampler;
 import com.brcsrc.yaws.system.WireguardInformationProvider;
 import io.swagger.v3.oas.annotations.Operation;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.context.SecurityContextHolder;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.server.ResponseStatusException;
 import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 
-import java.io.IOException;
-import java.util.concurrent.ScheduledExecutorService;
-import java.util.concurrent.ScheduledFuture;
-import java.util.concurrent.Executors;
-import java.util.concurrent.TimeUnit;
-import java.util.concurrent.atomic.AtomicReference;
+import java.util.EnumSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
 
 /**
  * REST controller for system-level operations and real-time monitoring.
@@ -59,24 +77,64 @@ import java.util.concurrent.atomic.AtomicReference;
  * {"networkPublicKeyValue": "pHIHd17qGbJlqYmKnBZcXxXJkPUeARJNfIJadpgKHG0="}
  * </pre>
  *
- * <h3>Thread Management Strategy</h3>
- * <b>Problem:</b> Creating a dedicated thread per SSE connection doesn't scale. With 100 concurrent
- * connections, you'd have 100 threads constantly polling the cache, wasting resources on constrained
- * devices like Raspberry Pi.
+ * <h3>Push on Change: ConnectionInfoBroadcaster</h3>
+ * <b>Problem:</b> Giving every SSE connection its own periodic task means N tasks each reading the
+ * cache and serializing the same entity to JSON every interval, whether or not anything changed.
  *
- * <b>Solution:</b> Use a small, fixed-size ScheduledExecutorService (2 threads) that all SSE connections
- * share. Each connection schedules a periodic task, but the actual execution is multiplexed across
- * the thread pool. This means:
+ * <b>Solution:</b> The endpoints only create the emitter and register it with
+ * {@link ConnectionInfoBroadcaster}. The broadcaster listens for refresh diffs from the provider and:
  * <ul>
- *   <li>2 threads can serve unlimited SSE connections</li>
- *   <li>Tasks are lightweight (just cache reads and network I/O)</li>
- *   <li>Resource usage is bounded and predictable</li>
+ *   <li>Serializes each changed network or client once and writes that payload to all of its subscribers</li>
+ *   <li>Sends subscribers of unchanged entities a heartbeat comment instead of the full payload</li>
+ *   <li>Does all writes from a single dispatcher thread, no per-connection tasks or threads</li>
  * </ul>
  *
+ * <h3>Multiplexed Streams</h3>
+ * A dashboard showing many networks and clients would otherwise hold one connection per entity.
+ * {@code POST /wg-show/stream} takes any number of network and client keys and delivers all of
+ * them over one connection, the first event carries a stream id that {@code PUT /wg-show/stream/{streamId}}
+ * uses to change the followed keys without reconnecting. Payloads are the same pre-built events
+ * single-key streams receive, so a multiplexed stream costs no extra serialization.
+ *
+ * <h3>Delta Streams</h3>
+ * Resending a whole network because one peer's counters moved costs a large network most of its
+ * bandwidth. {@code POST /wg-show/network/deltas} sends the network once and then only the
+ * changed fields, added and removed peers, numbered with a per network sequence, see
+ * {@link NetworkDeltaBroadcaster}. A client that notices a gap in the sequence asks for a fresh
+ * snapshot with {@code POST /wg-show/network/deltas/{streamId}/resync}. Event ids follow the
+ * snapshot versions, a client reconnecting with {@code Last-Event-ID} is sent only the deltas it
+ * missed while they are still in the broadcaster's replay buffer. The stream is also served over
+ * GET with the key as a query parameter, so native EventSource reconnects on its own.
+ *
+ * <h3>Peer Lifecycle Events</h3>
+ * Spotting the peers that dropped out of thousands should not take streaming all of them.
+ * {@link PeerLifecycleDetector} classifies every peer ONLINE, IDLE or OFFLINE from its handshake
+ * age and detects roaming and handshake churn. {@code POST /wg-show/events/stream} pushes those
+ * events as they happen, optionally narrowed to some networks and event types.
+ *
+ * <h3>Top Talkers and Summaries</h3>
+ * {@code POST /wg-show/aggregates/stream} pushes the top peers, the peer counts per state and
+ * handshake age histograms of {@link PeerAggregator} when they change, the browser never needs
+ * every peer to find the heaviest ones.
+ *
+ * <h3>Polling, History and Queries</h3>
+ * The same data is served to clients that poll by the controllers sharing this base path:
+ * {@link SnapshotController} for snapshots and the refresh status, {@link PeerHistoryController}
+ * for bandwidth history and {@link PeerInsightsController} for lifecycle events, aggregates and
+ * peer queries.
+ *
+ * <h3>Interface Throughput</h3>
+ * A throughput gauge needs interface totals, not every peer. {@code POST /wg-show/interface-stats/stream}
+ * pushes the kernel's rx and tx counters and rates of every active network's interface each second.
+ * They come from {@link InterfaceStatsSampler}, which reads sysfs while a stream is open and
+ * runs apart from the 'wg show' refresh.
+ *
  * <h3>Data Source: Cache-Based Design</h3>
- * This controller does NOT execute 'wg show' commands directly. Instead, it reads from
+ * This controller does NOT execute 'wg show' commands directly. The data comes from
  * {@link WireguardInformationProvider}, which maintains a singleton cache updated by a
- * background thread every 5 seconds. Benefits:
+ * background thread. Every open stream registers as a subscriber with the provider, which
+ * refreshes at its fast active interval while any stream is open and falls back to a long
+ * idle interval when none are. Benefits:
  * <ul>
  *   <li>Single command execution regardless of active SSE connections</li>
  *   <li>Consistent data across all clients</li>
@@ -86,16 +144,27 @@ import java.util.concurrent.atomic.AtomicReference;
  * <h2>Event Types</h2>
  * This controller emits two types of events:
  * <ul>
- *   <li><b>network-info-update / client-info-update:</b> Successful data emission (JSON)</li>
- *   <li><b>error:</b> Application-level errors like "Network not found" (plain text)</li>
+ *   <li><b>network-info-update / client-info-update:</b> Successful data emission (JSON), sent on connect and on change</li>
+ *   <li><b>error:</b> Application-level errors like "Network not found" (plain text), sent on connect and on removal</li>
  * </ul>
+ * Between changes the stream carries {@code :heartbeat} comment lines, which EventSource clients ignore.
  *
  * <h2>Error Handling</h2>
  *
  * <h3>Client Disconnects</h3>
- * When a client disconnects (browser close, network drop, timeout), the next {@code emitter.send()}
- * throws {@code IOException: Broken pipe}. This is NORMAL and expected - we handle it gracefully
- * by canceling the scheduled task and completing the emitter cleanly.
+ * When a client disconnects (browser close, network drop, timeout), the next write throws an
+ * IOException, usually {@code Broken pipe}. This is NORMAL and expected - the writer of the
+ * stream completes the emitter cleanly whatever the message, and the broadcaster drops the
+ * subscription from its completion callback. Broadcasters never see the IOException, a send to
+ * a closed stream throws IllegalStateException.
+ *
+ * <h3>Stream Limits and Slow Clients</h3>
+ * Every stream comes from {@link SseConnectionRegistry}. It refuses a stream with 429 once the
+ * global or the per user cap is reached and with 503 during shutdown. Broadcasters only queue
+ * their events, the registry's writer threads write them, so a client that stops reading never
+ * blocks a broadcaster. A stream whose queue grows past the lag limit is evicted. On shutdown
+ * the queued events are written before the streams are completed. {@code GET /sse/metrics}
+ * reports the open streams, the worst lag and the rejected, evicted and failed totals.
  *
  * <h3>Spring Security Integration</h3>
  * After a "Broken pipe" error, Spring Security may throw {@code AccessDeniedException} during
@@ -104,14 +173,17 @@ import java.util.concurrent.atomic.AtomicReference;
  * pipes, we prevent this error cascade.
  *
  * <h3>Other IO Errors</h3>
- * Non-broken-pipe IOExceptions (serialization failures, actual network issues) are logged as
- * errors and result in {@code emitter.completeWithError()} to properly signal the client.
+ * Serialization failures are logged as errors and sent to the subscribers as "error" events.
+ * A failed write, whatever its IOException, means the connection is unusable and the stream is
+ * completed like a broken pipe, there is nobody left to signal an error to.
  *
  * <h2>Client-Side Usage</h2>
  *
  * <h3>Browser (Native EventSource - only supports GET)</h3>
  * Since these endpoints use POST, native EventSource won't work. Use a library like
  * {@code @microsoft/fetch-event-source} that supports POST requests with EventSource-style API.
+ * The exception is {@code GET /wg-show/network/deltas?networkPublicKeyValue=...}, which takes
+ * the URL encoded key and resumes from the Last-Event-ID EventSource sends on reconnect.
  *
  * <h3>Example with fetch-event-source</h3>
  * <pre>
@@ -148,14 +220,16 @@ import java.util.concurrent.atomic.AtomicReference;
  *
  * <h2>Configuration Constants</h2>
  * <ul>
- *   <li><b>SSE_TIMEOUT:</b> Maximum connection lifetime (30 minutes) before server closes stream</li>
- *   <li><b>SSE_EMIT_INTERVAL_MS:</b> How often to read cache and emit events (5 seconds)</li>
- *   <li><b>EVENT_NETWORK_INFO_UPDATE:</b> Event name for network data updates</li>
- *   <li><b>EVENT_CLIENT_INFO_UPDATE:</b> Event name for client data updates</li>
- *   <li><b>EVENT_ERROR:</b> Event name for application-level errors</li>
+ *   <li><b>Stream lifetime:</b> yaws.sse.timeout-ms (30 minutes) before the server closes a stream</li>
+ *   <li><b>Stream caps:</b> yaws.sse.max-connections in total and yaws.sse.max-connections-per-user,
+ *       streams over yaws.sse.max-queued-events behind are evicted</li>
+ *   <li><b>Refresh interval:</b> Changes are pushed at most once per provider refresh
+ *       (yaws.wireguard.refresh.active-interval-ms while streams are open)</li>
+ *   <li><b>Sample interval:</b> Interface stats are pushed every yaws.interface-stats.sample-interval-ms</li>
  * </ul>
  *
  * @see WireguardInformationProvider
+ * @see ConnectionInfoBroadcaster
  * @see SseEmitter
  */
 @RestController
@@ -165,37 +239,51 @@ public class SystemController {
     private static final Logger logger = LoggerFactory.getLogger(SystemController.class);
 
     // SSE Configuration
-    /** Maximum time an SSE connection will stay open before server-side timeout (30 minutes) */
-    private static final long SSE_TIMEOUT = 30 * 60 * 1000L;
+    /** Header an EventSource sends on reconnect, the id of the last event it received */
+    private static final String LAST_EVENT_ID_HEADER = "Last-Event-ID";
 
-    /** Interval between event emissions - how often to read cache and send updates (5 seconds) */
-    private static final long SSE_EMIT_INTERVAL_MS = 5000L;
+    // Dependencies
+    /** Hands out every stream, enforces the stream caps and writes the queued events */
+    private final SseConnectionRegistry sseConnections;
 
-    // SSE Event Names
-    /** Event name for network connection information updates */
-    private static final String EVENT_NETWORK_INFO_UPDATE = "network-info-update";
+    /** Writes changed connection data to every open stream */
+    private final ConnectionInfoBroadcaster broadcaster;
 
-    /** Event name for client/peer connection information updates */
-    private static final String EVENT_CLIENT_INFO_UPDATE = "client-info-update";
+    /** Writes a snapshot and then the deltas of a network to every open delta stream */
+    private final NetworkDeltaBroadcaster networkDeltaBroadcaster;
 
-    /** Event name for application-level errors (e.g., "Network not found") */
-    private static final String EVENT_ERROR = "error";
+    /** Writes lifecycle events to every open event stream */
+    private final PeerEventBroadcaster peerEventBroadcaster;
 
-    // Dependencies
-    /** Provides cached WireGuard connection data updated by background thread */
-    private final WireguardInformationProvider wireguardInfo;
+    /** Writes interface counter samples to every open interface stats stream */
+    private final InterfaceStatsBroadcaster interfaceStatsBroadcaster;
+
+    /** Writes changed peer aggregates to every open aggregates stream */
+    private final PeerAggregatesBroadcaster peerAggregatesBroadcaster;
+
+    /** Upper bound on networks plus clients followed by one multiplexed stream */
+    private static final int MAX_STREAM_TOPICS = 256;
 
     /**
-     * Shared thread pool for scheduling SSE event emissions.
-     * Only 2 threads serve all concurrent SSE connections via task scheduling.
-     * Tasks are lightweight (cache reads + network I/O), so 2 threads is sufficient.
+     * Response to a subscription change of a multiplexed stream
      */
-    private final ScheduledExecutorService scheduler;
+    public record UpdateStreamResponse(String streamId, int networks, int clients, boolean onlineOnly) {}
 
     @Autowired
-    public SystemController(WireguardInformationProvider wireguardInfo) {
-        this.wireguardInfo = wireguardInfo;
-        this.scheduler = Executors.newScheduledThreadPool(2);
+    public SystemController(
+            SseConnectionRegistry sseConnections,
+            ConnectionInfoBroadcaster broadcaster,
+            NetworkDeltaBroadcaster networkDeltaBroadcaster,
+            PeerEventBroadcaster peerEventBroadcaster,
+            InterfaceStatsBroadcaster interfaceStatsBroadcaster,
+            PeerAggregatesBroadcaster peerAggregatesBroadcaster
+    ) {
+        this.sseConnections = sseConnections;
+        this.broadcaster = broadcaster;
+        this.networkDeltaBroadcaster = networkDeltaBroadcaster;
+        this.peerEventBroadcaster = peerEventBroadcaster;
+        this.interfaceStatsBroadcaster = interfaceStatsBroadcaster;
+        this.peerAggregatesBroadcaster = peerAggregatesBroadcaster;
     }
 
     /**
@@ -204,10 +292,11 @@ public class SystemController {
      * <h3>How It Works</h3>
      * <ol>
      *   <li>Client POSTs network public key in JSON body</li>
+     *   <li>Server registers the stream with the broadcaster, switching the provider to its active refresh interval</li>
      *   <li>Server immediately sends initial network data (or error if not found)</li>
-     *   <li>Server schedules periodic task to emit updates every 5 seconds</li>
+     *   <li>After each refresh the network is sent again if it changed, otherwise a heartbeat comment</li>
      *   <li>Connection stays open until timeout (30 min), client disconnect, or error</li>
-     *   <li>On close, scheduled task is cancelled to prevent resource leaks</li>
+     *   <li>On close, the subscription is dropped</li>
      * </ol>
      *
      * <h3>Event Stream Format</h3>
@@ -221,9 +310,9 @@ public class SystemController {
      *
      * <h3>Error Scenarios</h3>
      * <ul>
-     *   <li><b>Network not found:</b> Emits "error" event with message, stream continues</li>
-     *   <li><b>Client disconnects:</b> IOException caught, task cancelled, emitter completed cleanly</li>
-     *   <li><b>Serialization error:</b> Logged as error, emitter completed with error, stream closes</li>
+     *   <li><b>Network not found:</b> Emits "error" event with message on connect or removal, stream continues</li>
+     *   <li><b>Client disconnects:</b> IOException caught, subscription dropped, emitter completed cleanly</li>
+     *   <li><b>Serialization error:</b> Logged as error, "error" event sent to the subscribers, stream continues</li>
      * </ul>
      *
      * @param request Contains networkPublicKeyValue (WireGuard public key with =, +, / characters)
@@ -241,106 +330,141 @@ public class SystemController {
         String networkPublicKey = request.getNetworkPublicKeyValue();
         logger.info("SSE connection established for network: {}", networkPublicKey);
 
-        SseEmitter emitter = new SseEmitter(SSE_TIMEOUT);
-
-        // Send initial data immediately to establish the SSE connection.
-        // This ensures the client receives the HTTP 200 response and starts listening
-        // without waiting for the first scheduled emission.
-        try {
-            NetworkConnectionInformation network = wireguardInfo.getNetworkByPublicKey(networkPublicKey);
-            if (network != null) {
-                emitter.send(SseEmitter.event()
-                        .name(EVENT_NETWORK_INFO_UPDATE)
-                        .data(network, MediaType.APPLICATION_JSON));
-            } else {
-                logger.warn("Network not found for public key: {}", networkPublicKey);
-                emitter.send(SseEmitter.event()
-                        .name(EVENT_ERROR)
-                        .data("Network not found", MediaType.TEXT_PLAIN));
-            }
-        } catch (IOException e) {
-            logger.error("Failed to send initial SSE data for network: {}", networkPublicKey, e);
-            emitter.completeWithError(e);
-            return emitter;
-        }
-
-        // Schedule a periodic task to read from cache and emit updates.
-        // The task runs every SSE_EMIT_INTERVAL_MS (5 seconds) starting after the first interval.
-        // Initial data was already sent above, so we start the schedule after a delay.
-        // Using AtomicReference to allow lambda to reference the task for self-cancellation.
-        AtomicReference<ScheduledFuture<?>> scheduledTaskRef = new AtomicReference<>();
-        ScheduledFuture<?> scheduledTask = scheduler.scheduleAtFixedRate(() -> {
-            try {
-                NetworkConnectionInformation network = wireguardInfo.getNetworkByPublicKey(networkPublicKey);
-
-                if (network != null) {
-                    emitter.send(SseEmitter.event()
-                            .name(EVENT_NETWORK_INFO_UPDATE)
-                            .data(network, MediaType.APPLICATION_JSON));
-                } else {
-                    logger.warn("Network not found for public key: {}", networkPublicKey);
-                    emitter.send(SseEmitter.event()
-                            .name(EVENT_ERROR)
-                            .data("Network not found", MediaType.TEXT_PLAIN));
-                }
-            } catch (IOException e) {
-                // "Broken pipe" means the client disconnected (browser close, network drop, etc.)
-                // This is NORMAL and expected - not an error condition.
-                // We complete the emitter cleanly to avoid triggering Spring Security errors.
-                if (e.getMessage() != null && e.getMessage().contains("Broken pipe")) {
-                    logger.debug("SSE client disconnected for network: {}", networkPublicKey);
-                    ScheduledFuture<?> task = scheduledTaskRef.get();
-                    if (task != null) task.cancel(true);
-                    emitter.complete();
-                } else {
-                    // Other IOExceptions (serialization failures, actual network issues) are real errors
-                    logger.error("SSE IO error for network: {}", networkPublicKey, e);
-                    ScheduledFuture<?> task = scheduledTaskRef.get();
-                    if (task != null) task.cancel(true);
-                    emitter.completeWithError(e);
-                }
-            } catch (Exception e) {
-                // Unexpected errors (NPE, runtime exceptions) - log and close stream
-                logger.error("Error in SSE stream for network: {}", networkPublicKey, e);
-                ScheduledFuture<?> task = scheduledTaskRef.get();
-                if (task != null) task.cancel(true);
-                emitter.completeWithError(e);
-            }
-        }, SSE_EMIT_INTERVAL_MS, SSE_EMIT_INTERVAL_MS, TimeUnit.MILLISECONDS);
-        scheduledTaskRef.set(scheduledTask);
-
-        // Register cleanup callbacks to cancel the scheduled task when the connection closes.
-        // This prevents resource leaks by ensuring tasks don't continue after the client is gone.
+        // the broadcaster sends the current state immediately, then pushes changes until the
+        // connection closes, at which point it drops the subscription
+        SseConnection emitter = openStream("network");
+        broadcaster.subscribe(ConnectionInfoBroadcaster.TopicType.NETWORK, networkPublicKey, emitter);
+        return emitter;
+    }
 
-        emitter.onCompletion(() -> {
-            logger.info("SSE completed for network: {}", networkPublicKey);
-            scheduledTask.cancel(true);
-        });
+    /**
+     * Streams a network as a snapshot followed by deltas via Server-Sent Events.
+     *
+     * <h3>Event Stream Format</h3>
+     * <pre>
+     * event: stream-opened
+     * data: {"streamId":"5f0c..."}
+     *
+     * id: lq3x9k2a-41
+     * event: network-snapshot
+     * data: {"networkPublicKey":"pHI...","sequence":7,"network":{"interfaceName":"wg0","peers":{...},...}}
+     *
+     * id: lq3x9k2a-42
+     * event: network-delta
+     * data: {"networkPublicKey":"pHI...","sequence":8,"network":{"smoothedSendBytesPerSecond":1048576.0},
+     *        "addedPeers":[],"removedPeers":[],
+     *        "changedPeers":{"uRj...":{"bytesSent":1440000000,"smoothedSendBytesPerSecond":1048576.0}}}
+     * </pre>
+     * A delta applies to the state of sequence - 1. Fields of changedPeers and network hold the new
+     * value, null included. When the network goes up or down a network-snapshot is sent instead,
+     * its network is null while the network is down. Between changes the stream carries
+     * {@code :heartbeat} comment lines.
+     *
+     * <h3>Resuming</h3>
+     * Event ids name the snapshot version the event brings the client to. A client reconnecting
+     * with the {@code Last-Event-ID} of the last event it applied receives stream-opened and only
+     * the deltas it missed, or nothing more if it missed none. If the id is older than the replay
+     * buffer, or from before a server restart, it receives a network-snapshot as on a first connect.
+     *
+     * @param request Contains networkPublicKeyValue (WireGuard public key with =, +, / characters)
+     * @param lastEventId the id of the last event a reconnecting client received, optional
+     * @return SseEmitter that streams network-snapshot and network-delta events
+     */
+    @Operation(
+            summary = "Stream Network WireGuard Deltas",
+            description = "Server-Sent Events endpoint that sends a network once and then only what changed, with sequence numbers to detect gaps"
+    )
+    @PostMapping(
+            value = "/wg-show/network/deltas",
+            produces = MediaType.TEXT_EVENT_STREAM_VALUE
+    )
+    public SseEmitter streamNetworkDeltas(
+            @RequestBody StreamNetworkConnectionInfoRequest request,
+            @RequestHeader(value = LAST_EVENT_ID_HEADER, required = false) String lastEventId
+    ) {
+        return subscribeNetworkDeltas(request.getNetworkPublicKeyValue(), lastEventId);
+    }
 
-        emitter.onTimeout(() -> {
-            logger.info("SSE timeout for network: {}", networkPublicKey);
-            scheduledTask.cancel(true);
-            emitter.complete();
-        });
+    /**
+     * The GET form of POST /wg-show/network/deltas for native EventSource, which reconnects on
+     * its own and sends Last-Event-ID when it does. The key has to be URL encoded, + as %2B:
+     * <pre>
+     * new EventSource('/api/v1/system/wg-show/network/deltas?networkPublicKeyValue=' + encodeURIComponent(key))
+     * </pre>
+     *
+     * @param networkPublicKeyValue the network's public key, URL encoded
+     * @param lastEventId the id of the last event a reconnecting client received, optional
+     * @return SseEmitter that streams network-snapshot and network-delta events
+     */
+    @Operation(
+            summary = "Stream Network WireGuard Deltas (EventSource)",
+            description = "GET form of the network delta stream for native EventSource, resumes from Last-Event-ID"
+    )
+    @GetMapping(
+            value = "/wg-show/network/deltas",
+            produces = MediaType.TEXT_EVENT_STREAM_VALUE
+    )
+    public SseEmitter streamNetworkDeltasGet(
+            @RequestParam String networkPublicKeyValue,
+            @RequestHeader(value = LAST_EVENT_ID_HEADER, required = false) String lastEventId
+    ) {
+        return subscribeNetworkDeltas(networkPublicKeyValue, lastEventId);
+    }
 
-        emitter.onError((ex) -> {
-            logger.error("SSE error for network: {}", networkPublicKey, ex);
-            scheduledTask.cancel(true);
-        });
+    /**
+     * Opens a stream counted against the caps of the current user, see SseConnectionRegistry
+     * @param kind what the stream carries, for the metrics
+     */
+    private SseConnection openStream(String kind) {
+        Authentication authentication = SecurityContextHolder.getContext().getAuthentication();
+        String owner = authentication != null ? authentication.getName() : "anonymous";
+        return sseConnections.open(owner, kind);
+    }
 
+    private SseEmitter subscribeNetworkDeltas(String networkPublicKey, String lastEventId) {
+        if (networkPublicKey == null || networkPublicKey.isBlank()) {
+            String errMsg = "networkPublicKeyValue is required";
+            logger.error(errMsg);
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, errMsg);
+        }
+        SseConnection emitter = openStream("network-deltas");
+        String streamId = networkDeltaBroadcaster.subscribe(networkPublicKey, lastEventId, emitter);
+        logger.info("Network delta stream {} established for network: {}, Last-Event-ID: {}",
+                streamId, networkPublicKey, lastEventId);
         return emitter;
     }
 
+    /**
+     * Sends the current network-snapshot again on an open delta stream, for a client that saw a
+     * gap in the sequence. Deltas after the snapshot follow on the stream as usual.
+     *
+     * @param streamId the id from the stream-opened event
+     */
+    @Operation(
+            summary = "Resync Network Delta Stream",
+            description = "Sends a fresh snapshot on an open network delta stream"
+    )
+    @PostMapping("/wg-show/network/deltas/{streamId}/resync")
+    public ResponseEntity<Void> resyncNetworkDeltas(@PathVariable String streamId) {
+        if (!networkDeltaBroadcaster.resync(streamId)) {
+            String errMsg = String.format("stream '%s' does not exist", streamId);
+            logger.error(errMsg);
+            throw new ResponseStatusException(HttpStatus.NOT_FOUND, errMsg);
+        }
+        return ResponseEntity.accepted().build();
+    }
+
     /**
      * Streams real-time WireGuard client/peer connection information via Server-Sent Events.
      *
      * <h3>How It Works</h3>
      * <ol>
      *   <li>Client POSTs peer public key in JSON body</li>
+     *   <li>Server registers the stream with the broadcaster, switching the provider to its active refresh interval</li>
      *   <li>Server immediately sends initial client data (or error if not found)</li>
-     *   <li>Server schedules periodic task to emit updates every 5 seconds</li>
+     *   <li>After each refresh the client is sent again if it changed, otherwise a heartbeat comment</li>
      *   <li>Connection stays open until timeout (30 min), client disconnect, or error</li>
-     *   <li>On close, scheduled task is cancelled to prevent resource leaks</li>
+     *   <li>On close, the subscription is dropped</li>
      * </ol>
      *
      * <h3>Event Stream Format</h3>
@@ -354,9 +478,9 @@ public class SystemController {
      *
      * <h3>Error Scenarios</h3>
      * <ul>
-     *   <li><b>Client not found:</b> Emits "error" event with message, stream continues</li>
-     *   <li><b>Client disconnects:</b> IOException caught, task cancelled, emitter completed cleanly</li>
-     *   <li><b>Serialization error:</b> Logged as error, emitter completed with error, stream closes</li>
+     *   <li><b>Client not found:</b> Emits "error" event with message on connect or removal, stream continues</li>
+     *   <li><b>Client disconnects:</b> IOException caught, subscription dropped, emitter completed cleanly</li>
+     *   <li><b>Serialization error:</b> Logged as error, "error" event sent to the subscribers, stream continues</li>
      * </ul>
      *
      * @param request Contains clientPublicKeyValue (WireGuard public key with =, +, / characters)
@@ -374,93 +498,254 @@ public class SystemController {
         String clientPublicKey = request.getClientPublicKeyValue();
         logger.info("SSE connection established for client: {}", clientPublicKey);
 
-        SseEmitter emitter = new SseEmitter(SSE_TIMEOUT);
-
-        // Send initial data immediately to establish the SSE connection.
-        // This ensures the client receives the HTTP 200 response and starts listening
-        // without waiting for the first scheduled emission.
-        try {
-            ClientConnectionInformation client = wireguardInfo.getPeerByPublicKey(clientPublicKey);
-            if (client != null) {
-                emitter.send(SseEmitter.event()
-                        .name(EVENT_CLIENT_INFO_UPDATE)
-                        .data(client, MediaType.APPLICATION_JSON));
-            } else {
-                logger.warn("Client not found for public key: {}", clientPublicKey);
-                emitter.send(SseEmitter.event()
-                        .name(EVENT_ERROR)
-                        .data("Client not found", MediaType.TEXT_PLAIN));
-            }
-        } catch (IOException e) {
-            logger.error("Failed to send initial SSE data for client: {}", clientPublicKey, e);
-            emitter.completeWithError(e);
-            return emitter;
+        // the broadcaster sends the current state immediately, then pushes changes until the
+        // connection closes, at which point it drops the subscription
+        SseConnection emitter = openStream("client");
+        broadcaster.subscribe(ConnectionInfoBroadcaster.TopicType.CLIENT, clientPublicKey, emitter);
+        return emitter;
+    }
+
+    /**
+     * Streams WireGuard connection information for several networks and clients over one connection.
+     *
+     * <h3>How It Works</h3>
+     * <ol>
+     *   <li>Client POSTs the network and client public keys to follow, optionally onlineOnly</li>
+     *   <li>Server sends a stream-opened event with the stream id</li>
+     *   <li>Server sends the current state of every followed key</li>
+     *   <li>After each refresh every changed key is sent again, a heartbeat comment if none changed</li>
+     *   <li>The followed keys can be changed with PUT /wg-show/stream/{streamId} while the stream is open</li>
+     * </ol>
+     *
+     * <h3>Event Stream Format</h3>
+     * <pre>
+     * event: stream-opened
+     * data: {"streamId":"5f0c..."}
+     *
+     * event: network-info-update
+     * data: {"interfaceName":"wg0","publicKey":"pHI...","listeningPort":51820,"peers":{...}}
+     *
+     * event: client-info-update
+     * data: {"publicKey":"uRj...","endpoint":"172.56.149.120:62118",...}
+     *
+     * event: error
+     * data: {"type":"client","publicKey":"xYz...","message":"Client not found"}
+     * </pre>
+     * With onlineOnly, network events only include the peers PeerLifecycleDetector classifies ONLINE.
+     * Client events and single-key streams are unaffected.
+     *
+     * @param request Contains networkPublicKeyValues, clientPublicKeyValues and onlineOnly
+     * @return SseEmitter that streams stream-opened, network-info-update, client-info-update or error events
+     */
+    @Operation(
+            summary = "Stream WireGuard Information for Many Networks and Clients",
+            description = "Server-Sent Events endpoint that streams real-time WireGuard connection data for a set of networks and clients over one connection"
+    )
+    @PostMapping(
+            value = "/wg-show/stream",
+            produces = MediaType.TEXT_EVENT_STREAM_VALUE
+    )
+    public SseEmitter streamConnectionInfo(@RequestBody StreamConnectionInfoRequest request) {
+        Set<String> networkPublicKeys = toKeySet(request.getNetworkPublicKeyValues());
+        Set<String> clientPublicKeys = toKeySet(request.getClientPublicKeyValues());
+        validateTopicCount(networkPublicKeys, clientPublicKeys);
+
+        SseConnection emitter = openStream("multiplexed");
+        String streamId = broadcaster.subscribeMultiplexed(networkPublicKeys, clientPublicKeys, toPeerFilter(request), emitter);
+        logger.info("SSE stream {} established for {} networks and {} clients",
+                streamId, networkPublicKeys.size(), clientPublicKeys.size());
+        return emitter;
+    }
+
+    /**
+     * Replaces the networks and clients an open multiplexed stream follows. Newly added keys
+     * (all keys if onlineOnly changed) are sent their current state on the stream right away.
+     *
+     * @param streamId the id from the stream-opened event
+     * @param request Contains networkPublicKeyValues, clientPublicKeyValues and onlineOnly
+     * @return UpdateStreamResponse with the number of followed networks and clients
+     */
+    @Operation(
+            summary = "Update WireGuard Information Stream",
+            description = "Changes the networks and clients followed by an open multiplexed stream"
+    )
+    @PutMapping("/wg-show/stream/{streamId}")
+    public UpdateStreamResponse updateConnectionInfoStream(
+            @PathVariable String streamId,
+            @RequestBody StreamConnectionInfoRequest request
+    ) {
+        Set<String> networkPublicKeys = toKeySet(request.getNetworkPublicKeyValues());
+        Set<String> clientPublicKeys = toKeySet(request.getClientPublicKeyValues());
+        validateTopicCount(networkPublicKeys, clientPublicKeys);
+
+        if (!broadcaster.updateSubscription(streamId, networkPublicKeys, clientPublicKeys, toPeerFilter(request))) {
+            String errMsg = String.format("stream '%s' does not exist", streamId);
+            logger.error(errMsg);
+            throw new ResponseStatusException(HttpStatus.NOT_FOUND, errMsg);
         }
+        return new UpdateStreamResponse(streamId, networkPublicKeys.size(), clientPublicKeys.size(), request.isOnlineOnly());
+    }
 
-        // Schedule a periodic task to read from cache and emit updates.
-        // The task runs every SSE_EMIT_INTERVAL_MS (5 seconds) starting after the first interval.
-        // Initial data was already sent above, so we start the schedule after a delay.
-        // Using AtomicReference to allow lambda to reference the task for self-cancellation.
-        AtomicReference<ScheduledFuture<?>> scheduledTaskRef = new AtomicReference<>();
-        ScheduledFuture<?> scheduledTask = scheduler.scheduleAtFixedRate(() -> {
-            try {
-                ClientConnectionInformation client = wireguardInfo.getPeerByPublicKey(clientPublicKey);
-
-                if (client != null) {
-                    emitter.send(SseEmitter.event()
-                            .name(EVENT_CLIENT_INFO_UPDATE)
-                            .data(client, MediaType.APPLICATION_JSON));
-                } else {
-                    logger.warn("Client not found for public key: {}", clientPublicKey);
-                    emitter.send(SseEmitter.event()
-                            .name(EVENT_ERROR)
-                            .data("Client not found", MediaType.TEXT_PLAIN));
-                }
-            } catch (IOException e) {
-                // "Broken pipe" means the client disconnected (browser close, network drop, etc.)
-                // This is NORMAL and expected - not an error condition.
-                // We complete the emitter cleanly to avoid triggering Spring Security errors.
-                if (e.getMessage() != null && e.getMessage().contains("Broken pipe")) {
-                    logger.debug("SSE client disconnected for client: {}", clientPublicKey);
-                    ScheduledFuture<?> task = scheduledTaskRef.get();
-                    if (task != null) task.cancel(true);
-                    emitter.complete();
-                } else {
-                    // Other IOExceptions (serialization failures, actual network issues) are real errors
-                    logger.error("SSE IO error for client: {}", clientPublicKey, e);
-                    ScheduledFuture<?> task = scheduledTaskRef.get();
-                    if (task != null) task.cancel(true);
-                    emitter.completeWithError(e);
-                }
-            } catch (Exception e) {
-                // Unexpected errors (NPE, runtime exceptions) - log and close stream
-                logger.error("Error in SSE stream for client: {}", clientPublicKey, e);
-                ScheduledFuture<?> task = scheduledTaskRef.get();
-                if (task != null) task.cancel(true);
-                emitter.completeWithError(e);
-            }
-        }, SSE_EMIT_INTERVAL_MS, SSE_EMIT_INTERVAL_MS, TimeUnit.MILLISECONDS);
-        scheduledTaskRef.set(scheduledTask);
+    private static Set<String> toKeySet(List<String> publicKeys) {
+        return publicKeys == null ? Set.of() : new LinkedHashSet<>(publicKeys);
+    }
 
-        // Register cleanup callbacks to cancel the scheduled task when the connection closes.
-        // This prevents resource leaks by ensuring tasks don't continue after the client is gone.
+    private static ConnectionInfoBroadcaster.PeerFilter toPeerFilter(StreamConnectionInfoRequest request) {
+        return request.isOnlineOnly() ? ConnectionInfoBroadcaster.PeerFilter.ONLINE : ConnectionInfoBroadcaster.PeerFilter.ALL;
+    }
 
-        emitter.onCompletion(() -> {
-            logger.info("SSE completed for client: {}", clientPublicKey);
-            scheduledTask.cancel(true);
-        });
+    private static void validateTopicCount(Set<String> networkPublicKeys, Set<String> clientPublicKeys) {
+        if (networkPublicKeys.size() + clientPublicKeys.size() > MAX_STREAM_TOPICS) {
+            String errMsg = String.format("a stream can follow at most %d networks and clients", MAX_STREAM_TOPICS);
+            logger.error(errMsg);
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, errMsg);
+        }
+    }
 
-        emitter.onTimeout(() -> {
-            logger.info("SSE timeout for client: {}", clientPublicKey);
-            scheduledTask.cancel(true);
-            emitter.complete();
-        });
+    /**
+     * Streams peer lifecycle events via Server-Sent Events.
+     *
+     * <h3>Event Stream Format</h3>
+     * <pre>
+     * event: peer-events-opened
+     * data: {"lastSequence":41,"stateCounts":{"ONLINE":812,"IDLE":40,"OFFLINE":3}}
+     *
+     * id: 42
+     * event: peer-lifecycle
+     * data: {"sequence":42,"type":"STATE_CHANGED","epochMillis":1701234567890,"publicKey":"uRj...",
+     *        "networkPublicKey":"pHI...","previousState":"ONLINE","state":"IDLE","endpoint":"172.56.149.120:62118",...}
+     * </pre>
+     * Events up to lastSequence can be read from GET /wg-show/events. Between events the stream
+     * carries {@code :heartbeat} comment lines.
+     *
+     * @param request Contains the optional networkPublicKeyValues and eventTypes to narrow the feed to
+     * @return SseEmitter that streams peer-events-opened and peer-lifecycle events
+     */
+    @Operation(
+            summary = "Stream Peer Lifecycle Events",
+            description = "Server-Sent Events endpoint that pushes peers going online, idle or offline, roaming and handshake churn"
+    )
+    @PostMapping(
+            value = "/wg-show/events/stream",
+            produces = MediaType.TEXT_EVENT_STREAM_VALUE
+    )
+    public SseEmitter streamPeerEvents(@RequestBody StreamPeerEventsRequest request) {
+        Set<String> networkPublicKeys = toKeySet(request.getNetworkPublicKeyValues());
+        Set<PeerLifecycleEvent.Type> types = toEventTypes(request.getEventTypes());
+
+        SseConnection emitter = openStream("peer-events");
+        peerEventBroadcaster.subscribe(networkPublicKeys, types, emitter);
+        logger.info("Peer event stream established for {} networks and {} event types",
+                networkPublicKeys.isEmpty() ? "all" : networkPublicKeys.size(), types.isEmpty() ? "all" : types.size());
+        return emitter;
+    }
 
-        emitter.onError((ex) -> {
-            logger.error("SSE error for client: {}", clientPublicKey, ex);
-            scheduledTask.cancel(true);
-        });
+    /**
+     * Streams the peer aggregates via Server-Sent Events, on connect and whenever a refresh
+     * changed them.
+     *
+     * <h3>Event Stream Format</h3>
+     * <pre>
+     * id: 42
+     * event: peer-aggregates
+     * data: {"version":42,"refreshedEpochMillis":1701234567890,"global":{...},"networks":{...}}
+     * </pre>
+     * The payload is the one of GET /wg-show/aggregates. Between updates the stream carries
+     * {@code :heartbeat} comment lines.
+     *
+     * @param request Contains the optional networkPublicKeyValues whose summaries to include
+     * @return SseEmitter that streams peer-aggregates events
+     */
+    @Operation(
+            summary = "Stream Peer Aggregates",
+            description = "Server-Sent Events endpoint that pushes the top peers, state counts and handshake age histograms when they change"
+    )
+    @PostMapping(
+            value = "/wg-show/aggregates/stream",
+            produces = MediaType.TEXT_EVENT_STREAM_VALUE
+    )
+    public SseEmitter streamPeerAggregates(@RequestBody StreamPeerAggregatesRequest request) {
+        Set<String> networkPublicKeys = toKeySet(request.getNetworkPublicKeyValues());
+        validateTopicCount(networkPublicKeys, Set.of());
+
+        SseConnection emitter = openStream("aggregates");
+        peerAggregatesBroadcaster.subscribe(networkPublicKeys, emitter);
+        logger.info("Peer aggregates stream established for {} networks",
+                networkPublicKeys.isEmpty() ? "all" : networkPublicKeys.size());
+        return emitter;
+    }
 
+    /**
+     * Streams the interface counters of active networks via Server-Sent Events.
+     *
+     * <h3>Event Stream Format</h3>
+     * <pre>
+     * event: interface-stats
+     * data: {"interfaceName":"wg0","networkPublicKey":"pHI...","epochMillis":1701234567890,
+     *        "rxBytes":2764800000,"txBytes":14400000000,"rxPackets":2100000,"txPackets":9800000,
+     *        "rxDropped":0,"txDropped":12,"rxErrors":0,"txErrors":0,
+     *        "rxBytesPerSecond":18250.0,"txBytesPerSecond":1048576.0,"rxPacketsPerSecond":140.0,"txPacketsPerSecond":720.0}
+     * </pre>
+     * One event per interface every sample interval. The rates are null on the first sample of
+     * an interface and after it was recreated. Interfaces of networks that are active but down
+     * are skipped.
+     *
+     * @param request Contains the optional networkPublicKeyValues to narrow the feed to
+     * @return SseEmitter that streams interface-stats events
+     */
+    @Operation(
+            summary = "Stream Interface Stats",
+            description = "Server-Sent Events endpoint that pushes the kernel's rx and tx counters and rates of every active network's interface each second"
+    )
+    @PostMapping(
+            value = "/wg-show/interface-stats/stream",
+            produces = MediaType.TEXT_EVENT_STREAM_VALUE
+    )
+    public SseEmitter streamInterfaceStats(@RequestBody StreamInterfaceStatsRequest request) {
+        Set<String> networkPublicKeys = toKeySet(request.getNetworkPublicKeyValues());
+        validateTopicCount(networkPublicKeys, Set.of());
+
+        SseConnection emitter = openStream("interface-stats");
+        interfaceStatsBroadcaster.subscribe(networkPublicKeys, emitter);
+        logger.info("Interface stats stream established for {} networks",
+                networkPublicKeys.isEmpty() ? "all" : networkPublicKeys.size());
         return emitter;
     }
+
+    private static Set<PeerLifecycleEvent.Type> toEventTypes(List<String> eventTypes) {
+        Set<PeerLifecycleEvent.Type> types = EnumSet.noneOf(PeerLifecycleEvent.Type.class);
+        if (eventTypes == null) {
+            return types;
+        }
+        for (String eventType : eventTypes) {
+            try {
+                types.add(PeerLifecycleEvent.Type.valueOf(eventType));
+            } catch (IllegalArgumentException | NullPointerException e) {
+                String errMsg = String.format("unknown event type '%s'", eventType);
+                logger.error(errMsg);
+                throw new ResponseStatusException(HttpStatus.BAD_REQUEST, errMsg);
+            }
+        }
+        return types;
+    }
+
+    /**
+     * Returns the open SSE streams, how far behind the slowest one is and how many streams were
+     * refused, evicted or lost since start.
+     *
+     * <pre>
+     * GET /api/v1/system/sse/metrics
+     * {"active":3,"activeByKind":{"network":2,"peer-events":1},"users":2,"openedTotal":41,
+     *  "rejectedTotal":0,"evictedTotal":1,"failedTotal":37,"queuedEvents":4,"maxQueuedEventsOfStream":3,
+     *  "maxConnections":200,"maxConnectionsPerUser":20,"maxQueuedEvents":100}
+     * </pre>
+     */
+    @Operation(
+            summary = "Get SSE Stream Metrics",
+            description = "Returns the open SSE streams by kind, the queued events of the slowest stream and the rejected, evicted and failed stream totals"
+    )
+    @GetMapping("/sse/metrics")
+    public SseMetrics getSseMetrics() {
+        return sseConnections.getMetrics();
+    }
 }
@@ -0,0 +1,106 @@
+package com.brcsrc.yaws.history;
+
+/**
+ * Lifetime rx/tx totals of one peer built from WireGuard's resettable counters.
+ *
+ * A counter lower than the last one seen means the peer's counters were reset, by wg-quick
+ * down/up or by the peer being removed and added again. Both start over from 0 on a reset, so
+ * what was counted up to the last observation is moved into the offsets. Traffic between the
+ * last observation and the reset is lost, at the active refresh interval that is a few seconds.
+ *
+ * A counter restored from client_transfer_totals compares against the stored counters like any
+ * other. That misses one reset: when StartupTasks creates the peer's interface again, wg counts
+ * from 0 and may already be past the stored counters by the first refresh. StartupTasks reports
+ * the interfaces it brought up and restarted() moves the stored counters into the offsets then.
+ * An interface that survived the restart keeps its counters and is not reported.
+ *
+ * Updated from the provider's refresh thread and read by the flush and by requests, so every
+ * method is synchronized.
+ */
+class CumulativeTransferCounter {
+    private long bytesReceivedOffset;
+    private long bytesSentOffset;
+    private long lastBytesReceived;
+    private long lastBytesSent;
+    // set on a restored counter until restarted() or a reset against the stored counters settles it
+    private boolean restartPending;
+    private boolean observedSinceRestore;
+    private long restoredBytesReceived;
+    private long restoredBytesSent;
+
+    CumulativeTransferCounter(long bytesReceivedOffset, long bytesSentOffset, long lastBytesReceived, long lastBytesSent) {
+        this.bytesReceivedOffset = bytesReceivedOffset;
+        this.bytesSentOffset = bytesSentOffset;
+        this.lastBytesReceived = lastBytesReceived;
+        this.lastBytesSent = lastBytesSent;
+    }
+
+    /**
+     * A counter as written before the last shutdown, see restarted()
+     */
+    static CumulativeTransferCounter restored(long bytesReceivedOffset, long bytesSentOffset,
+                                              long lastBytesReceived, long lastBytesSent) {
+        CumulativeTransferCounter counter = new CumulativeTransferCounter(
+                bytesReceivedOffset, bytesSentOffset, lastBytesReceived, lastBytesSent);
+        counter.restartPending = true;
+        counter.restoredBytesReceived = lastBytesReceived;
+        counter.restoredBytesSent = lastBytesSent;
+        return counter;
+    }
+
+    /**
+     * @return boolean - true if anything changed and the counter needs to be written again
+     */
+    synchronized boolean observe(long bytesReceived, long bytesSent) {
+        if (bytesReceived == lastBytesReceived && bytesSent == lastBytesSent) {
+            return false;
+        }
+        if (bytesReceived < lastBytesReceived || bytesSent < lastBytesSent) {
+            bytesReceivedOffset += lastBytesReceived;
+            bytesSentOffset += lastBytesSent;
+            if (!observedSinceRestore) {
+                // the stored counters were just moved into the offsets, restarted() has nothing left to do
+                restartPending = false;
+            }
+        }
+        lastBytesReceived = bytesReceived;
+        lastBytesSent = bytesSent;
+        observedSinceRestore = true;
+        return true;
+    }
+
+    /**
+     * The peer's interface was created again after the counter was restored, so everything wg
+     * reported since was counted from 0. Moves the stored counters into the offsets unless an
+     * observation below them already did, what was observed since is kept.
+     * @return boolean - true if anything changed and the counter needs to be written again
+     */
+    synchronized boolean restarted() {
+        if (!restartPending) {
+            return false;
+        }
+        restartPending = false;
+        bytesReceivedOffset += restoredBytesReceived;
+        bytesSentOffset += restoredBytesSent;
+        if (!observedSinceRestore) {
+            lastBytesReceived = 0;
+            lastBytesSent = 0;
+        }
+        return true;
+    }
+
+    synchronized long totalBytesReceived() {
+        return bytesReceivedOffset + lastBytesReceived;
+    }
+
+    synchronized long totalBytesSent() {
+        return bytesSentOffset + lastBytesSent;
+    }
+
+    /**
+     * @return long[] - bytesReceivedOffset, bytesSentOffset, lastBytesReceived, lastBytesSent as one consistent read
+     */
+    synchronized long[] state() {
+        return new long[] {bytesReceivedOffset, bytesSentOffset, lastBytesReceived, lastBytesSent};
+    }
+}
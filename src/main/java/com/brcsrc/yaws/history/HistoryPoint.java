@@ -0,0 +1,14 @@
+package com.brcsrc.yaws.history;
+
+/**
+ * One sample of a peer's counters. The rates are relative to the sample before it and are 0
+ * for the oldest retained sample or after a counter reset.
+ */
+public record HistoryPoint(
+        long timestampEpochMillis,
+        long bytesReceived,
+        long bytesSent,
+        long latestHandshakeEpochSeconds,
+        double receiveBytesPerSecond,
+        double sendBytesPerSecond
+) {}
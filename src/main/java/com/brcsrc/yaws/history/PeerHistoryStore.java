@@ -0,0 +1,152 @@
+package com.brcsrc.yaws.history;
+
+import com.brcsrc.yaws.system.ClientConnectionInformation;
+import com.brcsrc.yaws.system.NetworkConnectionInformation;
+import com.brcsrc.yaws.system.WireguardChangeListener;
+import com.brcsrc.yaws.system.WireguardConnectionDiff;
+import com.brcsrc.yaws.system.WireguardInformationProvider;
+import com.brcsrc.yaws.system.WireguardInformationProvider.WireguardConnectionData;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.env.Environment;
+import org.springframework.stereotype.Component;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * In-memory bandwidth history of every peer, fed by the provider's refreshes.
+ *
+ * Each peer gets a PeerSampleRing of yaws.history.samples-per-peer samples, a sample is taken
+ * at most every yaws.history.sample-interval-ms no matter how often the provider refreshes, so
+ * the ring covers a predictable span (by default 4 hours at 10 seconds). A peer's ring is
+ * dropped when the peer disappears from the dump, memory stays proportional to the live peers.
+ *
+ * Samples are appended on the provider's refresh thread, queries lock one ring at a time.
+ */
+@Component
+public class PeerHistoryStore implements WireguardChangeListener {
+    private static final Logger logger = LoggerFactory.getLogger(PeerHistoryStore.class);
+
+    static final String SAMPLE_INTERVAL_PROPERTY = "yaws.history.sample-interval-ms";
+    static final String SAMPLES_PER_PEER_PROPERTY = "yaws.history.samples-per-peer";
+    static final long DEFAULT_SAMPLE_INTERVAL_MS = 10_000;
+    static final int DEFAULT_SAMPLES_PER_PEER = 1_440;
+
+    /**
+     * Downsampled history of one peer
+     */
+    public record PeerHistory(String publicKey, List<HistoryPoint> points) {}
+
+    /**
+     * Downsampled history of every peer currently on a network, all on the same bucket grid
+     */
+    public record NetworkHistory(String publicKey, String interfaceName, Map<String, List<HistoryPoint>> peers) {}
+
+    private final WireguardInformationProvider wireguardInfo;
+    private final long sampleIntervalMs;
+    private final int samplesPerPeer;
+    private final Map<String, PeerSampleRing> ringsByPeer = new ConcurrentHashMap<>();
+
+    @Autowired
+    public PeerHistoryStore(WireguardInformationProvider wireguardInfo, Environment env) {
+        this(
+            wireguardInfo,
+            env.getProperty(SAMPLE_INTERVAL_PROPERTY, Long.class, DEFAULT_SAMPLE_INTERVAL_MS),
+            env.getProperty(SAMPLES_PER_PEER_PROPERTY, Integer.class, DEFAULT_SAMPLES_PER_PEER)
+        );
+    }
+
+    PeerHistoryStore(WireguardInformationProvider wireguardInfo, long sampleIntervalMs, int samplesPerPeer) {
+        if (sampleIntervalMs < 0 || samplesPerPeer < 2) {
+            throw new IllegalArgumentException("history sample interval must not be negative and at least 2 samples must be kept");
+        }
+        this.wireguardInfo = wireguardInfo;
+        this.sampleIntervalMs = sampleIntervalMs;
+        this.samplesPerPeer = samplesPerPeer;
+    }
+
+    @PostConstruct
+    public void initialize() {
+        logger.info("Keeping {} bandwidth samples per peer at {}ms intervals", samplesPerPeer, sampleIntervalMs);
+        wireguardInfo.addChangeListener(this);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        wireguardInfo.removeChangeListener(this);
+    }
+
+    @Override
+    public void onChange(WireguardConnectionDiff diff) {
+        WireguardConnectionData current = diff.getCurrent();
+        long timestamp = current.getRefreshedEpochMillis() > 0 ? current.getRefreshedEpochMillis() : System.currentTimeMillis();
+        diff.getRemovedPeers().forEach(peer -> ringsByPeer.remove(peer.getPublicKey()));
+        record(current, timestamp);
+    }
+
+    void record(WireguardConnectionData data, long timestampEpochMillis) {
+        for (ClientConnectionInformation peer : data.getPeersByPublicKey().values()) {
+            PeerSampleRing ring = ringsByPeer.computeIfAbsent(peer.getPublicKey(), key -> new PeerSampleRing(samplesPerPeer));
+            if (ring.lastTimestamp() > timestampEpochMillis - sampleIntervalMs) {
+                continue;
+            }
+            ring.append(
+                timestampEpochMillis,
+                valueOf(peer.getBytesReceived()),
+                valueOf(peer.getBytesSent()),
+                valueOf(peer.getLatestHandshakeEpochSeconds())
+            );
+        }
+    }
+
+    /**
+     * @return PeerHistory - samples of the peer between from and to, at most maxPoints, or null
+     *         if nothing is known about the peer
+     */
+    public PeerHistory queryPeer(String peerPublicKey, long fromEpochMillis, long toEpochMillis, int maxPoints) {
+        PeerSampleRing ring = ringsByPeer.get(peerPublicKey);
+        if (ring == null) {
+            // a peer that just appeared has no samples yet
+            return wireguardInfo.getPeerByPublicKey(peerPublicKey) == null ? null : new PeerHistory(peerPublicKey, List.of());
+        }
+        return new PeerHistory(peerPublicKey, ring.query(fromEpochMillis, toEpochMillis, maxPoints));
+    }
+
+    /**
+     * @return NetworkHistory - samples of every peer currently on the network, at most maxPoints
+     *         each, or null if the network is not in the current snapshot
+     */
+    public NetworkHistory queryNetwork(String networkPublicKey, long fromEpochMillis, long toEpochMillis, int maxPoints) {
+        NetworkConnectionInformation network = wireguardInfo.getNetworkByPublicKey(networkPublicKey);
+        if (network == null) {
+            return null;
+        }
+        Map<String, List<HistoryPoint>> peers = new LinkedHashMap<>();
+        for (String peerKey : network.getPeers().keySet()) {
+            PeerSampleRing ring = ringsByPeer.get(peerKey);
+            peers.put(peerKey, ring == null ? List.of() : ring.query(fromEpochMillis, toEpochMillis, maxPoints));
+        }
+        return new NetworkHistory(networkPublicKey, network.getInterfaceName(), peers);
+    }
+
+    /**
+     * @return long - how far back the rings reach once they are full
+     */
+    public long getRetainedSpanMs() {
+        return sampleIntervalMs * samplesPerPeer;
+    }
+
+    int trackedPeerCount() {
+        return ringsByPeer.size();
+    }
+
+    private static long valueOf(Long value) {
+        return value == null ? 0 : value;
+    }
+}
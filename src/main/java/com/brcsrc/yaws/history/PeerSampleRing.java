@@ -0,0 +1,122 @@
+package com.brcsrc.yaws.history;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Fixed capacity ring of (timestamp, rx, tx, handshake) samples for one peer, stored as four
+ * parallel primitive arrays allocated once. When full the oldest sample is overwritten, so the
+ * memory used per peer never changes. Samples are appended in timestamp order, which lets
+ * queries binary search for the start of a range.
+ */
+class PeerSampleRing {
+    private final long[] timestamps;
+    private final long[] bytesReceived;
+    private final long[] bytesSent;
+    private final long[] handshakes;
+    private int next = 0;
+    private int size = 0;
+
+    PeerSampleRing(int capacity) {
+        if (capacity < 2) {
+            throw new IllegalArgumentException("ring capacity must be at least 2");
+        }
+        this.timestamps = new long[capacity];
+        this.bytesReceived = new long[capacity];
+        this.bytesSent = new long[capacity];
+        this.handshakes = new long[capacity];
+    }
+
+    synchronized void append(long timestampEpochMillis, long rx, long tx, long handshakeEpochSeconds) {
+        timestamps[next] = timestampEpochMillis;
+        bytesReceived[next] = rx;
+        bytesSent[next] = tx;
+        handshakes[next] = handshakeEpochSeconds;
+        next = (next + 1) % timestamps.length;
+        if (size < timestamps.length) {
+            size++;
+        }
+    }
+
+    /**
+     * @return long - timestamp of the newest sample, or Long.MIN_VALUE if there is none
+     */
+    synchronized long lastTimestamp() {
+        return size == 0 ? Long.MIN_VALUE : timestamps[slot(size - 1)];
+    }
+
+    synchronized int size() {
+        return size;
+    }
+
+    /**
+     * Samples with fromEpochMillis <= timestamp <= toEpochMillis, downsampled to at most
+     * maxPoints by splitting the range into equal buckets and keeping the newest sample of each.
+     * Counters are cumulative, so the newest sample of a bucket summarizes it exactly.
+     */
+    synchronized List<HistoryPoint> query(long fromEpochMillis, long toEpochMillis, int maxPoints) {
+        List<HistoryPoint> points = new ArrayList<>();
+        if (size == 0 || maxPoints <= 0 || toEpochMillis < fromEpochMillis) {
+            return points;
+        }
+        long bucketWidth = Math.max(1, (toEpochMillis - fromEpochMillis) / maxPoints + 1);
+
+        int first = firstAtOrAfter(fromEpochMillis);
+        // the rate of the first point is taken against the sample before the range when there is one
+        int previous = first - 1;
+        for (int i = first; i < size; i++) {
+            int current = slot(i);
+            if (timestamps[current] > toEpochMillis) {
+                break;
+            }
+            boolean lastInBucket = i + 1 == size
+                    || timestamps[slot(i + 1)] > toEpochMillis
+                    || (timestamps[slot(i + 1)] - fromEpochMillis) / bucketWidth != (timestamps[current] - fromEpochMillis) / bucketWidth;
+            if (!lastInBucket) {
+                continue;
+            }
+            points.add(toPoint(previous >= 0 ? slot(previous) : -1, current));
+            previous = i;
+        }
+        return points;
+    }
+
+    private HistoryPoint toPoint(int previous, int current) {
+        double rxRate = 0;
+        double txRate = 0;
+        if (previous >= 0) {
+            long elapsedMillis = timestamps[current] - timestamps[previous];
+            if (elapsedMillis > 0) {
+                rxRate = rate(bytesReceived[previous], bytesReceived[current], elapsedMillis);
+                txRate = rate(bytesSent[previous], bytesSent[current], elapsedMillis);
+            }
+        }
+        return new HistoryPoint(timestamps[current], bytesReceived[current], bytesSent[current], handshakes[current],
+                rxRate, txRate);
+    }
+
+    private static double rate(long before, long after, long elapsedMillis) {
+        // a counter going down means the interface was recreated, there is no meaningful rate
+        return after < before ? 0 : (after - before) * 1000.0 / elapsedMillis;
+    }
+
+    private int firstAtOrAfter(long timestampEpochMillis) {
+        int low = 0;
+        int high = size;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (timestamps[slot(mid)] < timestampEpochMillis) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    // physical index of the i-th oldest sample
+    private int slot(int i) {
+        int oldest = size < timestamps.length ? 0 : next;
+        return (oldest + i) % timestamps.length;
+    }
+}
@@ -0,0 +1,354 @@
+package com.brcsrc.yaws.history;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * One append-only, memory-mapped file of peer counter samples.
+ *
+ * Layout: a 16 byte header (magic, format version, segment start) followed by frames. A frame
+ * holds every sample of one timestamp: [int payload length][int crc32 of payload][long timestamp][payload].
+ * The payload is a sequence of records, each starting with a type byte:
+ * - PEER: varint id, varint key length, key bytes. Defines the id used by the samples of a peer
+ * - SAMPLE: varint id, zigzag varint deltas of rx, tx and handshake against the previous sample
+ *   of the same peer in this segment (against 0 for the first one)
+ * Counters grow slowly between samples, so most deltas take one to three bytes.
+ *
+ * A frame is only counted once its length, checksum and payload are all written, on open the
+ * file is scanned and everything after the last valid frame is ignored and overwritten by the
+ * next append. A crash can lose the frame being written, never the ones before it.
+ *
+ * Appends come from a single writer thread. Readers see the frames committed when they start,
+ * the mapping and the committed length are published together through one volatile field.
+ */
+class TelemetrySegment {
+    private static final Logger logger = LoggerFactory.getLogger(TelemetrySegment.class);
+
+    private static final int MAGIC = 0x59575453; // YWTS
+    private static final int FORMAT_VERSION = 1;
+    private static final int HEADER_SIZE = 16;
+    private static final int FRAME_HEADER_SIZE = 16;
+    private static final byte RECORD_PEER = 1;
+    private static final byte RECORD_SAMPLE = 2;
+    private static final int INITIAL_SIZE = 64 * 1024;
+
+    /**
+     * Receives decoded samples
+     */
+    interface SampleConsumer {
+        void accept(long timestampEpochMillis, long rx, long tx, long handshakeEpochSeconds);
+    }
+
+    private record View(MappedByteBuffer buffer, int committed) {}
+
+    private final Path path;
+    private final long segmentStart;
+    private final FileChannel channel;
+    private volatile View view;
+
+    // writer state, rebuilt by the recovery scan
+    private final Map<String, Integer> peerIds = new HashMap<>();
+    private final List<long[]> lastValues = new ArrayList<>();
+    private long lastTimestamp = Long.MIN_VALUE;
+    private ByteBuffer scratch = ByteBuffer.allocate(4096);
+
+    private TelemetrySegment(Path path, long segmentStart, FileChannel channel, MappedByteBuffer buffer) {
+        this.path = path;
+        this.segmentStart = segmentStart;
+        this.channel = channel;
+        this.view = new View(buffer, HEADER_SIZE);
+    }
+
+    /**
+     * Opens or creates the segment file and recovers its valid frames
+     */
+    static TelemetrySegment open(Path path, long segmentStart) throws IOException {
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            long size = Math.max(channel.size(), INITIAL_SIZE);
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+            TelemetrySegment segment = new TelemetrySegment(path, segmentStart, channel, buffer);
+            if (buffer.getInt(0) == 0) {
+                buffer.putInt(0, MAGIC);
+                buffer.putInt(4, FORMAT_VERSION);
+                buffer.putLong(8, segmentStart);
+            } else if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != FORMAT_VERSION) {
+                throw new IOException(String.format("%s is not a telemetry segment", path));
+            }
+            segment.recover();
+            return segment;
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    Path getPath() {
+        return path;
+    }
+
+    long getSegmentStart() {
+        return segmentStart;
+    }
+
+    long getLastTimestamp() {
+        return lastTimestamp;
+    }
+
+    int committedBytes() {
+        return view.committed();
+    }
+
+    private void recover() {
+        MappedByteBuffer buffer = view.buffer();
+        int position = HEADER_SIZE;
+        CRC32 crc = new CRC32();
+        while (position + FRAME_HEADER_SIZE <= buffer.capacity()) {
+            int length = buffer.getInt(position);
+            if (length <= 0 || position + FRAME_HEADER_SIZE + length > buffer.capacity()) {
+                break;
+            }
+            ByteBuffer payload = buffer.slice(position + FRAME_HEADER_SIZE, length);
+            crc.reset();
+            crc.update(payload.duplicate());
+            if ((int) crc.getValue() != buffer.getInt(position + 4)) {
+                logger.warn("Ignoring torn frame at offset {} of {}", position, path);
+                break;
+            }
+            long timestamp = buffer.getLong(position + 8);
+            decode(payload, timestamp, null, null, false);
+            lastTimestamp = timestamp;
+            position += FRAME_HEADER_SIZE + length;
+        }
+        if (position + 4 <= buffer.capacity()) {
+            // drop what is left of a torn frame so the next scan stops here as well
+            buffer.putInt(position, 0);
+        }
+        view = new View(buffer, position);
+    }
+
+    /**
+     * Appends one frame with a sample per peer, all taken at timestampEpochMillis
+     */
+    void append(long timestampEpochMillis, List<String> peerKeys, long[] rx, long[] tx, long[] handshakes) throws IOException {
+        scratch.clear();
+        for (int i = 0; i < peerKeys.size(); i++) {
+            String key = peerKeys.get(i);
+            Integer id = peerIds.get(key);
+            if (id == null) {
+                id = peerIds.size();
+                peerIds.put(key, id);
+                lastValues.add(new long[3]);
+                byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+                ensureScratch(1 + 10 + 5 + keyBytes.length);
+                scratch.put(RECORD_PEER);
+                putVarint(id);
+                putVarint(keyBytes.length);
+                scratch.put(keyBytes);
+            }
+            long[] last = lastValues.get(id);
+            ensureScratch(1 + 5 + 3 * 10);
+            scratch.put(RECORD_SAMPLE);
+            putVarint(id);
+            putVarint(zigzag(rx[i] - last[0]));
+            putVarint(zigzag(tx[i] - last[1]));
+            putVarint(zigzag(handshakes[i] - last[2]));
+            last[0] = rx[i];
+            last[1] = tx[i];
+            last[2] = handshakes[i];
+        }
+        scratch.flip();
+
+        View current = view;
+        int frameSize = FRAME_HEADER_SIZE + scratch.remaining();
+        MappedByteBuffer buffer = current.buffer();
+        if (current.committed() + frameSize > buffer.capacity()) {
+            buffer = grow(current.committed() + frameSize);
+        }
+        CRC32 crc = new CRC32();
+        crc.update(scratch.duplicate());
+        int position = current.committed();
+        // payload first and the length last, a torn write leaves a frame that fails the checks
+        buffer.putInt(position + 4, (int) crc.getValue());
+        buffer.putLong(position + 8, timestampEpochMillis);
+        buffer.put(position + FRAME_HEADER_SIZE, scratch, 0, scratch.remaining());
+        buffer.putInt(position, frameSize - FRAME_HEADER_SIZE);
+        lastTimestamp = timestampEpochMillis;
+        view = new View(buffer, position + frameSize);
+    }
+
+    private MappedByteBuffer grow(int required) throws IOException {
+        long size = view.buffer().capacity();
+        while (size < required) {
+            size *= 2;
+        }
+        if (size > Integer.MAX_VALUE) {
+            throw new IOException(String.format("telemetry segment %s is full", path));
+        }
+        // the old mapping stays valid for readers still holding it
+        return channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+    }
+
+    /**
+     * Decodes the committed samples of one peer with fromEpochMillis <= timestamp <= toEpochMillis
+     */
+    void scan(String peerKey, long fromEpochMillis, long toEpochMillis, SampleConsumer consumer) {
+        scan(Map.of(peerKey, consumer), fromEpochMillis, toEpochMillis);
+    }
+
+    /**
+     * Decodes the committed samples of several peers in one pass over the segment, each with
+     * fromEpochMillis <= timestamp <= toEpochMillis to the consumer of its peer
+     * @param consumersByPeer Map of String to SampleConsumer - public key of every peer to decode
+     */
+    void scan(Map<String, ? extends SampleConsumer> consumersByPeer, long fromEpochMillis, long toEpochMillis) {
+        View current = view;
+        MappedByteBuffer buffer = current.buffer();
+        int position = HEADER_SIZE;
+        // by the id the segment gave the peer, null for peers that were not asked for
+        List<PeerScan> scans = new ArrayList<>();
+        while (position < current.committed()) {
+            int length = buffer.getInt(position);
+            long timestamp = buffer.getLong(position + 8);
+            if (timestamp > toEpochMillis) {
+                break;
+            }
+            ByteBuffer payload = buffer.slice(position + FRAME_HEADER_SIZE, length);
+            // deltas chain from the start of the segment, frames before the range are decoded but not emitted
+            decode(payload, timestamp, consumersByPeer, scans, timestamp >= fromEpochMillis);
+            position += FRAME_HEADER_SIZE + length;
+        }
+    }
+
+    /**
+     * Accumulated counters of one peer during a scan
+     */
+    private static final class PeerScan {
+        private final SampleConsumer consumer;
+        private long rx;
+        private long tx;
+        private long handshake;
+
+        PeerScan(SampleConsumer consumer) {
+            this.consumer = consumer;
+        }
+    }
+
+    /**
+     * Walks one frame payload. Without consumersByPeer the writer's dictionary and last values
+     * are restored, otherwise only the samples of those peers are accumulated into scans and,
+     * with emit set, handed to their consumers.
+     */
+    private void decode(ByteBuffer payload, long timestamp, Map<String, ? extends SampleConsumer> consumersByPeer,
+                        List<PeerScan> scans, boolean emit) {
+        boolean rebuild = consumersByPeer == null;
+        while (payload.hasRemaining()) {
+            byte type = payload.get();
+            int id = (int) getVarint(payload);
+            if (type == RECORD_PEER) {
+                int keyLength = (int) getVarint(payload);
+                byte[] keyBytes = new byte[keyLength];
+                payload.get(keyBytes);
+                String key = new String(keyBytes, StandardCharsets.UTF_8);
+                if (rebuild) {
+                    peerIds.put(key, id);
+                    lastValues.add(new long[3]);
+                } else {
+                    SampleConsumer consumer = consumersByPeer.get(key);
+                    if (consumer != null) {
+                        while (scans.size() <= id) {
+                            scans.add(null);
+                        }
+                        scans.set(id, new PeerScan(consumer));
+                    }
+                }
+            } else if (type == RECORD_SAMPLE) {
+                long rx = unzigzag(getVarint(payload));
+                long tx = unzigzag(getVarint(payload));
+                long handshake = unzigzag(getVarint(payload));
+                if (rebuild) {
+                    long[] last = lastValues.get(id);
+                    last[0] += rx;
+                    last[1] += tx;
+                    last[2] += handshake;
+                } else {
+                    PeerScan scan = id < scans.size() ? scans.get(id) : null;
+                    if (scan != null) {
+                        scan.rx += rx;
+                        scan.tx += tx;
+                        scan.handshake += handshake;
+                        if (emit) {
+                            scan.consumer.accept(timestamp, scan.rx, scan.tx, scan.handshake);
+                        }
+                    }
+                }
+            } else {
+                logger.warn("Unknown record type {} in frame {} of {}", type, timestamp, path);
+                break;
+            }
+        }
+    }
+
+    void force() {
+        view.buffer().force();
+    }
+
+    void close() {
+        try {
+            force();
+            channel.close();
+        } catch (IOException e) {
+            logger.warn("Failed to close telemetry segment {}: {}", path, e.getMessage());
+        }
+    }
+
+    private void ensureScratch(int bytes) {
+        if (scratch.remaining() < bytes) {
+            ByteBuffer larger = ByteBuffer.allocate(Math.max(scratch.capacity() * 2, scratch.position() + bytes));
+            scratch.flip();
+            larger.put(scratch);
+            scratch = larger;
+        }
+    }
+
+    private void putVarint(long value) {
+        while ((value & ~0x7FL) != 0) {
+            scratch.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        scratch.put((byte) value);
+    }
+
+    private static long getVarint(ByteBuffer buffer) {
+        long value = 0;
+        int shift = 0;
+        byte b;
+        do {
+            b = buffer.get();
+            value |= (long) (b & 0x7F) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0 && shift < 64);
+        return value;
+    }
+
+    private static long zigzag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    private static long unzigzag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+}
@@ -0,0 +1,349 @@
+package com.brcsrc.yaws.history;
+
+import com.brcsrc.yaws.system.ClientConnectionInformation;
+import com.brcsrc.yaws.system.WireguardChangeListener;
+import com.brcsrc.yaws.system.WireguardConnectionDiff;
+import com.brcsrc.yaws.system.WireguardInformationProvider;
+import com.brcsrc.yaws.system.WireguardInformationProvider.WireguardConnectionData;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.env.Environment;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Persistent peer counter history, kept on disk so it survives restarts.
+ *
+ * Samples from the provider's refreshes are written to three tiers of memory-mapped
+ * TelemetrySegment files under yaws.telemetry.directory:
+ * - raw: at most one sample every 5 seconds, kept 2 days in 1 hour segments
+ * - minute: the last sample of every minute, kept 35 days in 1 day segments
+ * - hour: the last sample of every hour, kept 400 days in 30 day segments
+ * The counters are cumulative, so the last sample of a bucket is an exact rollup of it. Rollup
+ * frames are stamped with the time that sample was taken, not with the start of the bucket, so
+ * the rates between two points divide by the time that actually passed between them. A tier
+ * only receives a bucket's sample once the first sample of the next bucket arrives, after a
+ * restart the bucket that was open is therefore missing from the rollup tiers (never from raw).
+ *
+ * All writes happen on one writer thread, the refresh thread only hands over the sample arrays.
+ * Queries pick the coarsest tier that still gives the requested resolution and only open the
+ * segments overlapping the range, a 30 day graph reads one or two hour segments.
+ */
+@Component
+public class TelemetryStore implements WireguardChangeListener {
+    private static final Logger logger = LoggerFactory.getLogger(TelemetryStore.class);
+
+    static final String ENABLED_PROPERTY = "yaws.telemetry.enabled";
+    static final String DIRECTORY_PROPERTY = "yaws.telemetry.directory";
+    static final String DEFAULT_DIRECTORY = "telemetry";
+    private static final String SEGMENT_SUFFIX = ".seg";
+
+    private final WireguardInformationProvider wireguardInfo;
+    private final boolean enabled;
+    private final Path directory;
+    private final ExecutorService writer;
+
+    // segments by start time per tier, readers iterate these while the writer adds and removes
+    private final Map<TelemetryTier, ConcurrentSkipListMap<Long, TelemetrySegment>> segments = new EnumMap<>(TelemetryTier.class);
+
+    // only touched on the writer thread
+    private final Map<TelemetryTier, Map<String, PendingSample>> pendingRollups = new EnumMap<>(TelemetryTier.class);
+    private long lastRawTimestamp = Long.MIN_VALUE;
+
+    /**
+     * Newest sample of a peer in the bucket a rollup tier has not written yet, and when it was taken
+     */
+    private record PendingSample(long bucket, long timestamp, long rx, long tx, long handshake) {}
+
+    @Autowired
+    public TelemetryStore(WireguardInformationProvider wireguardInfo, Environment env) {
+        this(
+            wireguardInfo,
+            env.getProperty(ENABLED_PROPERTY, Boolean.class, true),
+            Paths.get(env.getProperty(DIRECTORY_PROPERTY, DEFAULT_DIRECTORY))
+        );
+    }
+
+    TelemetryStore(WireguardInformationProvider wireguardInfo, boolean enabled, Path directory) {
+        this.wireguardInfo = wireguardInfo;
+        this.enabled = enabled;
+        this.directory = directory;
+        this.writer = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "yaws-telemetry-writer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        for (TelemetryTier tier : TelemetryTier.values()) {
+            segments.put(tier, new ConcurrentSkipListMap<>());
+            pendingRollups.put(tier, new HashMap<>());
+        }
+    }
+
+    @PostConstruct
+    public void initialize() {
+        if (!enabled) {
+            logger.info("Telemetry store is disabled");
+            return;
+        }
+        try {
+            Files.createDirectories(directory);
+            openExistingSegments();
+        } catch (IOException e) {
+            logger.error("Failed to open telemetry store in {}, peer history will not be persisted", directory, e);
+            return;
+        }
+        wireguardInfo.addChangeListener(this);
+        logger.info("Telemetry store opened in {}", directory.toAbsolutePath());
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        wireguardInfo.removeChangeListener(this);
+        writer.shutdown();
+        try {
+            if (!writer.awaitTermination(5, TimeUnit.SECONDS)) {
+                writer.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            writer.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+        segments.values().forEach(tierSegments -> tierSegments.values().forEach(TelemetrySegment::close));
+    }
+
+    @Override
+    public void onChange(WireguardConnectionDiff diff) {
+        WireguardConnectionData current = diff.getCurrent();
+        long timestamp = current.getRefreshedEpochMillis() > 0 ? current.getRefreshedEpochMillis() : System.currentTimeMillis();
+        List<String> peerKeys = new ArrayList<>(current.getPeersByPublicKey().size());
+        long[] rx = new long[current.getPeersByPublicKey().size()];
+        long[] tx = new long[rx.length];
+        long[] handshakes = new long[rx.length];
+        int i = 0;
+        for (ClientConnectionInformation peer : current.getPeersByPublicKey().values()) {
+            peerKeys.add(peer.getPublicKey());
+            rx[i] = valueOf(peer.getBytesReceived());
+            tx[i] = valueOf(peer.getBytesSent());
+            handshakes[i] = valueOf(peer.getLatestHandshakeEpochSeconds());
+            i++;
+        }
+        try {
+            writer.execute(() -> record(timestamp, peerKeys, rx, tx, handshakes));
+        } catch (RejectedExecutionException e) {
+            logger.debug("Dropping telemetry sample after shutdown");
+        }
+    }
+
+    void record(long timestamp, List<String> peerKeys, long[] rx, long[] tx, long[] handshakes) {
+        try {
+            if (timestamp - lastRawTimestamp >= TelemetryTier.RAW.resolutionMs() || lastRawTimestamp == Long.MIN_VALUE) {
+                segmentFor(TelemetryTier.RAW, timestamp).append(timestamp, peerKeys, rx, tx, handshakes);
+                lastRawTimestamp = timestamp;
+            }
+            rollUp(TelemetryTier.MINUTE, timestamp, peerKeys, rx, tx, handshakes);
+            rollUp(TelemetryTier.HOUR, timestamp, peerKeys, rx, tx, handshakes);
+        } catch (IOException e) {
+            logger.error("Failed to write telemetry sample", e);
+        }
+    }
+
+    private void rollUp(TelemetryTier tier, long timestamp, List<String> peerKeys, long[] rx, long[] tx, long[] handshakes)
+            throws IOException {
+        Map<String, PendingSample> pending = pendingRollups.get(tier);
+        long bucket = tier.bucket(timestamp);
+        // samples of closed buckets, grouped by the time they were taken so each becomes one frame
+        Map<Long, List<Map.Entry<String, PendingSample>>> closed = new TreeMap<>();
+        for (Map.Entry<String, PendingSample> entry : pending.entrySet()) {
+            if (entry.getValue().bucket() != bucket) {
+                closed.computeIfAbsent(entry.getValue().timestamp(), t -> new ArrayList<>()).add(entry);
+            }
+        }
+        for (Map.Entry<Long, List<Map.Entry<String, PendingSample>>> group : closed.entrySet()) {
+            List<Map.Entry<String, PendingSample>> samples = group.getValue();
+            List<String> keys = new ArrayList<>(samples.size());
+            long[] bucketRx = new long[samples.size()];
+            long[] bucketTx = new long[samples.size()];
+            long[] bucketHandshakes = new long[samples.size()];
+            for (int i = 0; i < samples.size(); i++) {
+                keys.add(samples.get(i).getKey());
+                bucketRx[i] = samples.get(i).getValue().rx();
+                bucketTx[i] = samples.get(i).getValue().tx();
+                bucketHandshakes[i] = samples.get(i).getValue().handshake();
+            }
+            segmentFor(tier, group.getKey()).append(group.getKey(), keys, bucketRx, bucketTx, bucketHandshakes);
+        }
+        // a peer gone from the dump loses its still open bucket, closed ones were written above
+        pending.clear();
+        for (int i = 0; i < peerKeys.size(); i++) {
+            pending.put(peerKeys.get(i), new PendingSample(bucket, timestamp, rx[i], tx[i], handshakes[i]));
+        }
+    }
+
+    private TelemetrySegment segmentFor(TelemetryTier tier, long timestamp) throws IOException {
+        ConcurrentSkipListMap<Long, TelemetrySegment> tierSegments = segments.get(tier);
+        long start = tier.segmentStart(timestamp);
+        TelemetrySegment segment = tierSegments.get(start);
+        if (segment != null) {
+            return segment;
+        }
+        // the previous segment is complete, flush it and drop whatever fell out of retention
+        Map.Entry<Long, TelemetrySegment> previous = tierSegments.lowerEntry(start);
+        if (previous != null) {
+            previous.getValue().force();
+        }
+        segment = TelemetrySegment.open(directory.resolve(segmentFileName(tier, start)), start);
+        tierSegments.put(start, segment);
+        enforceRetention(tier, timestamp);
+        return segment;
+    }
+
+    private void enforceRetention(TelemetryTier tier, long now) {
+        ConcurrentSkipListMap<Long, TelemetrySegment> tierSegments = segments.get(tier);
+        while (!tierSegments.isEmpty()) {
+            Map.Entry<Long, TelemetrySegment> oldest = tierSegments.firstEntry();
+            if (oldest.getKey() + tier.segmentSpanMs() > now - tier.retentionMs()) {
+                break;
+            }
+            tierSegments.remove(oldest.getKey());
+            oldest.getValue().close();
+            try {
+                Files.deleteIfExists(oldest.getValue().getPath());
+                logger.info("Deleted expired telemetry segment {}", oldest.getValue().getPath());
+            } catch (IOException e) {
+                logger.warn("Failed to delete expired telemetry segment {}: {}", oldest.getValue().getPath(), e.getMessage());
+            }
+        }
+    }
+
+    private void openExistingSegments() throws IOException {
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "*" + SEGMENT_SUFFIX)) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                for (TelemetryTier tier : TelemetryTier.values()) {
+                    String prefix = tier.filePrefix() + "-";
+                    if (!name.startsWith(prefix)) {
+                        continue;
+                    }
+                    try {
+                        long start = Long.parseLong(name.substring(prefix.length(), name.length() - SEGMENT_SUFFIX.length()));
+                        segments.get(tier).put(start, TelemetrySegment.open(file, start));
+                    } catch (NumberFormatException | IOException e) {
+                        logger.warn("Skipping unreadable telemetry segment {}: {}", file, e.getMessage());
+                    }
+                }
+            }
+        }
+        Map.Entry<Long, TelemetrySegment> newestRaw = segments.get(TelemetryTier.RAW).lastEntry();
+        if (newestRaw != null) {
+            lastRawTimestamp = newestRaw.getValue().getLastTimestamp();
+        }
+        for (TelemetryTier tier : TelemetryTier.values()) {
+            enforceRetention(tier, System.currentTimeMillis());
+        }
+    }
+
+    private static String segmentFileName(TelemetryTier tier, long start) {
+        return tier.filePrefix() + "-" + start + SEGMENT_SUFFIX;
+    }
+
+    /**
+     * Samples of a peer between from and to read from the coarsest tier that gives at least
+     * maxPoints points, downsampled to at most maxPoints
+     */
+    public List<HistoryPoint> queryPeer(String peerPublicKey, long fromEpochMillis, long toEpochMillis, int maxPoints) {
+        return queryPeers(List.of(peerPublicKey), fromEpochMillis, toEpochMillis, maxPoints).getOrDefault(peerPublicKey, List.of());
+    }
+
+    /**
+     * Same as queryPeer for several peers, every overlapping segment is decoded once for all of them
+     * @return Map of String to List of HistoryPoint - the points of every peer, empty lists if there is no range
+     */
+    public Map<String, List<HistoryPoint>> queryPeers(Collection<String> peerPublicKeys, long fromEpochMillis,
+                                                      long toEpochMillis, int maxPoints) {
+        Map<String, List<HistoryPoint>> pointsByPeer = new HashMap<>();
+        if (maxPoints <= 0 || toEpochMillis < fromEpochMillis) {
+            peerPublicKeys.forEach(peerKey -> pointsByPeer.put(peerKey, List.of()));
+            return pointsByPeer;
+        }
+        TelemetryTier tier = TelemetryTier.forResolution((toEpochMillis - fromEpochMillis) / maxPoints);
+        ConcurrentSkipListMap<Long, TelemetrySegment> tierSegments = segments.get(tier);
+        // the segment holding from starts at or before it, later ones start inside the range
+        Long firstStart = tierSegments.floorKey(fromEpochMillis);
+        Map<Long, TelemetrySegment> overlapping = tierSegments.subMap(
+                firstStart != null ? firstStart : fromEpochMillis, true, toEpochMillis, true);
+
+        Map<String, SampleCollector> collectors = new HashMap<>();
+        peerPublicKeys.forEach(peerKey -> collectors.put(peerKey, new SampleCollector()));
+        // the sample before the range gives the first point its rate
+        long scanFrom = fromEpochMillis - tier.resolutionMs();
+        for (TelemetrySegment segment : overlapping.values()) {
+            segment.scan(collectors, scanFrom, toEpochMillis);
+        }
+        collectors.forEach((peerKey, collector) -> pointsByPeer.put(peerKey,
+                collector.toRing().query(fromEpochMillis, toEpochMillis, maxPoints)));
+        return pointsByPeer;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    // waits until every sample handed over so far is written, for testing
+    void awaitWritten() throws Exception {
+        writer.submit(() -> null).get(5, TimeUnit.SECONDS);
+    }
+
+    private static long valueOf(Long value) {
+        return value == null ? 0 : value;
+    }
+
+    /**
+     * Gathers decoded samples into growable primitive arrays, then into a ring sized to fit them
+     * so the in-memory history's downsampling can be reused
+     */
+    private static class SampleCollector implements TelemetrySegment.SampleConsumer {
+        private long[] values = new long[4 * 64];
+        private int count = 0;
+
+        @Override
+        public void accept(long timestampEpochMillis, long rx, long tx, long handshakeEpochSeconds) {
+            if ((count + 1) * 4 > values.length) {
+                values = Arrays.copyOf(values, values.length * 2);
+            }
+            values[count * 4] = timestampEpochMillis;
+            values[count * 4 + 1] = rx;
+            values[count * 4 + 2] = tx;
+            values[count * 4 + 3] = handshakeEpochSeconds;
+            count++;
+        }
+
+        PeerSampleRing toRing() {
+            PeerSampleRing ring = new PeerSampleRing(Math.max(2, count));
+            for (int i = 0; i < count; i++) {
+                ring.append(values[i * 4], values[i * 4 + 1], values[i * 4 + 2], values[i * 4 + 3]);
+            }
+            return ring;
+        }
+    }
+}
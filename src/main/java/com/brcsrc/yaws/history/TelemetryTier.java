@@ -0,0 +1,61 @@
+package com.brcsrc.yaws.history;
+
+/**
+ * Resolutions kept by the TelemetryStore. Each tier lives in its own segment files, every file
+ * covers segmentSpanMs and is deleted as a whole once it is older than retentionMs.
+ */
+enum TelemetryTier {
+    RAW("raw", 5_000L, 60 * 60_000L, 2 * 24 * 60 * 60_000L),
+    MINUTE("minute", 60_000L, 24 * 60 * 60_000L, 35 * 24 * 60 * 60_000L),
+    HOUR("hour", 60 * 60_000L, 30 * 24 * 60 * 60_000L, 400 * 24 * 60 * 60_000L);
+
+    private final String filePrefix;
+    private final long resolutionMs;
+    private final long segmentSpanMs;
+    private final long retentionMs;
+
+    TelemetryTier(String filePrefix, long resolutionMs, long segmentSpanMs, long retentionMs) {
+        this.filePrefix = filePrefix;
+        this.resolutionMs = resolutionMs;
+        this.segmentSpanMs = segmentSpanMs;
+        this.retentionMs = retentionMs;
+    }
+
+    String filePrefix() {
+        return filePrefix;
+    }
+
+    long resolutionMs() {
+        return resolutionMs;
+    }
+
+    long segmentSpanMs() {
+        return segmentSpanMs;
+    }
+
+    long retentionMs() {
+        return retentionMs;
+    }
+
+    long segmentStart(long timestampEpochMillis) {
+        return timestampEpochMillis - Math.floorMod(timestampEpochMillis, segmentSpanMs);
+    }
+
+    long bucket(long timestampEpochMillis) {
+        return Math.floorDiv(timestampEpochMillis, resolutionMs);
+    }
+
+    /**
+     * The coarsest tier that still gives a point at least every maxResolutionMs, so long ranges
+     * are read from the small rollup segments
+     */
+    static TelemetryTier forResolution(long maxResolutionMs) {
+        if (maxResolutionMs >= HOUR.resolutionMs) {
+            return HOUR;
+        }
+        if (maxResolutionMs >= MINUTE.resolutionMs) {
+            return MINUTE;
+        }
+        return RAW;
+    }
+}
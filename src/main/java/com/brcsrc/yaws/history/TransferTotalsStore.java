@@ -0,0 +1,194 @@
+package com.brcsrc.yaws.history;
+
+import com.brcsrc.yaws.model.ClientTransferTotals;
+import com.brcsrc.yaws.persistence.ClientTransferTotalsRepository;
+import com.brcsrc.yaws.system.ClientConnectionInformation;
+import com.brcsrc.yaws.system.WireguardChangeListener;
+import com.brcsrc.yaws.system.WireguardConnectionDiff;
+import com.brcsrc.yaws.system.WireguardInformationProvider;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.env.Environment;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Lifetime transfer totals of every peer, kept across interface and server restarts.
+ *
+ * Every refresh feeds the peers' counters into a CumulativeTransferCounter, which notices
+ * resets and keeps the total growing. The counters live in memory, the ones that changed are
+ * written to the client_transfer_totals table in one batch every
+ * yaws.transfer-totals.flush-interval-ms and once more on shutdown, never once per refresh. On
+ * startup the table is loaded back. A peer whose counters are now below the stored ones was
+ * reset while yaws was down, and a peer whose interface StartupTasks had to bring up again is
+ * reported through restarted(), so it keeps its total even when its new counters already passed
+ * the stored ones. An interface that survived the restart keeps counting and is not reported.
+ *
+ * All database writes happen on the writer thread.
+ */
+@Component
+public class TransferTotalsStore implements WireguardChangeListener {
+    private static final Logger logger = LoggerFactory.getLogger(TransferTotalsStore.class);
+
+    static final String FLUSH_INTERVAL_PROPERTY = "yaws.transfer-totals.flush-interval-ms";
+    static final long DEFAULT_FLUSH_INTERVAL_MS = 60_000;
+
+    /**
+     * Lifetime bytes of one peer, including everything counted before resets
+     */
+    public record TransferTotals(long bytesReceived, long bytesSent) {}
+
+    private final WireguardInformationProvider wireguardInfo;
+    private final ClientTransferTotalsRepository repository;
+    private final long flushIntervalMs;
+    private final ScheduledExecutorService writer;
+    private final Map<String, CumulativeTransferCounter> countersByPeer = new ConcurrentHashMap<>();
+    private final Set<String> dirtyPeers = ConcurrentHashMap.newKeySet();
+
+    @Autowired
+    public TransferTotalsStore(WireguardInformationProvider wireguardInfo, ClientTransferTotalsRepository repository,
+                               Environment env) {
+        this.wireguardInfo = wireguardInfo;
+        this.repository = repository;
+        this.flushIntervalMs = env.getProperty(FLUSH_INTERVAL_PROPERTY, Long.class, DEFAULT_FLUSH_INTERVAL_MS);
+        this.writer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "yaws-transfer-totals-writer");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @PostConstruct
+    public void initialize() {
+        for (ClientTransferTotals totals : repository.findAll()) {
+            countersByPeer.put(totals.getClientPublicKeyValue(), CumulativeTransferCounter.restored(
+                    totals.getBytesReceivedOffset(), totals.getBytesSentOffset(),
+                    totals.getLastBytesReceived(), totals.getLastBytesSent()));
+        }
+        logger.info("Loaded transfer totals of {} peers, writing changes every {}ms", countersByPeer.size(), flushIntervalMs);
+        wireguardInfo.addChangeListener(this);
+        writer.scheduleWithFixedDelay(this::flush, flushIntervalMs, flushIntervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        wireguardInfo.removeChangeListener(this);
+        try {
+            writer.submit(this::flush).get(10, TimeUnit.SECONDS);
+        } catch (Exception e) {
+            logger.warn("Failed to write transfer totals on shutdown: {}", e.getMessage());
+        }
+        writer.shutdownNow();
+    }
+
+    @Override
+    public void onChange(WireguardConnectionDiff diff) {
+        for (ClientConnectionInformation peer : diff.getCurrent().getPeersByPublicKey().values()) {
+            CumulativeTransferCounter counter = countersByPeer.computeIfAbsent(
+                    peer.getPublicKey(), key -> new CumulativeTransferCounter(0, 0, 0, 0));
+            if (counter.observe(valueOf(peer.getBytesReceived()), valueOf(peer.getBytesSent()))) {
+                dirtyPeers.add(peer.getPublicKey());
+            }
+        }
+        // peers missing from a dump keep their counters, an interface being restarted drops them for a moment
+    }
+
+    /**
+     * @return TransferTotals - lifetime totals of the peer, or null if it was never seen
+     */
+    public TransferTotals getTotals(String peerPublicKey) {
+        CumulativeTransferCounter counter = peerPublicKey == null ? null : countersByPeer.get(peerPublicKey);
+        return counter == null ? null : new TransferTotals(counter.totalBytesReceived(), counter.totalBytesSent());
+    }
+
+    /**
+     * The interface of the peers was brought up by StartupTasks, so the counters restored for
+     * them started over from 0 since, see CumulativeTransferCounter.restarted()
+     */
+    public void restarted(Collection<String> peerPublicKeys) {
+        for (String peerKey : peerPublicKeys) {
+            CumulativeTransferCounter counter = countersByPeer.get(peerKey);
+            if (counter != null && counter.restarted()) {
+                dirtyPeers.add(peerKey);
+            }
+        }
+    }
+
+    /**
+     * Drops the totals of a peer that was deleted, a new client reusing the key starts from 0
+     */
+    public void forget(String peerPublicKey) {
+        if (peerPublicKey == null || countersByPeer.remove(peerPublicKey) == null) {
+            return;
+        }
+        dirtyPeers.remove(peerPublicKey);
+        try {
+            writer.execute(() -> {
+                try {
+                    repository.deleteById(peerPublicKey);
+                } catch (Exception e) {
+                    logger.error("Failed to delete transfer totals of {}", peerPublicKey, e);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            logger.debug("Not deleting transfer totals after shutdown");
+        }
+    }
+
+    private void flush() {
+        if (dirtyPeers.isEmpty()) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        List<String> flushed = new ArrayList<>();
+        List<ClientTransferTotals> rows = new ArrayList<>();
+        for (String peerKey : dirtyPeers) {
+            // removed before reading, a change arriving meanwhile marks the peer dirty again
+            dirtyPeers.remove(peerKey);
+            CumulativeTransferCounter counter = countersByPeer.get(peerKey);
+            if (counter == null) {
+                continue;
+            }
+            long[] state = counter.state();
+            ClientTransferTotals row = new ClientTransferTotals();
+            row.setClientPublicKeyValue(peerKey);
+            row.setBytesReceivedOffset(state[0]);
+            row.setBytesSentOffset(state[1]);
+            row.setLastBytesReceived(state[2]);
+            row.setLastBytesSent(state[3]);
+            row.setUpdatedEpochMillis(now);
+            rows.add(row);
+            flushed.add(peerKey);
+        }
+        try {
+            repository.saveAll(rows);
+            logger.debug("Wrote transfer totals of {} peers", rows.size());
+        } catch (Exception e) {
+            // retried with the next flush
+            logger.error("Failed to write transfer totals of {} peers", rows.size(), e);
+            dirtyPeers.addAll(flushed);
+        }
+    }
+
+    // writes the pending changes after everything queued before, and waits for it, for testing
+    void flushAndWait() throws Exception {
+        writer.submit(this::flush).get(5, TimeUnit.SECONDS);
+    }
+
+    private static long valueOf(Long value) {
+        return value == null ? 0 : value;
+    }
+}
@@ -0,0 +1,352 @@
+package com.brcsrc.yaws.lifecycle;
+
+import com.brcsrc.yaws.system.ClientConnectionInformation;
+import com.brcsrc.yaws.system.NetworkConnectionInformation;
+import com.brcsrc.yaws.system.WireguardChangeListener;
+import com.brcsrc.yaws.system.WireguardConnectionDiff;
+import com.brcsrc.yaws.system.WireguardInformationProvider;
+import com.brcsrc.yaws.system.WireguardInformationProvider.WireguardConnectionData;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.env.Environment;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Turns the provider's refreshes into peer lifecycle events.
+ *
+ * Every peer has a small state machine fed from its latest handshake and endpoint on each
+ * refresh:
+ * - the handshake age classifies it ONLINE, IDLE or OFFLINE, a move between them is STATE_CHANGED.
+ *   This runs on every refresh, not only on changed peers, since a peer goes stale without the
+ *   dump changing
+ * - an endpoint replaced by a different one is ROAMED
+ * - yaws.lifecycle.churn-handshakes handshakes within yaws.lifecycle.churn-window-ms is
+ *   HANDSHAKE_CHURN, reported once until the rate drops again. WireGuard rekeys every 2 minutes,
+ *   anything much faster points at two devices sharing a key or a peer restarting in a loop
+ * - peers appearing or disappearing from the dump are ADDED and REMOVED
+ *
+ * The first refresh seen only seeds the state machines, a restart does not report every peer as
+ * added. Events are numbered, the newest yaws.lifecycle.recent-events are kept for the REST feed
+ * and every batch goes to the registered PeerLifecycleListeners.
+ *
+ * Detection happens at the provider's refresh interval, so without open streams an event can be
+ * up to yaws.wireguard.refresh.idle-interval-ms late. A refresh sees at most one new handshake
+ * per peer, counting churnHandshakes of them takes churnHandshakes - 1 refresh intervals. A churn
+ * window the active interval cannot fit is rejected, one only the idle interval cannot fit is
+ * logged, churn is then only detected while a stream keeps the provider active. The state
+ * machines are only touched on the refresh thread.
+ */
+@Component
+public class PeerLifecycleDetector implements WireguardChangeListener {
+    private static final Logger logger = LoggerFactory.getLogger(PeerLifecycleDetector.class);
+
+    static final String ONLINE_HANDSHAKE_SECONDS_PROPERTY = "yaws.lifecycle.online-handshake-seconds";
+    static final String OFFLINE_HANDSHAKE_SECONDS_PROPERTY = "yaws.lifecycle.offline-handshake-seconds";
+    static final String CHURN_WINDOW_PROPERTY = "yaws.lifecycle.churn-window-ms";
+    static final String CHURN_HANDSHAKES_PROPERTY = "yaws.lifecycle.churn-handshakes";
+    static final String RECENT_EVENTS_PROPERTY = "yaws.lifecycle.recent-events";
+    // a WireGuard session is rejected 180 seconds after its handshake
+    static final long DEFAULT_ONLINE_HANDSHAKE_SECONDS = 180;
+    static final long DEFAULT_OFFLINE_HANDSHAKE_SECONDS = 600;
+    static final long DEFAULT_CHURN_WINDOW_MS = 300_000;
+    static final int DEFAULT_CHURN_HANDSHAKES = 6;
+    static final int DEFAULT_RECENT_EVENTS = 1_000;
+
+    private final WireguardInformationProvider wireguardInfo;
+    private final long onlineHandshakeSeconds;
+    private final long offlineHandshakeSeconds;
+    private final long churnWindowMs;
+    private final int churnHandshakes;
+    private final int recentEventCapacity;
+    private final List<PeerLifecycleListener> listeners = new CopyOnWriteArrayList<>();
+
+    // only touched on the refresh thread
+    private final Map<String, PeerTracker> trackers = new HashMap<>();
+    private boolean seeded = false;
+    private long round = 0;
+
+    // guarded by itself
+    private final ArrayDeque<PeerLifecycleEvent> recentEvents = new ArrayDeque<>();
+    private long lastSequence = 0;
+    private volatile Map<PeerState, Integer> stateCounts = emptyStateCounts();
+
+    @Autowired
+    public PeerLifecycleDetector(WireguardInformationProvider wireguardInfo, Environment env) {
+        this(
+            wireguardInfo,
+            env.getProperty(ONLINE_HANDSHAKE_SECONDS_PROPERTY, Long.class, DEFAULT_ONLINE_HANDSHAKE_SECONDS),
+            env.getProperty(OFFLINE_HANDSHAKE_SECONDS_PROPERTY, Long.class, DEFAULT_OFFLINE_HANDSHAKE_SECONDS),
+            env.getProperty(CHURN_WINDOW_PROPERTY, Long.class, DEFAULT_CHURN_WINDOW_MS),
+            env.getProperty(CHURN_HANDSHAKES_PROPERTY, Integer.class, DEFAULT_CHURN_HANDSHAKES),
+            env.getProperty(RECENT_EVENTS_PROPERTY, Integer.class, DEFAULT_RECENT_EVENTS)
+        );
+    }
+
+    PeerLifecycleDetector(WireguardInformationProvider wireguardInfo, long onlineHandshakeSeconds,
+                          long offlineHandshakeSeconds, long churnWindowMs, int churnHandshakes, int recentEventCapacity) {
+        if (onlineHandshakeSeconds <= 0 || offlineHandshakeSeconds < onlineHandshakeSeconds) {
+            throw new IllegalArgumentException("online handshake window must be positive and not longer than the offline one");
+        }
+        if (churnWindowMs <= 0 || churnHandshakes < 2 || recentEventCapacity < 1) {
+            throw new IllegalArgumentException("churn detection needs a positive window and at least 2 handshakes, at least 1 recent event must be kept");
+        }
+        if (churnWindowMs <= (churnHandshakes - 1) * wireguardInfo.getActiveIntervalMs()) {
+            throw new IllegalArgumentException(String.format(
+                    "%d handshakes can not be seen within %dms, the provider refreshes every %dms at most",
+                    churnHandshakes, churnWindowMs, wireguardInfo.getActiveIntervalMs()));
+        }
+        this.wireguardInfo = wireguardInfo;
+        this.onlineHandshakeSeconds = onlineHandshakeSeconds;
+        this.offlineHandshakeSeconds = offlineHandshakeSeconds;
+        this.churnWindowMs = churnWindowMs;
+        this.churnHandshakes = churnHandshakes;
+        this.recentEventCapacity = recentEventCapacity;
+    }
+
+    @PostConstruct
+    public void initialize() {
+        logger.info("Detecting peer lifecycle events, online within {}s and offline after {}s of the latest handshake",
+                onlineHandshakeSeconds, offlineHandshakeSeconds);
+        long idleIntervalMs = wireguardInfo.getRefreshStatus().idleIntervalMs();
+        if (churnWindowMs <= (churnHandshakes - 1) * idleIntervalMs) {
+            logger.warn("{} handshakes do not fit in {}ms at the idle refresh interval of {}ms, handshake churn is only detected while streams are open",
+                    churnHandshakes, churnWindowMs, idleIntervalMs);
+        }
+        wireguardInfo.addChangeListener(this);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        wireguardInfo.removeChangeListener(this);
+    }
+
+    public void addListener(PeerLifecycleListener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(PeerLifecycleListener listener) {
+        listeners.remove(listener);
+    }
+
+    @Override
+    public void onChange(WireguardConnectionDiff diff) {
+        WireguardConnectionData current = diff.getCurrent();
+        long timestamp = current.getRefreshedEpochMillis() > 0 ? current.getRefreshedEpochMillis() : System.currentTimeMillis();
+        detect(current, timestamp);
+    }
+
+    void detect(WireguardConnectionData data, long nowEpochMillis) {
+        round++;
+        boolean seeding = !seeded;
+        seeded = true;
+        List<PeerLifecycleEvent> events = new ArrayList<>();
+        Map<PeerState, Integer> counts = emptyStateCounts();
+
+        for (NetworkConnectionInformation network : data.getNetworksByPublicKey().values()) {
+            for (ClientConnectionInformation peer : network.getPeers().values()) {
+                PeerTracker tracker = trackers.get(peer.getPublicKey());
+                if (tracker == null) {
+                    tracker = new PeerTracker(network.getPublicKey(), classify(peer.knownLatestHandshakeEpochSeconds(), nowEpochMillis),
+                            peer.knownEndpoint(), peer.knownLatestHandshakeEpochSeconds(), churnHandshakes);
+                    trackers.put(peer.getPublicKey(), tracker);
+                    if (!seeding) {
+                        events.add(event(PeerLifecycleEvent.Type.ADDED, nowEpochMillis, peer.getPublicKey(), tracker,
+                                null, tracker.state, null));
+                    }
+                } else {
+                    observe(peer, network.getPublicKey(), tracker, nowEpochMillis, events);
+                }
+                tracker.lastSeenRound = round;
+                counts.merge(tracker.state, 1, Integer::sum);
+            }
+        }
+
+        Iterator<Map.Entry<String, PeerTracker>> iterator = trackers.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<String, PeerTracker> entry = iterator.next();
+            if (entry.getValue().lastSeenRound != round) {
+                events.add(event(PeerLifecycleEvent.Type.REMOVED, nowEpochMillis, entry.getKey(), entry.getValue(),
+                        entry.getValue().state, null, null));
+                iterator.remove();
+            }
+        }
+
+        stateCounts = counts;
+        if (!events.isEmpty()) {
+            publish(events);
+        }
+    }
+
+    private void observe(ClientConnectionInformation peer, String networkPublicKey, PeerTracker tracker,
+                         long nowEpochMillis, List<PeerLifecycleEvent> events) {
+        Long handshake = peer.knownLatestHandshakeEpochSeconds();
+        if (handshake != null && (tracker.latestHandshake == null || handshake > tracker.latestHandshake)) {
+            tracker.recordHandshake(nowEpochMillis);
+        }
+        String endpoint = peer.knownEndpoint();
+        String previousEndpoint = tracker.endpoint;
+        // wg keeps the last endpoint of an offline peer, so an endpoint only appears or gets replaced
+        boolean roamed = previousEndpoint != null && endpoint != null && !previousEndpoint.equals(endpoint);
+        PeerState previousState = tracker.state;
+        tracker.networkPublicKey = networkPublicKey;
+        tracker.latestHandshake = handshake;
+        tracker.state = classify(handshake, nowEpochMillis);
+        if (endpoint != null) {
+            tracker.endpoint = endpoint;
+        }
+
+        if (tracker.state != previousState) {
+            events.add(event(PeerLifecycleEvent.Type.STATE_CHANGED, nowEpochMillis, peer.getPublicKey(), tracker,
+                    previousState, tracker.state, null));
+        }
+        if (roamed) {
+            events.add(event(PeerLifecycleEvent.Type.ROAMED, nowEpochMillis, peer.getPublicKey(), tracker,
+                    null, tracker.state, previousEndpoint));
+        }
+        boolean churning = tracker.isChurning(nowEpochMillis, churnWindowMs);
+        if (churning && !tracker.churnReported) {
+            events.add(event(PeerLifecycleEvent.Type.HANDSHAKE_CHURN, nowEpochMillis, peer.getPublicKey(), tracker,
+                    null, tracker.state, null));
+        }
+        tracker.churnReported = churning;
+    }
+
+    /**
+     * @param latestHandshakeEpochSeconds Long - null if the peer never handshook
+     * @return PeerState - the state of a peer with this handshake at the given time, by the configured thresholds
+     */
+    public PeerState classify(Long latestHandshakeEpochSeconds, long nowEpochMillis) {
+        if (latestHandshakeEpochSeconds == null) {
+            return PeerState.OFFLINE;
+        }
+        long age = nowEpochMillis / 1000 - latestHandshakeEpochSeconds;
+        if (age <= onlineHandshakeSeconds) {
+            return PeerState.ONLINE;
+        }
+        return age <= offlineHandshakeSeconds ? PeerState.IDLE : PeerState.OFFLINE;
+    }
+
+    // the sequence is assigned in publish, once the batch is complete
+    private static PeerLifecycleEvent event(PeerLifecycleEvent.Type type, long epochMillis, String publicKey, PeerTracker tracker,
+                                            PeerState previousState, PeerState state, String previousEndpoint) {
+        return new PeerLifecycleEvent(0, type, epochMillis, publicKey, tracker.networkPublicKey,
+                previousState, state, previousEndpoint, tracker.endpoint, tracker.latestHandshake);
+    }
+
+    private void publish(List<PeerLifecycleEvent> unnumbered) {
+        List<PeerLifecycleEvent> events = new ArrayList<>(unnumbered.size());
+        synchronized (recentEvents) {
+            for (PeerLifecycleEvent event : unnumbered) {
+                PeerLifecycleEvent numbered = new PeerLifecycleEvent(++lastSequence, event.type(), event.epochMillis(),
+                        event.publicKey(), event.networkPublicKey(), event.previousState(), event.state(),
+                        event.previousEndpoint(), event.endpoint(), event.latestHandshakeEpochSeconds());
+                events.add(numbered);
+                recentEvents.addLast(numbered);
+                if (recentEvents.size() > recentEventCapacity) {
+                    recentEvents.removeFirst();
+                }
+            }
+        }
+        logger.debug("Detected {} peer lifecycle events", events.size());
+
+        List<PeerLifecycleEvent> batch = List.copyOf(events);
+        for (PeerLifecycleListener listener : listeners) {
+            try {
+                listener.onEvents(batch);
+            } catch (Exception e) {
+                // same as the provider's change listeners, one broken listener must not starve the others
+                logger.error("Error in peer lifecycle listener {}", listener, e);
+            }
+        }
+    }
+
+    /**
+     * @param afterSequence only events with a larger sequence are returned, 0 for all retained ones
+     * @param limit int - the most events to return
+     * @return List of PeerLifecycleEvent - the oldest retained events after afterSequence, in order.
+     *         If the first has a sequence above afterSequence + 1 the events in between were dropped
+     */
+    public List<PeerLifecycleEvent> getEventsAfter(long afterSequence, int limit) {
+        List<PeerLifecycleEvent> events = new ArrayList<>();
+        synchronized (recentEvents) {
+            for (PeerLifecycleEvent event : recentEvents) {
+                if (events.size() >= limit) {
+                    break;
+                }
+                if (event.sequence() > afterSequence) {
+                    events.add(event);
+                }
+            }
+        }
+        return events;
+    }
+
+    public long getLastSequence() {
+        synchronized (recentEvents) {
+            return lastSequence;
+        }
+    }
+
+    /**
+     * @return Map of PeerState to Integer - how many peers were in each state after the last refresh
+     */
+    public Map<PeerState, Integer> getStateCounts() {
+        return stateCounts;
+    }
+
+    private static Map<PeerState, Integer> emptyStateCounts() {
+        Map<PeerState, Integer> counts = new EnumMap<>(PeerState.class);
+        for (PeerState state : PeerState.values()) {
+            counts.put(state, 0);
+        }
+        return counts;
+    }
+
+    /**
+     * State machine of one peer. Handshake times of the last churnHandshakes advances are kept
+     * in a ring, churn is when the oldest of them is still inside the window.
+     */
+    private static final class PeerTracker {
+        private String networkPublicKey;
+        private PeerState state;
+        private String endpoint;
+        private Long latestHandshake;
+        private final long[] handshakeTimes;
+        private int handshakeCount = 0;
+        private boolean churnReported = false;
+        private long lastSeenRound;
+
+        PeerTracker(String networkPublicKey, PeerState state, String endpoint, Long latestHandshake, int churnHandshakes) {
+            this.networkPublicKey = networkPublicKey;
+            this.state = state;
+            this.endpoint = endpoint;
+            this.latestHandshake = latestHandshake;
+            this.handshakeTimes = new long[churnHandshakes];
+        }
+
+        void recordHandshake(long epochMillis) {
+            handshakeTimes[handshakeCount % handshakeTimes.length] = epochMillis;
+            handshakeCount++;
+        }
+
+        boolean isChurning(long nowEpochMillis, long windowMs) {
+            if (handshakeCount < handshakeTimes.length) {
+                return false;
+            }
+            long oldest = handshakeTimes[handshakeCount % handshakeTimes.length];
+            return oldest > nowEpochMillis - windowMs;
+        }
+    }
+}
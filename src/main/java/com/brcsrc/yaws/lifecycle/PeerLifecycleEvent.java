@@ -0,0 +1,41 @@
+package com.brcsrc.yaws.lifecycle;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+/**
+ * Something that happened to a peer, as detected by PeerLifecycleDetector. Fields that do not
+ * apply to the event type are null and left out of the JSON.
+ *
+ * @param sequence strictly increasing across all events of this process
+ * @param epochMillis time of the refresh that detected the event
+ * @param networkPublicKey the network the peer belongs to
+ * @param previousState state before the event, null for ADDED
+ * @param state state after the event, null for REMOVED
+ * @param previousEndpoint endpoint before a ROAMED event
+ */
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public record PeerLifecycleEvent(
+        long sequence,
+        Type type,
+        long epochMillis,
+        String publicKey,
+        String networkPublicKey,
+        PeerState previousState,
+        PeerState state,
+        String previousEndpoint,
+        String endpoint,
+        Long latestHandshakeEpochSeconds
+) {
+    public enum Type {
+        /** a peer appeared in the dump */
+        ADDED,
+        /** a peer disappeared from the dump */
+        REMOVED,
+        /** a peer moved between ONLINE, IDLE and OFFLINE */
+        STATE_CHANGED,
+        /** a peer's endpoint changed from one address to another */
+        ROAMED,
+        /** a peer handshook far more often than WireGuard's 2 minute rekey explains */
+        HANDSHAKE_CHURN
+    }
+}
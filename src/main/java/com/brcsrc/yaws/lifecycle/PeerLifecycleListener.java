@@ -0,0 +1,15 @@
+package com.brcsrc.yaws.lifecycle;
+
+import java.util.List;
+
+/**
+ * Notified by PeerLifecycleDetector with the events detected by one refresh, on the provider's
+ * refresh thread. Implementations should hand off anything slow.
+ */
+@FunctionalInterface
+public interface PeerLifecycleListener {
+    /**
+     * @param events List of PeerLifecycleEvent - never empty, in sequence order
+     */
+    void onEvents(List<PeerLifecycleEvent> events);
+}
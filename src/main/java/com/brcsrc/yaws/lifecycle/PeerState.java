@@ -0,0 +1,13 @@
+package com.brcsrc.yaws.lifecycle;
+
+/**
+ * Connection state of a peer as classified from the age of its latest handshake
+ */
+public enum PeerState {
+    /** handshake within yaws.lifecycle.online-handshake-seconds, the session can carry traffic */
+    ONLINE,
+    /** the session expired but the peer handshook recently enough to be expected back */
+    IDLE,
+    /** no handshake within yaws.lifecycle.offline-handshake-seconds, or never */
+    OFFLINE
+}
@@ -0,0 +1,198 @@
+package com.brcsrc.yaws.live;
+
+import com.brcsrc.yaws.aggregates.PeerAggregates;
+import com.brcsrc.yaws.aggregates.PeerAggregates.Summary;
+import com.brcsrc.yaws.aggregates.PeerAggregator;
+import com.brcsrc.yaws.lifecycle.PeerLifecycleDetector;
+import com.brcsrc.yaws.lifecycle.PeerState;
+import com.brcsrc.yaws.model.ClientLiveStatus;
+import com.brcsrc.yaws.model.NetworkClient;
+import com.brcsrc.yaws.model.NetworkLiveStatus;
+import com.brcsrc.yaws.persistence.NetworkClientRepository;
+import com.brcsrc.yaws.system.ClientConnectionInformation;
+import com.brcsrc.yaws.system.WireguardChangeListener;
+import com.brcsrc.yaws.system.WireguardConnectionDiff;
+import com.brcsrc.yaws.system.WireguardInformationProvider;
+import com.brcsrc.yaws.system.WireguardInformationProvider.WireguardConnectionData;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiFunction;
+import java.util.function.Supplier;
+
+/**
+ * Joins the live peers of the provider's snapshot with the clients of the database, so the
+ * REST listings can report the live status of every client and network without a request or a
+ * query per client.
+ *
+ * Every client known to yaws has an entry keyed by its public key, holding its network, its
+ * client name and tag and its peer from the latest snapshot. The entries are loaded once on startup,
+ * then kept up to date incrementally: a refresh only replaces the peers in its diff, and the
+ * services add or drop an entry when a client or network is created or deleted. Peers in the
+ * dump that are no client of yaws, e.g. added by hand with wg set, are not joined.
+ *
+ * States are classified when read with the thresholds of PeerLifecycleDetector, since a peer
+ * goes stale without the dump changing. Network statuses come from the summaries of
+ * PeerAggregator.
+ */
+@Component
+public class LivePeerDirectory implements WireguardChangeListener {
+    private static final Logger logger = LoggerFactory.getLogger(LivePeerDirectory.class);
+
+    /**
+     * A client joined with its live peer
+     * @param peer ClientConnectionInformation - null if the client is not on its interface
+     */
+    private record NamedPeer(String publicKey, String networkName, String clientName, String clientTag,
+                             ClientConnectionInformation peer) {}
+
+    private final WireguardInformationProvider wireguardInfo;
+    private final NetworkClientRepository networkClientRepository;
+    private final Supplier<WireguardConnectionData> snapshot;
+    private final BiFunction<Long, Long, PeerState> classifier;
+    private final Supplier<PeerAggregates> aggregates;
+
+    // client public key to entry, written by the refresh thread and the request threads
+    private final Map<String, NamedPeer> entries = new ConcurrentHashMap<>();
+    // bumped whenever a client is joined or dropped, for caches of the client names and tags
+    private final AtomicLong generation = new AtomicLong();
+
+    @Autowired
+    public LivePeerDirectory(WireguardInformationProvider wireguardInfo, NetworkClientRepository networkClientRepository,
+                             PeerLifecycleDetector lifecycleDetector, PeerAggregator aggregator) {
+        this(
+            wireguardInfo,
+            networkClientRepository,
+            wireguardInfo::getConnectionData,
+            lifecycleDetector::classify,
+            aggregator::getAggregates
+        );
+    }
+
+    /**
+     * @param classifier BiFunction - state of a peer from its latest handshake in epoch seconds and the time in epoch millis
+     */
+    LivePeerDirectory(WireguardInformationProvider wireguardInfo, NetworkClientRepository networkClientRepository,
+                      Supplier<WireguardConnectionData> snapshot, BiFunction<Long, Long, PeerState> classifier,
+                      Supplier<PeerAggregates> aggregates) {
+        this.wireguardInfo = wireguardInfo;
+        this.networkClientRepository = networkClientRepository;
+        this.snapshot = snapshot;
+        this.classifier = classifier;
+        this.aggregates = aggregates;
+    }
+
+    @PostConstruct
+    public void initialize() {
+        // registered before loading, a refresh in between is seen by both
+        wireguardInfo.addChangeListener(this);
+        List<NetworkClient> networkClients = networkClientRepository.findAll();
+        networkClients.forEach(this::clientAdded);
+        logger.info("Joined {} clients with their live peers", networkClients.size());
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        wireguardInfo.removeChangeListener(this);
+    }
+
+    @Override
+    public void onChange(WireguardConnectionDiff diff) {
+        Map<String, ClientConnectionInformation> peers = diff.getCurrent().getPeersByPublicKey();
+        for (String publicKey : diff.getAffectedPeerKeys()) {
+            entries.computeIfPresent(publicKey, (key, entry) ->
+                    new NamedPeer(key, entry.networkName(), entry.clientName(), entry.clientTag(), peers.get(key)));
+        }
+    }
+
+    /**
+     * Joins a client created on a network, or loaded on startup
+     */
+    public void clientAdded(NetworkClient networkClient) {
+        String publicKey = networkClient.getClient().getClientPublicKeyValue();
+        // compute reads the snapshot under the entry's lock, a concurrent refresh cannot put back an older peer
+        entries.compute(publicKey, (key, entry) -> new NamedPeer(key, networkClient.getNetwork().getNetworkName(),
+                networkClient.getClient().getClientName(), networkClient.getClient().getClientTag(),
+                snapshot.get().getPeersByPublicKey().get(key)));
+        generation.incrementAndGet();
+    }
+
+    /**
+     * Drops a client deleted from its network
+     */
+    public void clientRemoved(String clientPublicKey) {
+        entries.remove(clientPublicKey);
+        generation.incrementAndGet();
+    }
+
+    /**
+     * Drops every client of a deleted network
+     */
+    public void networkRemoved(String networkName) {
+        entries.values().removeIf(entry -> entry.networkName().equals(networkName));
+        generation.incrementAndGet();
+    }
+
+    /**
+     * @return String - name of the client with this public key, null if the peer is no client of yaws
+     */
+    public String getClientName(String clientPublicKey) {
+        NamedPeer entry = entries.get(clientPublicKey);
+        return entry == null ? null : entry.clientName();
+    }
+
+    /**
+     * @return String - tag of the client with this public key, null if it has none or the peer is no client of yaws
+     */
+    public String getClientTag(String clientPublicKey) {
+        NamedPeer entry = entries.get(clientPublicKey);
+        return entry == null ? null : entry.clientTag();
+    }
+
+    /**
+     * @return long - increases whenever a client is joined or dropped, not on refreshes
+     */
+    public long getGeneration() {
+        return generation.get();
+    }
+
+    /**
+     * @return ClientLiveStatus - live status of a client's peer, not present if it is not on its interface
+     */
+    public ClientLiveStatus getClientStatus(String clientPublicKey) {
+        NamedPeer entry = entries.get(clientPublicKey);
+        ClientConnectionInformation peer = entry == null ? null : entry.peer();
+        if (peer == null) {
+            return new ClientLiveStatus(false, PeerState.OFFLINE, null, null, null, null);
+        }
+        Long handshake = peer.knownLatestHandshakeEpochSeconds();
+        return new ClientLiveStatus(true, classifier.apply(handshake, now()), handshake, peer.knownEndpoint(),
+                peer.getSmoothedReceiveBytesPerSecond(), peer.getSmoothedSendBytesPerSecond());
+    }
+
+    /**
+     * @return NetworkLiveStatus - live status of a network's interface, down and empty if it is not up
+     */
+    public NetworkLiveStatus getNetworkStatus(String networkPublicKey) {
+        boolean up = snapshot.get().getNetworksByPublicKey().containsKey(networkPublicKey);
+        Summary summary = aggregates.get().networks().get(networkPublicKey);
+        if (!up || summary == null) {
+            return new NetworkLiveStatus(up, 0, Map.of(), 0, 0);
+        }
+        return new NetworkLiveStatus(true, summary.peers(), summary.stateCounts(),
+                summary.receiveBytesPerSecond(), summary.sendBytesPerSecond());
+    }
+
+    private long now() {
+        long refreshed = snapshot.get().getRefreshedEpochMillis();
+        return refreshed > 0 ? refreshed : System.currentTimeMillis();
+    }
+}
@@ -2,6 +2,7 @@ package com.brcsrc.yaws.model;
 import jakarta.persistence.Entity;
 import jakarta.persistence.Id;
 import jakarta.persistence.Table;
+import jakarta.persistence.Transient;
 
 @Entity
 @Table(name = "clients")
@@ -22,6 +23,16 @@ public class Client {
     private int networkListenPort;
     private String clientTag;
 
+    // lifetime transfer totals filled in on describe and list, kept in client_transfer_totals
+    @Transient
+    private Long lifetimeBytesReceived;
+    @Transient
+    private Long lifetimeBytesSent;
+
+    // live state of the peer filled in on describe and list, from the last refresh
+    @Transient
+    private ClientLiveStatus liveStatus;
+
     public String getClientName() {
         return clientName;
     }
@@ -110,6 +121,30 @@ public class Client {
         this.clientTag = clientTag;
     }
 
+    public Long getLifetimeBytesReceived() {
+        return lifetimeBytesReceived;
+    }
+
+    public void setLifetimeBytesReceived(Long lifetimeBytesReceived) {
+        this.lifetimeBytesReceived = lifetimeBytesReceived;
+    }
+
+    public Long getLifetimeBytesSent() {
+        return lifetimeBytesSent;
+    }
+
+    public void setLifetimeBytesSent(Long lifetimeBytesSent) {
+        this.lifetimeBytesSent = lifetimeBytesSent;
+    }
+
+    public ClientLiveStatus getLiveStatus() {
+        return liveStatus;
+    }
+
+    public void setLiveStatus(ClientLiveStatus liveStatus) {
+        this.liveStatus = liveStatus;
+    }
+
     @Override
     public String toString() {
         return "Client{" +
@@ -124,6 +159,9 @@ public class Client {
                 ", networkEndpoint='" + networkEndpoint + '\'' +
                 ", networkListenPort='" + networkListenPort + '\'' +
                 ", clientTag='" + clientTag + '\'' +
+                ", lifetimeBytesReceived=" + lifetimeBytesReceived +
+                ", lifetimeBytesSent=" + lifetimeBytesSent +
+                ", liveStatus=" + liveStatus +
                 '}';
     }
 }
@@ -0,0 +1,19 @@
+package com.brcsrc.yaws.model;
+
+import com.brcsrc.yaws.lifecycle.PeerState;
+
+/**
+ * Live state of a client's peer as of the last WireGuard refresh, filled in on describe and list.
+ * A client that is not configured on its interface, because the network is down, is not
+ * present and OFFLINE.
+ *
+ * @param receiveBytesPerSecond smoothed rate, null until two refreshes saw the peer, likewise sendBytesPerSecond
+ */
+public record ClientLiveStatus(
+        boolean present,
+        PeerState state,
+        Long latestHandshakeEpochSeconds,
+        String endpoint,
+        Double receiveBytesPerSecond,
+        Double sendBytesPerSecond
+) {}
@@ -0,0 +1,84 @@
+package com.brcsrc.yaws.model;
+
+import jakarta.persistence.Entity;
+import jakarta.persistence.Id;
+import jakarta.persistence.Table;
+
+/**
+ * lifetime transfer counters of a peer. wireguard resets its counters whenever the interface
+ * is brought down, the offsets hold what was counted before the last reset and the last
+ * counters are what wireguard reported when the row was written, so a reset that happens while
+ * yaws is not running is still noticed on the next start.
+ */
+@Entity
+@Table(name = "client_transfer_totals")
+public class ClientTransferTotals {
+
+    @Id
+    private String clientPublicKeyValue;
+    private long bytesReceivedOffset;
+    private long bytesSentOffset;
+    private long lastBytesReceived;
+    private long lastBytesSent;
+    private long updatedEpochMillis;
+
+    public String getClientPublicKeyValue() {
+        return clientPublicKeyValue;
+    }
+
+    public void setClientPublicKeyValue(String clientPublicKeyValue) {
+        this.clientPublicKeyValue = clientPublicKeyValue;
+    }
+
+    public long getBytesReceivedOffset() {
+        return bytesReceivedOffset;
+    }
+
+    public void setBytesReceivedOffset(long bytesReceivedOffset) {
+        this.bytesReceivedOffset = bytesReceivedOffset;
+    }
+
+    public long getBytesSentOffset() {
+        return bytesSentOffset;
+    }
+
+    public void setBytesSentOffset(long bytesSentOffset) {
+        this.bytesSentOffset = bytesSentOffset;
+    }
+
+    public long getLastBytesReceived() {
+        return lastBytesReceived;
+    }
+
+    public void setLastBytesReceived(long lastBytesReceived) {
+        this.lastBytesReceived = lastBytesReceived;
+    }
+
+    public long getLastBytesSent() {
+        return lastBytesSent;
+    }
+
+    public void setLastBytesSent(long lastBytesSent) {
+        this.lastBytesSent = lastBytesSent;
+    }
+
+    public long getUpdatedEpochMillis() {
+        return updatedEpochMillis;
+    }
+
+    public void setUpdatedEpochMillis(long updatedEpochMillis) {
+        this.updatedEpochMillis = updatedEpochMillis;
+    }
+
+    @Override
+    public String toString() {
+        return "ClientTransferTotals{" +
+                "clientPublicKeyValue='" + clientPublicKeyValue + '\'' +
+                ", bytesReceivedOffset=" + bytesReceivedOffset +
+                ", bytesSentOffset=" + bytesSentOffset +
+                ", lastBytesReceived=" + lastBytesReceived +
+                ", lastBytesSent=" + lastBytesSent +
+                ", updatedEpochMillis=" + updatedEpochMillis +
+                '}';
+    }
+}
@@ -6,6 +6,7 @@ import jakarta.persistence.EnumType;
 import jakarta.persistence.Enumerated;
 import jakarta.persistence.Id;
 import jakarta.persistence.Table;
+import jakarta.persistence.Transient;
 import jakarta.validation.constraints.Max;
 import jakarta.validation.constraints.Min;
 import jakarta.validation.constraints.NotNull;
@@ -49,6 +50,11 @@ public class Network {
     @Enumerated(EnumType.STRING)
     private NetworkStatus networkStatus;
 
+    // live state of the interface filled in on describe and list, from the last refresh
+    @Null
+    @Transient
+    private NetworkLiveStatus liveStatus;
+
 
     public String getNetworkName() {
         return networkName;
@@ -114,6 +120,14 @@ public class Network {
         this.networkStatus = networkStatus;
     }
 
+    public NetworkLiveStatus getLiveStatus() {
+        return liveStatus;
+    }
+
+    public void setLiveStatus(NetworkLiveStatus liveStatus) {
+        this.liveStatus = liveStatus;
+    }
+
     @Override
     public String toString() {
         return "Network{" +
@@ -125,6 +139,7 @@ public class Network {
                 ", networkPublicKeyValue='" + networkPublicKeyValue + '\'' +
                 ", networkTag='" + networkTag + '\'' +
                 ", networkStatus=" + networkStatus +
+                ", liveStatus=" + liveStatus +
                 '}';
     }
 }
@@ -0,0 +1,19 @@
+package com.brcsrc.yaws.model;
+
+import com.brcsrc.yaws.lifecycle.PeerState;
+
+import java.util.Map;
+
+/**
+ * Live state of a network's interface as of the last WireGuard refresh, filled in on describe and list
+ *
+ * @param up true if the interface exists
+ * @param receiveBytesPerSecond smoothed rate summed over the peers, likewise sendBytesPerSecond
+ */
+public record NetworkLiveStatus(
+        boolean up,
+        int peers,
+        Map<PeerState, Integer> stateCounts,
+        double receiveBytesPerSecond,
+        double sendBytesPerSecond
+) {}
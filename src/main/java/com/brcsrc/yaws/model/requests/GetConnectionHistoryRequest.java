@@ -0,0 +1,55 @@
+package com.brcsrc.yaws.model.requests;
+
+/**
+ * A request object for the bandwidth history of a network or client. The time range defaults
+ * to the last hour and maxPoints to 200 when not given.
+ */
+public class GetConnectionHistoryRequest {
+
+    private String publicKeyValue;
+    private Long fromEpochMillis;
+    private Long toEpochMillis;
+    private Integer maxPoints;
+
+    public String getPublicKeyValue() {
+        return publicKeyValue;
+    }
+
+    public void setPublicKeyValue(String publicKeyValue) {
+        this.publicKeyValue = publicKeyValue;
+    }
+
+    public Long getFromEpochMillis() {
+        return fromEpochMillis;
+    }
+
+    public void setFromEpochMillis(Long fromEpochMillis) {
+        this.fromEpochMillis = fromEpochMillis;
+    }
+
+    public Long getToEpochMillis() {
+        return toEpochMillis;
+    }
+
+    public void setToEpochMillis(Long toEpochMillis) {
+        this.toEpochMillis = toEpochMillis;
+    }
+
+    public Integer getMaxPoints() {
+        return maxPoints;
+    }
+
+    public void setMaxPoints(Integer maxPoints) {
+        this.maxPoints = maxPoints;
+    }
+
+    @Override
+    public String toString() {
+        return "GetConnectionHistoryRequest{"
+                + "publicKeyValue='" + publicKeyValue + '\''
+                + ", fromEpochMillis=" + fromEpochMillis
+                + ", toEpochMillis=" + toEpochMillis
+                + ", maxPoints=" + maxPoints
+                + '}';
+    }
+}
@@ -0,0 +1,149 @@
+package com.brcsrc.yaws.model.requests;
+
+import java.util.List;
+
+/**
+ * A request object for querying the live peers, every criterion is optional. states are
+ * ONLINE, IDLE or OFFLINE, sort is one of PUBLIC_KEY, CLIENT_NAME, HANDSHAKE, RATE or VOLUME.
+ * clientTag matches the tag exactly, clientNamePrefix the start of the name. allowedIpPrefix is
+ * an address or CIDR, it matches the peers with an allowed IP inside it or containing it.
+ */
+public class QueryPeersRequest {
+
+    private String networkPublicKeyValue;
+    private List<String> states;
+    private Long minHandshakeAgeSeconds;
+    private Long maxHandshakeAgeSeconds;
+    private Double minBytesPerSecond;
+    private Double maxBytesPerSecond;
+    private String allowedIpPrefix;
+    private String clientNamePrefix;
+    private String clientTag;
+    private String sort;
+    private boolean descending;
+    private Integer limit;
+    private String cursor;
+
+    public String getNetworkPublicKeyValue() {
+        return networkPublicKeyValue;
+    }
+
+    public void setNetworkPublicKeyValue(String networkPublicKeyValue) {
+        this.networkPublicKeyValue = networkPublicKeyValue;
+    }
+
+    public List<String> getStates() {
+        return states;
+    }
+
+    public void setStates(List<String> states) {
+        this.states = states;
+    }
+
+    public Long getMinHandshakeAgeSeconds() {
+        return minHandshakeAgeSeconds;
+    }
+
+    public void setMinHandshakeAgeSeconds(Long minHandshakeAgeSeconds) {
+        this.minHandshakeAgeSeconds = minHandshakeAgeSeconds;
+    }
+
+    public Long getMaxHandshakeAgeSeconds() {
+        return maxHandshakeAgeSeconds;
+    }
+
+    public void setMaxHandshakeAgeSeconds(Long maxHandshakeAgeSeconds) {
+        this.maxHandshakeAgeSeconds = maxHandshakeAgeSeconds;
+    }
+
+    public Double getMinBytesPerSecond() {
+        return minBytesPerSecond;
+    }
+
+    public void setMinBytesPerSecond(Double minBytesPerSecond) {
+        this.minBytesPerSecond = minBytesPerSecond;
+    }
+
+    public Double getMaxBytesPerSecond() {
+        return maxBytesPerSecond;
+    }
+
+    public void setMaxBytesPerSecond(Double maxBytesPerSecond) {
+        this.maxBytesPerSecond = maxBytesPerSecond;
+    }
+
+    public String getAllowedIpPrefix() {
+        return allowedIpPrefix;
+    }
+
+    public void setAllowedIpPrefix(String allowedIpPrefix) {
+        this.allowedIpPrefix = allowedIpPrefix;
+    }
+
+    public String getClientNamePrefix() {
+        return clientNamePrefix;
+    }
+
+    public void setClientNamePrefix(String clientNamePrefix) {
+        this.clientNamePrefix = clientNamePrefix;
+    }
+
+    public String getClientTag() {
+        return clientTag;
+    }
+
+    public void setClientTag(String clientTag) {
+        this.clientTag = clientTag;
+    }
+
+    public String getSort() {
+        return sort;
+    }
+
+    public void setSort(String sort) {
+        this.sort = sort;
+    }
+
+    public boolean isDescending() {
+        return descending;
+    }
+
+    public void setDescending(boolean descending) {
+        this.descending = descending;
+    }
+
+    public Integer getLimit() {
+        return limit;
+    }
+
+    public void setLimit(Integer limit) {
+        this.limit = limit;
+    }
+
+    public String getCursor() {
+        return cursor;
+    }
+
+    public void setCursor(String cursor) {
+        this.cursor = cursor;
+    }
+
+    @Override
+    public String toString() {
+        return "QueryPeersRequest{"
+                + "networkPublicKeyValue='" + networkPublicKeyValue + '\''
+                + ", states=" + states
+                + ", minHandshakeAgeSeconds=" + minHandshakeAgeSeconds
+                + ", maxHandshakeAgeSeconds=" + maxHandshakeAgeSeconds
+                + ", minBytesPerSecond=" + minBytesPerSecond
+                + ", maxBytesPerSecond=" + maxBytesPerSecond
+                + ", allowedIpPrefix='" + allowedIpPrefix + '\''
+                + ", clientNamePrefix='" + clientNamePrefix + '\''
+                + ", clientTag='" + clientTag + '\''
+                + ", sort='" + sort + '\''
+                + ", descending=" + descending
+                + ", limit=" + limit
+                + ", cursor='" + cursor + '\''
+                + '}';
+    }
+}
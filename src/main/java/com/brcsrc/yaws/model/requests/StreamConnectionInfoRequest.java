@@ -0,0 +1,47 @@
+package com.brcsrc.yaws.model.requests;
+
+import java.util.List;
+
+/**
+ * A request object for streaming WireGuard connection information of several networks and
+ * clients over one connection, also used to change the subscription of an open stream.
+ */
+public class StreamConnectionInfoRequest {
+
+    private List<String> networkPublicKeyValues;
+    private List<String> clientPublicKeyValues;
+    private boolean onlineOnly;
+
+    public List<String> getNetworkPublicKeyValues() {
+        return networkPublicKeyValues;
+    }
+
+    public void setNetworkPublicKeyValues(List<String> networkPublicKeyValues) {
+        this.networkPublicKeyValues = networkPublicKeyValues;
+    }
+
+    public List<String> getClientPublicKeyValues() {
+        return clientPublicKeyValues;
+    }
+
+    public void setClientPublicKeyValues(List<String> clientPublicKeyValues) {
+        this.clientPublicKeyValues = clientPublicKeyValues;
+    }
+
+    public boolean isOnlineOnly() {
+        return onlineOnly;
+    }
+
+    public void setOnlineOnly(boolean onlineOnly) {
+        this.onlineOnly = onlineOnly;
+    }
+
+    @Override
+    public String toString() {
+        return "StreamConnectionInfoRequest{"
+                + "networkPublicKeyValues=" + networkPublicKeyValues
+                + ", clientPublicKeyValues=" + clientPublicKeyValues
+                + ", onlineOnly=" + onlineOnly
+                + '}';
+    }
+}
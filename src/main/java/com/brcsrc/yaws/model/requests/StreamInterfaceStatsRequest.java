@@ -0,0 +1,27 @@
+package com.brcsrc.yaws.model.requests;
+
+import java.util.List;
+
+/**
+ * A request object for streaming interface counters, the list is optional and empty means
+ * every active network.
+ */
+public class StreamInterfaceStatsRequest {
+
+    private List<String> networkPublicKeyValues;
+
+    public List<String> getNetworkPublicKeyValues() {
+        return networkPublicKeyValues;
+    }
+
+    public void setNetworkPublicKeyValues(List<String> networkPublicKeyValues) {
+        this.networkPublicKeyValues = networkPublicKeyValues;
+    }
+
+    @Override
+    public String toString() {
+        return "StreamInterfaceStatsRequest{"
+                + "networkPublicKeyValues=" + networkPublicKeyValues
+                + '}';
+    }
+}
@@ -0,0 +1,37 @@
+package com.brcsrc.yaws.model.requests;
+
+import java.util.List;
+
+/**
+ * A request object for streaming peer lifecycle events, both lists are optional and empty
+ * means no restriction.
+ */
+public class StreamPeerEventsRequest {
+
+    private List<String> networkPublicKeyValues;
+    private List<String> eventTypes;
+
+    public List<String> getNetworkPublicKeyValues() {
+        return networkPublicKeyValues;
+    }
+
+    public void setNetworkPublicKeyValues(List<String> networkPublicKeyValues) {
+        this.networkPublicKeyValues = networkPublicKeyValues;
+    }
+
+    public List<String> getEventTypes() {
+        return eventTypes;
+    }
+
+    public void setEventTypes(List<String> eventTypes) {
+        this.eventTypes = eventTypes;
+    }
+
+    @Override
+    public String toString() {
+        return "StreamPeerEventsRequest{"
+                + "networkPublicKeyValues=" + networkPublicKeyValues
+                + ", eventTypes=" + eventTypes
+                + '}';
+    }
+}
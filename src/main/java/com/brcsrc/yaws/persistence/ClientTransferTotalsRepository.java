@@ -0,0 +1,6 @@
+package com.brcsrc.yaws.persistence;
+
+import com.brcsrc.yaws.model.ClientTransferTotals;
+import org.springframework.data.jpa.repository.JpaRepository;
+
+public interface ClientTransferTotalsRepository extends JpaRepository<ClientTransferTotals, String> {}
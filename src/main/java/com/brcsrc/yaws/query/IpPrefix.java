@@ -0,0 +1,137 @@
+package com.brcsrc.yaws.query;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.Arrays;
+
+/**
+ * An IPv4 or IPv6 network in CIDR notation, a bare address is the network of only that address.
+ * Only literals are parsed, nothing is ever resolved. Ordered by family, network address and
+ * prefix length, so the networks inside another one are a contiguous range.
+ */
+final class IpPrefix implements Comparable<IpPrefix> {
+
+    private final byte[] address;
+    private final int length;
+
+    private IpPrefix(byte[] address, int length) {
+        this.address = address;
+        this.length = length;
+    }
+
+    /**
+     * @param text String - an address (10.0.0.2, fd00::2) or a CIDR (10.0.0.0/24, fd00::/64)
+     * @throws IllegalArgumentException if text is neither
+     */
+    static IpPrefix parse(String text) {
+        IpPrefix prefix = parseOrNull(text.trim());
+        if (prefix == null) {
+            throw new IllegalArgumentException(String.format("'%s' is not an IP address or CIDR", text));
+        }
+        return prefix;
+    }
+
+    /**
+     * @return IpPrefix - the network, or null if text is neither an address nor a CIDR
+     */
+    static IpPrefix parseOrNull(String text) {
+        int slash = text.indexOf('/');
+        String literal = slash < 0 ? text : text.substring(0, slash);
+        byte[] address = literal.indexOf(':') >= 0 ? parseIpv6(literal) : parseIpv4(literal);
+        if (address == null) {
+            return null;
+        }
+        int length = address.length * 8;
+        if (slash >= 0) {
+            String bits = text.substring(slash + 1);
+            if (bits.isEmpty() || bits.length() > 3 || !bits.chars().allMatch(Character::isDigit)
+                    || Integer.parseInt(bits) > length) {
+                return null;
+            }
+            length = Integer.parseInt(bits);
+        }
+        return new IpPrefix(masked(address, length), length);
+    }
+
+    private static byte[] parseIpv4(String literal) {
+        String[] octets = literal.split("\\.", -1);
+        if (octets.length != 4) {
+            return null;
+        }
+        byte[] address = new byte[4];
+        for (int i = 0; i < 4; i++) {
+            String octet = octets[i];
+            if (octet.isEmpty() || octet.length() > 3 || !octet.chars().allMatch(Character::isDigit)
+                    || Integer.parseInt(octet) > 255) {
+                return null;
+            }
+            address[i] = (byte) Integer.parseInt(octet);
+        }
+        return address;
+    }
+
+    private static byte[] parseIpv6(String literal) {
+        // with a colon and nothing but hex digits, colons and dots InetAddress only parses, it never resolves
+        if (!literal.chars().allMatch(c -> Character.digit(c, 16) >= 0 || c == ':' || c == '.')) {
+            return null;
+        }
+        try {
+            return InetAddress.getByName(literal).getAddress();
+        } catch (UnknownHostException e) {
+            return null;
+        }
+    }
+
+    private static byte[] masked(byte[] address, int length) {
+        byte[] network = address.clone();
+        for (int bit = length; bit < network.length * 8; bit++) {
+            network[bit / 8] &= (byte) ~(0x80 >>> (bit % 8));
+        }
+        return network;
+    }
+
+    int length() {
+        return length;
+    }
+
+    /**
+     * @return IpPrefix - the network of this one's address with a prefix of length bits, length at most this one's
+     */
+    IpPrefix truncated(int length) {
+        return new IpPrefix(masked(address, length), length);
+    }
+
+    /**
+     * @return boolean - whether other is this network or a part of it
+     */
+    boolean contains(IpPrefix other) {
+        return address.length == other.address.length
+                && length <= other.length
+                && Arrays.equals(address, masked(other.address, length));
+    }
+
+    /**
+     * @return boolean - whether the two networks share an address, two CIDR networks only do if one contains the other
+     */
+    boolean overlaps(IpPrefix other) {
+        return contains(other) || other.contains(this);
+    }
+
+    @Override
+    public int compareTo(IpPrefix other) {
+        if (address.length != other.address.length) {
+            return Integer.compare(address.length, other.address.length);
+        }
+        int compared = Arrays.compareUnsigned(address, other.address);
+        return compared != 0 ? compared : Integer.compare(length, other.length);
+    }
+
+    @Override
+    public String toString() {
+        try {
+            return InetAddress.getByAddress(address).getHostAddress() + "/" + length;
+        } catch (UnknownHostException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,488 @@
+package com.brcsrc.yaws.query;
+
+import com.brcsrc.yaws.lifecycle.PeerState;
+import com.brcsrc.yaws.query.PeerQuery.SortField;
+import com.brcsrc.yaws.query.PeerQueryResult.Peer;
+import com.brcsrc.yaws.system.ClientConnectionInformation;
+import com.brcsrc.yaws.system.NetworkConnectionInformation;
+import com.brcsrc.yaws.system.WireguardInformationProvider.WireguardConnectionData;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.stream.IntStream;
+
+/**
+ * The peers of one snapshot with the indexes a PeerQuery is evaluated against. Immutable once
+ * built, so any number of queries can share it.
+ *
+ * Every sort field has the peers in its order, the range criteria (handshake age, rate, client
+ * name and allowed IP network) are binary searches in sorted keys, network, client tag and
+ * state are precomputed lists. A query starts from the smallest of the candidate sets its criteria select
+ * and checks the other criteria on those peers only. If no criterion narrows the peers much,
+ * the sort order is walked from the cursor instead, which stops once the page is full.
+ */
+final class PeerIndex {
+
+    private static final int[] NO_PEERS = new int[0];
+    // a candidate set above 1 / SCAN_FRACTION of the peers is not worth copying and sorting
+    private static final int SCAN_FRACTION = 4;
+
+    private static final Comparator<Peer>[] COMPARATORS = comparators();
+
+    final long version;
+    final long generation;
+    private final long refreshedEpochMillis;
+    private final long nowSeconds;
+    private final Peer[] peers;
+    private final IpPrefix[][] peerAllowedIps;
+
+    // per sort field the peers in its ascending order, and the position of every peer in it
+    private final int[][] order = new int[SortField.values().length][];
+    private final int[][] rank = new int[SortField.values().length][];
+
+    // sort keys in the order of their field
+    private final long[] handshakes;
+    private final double[] rates;
+    private final String[] names;
+    private final int namedPeers;
+
+    // every allowed IP of every peer, sorted by family, network address and length
+    private final IpPrefix[] allowedIps;
+    private final int[] allowedIpPeers;
+
+    private final Map<String, int[]> byNetwork = new HashMap<>();
+    private final Map<String, int[]> byClientTag = new HashMap<>();
+    private final int[][] byState = new int[PeerState.values().length][];
+
+    private PeerIndex(long version, long generation, long refreshedEpochMillis, long nowEpochMillis, Peer[] peers) {
+        this.version = version;
+        this.generation = generation;
+        this.refreshedEpochMillis = refreshedEpochMillis;
+        this.nowSeconds = nowEpochMillis / 1000;
+        this.peers = peers;
+
+        for (SortField field : SortField.values()) {
+            int[] sorted = IntStream.range(0, peers.length).boxed()
+                    .sorted((a, b) -> COMPARATORS[field.ordinal()].compare(peers[a], peers[b]))
+                    .mapToInt(Integer::intValue).toArray();
+            int[] positions = new int[peers.length];
+            for (int i = 0; i < sorted.length; i++) {
+                positions[sorted[i]] = i;
+            }
+            order[field.ordinal()] = sorted;
+            rank[field.ordinal()] = positions;
+        }
+
+        int[] byHandshake = order[SortField.HANDSHAKE.ordinal()];
+        int[] byRate = order[SortField.RATE.ordinal()];
+        int[] byName = order[SortField.CLIENT_NAME.ordinal()];
+        handshakes = new long[peers.length];
+        rates = new double[peers.length];
+        names = new String[peers.length];
+        int named = 0;
+        for (int i = 0; i < peers.length; i++) {
+            handshakes[i] = handshakeOf(peers[byHandshake[i]]);
+            rates[i] = rateOf(peers[byRate[i]]);
+            names[i] = peers[byName[i]].clientName();
+            if (names[i] != null) {
+                named++;
+            }
+        }
+        namedPeers = named;
+
+        peerAllowedIps = new IpPrefix[peers.length][];
+        List<IpPrefix> ips = new ArrayList<>();
+        List<Integer> ipPeers = new ArrayList<>();
+        Map<String, List<Integer>> networks = new HashMap<>();
+        Map<String, List<Integer>> clientTags = new HashMap<>();
+        List<List<Integer>> states = new ArrayList<>();
+        for (int i = 0; i < PeerState.values().length; i++) {
+            states.add(new ArrayList<>());
+        }
+        for (int i = 0; i < peers.length; i++) {
+            peerAllowedIps[i] = splitAllowedIps(peers[i].allowedIps());
+            for (IpPrefix ip : peerAllowedIps[i]) {
+                ips.add(ip);
+                ipPeers.add(i);
+            }
+            networks.computeIfAbsent(peers[i].networkPublicKey(), key -> new ArrayList<>()).add(i);
+            if (peers[i].clientTag() != null) {
+                clientTags.computeIfAbsent(peers[i].clientTag(), tag -> new ArrayList<>()).add(i);
+            }
+            states.get(peers[i].state().ordinal()).add(i);
+        }
+        int[] ipOrder = IntStream.range(0, ips.size()).boxed()
+                .sorted(Comparator.comparing(ips::get))
+                .mapToInt(Integer::intValue).toArray();
+        allowedIps = new IpPrefix[ipOrder.length];
+        allowedIpPeers = new int[ipOrder.length];
+        for (int i = 0; i < ipOrder.length; i++) {
+            allowedIps[i] = ips.get(ipOrder[i]);
+            allowedIpPeers[i] = ipPeers.get(ipOrder[i]);
+        }
+        networks.forEach((key, members) -> byNetwork.put(key, members.stream().mapToInt(Integer::intValue).toArray()));
+        clientTags.forEach((tag, members) -> byClientTag.put(tag, members.stream().mapToInt(Integer::intValue).toArray()));
+        for (PeerState state : PeerState.values()) {
+            byState[state.ordinal()] = states.get(state.ordinal()).stream().mapToInt(Integer::intValue).toArray();
+        }
+    }
+
+    /**
+     * @param clientNames Function - client name by peer public key, null for peers that are no client of yaws
+     * @param clientTags Function - client tag by peer public key, null for peers without one
+     * @param classifier BiFunction - state of a peer from its latest handshake in epoch seconds and the time in epoch millis
+     */
+    static PeerIndex build(WireguardConnectionData data, long generation, Function<String, String> clientNames,
+                           Function<String, String> clientTags, BiFunction<Long, Long, PeerState> classifier) {
+        long now = data.getRefreshedEpochMillis() > 0 ? data.getRefreshedEpochMillis() : System.currentTimeMillis();
+        List<Peer> peers = new ArrayList<>(data.getPeersByPublicKey().size());
+        for (NetworkConnectionInformation network : data.getNetworksByPublicKey().values()) {
+            for (ClientConnectionInformation peer : network.getPeers().values()) {
+                Long handshake = peer.knownLatestHandshakeEpochSeconds();
+                peers.add(new Peer(peer.getPublicKey(), network.getPublicKey(), network.getInterfaceName(),
+                        clientNames.apply(peer.getPublicKey()), clientTags.apply(peer.getPublicKey()), peer.getAllowedIps(), peer.knownEndpoint(), handshake,
+                        classifier.apply(handshake, now), peer.getSmoothedReceiveBytesPerSecond(),
+                        peer.getSmoothedSendBytesPerSecond(),
+                        peer.getBytesReceived() != null ? peer.getBytesReceived() : 0L,
+                        peer.getBytesSent() != null ? peer.getBytesSent() : 0L));
+            }
+        }
+        return new PeerIndex(data.getVersion(), generation, data.getRefreshedEpochMillis(), now, peers.toArray(new Peer[0]));
+    }
+
+    /**
+     * @throws IllegalArgumentException if the cursor is malformed or from a query with another order,
+     * or the allowed IP filter is no address or CIDR
+     */
+    PeerQueryResult evaluate(PeerQuery query) {
+        SortField sort = query.sort() != null ? query.sort() : SortField.PUBLIC_KEY;
+        Comparator<Peer> comparator = COMPARATORS[sort.ordinal()];
+        int[] sorted = order[sort.ordinal()];
+        boolean descending = query.descending();
+
+        // position in the sort order to continue from, in the direction of the query
+        int start = descending ? sorted.length - 1 : 0;
+        if (query.cursor() != null) {
+            Peer after = decodeCursor(query.cursor(), sort, descending);
+            int firstNotBefore = lowerBound(sorted, comparator, after, false);
+            start = descending ? firstNotBefore - 1 : lowerBound(sorted, comparator, after, true);
+        }
+
+        List<Peer> page = new ArrayList<>(query.limit() + 1);
+        IpPrefix allowedIp = query.allowedIpPrefix() != null ? IpPrefix.parse(query.allowedIpPrefix()) : null;
+        int[] candidates = smallestCandidates(query, allowedIp);
+        if (candidates == null || candidates.length > peers.length / SCAN_FRACTION) {
+            for (int i = start; i >= 0 && i < sorted.length && page.size() <= query.limit(); i += descending ? -1 : 1) {
+                if (matches(sorted[i], query, allowedIp)) {
+                    page.add(peers[sorted[i]]);
+                }
+            }
+        } else {
+            int[] ranks = rank[sort.ordinal()];
+            int[] matching = IntStream.of(candidates).distinct().filter(i -> matches(i, query, allowedIp)).map(i -> ranks[i]).sorted().toArray();
+            int from = Arrays.binarySearch(matching, start);
+            if (from < 0) {
+                // the insertion point is the first rank after start, the one before it the last rank before
+                from = descending ? -from - 2 : -from - 1;
+            }
+            for (int i = from; i >= 0 && i < matching.length && page.size() <= query.limit(); i += descending ? -1 : 1) {
+                page.add(peers[sorted[matching[i]]]);
+            }
+        }
+
+        String nextCursor = null;
+        if (page.size() > query.limit()) {
+            page.remove(page.size() - 1);
+            nextCursor = encodeCursor(page.get(page.size() - 1), sort, descending);
+        }
+        return new PeerQueryResult(version, refreshedEpochMillis, page, nextCursor);
+    }
+
+    private boolean matches(int i, PeerQuery query, IpPrefix allowedIp) {
+        Peer peer = peers[i];
+        if (query.networkPublicKey() != null && !query.networkPublicKey().equals(peer.networkPublicKey())) {
+            return false;
+        }
+        if (query.states() != null && !query.states().isEmpty() && !query.states().contains(peer.state())) {
+            return false;
+        }
+        if (query.minHandshakeAgeSeconds() != null || query.maxHandshakeAgeSeconds() != null) {
+            if (peer.latestHandshakeEpochSeconds() == null) {
+                return false;
+            }
+            long age = nowSeconds - peer.latestHandshakeEpochSeconds();
+            if ((query.minHandshakeAgeSeconds() != null && age < query.minHandshakeAgeSeconds())
+                    || (query.maxHandshakeAgeSeconds() != null && age > query.maxHandshakeAgeSeconds())) {
+                return false;
+            }
+        }
+        double rate = rateOf(peer);
+        if ((query.minBytesPerSecond() != null && rate < query.minBytesPerSecond())
+                || (query.maxBytesPerSecond() != null && rate > query.maxBytesPerSecond())) {
+            return false;
+        }
+        if (query.clientNamePrefix() != null
+                && (peer.clientName() == null || !peer.clientName().startsWith(query.clientNamePrefix()))) {
+            return false;
+        }
+        if (query.clientTag() != null && !query.clientTag().equals(peer.clientTag())) {
+            return false;
+        }
+        if (allowedIp != null) {
+            return Arrays.stream(peerAllowedIps[i]).anyMatch(allowedIp::overlaps);
+        }
+        return true;
+    }
+
+    /**
+     * @return int array - the peers of the smallest candidate set the criteria select, may repeat
+     * a peer, null if no criterion has an index
+     */
+    private int[] smallestCandidates(PeerQuery query, IpPrefix allowedIp) {
+        List<Candidates> sources = new ArrayList<>();
+        if (query.networkPublicKey() != null) {
+            int[] members = byNetwork.getOrDefault(query.networkPublicKey(), NO_PEERS);
+            sources.add(new Candidates(members.length, () -> members));
+        }
+        if (query.clientTag() != null) {
+            int[] members = byClientTag.getOrDefault(query.clientTag(), NO_PEERS);
+            sources.add(new Candidates(members.length, () -> members));
+        }
+        if (query.states() != null && !query.states().isEmpty()) {
+            int size = query.states().stream().mapToInt(state -> byState[state.ordinal()].length).sum();
+            sources.add(new Candidates(size, () -> query.states().stream()
+                    .flatMapToInt(state -> IntStream.of(byState[state.ordinal()])).toArray()));
+        }
+        if (query.minHandshakeAgeSeconds() != null || query.maxHandshakeAgeSeconds() != null) {
+            // peers that never handshook have 0 and are left out by the lower bound
+            long oldest = query.maxHandshakeAgeSeconds() != null ? Math.max(1, nowSeconds - query.maxHandshakeAgeSeconds()) : 1;
+            long newest = query.minHandshakeAgeSeconds() != null ? nowSeconds - query.minHandshakeAgeSeconds() : Long.MAX_VALUE;
+            int from = lowerBound(handshakes, oldest);
+            int to = newest == Long.MAX_VALUE ? handshakes.length : lowerBound(handshakes, newest + 1);
+            sources.add(slice(order[SortField.HANDSHAKE.ordinal()], from, to));
+        }
+        if (query.minBytesPerSecond() != null || query.maxBytesPerSecond() != null) {
+            int from = query.minBytesPerSecond() != null ? lowerBound(rates, query.minBytesPerSecond(), false) : 0;
+            int to = query.maxBytesPerSecond() != null ? lowerBound(rates, query.maxBytesPerSecond(), true) : rates.length;
+            sources.add(slice(order[SortField.RATE.ordinal()], from, to));
+        }
+        if (query.clientNamePrefix() != null) {
+            int from = lowerBound(names, namedPeers, query.clientNamePrefix());
+            int to = lowerBound(names, namedPeers, query.clientNamePrefix() + Character.MAX_VALUE);
+            sources.add(slice(order[SortField.CLIENT_NAME.ordinal()], from, to));
+        }
+        if (allowedIp != null) {
+            int[] overlapping = overlapping(allowedIp);
+            sources.add(new Candidates(overlapping.length, () -> overlapping));
+        }
+        return sources.stream()
+                .min(Comparator.comparingInt(Candidates::size))
+                .map(candidates -> candidates.peers().get())
+                .orElse(null);
+    }
+
+    private record Candidates(int size, Supplier<int[]> peers) {}
+
+    /**
+     * @return int array - the peers with an allowed IP overlapping the network. The networks
+     * inside it follow it in the sort order, the ones containing it are its own network at
+     * every shorter length.
+     */
+    private int[] overlapping(IpPrefix network) {
+        IntStream.Builder overlapping = IntStream.builder();
+        for (int i = lowerBound(allowedIps, network); i < allowedIps.length && network.contains(allowedIps[i]); i++) {
+            overlapping.add(allowedIpPeers[i]);
+        }
+        for (int length = 0; length < network.length(); length++) {
+            IpPrefix containing = network.truncated(length);
+            for (int i = lowerBound(allowedIps, containing); i < allowedIps.length && allowedIps[i].compareTo(containing) == 0; i++) {
+                overlapping.add(allowedIpPeers[i]);
+            }
+        }
+        return overlapping.build().toArray();
+    }
+
+    private static Candidates slice(int[] peers, int from, int to) {
+        int size = Math.max(0, to - from);
+        return new Candidates(size, () -> size == 0 ? NO_PEERS : Arrays.copyOfRange(peers, from, to));
+    }
+
+    // first position whose peer is not before the given one, or with strict the first one after it
+    private int lowerBound(int[] sorted, Comparator<Peer> comparator, Peer peer, boolean strict) {
+        int low = 0;
+        int high = sorted.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            int compared = comparator.compare(peers[sorted[mid]], peer);
+            if (compared < 0 || (strict && compared == 0)) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    private static int lowerBound(long[] sorted, long value) {
+        int low = 0;
+        int high = sorted.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (sorted[mid] < value) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    // first position not below the value, or with inclusive the first one above it
+    private static int lowerBound(double[] sorted, double value, boolean inclusive) {
+        int low = 0;
+        int high = sorted.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (sorted[mid] < value || (inclusive && sorted[mid] == value)) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    private static int lowerBound(String[] sorted, int length, String value) {
+        int low = 0;
+        int high = length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (sorted[mid].compareTo(value) < 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    private static int lowerBound(IpPrefix[] sorted, IpPrefix value) {
+        int low = 0;
+        int high = sorted.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (sorted[mid].compareTo(value) < 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    // entries wg would not print are left out rather than failing the whole index
+    private static IpPrefix[] splitAllowedIps(String allowedIps) {
+        if (allowedIps == null || allowedIps.isBlank() || allowedIps.equals("(none)")) {
+            return new IpPrefix[0];
+        }
+        return Arrays.stream(allowedIps.split(",")).map(String::trim).filter(ip -> !ip.isEmpty())
+                .map(IpPrefix::parseOrNull).filter(Objects::nonNull).toArray(IpPrefix[]::new);
+    }
+
+    static long handshakeOf(Peer peer) {
+        return peer.latestHandshakeEpochSeconds() != null ? peer.latestHandshakeEpochSeconds() : 0;
+    }
+
+    static double rateOf(Peer peer) {
+        return (peer.receiveBytesPerSecond() != null ? peer.receiveBytesPerSecond() : 0)
+                + (peer.sendBytesPerSecond() != null ? peer.sendBytesPerSecond() : 0);
+    }
+
+    static long volumeOf(Peer peer) {
+        return peer.bytesReceived() + peer.bytesSent();
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Comparator<Peer>[] comparators() {
+        Comparator<Peer>[] comparators = new Comparator[SortField.values().length];
+        for (SortField field : SortField.values()) {
+            Comparator<Peer> key = switch (field) {
+                case PUBLIC_KEY -> (a, b) -> 0;
+                case CLIENT_NAME -> Comparator.comparing(Peer::clientName, Comparator.nullsLast(Comparator.naturalOrder()));
+                case HANDSHAKE -> Comparator.comparingLong(PeerIndex::handshakeOf);
+                case RATE -> Comparator.comparingDouble(PeerIndex::rateOf);
+                case VOLUME -> Comparator.comparingLong(PeerIndex::volumeOf);
+            };
+            comparators[field.ordinal()] = key.thenComparing(Peer::publicKey);
+        }
+        return comparators;
+    }
+
+    /*
+     * A cursor is the sort key and public key of the last peer of a page, so the next page starts
+     * after it in the sort order whatever changed in between. It also names the order, a cursor
+     * is only valid for a query with the same sort field and direction.
+     */
+
+    static String encodeCursor(Peer last, SortField sort, boolean descending) {
+        String key = switch (sort) {
+            case PUBLIC_KEY -> "";
+            case CLIENT_NAME -> last.clientName() == null ? "-" : "+" + last.clientName();
+            case HANDSHAKE -> Long.toString(handshakeOf(last));
+            case RATE -> Double.toString(rateOf(last));
+            case VOLUME -> Long.toString(volumeOf(last));
+        };
+        String cursor = String.join("\n", sort.name(), descending ? "desc" : "asc", key, last.publicKey());
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(cursor.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * @return Peer - a peer with only the sort key and public key of the cursor
+     */
+    static Peer decodeCursor(String cursor, SortField sort, boolean descending) {
+        String[] parts;
+        try {
+            parts = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8).split("\n", -1);
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("malformed cursor");
+        }
+        if (parts.length != 4) {
+            throw new IllegalArgumentException("malformed cursor");
+        }
+        if (!parts[0].equals(sort.name()) || !parts[1].equals(descending ? "desc" : "asc")) {
+            throw new IllegalArgumentException("cursor is from a query with another sort order");
+        }
+        String key = parts[2];
+        String publicKey = parts[3];
+        try {
+            return switch (sort) {
+                case PUBLIC_KEY -> probe(publicKey, null, null, 0, 0);
+                case CLIENT_NAME -> {
+                    if (!key.startsWith("+") && !key.equals("-")) {
+                        throw new IllegalArgumentException("malformed cursor");
+                    }
+                    yield probe(publicKey, key.startsWith("+") ? key.substring(1) : null, null, 0, 0);
+                }
+                case HANDSHAKE -> probe(publicKey, null, Long.parseLong(key), 0, 0);
+                case RATE -> probe(publicKey, null, null, Double.parseDouble(key), 0);
+                case VOLUME -> probe(publicKey, null, null, 0, Long.parseLong(key));
+            };
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("malformed cursor");
+        }
+    }
+
+    private static Peer probe(String publicKey, String clientName, Long handshake, double rate, long volume) {
+        return new Peer(publicKey, null, null, clientName, null, null, null, handshake, null, rate, 0.0, volume, 0);
+    }
+}
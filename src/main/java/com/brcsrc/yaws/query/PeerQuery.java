@@ -0,0 +1,52 @@
+package com.brcsrc.yaws.query;
+
+import com.brcsrc.yaws.lifecycle.PeerState;
+
+import java.util.Set;
+
+/**
+ * Criteria of a query over the live peers, see PeerQueryEngine. Null or empty criteria do not
+ * restrict the result, all given ones have to match.
+ *
+ * @param networkPublicKey only peers of this network
+ * @param states only peers in one of these states
+ * @param minHandshakeAgeSeconds only peers whose latest handshake is at least this old, peers that never handshook never match an age
+ * @param maxHandshakeAgeSeconds only peers whose latest handshake is at most this old
+ * @param minBytesPerSecond only peers whose smoothed receive plus send rate is at least this, likewise maxBytesPerSecond
+ * @param allowedIpPrefix only peers with an allowed IP overlapping this address or CIDR, e.g. 10.8.1.0/24 or
+ *                        10.8.1.7, which also finds a peer routing 10.8.1.0/24
+ * @param clientNamePrefix only peers of yaws clients whose name starts with this
+ * @param clientTag only peers of yaws clients with exactly this tag
+ * @param cursor nextCursor of the previous page, null for the first one
+ */
+public record PeerQuery(
+        String networkPublicKey,
+        Set<PeerState> states,
+        Long minHandshakeAgeSeconds,
+        Long maxHandshakeAgeSeconds,
+        Double minBytesPerSecond,
+        Double maxBytesPerSecond,
+        String allowedIpPrefix,
+        String clientNamePrefix,
+        String clientTag,
+        SortField sort,
+        boolean descending,
+        int limit,
+        String cursor
+) {
+
+    /**
+     * Order of the results, ties are ordered by public key
+     */
+    public enum SortField {
+        PUBLIC_KEY,
+        // peers of no yaws client come after the named ones
+        CLIENT_NAME,
+        // latest handshake, peers that never handshook come first
+        HANDSHAKE,
+        // smoothed receive plus send rate
+        RATE,
+        // bytes received plus sent since the interface came up
+        VOLUME
+    }
+}
@@ -0,0 +1,99 @@
+package com.brcsrc.yaws.query;
+
+import com.brcsrc.yaws.lifecycle.PeerLifecycleDetector;
+import com.brcsrc.yaws.lifecycle.PeerState;
+import com.brcsrc.yaws.live.LivePeerDirectory;
+import com.brcsrc.yaws.system.WireguardInformationProvider;
+import com.brcsrc.yaws.system.WireguardInformationProvider.WireguardConnectionData;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.util.function.BiFunction;
+import java.util.function.Function;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
+
+/**
+ * Answers filtered, sorted and paginated queries over the live peers, so a browser looking at a
+ * network with thousands of peers only receives the page it shows.
+ *
+ * The indexes of a snapshot are built by the first query after a refresh, or after a client
+ * was created or deleted since the client names and tags are part of them, and shared by all queries
+ * until the next one. Without queries nothing is built. States use the thresholds of
+ * PeerLifecycleDetector as of the snapshot's refresh, client names and tags come from
+ * LivePeerDirectory.
+ *
+ * Pages are cursor based: a cursor holds the sort key of the last peer returned, so paging
+ * through a list that changes between requests neither skips nor repeats the peers that stayed.
+ */
+@Component
+public class PeerQueryEngine {
+
+    /** Most peers returned in one page */
+    public static final int MAX_LIMIT = 500;
+
+    private final Supplier<WireguardConnectionData> snapshot;
+    private final BiFunction<Long, Long, PeerState> classifier;
+    private final Function<String, String> clientNames;
+    private final Function<String, String> clientTags;
+    private final LongSupplier clientGeneration;
+
+    private volatile PeerIndex index;
+
+    @Autowired
+    public PeerQueryEngine(WireguardInformationProvider wireguardInfo, PeerLifecycleDetector lifecycleDetector,
+                           LivePeerDirectory livePeerDirectory) {
+        this(
+            wireguardInfo::getConnectionData,
+            lifecycleDetector::classify,
+            livePeerDirectory::getClientName,
+            livePeerDirectory::getClientTag,
+            livePeerDirectory::getGeneration
+        );
+    }
+
+    /**
+     * @param classifier BiFunction - state of a peer from its latest handshake in epoch seconds and the time in epoch millis
+     * @param clientNames Function - client name by peer public key, null for peers that are no client of yaws
+     * @param clientTags Function - client tag by peer public key, null for peers without one
+     * @param clientGeneration LongSupplier - changes whenever the client names or tags do
+     */
+    PeerQueryEngine(Supplier<WireguardConnectionData> snapshot, BiFunction<Long, Long, PeerState> classifier,
+                    Function<String, String> clientNames, Function<String, String> clientTags,
+                    LongSupplier clientGeneration) {
+        this.snapshot = snapshot;
+        this.classifier = classifier;
+        this.clientNames = clientNames;
+        this.clientTags = clientTags;
+        this.clientGeneration = clientGeneration;
+    }
+
+    /**
+     * @return PeerQueryResult - the page of peers matching the query, as of the current snapshot
+     * @throws IllegalArgumentException if the limit is out of range, the cursor malformed or from a query with another order
+     */
+    public PeerQueryResult query(PeerQuery query) {
+        if (query.limit() < 1 || query.limit() > MAX_LIMIT) {
+            throw new IllegalArgumentException(String.format("limit must be between 1 and %d", MAX_LIMIT));
+        }
+        return currentIndex().evaluate(query);
+    }
+
+    private PeerIndex currentIndex() {
+        WireguardConnectionData data = snapshot.get();
+        // read before the names, a client created during the build is picked up by the next query
+        long generation = clientGeneration.getAsLong();
+        PeerIndex current = index;
+        if (current != null && current.version == data.getVersion() && current.generation == generation) {
+            return current;
+        }
+        synchronized (this) {
+            current = index;
+            if (current == null || current.version != data.getVersion() || current.generation != generation) {
+                current = PeerIndex.build(data, generation, clientNames, clientTags, classifier);
+                index = current;
+            }
+            return current;
+        }
+    }
+}
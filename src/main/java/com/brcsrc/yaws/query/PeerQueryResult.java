@@ -0,0 +1,40 @@
+package com.brcsrc.yaws.query;
+
+import com.brcsrc.yaws.lifecycle.PeerState;
+
+import java.util.List;
+
+/**
+ * One page of a peer query, as of the snapshot with the given version
+ *
+ * @param nextCursor cursor of the next page, null on the last one
+ */
+public record PeerQueryResult(
+        long version,
+        long refreshedEpochMillis,
+        List<Peer> peers,
+        String nextCursor
+) {
+
+    /**
+     * A live peer joined with its client
+     * @param clientName null if the peer is no client of yaws
+     * @param clientTag null if the client has no tag or the peer is no client of yaws
+     * @param latestHandshakeEpochSeconds null if the peer never handshook
+     */
+    public record Peer(
+            String publicKey,
+            String networkPublicKey,
+            String interfaceName,
+            String clientName,
+            String clientTag,
+            String allowedIps,
+            String endpoint,
+            Long latestHandshakeEpochSeconds,
+            PeerState state,
+            Double receiveBytesPerSecond,
+            Double sendBytesPerSecond,
+            long bytesReceived,
+            long bytesSent
+    ) {}
+}
@@ -36,14 +36,17 @@ import org.springframework.web.server.ResponseStatusException;
 import jakarta.transaction.Transactional;
 
 import com.brcsrc.yaws.exceptions.InternalServerException;
+import com.brcsrc.yaws.history.TransferTotalsStore;
+import com.brcsrc.yaws.live.LivePeerDirectory;
 import com.brcsrc.yaws.model.requests.CreateNetworkClientRequest;
 import com.brcsrc.yaws.model.requests.ListNetworkClientsRequest;
 import com.brcsrc.yaws.model.requests.ListNetworkClientsResponse;
 import com.brcsrc.yaws.persistence.ClientRepository;
 import com.brcsrc.yaws.persistence.NetworkClientRepository;
 import com.brcsrc.yaws.persistence.NetworkRepository;
+import com.brcsrc.yaws.shell.CommandExecutor;
 import com.brcsrc.yaws.shell.ExecutionResult;
-import com.brcsrc.yaws.shell.Executor;
+import com.brcsrc.yaws.system.WireguardInformationProvider;
 import com.brcsrc.yaws.utility.IPUtils;
 
 @Service
@@ -52,6 +55,11 @@ public class NetworkClientService {
     private final NetworkClientRepository netClientRepository;
     private final NetworkRepository networkRepository;
     private final ClientRepository clientRepository;
+    private final WireguardKeyService wireguardKeyService;
+    private final CommandExecutor commandExecutor;
+    private final WireguardInformationProvider wireguardInformationProvider;
+    private final TransferTotalsStore transferTotalsStore;
+    private final LivePeerDirectory livePeerDirectory;
 
     private static final Logger logger = LoggerFactory.getLogger(NetworkClientService.class);
 
@@ -59,11 +67,21 @@ public class NetworkClientService {
     public NetworkClientService(
             NetworkClientRepository netClientRepository,
             NetworkRepository networkRepository,
-            ClientRepository clientRepository
+            ClientRepository clientRepository,
+            WireguardKeyService wireguardKeyService,
+            CommandExecutor commandExecutor,
+            WireguardInformationProvider wireguardInformationProvider,
+            TransferTotalsStore transferTotalsStore,
+            LivePeerDirectory livePeerDirectory
     ) {
         this.netClientRepository = netClientRepository;
         this.networkRepository = networkRepository;
         this.clientRepository = clientRepository;
+        this.wireguardKeyService = wireguardKeyService;
+        this.commandExecutor = commandExecutor;
+        this.wireguardInformationProvider = wireguardInformationProvider;
+        this.transferTotalsStore = transferTotalsStore;
+        this.livePeerDirectory = livePeerDirectory;
     }
 
     private Network checkNetworkExists(String networkName) {
@@ -179,32 +197,18 @@ public class NetworkClientService {
         final String NETWORK_PUB_KEY_PATH = FilepathUtils.getNetworkKeyPath(existingNetwork.getNetworkName(), existingNetwork.getNetworkPublicKeyName());
         final String NETWORK_CONFIG_PATH = FilepathUtils.getNetworkConfigPath(existingNetwork.getNetworkName());
 
-        // build client key pair
+        // build client key pair in process, the private key file is still needed by create-client-config
         logger.info(String.format("creating key pair: '%s', '%s'", CLIENT_PRIV_KEY_PATH, CLIENT_PUB_KEY_PATH));
-        final String createKeyPairCommand = String.join(" ",
-                "./create-key-pair",
-                "--private-key-name", CLIENT_PRIV_KEY_PATH,
-                "--public-key-name", CLIENT_PUB_KEY_PATH
-        );
-        ExecutionResult createKeyPairExecResult = Executor.runCommand(createKeyPairCommand);
-        if (createKeyPairExecResult.getExitCode() != 0) {
-            logger.error(String.format(
-                    "command: '%s' exited %s with reason: %s",
-                    createKeyPairCommand,
-                    createKeyPairExecResult.getExitCode(),
-                    createKeyPairExecResult.getStderr()));
-            throw new InternalServerException("failed to create key pair");
-        }
-
-        // read the public key value from the file
         try {
-            String publicKeyValue = Files.readString(java.nio.file.Path.of(CLIENT_PUB_KEY_PATH)).trim();
-            client.setClientPublicKeyValue(publicKeyValue);
-            logger.info(String.format("read public key value for client '%s'", client.getClientName()));
+            WireguardKeyService.WireguardKeyPair keyPair = this.wireguardKeyService.writeKeyPair(
+                    CLIENT_PRIV_KEY_PATH,
+                    CLIENT_PUB_KEY_PATH
+            );
+            client.setClientPublicKeyValue(keyPair.publicKey());
         } catch (IOException e) {
-            String errMsg = String.format("error reading public key file: %s", e.getMessage());
+            String errMsg = String.format("error writing key pair: %s", e.getMessage());
             logger.error(errMsg);
-            throw new InternalServerException("failed to create client");
+            throw new InternalServerException("failed to create key pair");
         }
 
         // generate the client config
@@ -220,7 +224,7 @@ public class NetworkClientService {
                 "--network-listen-port", String.valueOf(client.getNetworkListenPort()),
                 "--allowed-ips", client.getAllowedIps()
         );
-        ExecutionResult createClientConfigExecResult = Executor.runCommand(createClientConfigCommand);
+        ExecutionResult createClientConfigExecResult = this.commandExecutor.runCommand(createClientConfigCommand);
         if (createClientConfigExecResult.getExitCode() != 0) {
             logger.error(String.format(
                     "command: '%s' exited %s with reason: %s",
@@ -241,7 +245,7 @@ public class NetworkClientService {
                 "--client-cidr", networkConfigFormatClientCidr,
                 "--client-public-key-name", CLIENT_PUB_KEY_PATH
         );
-        ExecutionResult addPeerToNetExecResult = Executor.runCommand(addPeerToNetworkCommand);
+        ExecutionResult addPeerToNetExecResult = this.commandExecutor.runCommand(addPeerToNetworkCommand);
         if (addPeerToNetExecResult.getExitCode() != 0) {
             logger.error(String.format(
                     "command: '%s' exited %s with reason: %s",
@@ -257,6 +261,9 @@ public class NetworkClientService {
         networkClient.setClient(savedClient);
         networkClient.setNetwork(existingNetwork);
         NetworkClient savedNetworkClient = this.netClientRepository.save(networkClient);
+        this.livePeerDirectory.clientAdded(savedNetworkClient);
+        // pick up the new peer now instead of at the next scheduled refresh
+        this.wireguardInformationProvider.requestRefresh();
         logger.info("CreateNetworkClient operation successful");
         return savedNetworkClient;
     }
@@ -295,7 +302,7 @@ public class NetworkClientService {
                     "--client-cidr", networkConfigFormatClientCidr,
                     "--client-public-key-name", CLIENT_PUB_KEY_PATH
             );
-            ExecutionResult removePeerFromNetworkExecRes = Executor.runCommand(removeClientFromNetworkCmd);
+            ExecutionResult removePeerFromNetworkExecRes = this.commandExecutor.runCommand(removeClientFromNetworkCmd);
             if (removePeerFromNetworkExecRes.getExitCode() != 0) {
                 errorsOnRemoval = true;
                 logger.error(String.format(
@@ -388,6 +395,9 @@ public class NetworkClientService {
             ));
             throw new InternalServerException("error in deleting network");
         }
+        this.transferTotalsStore.forget(existingNetworkClient.getClient().getClientPublicKeyValue());
+        this.livePeerDirectory.clientRemoved(existingNetworkClient.getClient().getClientPublicKeyValue());
+        this.wireguardInformationProvider.requestRefresh();
         return existingNetworkClient;
     };
 
@@ -411,6 +421,8 @@ public class NetworkClientService {
             nextPage = pageNumber + 1;
         }
         
+        clientPage.getContent().forEach(this::setTransferTotals);
+        clientPage.getContent().forEach(this::setLiveStatus);
         return new ListNetworkClientsResponse(clientPage.getContent(), nextPage);
     }
 
@@ -422,9 +434,23 @@ public class NetworkClientService {
             logger.error(errMsg);
             throw new ResponseStatusException(HttpStatus.NOT_FOUND, errMsg);
         }
+        setTransferTotals(networkClient.getClient());
+        setLiveStatus(networkClient.getClient());
         return networkClient;
     }
 
+    // a client that never connected has no totals yet and reports 0
+    private void setTransferTotals(Client client) {
+        TransferTotalsStore.TransferTotals totals = this.transferTotalsStore.getTotals(client.getClientPublicKeyValue());
+        client.setLifetimeBytesReceived(totals != null ? totals.bytesReceived() : 0L);
+        client.setLifetimeBytesSent(totals != null ? totals.bytesSent() : 0L);
+    }
+
+    // joined in memory, listing a page of clients does not look up every peer
+    private void setLiveStatus(Client client) {
+        client.setLiveStatus(this.livePeerDirectory.getClientStatus(client.getClientPublicKeyValue()));
+    }
+
     private String getNetworkClientConfigFileContent(String networkName, String clientName) {
         // validate inputs before putting them in jpa queries
         if (!networkName.matches(Constants.CHAR_64_ALPHANUMERIC_DASHES_UNDERSC_REGEXP)) {
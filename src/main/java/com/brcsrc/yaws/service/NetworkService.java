@@ -24,6 +24,8 @@ import org.springframework.stereotype.Service;
 import org.springframework.web.server.ResponseStatusException;
 
 import com.brcsrc.yaws.exceptions.InternalServerException;
+import com.brcsrc.yaws.history.TransferTotalsStore;
+import com.brcsrc.yaws.live.LivePeerDirectory;
 import com.brcsrc.yaws.model.Constants;
 import com.brcsrc.yaws.model.Network;
 import com.brcsrc.yaws.model.NetworkStatus;
@@ -33,7 +35,7 @@ import com.brcsrc.yaws.model.requests.UpdateNetworkRequest;
 import com.brcsrc.yaws.persistence.NetworkRepository;
 import com.brcsrc.yaws.persistence.NetworkClientRepository;
 import com.brcsrc.yaws.shell.ExecutionResult;
-import com.brcsrc.yaws.shell.Executor;
+import com.brcsrc.yaws.shell.CommandExecutor;
 import com.brcsrc.yaws.utility.FilepathUtils;
 import com.brcsrc.yaws.utility.IPUtils;
 
@@ -42,11 +44,26 @@ public class NetworkService {
 
     private final NetworkRepository networkRepository;
     private final NetworkClientRepository networkClientRepository;
+    private final WireguardKeyService wireguardKeyService;
+    private final CommandExecutor commandExecutor;
+    private final LivePeerDirectory livePeerDirectory;
+    private final TransferTotalsStore transferTotalsStore;
     private static final Logger logger = LoggerFactory.getLogger(NetworkService.class);
 
-    public NetworkService(NetworkRepository networkRepository, NetworkClientRepository networkClientRepository) {
+    public NetworkService(
+            NetworkRepository networkRepository,
+            NetworkClientRepository networkClientRepository,
+            WireguardKeyService wireguardKeyService,
+            CommandExecutor commandExecutor,
+            LivePeerDirectory livePeerDirectory,
+            TransferTotalsStore transferTotalsStore
+    ) {
         this.networkRepository = networkRepository;
         this.networkClientRepository = networkClientRepository;
+        this.wireguardKeyService = wireguardKeyService;
+        this.commandExecutor = commandExecutor;
+        this.livePeerDirectory = livePeerDirectory;
+        this.transferTotalsStore = transferTotalsStore;
     }
 
     public List<Network> getAllNetworks() {
@@ -67,6 +84,7 @@ public class NetworkService {
             nextPage = pageNumber + 1;
         }
         
+        networkPage.getContent().forEach(this::setLiveStatus);
         return new ListNetworksResponse(networkPage.getContent(), nextPage);
     }
 
@@ -77,7 +95,14 @@ public class NetworkService {
             logger.error(errMsg);
             throw new ResponseStatusException(HttpStatus.BAD_REQUEST, errMsg);
         }
-        return existingNetwork.get();
+        Network network = existingNetwork.get();
+        setLiveStatus(network);
+        return network;
+    }
+
+    // joined in memory from the last refresh, listing a page of networks does not look up every interface
+    private void setLiveStatus(Network network) {
+        network.setLiveStatus(this.livePeerDirectory.getNetworkStatus(network.getNetworkPublicKeyValue()));
     }
 
     public Network createNetwork(Network network) {
@@ -154,37 +179,21 @@ public class NetworkService {
             }
         }
 
-        // create the wireguard key pair
+        // create the wireguard key pair in process, the private key file is still needed by create-network-config
         logger.info(String.format("creating key pair: '%s', '%s'", NETWORK_PRIV_KEY_PATH, NETWORK_PUB_KEY_PATH));
-        final String createKeyPairCommand = String.join(" ",
-                "./create-key-pair ",
-                "--private-key-name", NETWORK_PRIV_KEY_PATH,
-                "--public-key-name", NETWORK_PUB_KEY_PATH
-        );
-        ExecutionResult createKeyPairExecResult = Executor.runCommand(createKeyPairCommand);
-        if (createKeyPairExecResult.getExitCode() != 0) {
-            logger.error(String.format(
-                    "command: '%s' exited %s with reason: %s",
-                    createKeyPairCommand,
-                    createKeyPairExecResult.getExitCode(),
-                    createKeyPairExecResult.getStdout()));
-            // mark the network for removal
-            network.setNetworkStatus(NetworkStatus.INACTIVE);
-            this.networkRepository.save(network);
-            // cleanup network on separate thread
-            CompletableFuture<Network> deletedNetworkFuture = asyncRemoveNetworkFromSystem(network);
-            throw new InternalServerException("failed to create network");
-        }
-
-        // read the public key value from the file
         try {
-            String publicKeyValue = Files.readString(Path.of(NETWORK_PUB_KEY_PATH)).trim();
-            network.setNetworkPublicKeyValue(publicKeyValue);
+            WireguardKeyService.WireguardKeyPair keyPair = this.wireguardKeyService.writeKeyPair(
+                    NETWORK_PRIV_KEY_PATH,
+                    NETWORK_PUB_KEY_PATH
+            );
+            network.setNetworkPublicKeyValue(keyPair.publicKey());
         } catch (IOException e) {
-            String errMsg = String.format("error reading public key file: %s", e.getMessage());
+            String errMsg = String.format("error writing key pair: %s", e.getMessage());
             logger.error(errMsg);
+            // mark the network for removal
             network.setNetworkStatus(NetworkStatus.INACTIVE);
             this.networkRepository.save(network);
+            // cleanup network on separate thread
             CompletableFuture<Network> deletedNetworkFuture = asyncRemoveNetworkFromSystem(network);
             throw new InternalServerException("failed to create network");
         }
@@ -200,7 +209,7 @@ public class NetworkService {
                 "--network-listen-port", String.valueOf(network.getNetworkListenPort()),
                 "--network-private-key-name", NETWORK_PRIV_KEY_PATH
         );
-        ExecutionResult createNetConfigExecResult = Executor.runCommand(createNetworkConfigCommand);
+        ExecutionResult createNetConfigExecResult = this.commandExecutor.runCommand(createNetworkConfigCommand);
         if (createNetConfigExecResult.getExitCode() != 0) {
             logger.error(String.format(
                     "command: '%s' exited %s with reason: %s",
@@ -220,7 +229,7 @@ public class NetworkService {
                 "--operation", "add-network",
                 "--network-cidr", network.getNetworkCidr()
         );
-        ExecutionResult configureIptablesExecResult = Executor.runCommand(configureIptablesCommand);
+        ExecutionResult configureIptablesExecResult = this.commandExecutor.runCommand(configureIptablesCommand);
         if (configureIptablesExecResult.getExitCode() != 0) {
             logger.error(String.format(
                     "command: '%s' exited %s with reason: %s",
@@ -236,7 +245,7 @@ public class NetworkService {
         // since this network is newly created we need bring it up in wireguard
         logger.info("bringing up the wireguard interface");
         final String wgUpCommand = String.format("wg-quick up %s", network.getNetworkName());
-        ExecutionResult wgUpExecResult = Executor.runCommand(wgUpCommand);
+        ExecutionResult wgUpExecResult = this.commandExecutor.runCommand(wgUpCommand);
         if (wgUpExecResult.getExitCode() != 0) {
             logger.error(String.format(
                     "command: '%s' exited %s with reason: %s",
@@ -263,12 +272,12 @@ public class NetworkService {
             logger.info(String.format("bringing down the wireguard interface '%s'", network.getNetworkName()));
 
             final String checkWgIFaceExistsCmd = String.format("wg show %s", network.getNetworkName());
-            ExecutionResult checkWgIFaceExistsCmdResult = Executor.runCommand(checkWgIFaceExistsCmd);
+            ExecutionResult checkWgIFaceExistsCmdResult = this.commandExecutor.runCommand(checkWgIFaceExistsCmd);
             boolean wgIFaceExists = (checkWgIFaceExistsCmdResult.getExitCode() == 0);
 
             if (wgIFaceExists) {
                 final String wgDownCommand = String.format("wg-quick down %s", network.getNetworkName());
-                ExecutionResult wgDownExecResult = Executor.runCommand(wgDownCommand);
+                ExecutionResult wgDownExecResult = this.commandExecutor.runCommand(wgDownCommand);
                 if (wgDownExecResult.getExitCode() != 0) {
                     errorsOnRemoval = true;
                     logger.error(String.format(
@@ -288,7 +297,7 @@ public class NetworkService {
                     "--operation", "remove-network",
                     "--network-cidr", network.getNetworkCidr()
             );
-            ExecutionResult configureIptablesExecResult = Executor.runCommand(configureIptablesCommand);
+            ExecutionResult configureIptablesExecResult = this.commandExecutor.runCommand(configureIptablesCommand);
             if (configureIptablesExecResult.getExitCode() != 0) {
                 //errorsOnRemoval = true; // TODO this also exits non 0 if the chain does not exist which should not be an error for this operation
                 logger.error(String.format(
@@ -353,8 +362,13 @@ public class NetworkService {
         // Delete all NetworkClient records associated with this network BEFORE async cleanup
         // This will cascade delete the Client records due to CascadeType.REMOVE on NetworkClient.client
         logger.info("Deleting all network clients for network '{}'", networkName);
+        List<String> clientPublicKeys = this.networkClientRepository.findAllByNetwork_NetworkName(networkName).stream()
+                .map(networkClient -> networkClient.getClient().getClientPublicKeyValue())
+                .toList();
         int deletedCount = this.networkClientRepository.deleteAllByNetwork_NetworkName(networkName);
         logger.info("Deleted {} network client records for network '{}'", deletedCount, networkName);
+        clientPublicKeys.forEach(this.transferTotalsStore::forget);
+        this.livePeerDirectory.networkRemoved(networkName);
 
         CompletableFuture<Network> deletedNetworkFuture = asyncRemoveNetworkFromSystem(network);
         try {
@@ -489,7 +503,7 @@ public class NetworkService {
 
         // Run wg-quick down <NetworkName>
         final String wgDownCommand = String.format("wg-quick down %s", network.getNetworkName());
-        ExecutionResult wgDownResult = Executor.runCommand(wgDownCommand);
+        ExecutionResult wgDownResult = this.commandExecutor.runCommand(wgDownCommand);
         if (wgDownResult.getExitCode() != 0) {
             String errMsg = String.format("Failed to bring down WireGuard interface for network '%s': %s",
                     network.getNetworkName(), wgDownResult.getStdout());
@@ -514,7 +528,7 @@ public class NetworkService {
 
         // Run wg-quick up <NetworkName>
         final String wgUpCommand = String.format("wg-quick up %s", network.getNetworkName());
-        ExecutionResult wgUpResult = Executor.runCommand(wgUpCommand);
+        ExecutionResult wgUpResult = this.commandExecutor.runCommand(wgUpCommand);
         if (wgUpResult.getExitCode() != 0) {
             String errMsg = String.format("Failed to bring up WireGuard interface for network '%s': %s",
                     network.getNetworkName(), wgUpResult.getStdout());
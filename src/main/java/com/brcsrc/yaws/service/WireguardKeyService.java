@@ -0,0 +1,145 @@
+package com.brcsrc.yaws.service;
+
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.GeneralSecurityException;
+import java.security.KeyFactory;
+import java.security.PrivateKey;
+import java.security.PublicKey;
+import java.security.SecureRandom;
+import java.security.spec.NamedParameterSpec;
+import java.security.spec.XECPrivateKeySpec;
+import java.security.spec.XECPublicKeySpec;
+import java.util.Base64;
+import java.util.Set;
+import javax.crypto.KeyAgreement;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Service;
+
+/**
+ * generates WireGuard (Curve25519 / X25519) key pairs in process. this replaces the
+ * create-key-pair script, which forked bash, 'wg genkey', 'tee' and 'wg pubkey' and then
+ * required reading the public key back from disk.
+ *
+ * keys are produced exactly as 'wg genkey | wg pubkey' does: 32 random bytes clamped per
+ * RFC 7748, the public key is the X25519 scalar multiplication of the private key with the
+ * curve base point (u = 9), and both are encoded as standard base64.
+ */
+@Service
+public class WireguardKeyService {
+
+    private static final Logger logger = LoggerFactory.getLogger(WireguardKeyService.class);
+
+    public static final int KEY_LENGTH_BYTES = 32;
+    private static final BigInteger X25519_BASE_POINT = BigInteger.valueOf(9);
+    // same as running with umask 077, key files are only readable by the owner
+    private static final Set<PosixFilePermission> KEY_FILE_PERMISSIONS = PosixFilePermissions.fromString("rw-------");
+
+    private final SecureRandom secureRandom = new SecureRandom();
+
+    public record WireguardKeyPair(String privateKey, String publicKey) {
+        @Override
+        public String toString() {
+            // never log private key material
+            return "WireguardKeyPair{publicKey='" + publicKey + "'}";
+        }
+    }
+
+    /**
+     * generates a new clamped private key and derives its public key
+     * @return WireguardKeyPair - base64 encoded private and public key
+     */
+    public WireguardKeyPair generateKeyPair() {
+        byte[] privateKey = new byte[KEY_LENGTH_BYTES];
+        secureRandom.nextBytes(privateKey);
+        clamp(privateKey);
+        byte[] publicKey = derivePublicKey(privateKey);
+        Base64.Encoder encoder = Base64.getEncoder();
+        return new WireguardKeyPair(encoder.encodeToString(privateKey), encoder.encodeToString(publicKey));
+    }
+
+    /**
+     * equivalent of 'echo $privateKey | wg pubkey'
+     * @param base64PrivateKey String - base64 encoded 32 byte private key, clamped or not
+     * @return String - base64 encoded public key
+     */
+    public String derivePublicKey(String base64PrivateKey) {
+        byte[] privateKey = decodeKey(base64PrivateKey);
+        return Base64.getEncoder().encodeToString(derivePublicKey(privateKey));
+    }
+
+    /**
+     * generates a key pair and writes both keys to the given paths with owner only permissions,
+     * the same layout create-key-pair produced so the config scripts can keep reading them
+     * @param privateKeyPath String - absolute path for the private key file
+     * @param publicKeyPath String - absolute path for the public key file
+     * @return WireguardKeyPair - the generated key pair
+     * @throws IOException if either file cannot be written
+     */
+    public WireguardKeyPair writeKeyPair(String privateKeyPath, String publicKeyPath) throws IOException {
+        WireguardKeyPair keyPair = generateKeyPair();
+        writeKeyFile(Path.of(privateKeyPath), keyPair.privateKey());
+        writeKeyFile(Path.of(publicKeyPath), keyPair.publicKey());
+        logger.info(String.format("wrote key pair '%s', '%s'", privateKeyPath, publicKeyPath));
+        return keyPair;
+    }
+
+    static void clamp(byte[] privateKey) {
+        privateKey[0] &= (byte) 248;
+        privateKey[31] &= (byte) 127;
+        privateKey[31] |= (byte) 64;
+    }
+
+    static byte[] derivePublicKey(byte[] privateKey) {
+        if (privateKey.length != KEY_LENGTH_BYTES) {
+            throw new IllegalArgumentException("private key must be 32 bytes");
+        }
+        // clamp a copy so callers passing an unclamped key get the same result as 'wg pubkey'
+        byte[] scalar = privateKey.clone();
+        clamp(scalar);
+        try {
+            KeyFactory keyFactory = KeyFactory.getInstance("X25519");
+            PrivateKey xPrivateKey = keyFactory.generatePrivate(new XECPrivateKeySpec(NamedParameterSpec.X25519, scalar));
+            PublicKey basePoint = keyFactory.generatePublic(new XECPublicKeySpec(NamedParameterSpec.X25519, X25519_BASE_POINT));
+            // X25519(k, 9) is the public key, the JDK exposes it as key agreement against the base point
+            KeyAgreement keyAgreement = KeyAgreement.getInstance("X25519");
+            keyAgreement.init(xPrivateKey);
+            keyAgreement.doPhase(basePoint, true);
+            return keyAgreement.generateSecret();
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("X25519 is not available in this JVM", e);
+        }
+    }
+
+    private static byte[] decodeKey(String base64Key) {
+        byte[] key;
+        try {
+            key = Base64.getDecoder().decode(base64Key.trim());
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("key is not valid base64");
+        }
+        if (key.length != KEY_LENGTH_BYTES) {
+            throw new IllegalArgumentException("key must decode to 32 bytes");
+        }
+        return key;
+    }
+
+    private static void writeKeyFile(Path path, String key) throws IOException {
+        Files.deleteIfExists(path);
+        try {
+            Files.createFile(path, PosixFilePermissions.asFileAttribute(KEY_FILE_PERMISSIONS));
+        } catch (UnsupportedOperationException e) {
+            // non posix filesystem, fall back to default permissions
+            Files.createFile(path);
+        }
+        // trailing newline matches the output of 'wg genkey' and 'wg pubkey'
+        Files.writeString(path, key + "\n", StandardOpenOption.TRUNCATE_EXISTING);
+    }
+}
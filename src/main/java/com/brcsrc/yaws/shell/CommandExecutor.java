@@ -1,8 +1,49 @@
 package com.brcsrc.yaws.shell;
 
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+
 /**
  * Interface for executing shell commands. Allows for mocking in tests.
  */
 public interface CommandExecutor {
     ExecutionResult runCommand(String command);
+
+    /**
+     * Runs a command and kills its process tree if it has not exited within the timeout.
+     */
+    default ExecutionResult runCommand(String command, Duration timeout) {
+        return runCommand(command);
+    }
+
+    /**
+     * Runs a command without holding the calling thread while it executes.
+     * Cancelling the returned future kills the process tree.
+     */
+    default CompletableFuture<ExecutionResult> runCommandAsync(String command) {
+        return CompletableFuture.supplyAsync(() -> runCommand(command));
+    }
+
+    default CompletableFuture<ExecutionResult> runCommandAsync(String command, Duration timeout) {
+        return CompletableFuture.supplyAsync(() -> runCommand(command, timeout));
+    }
+
+    /**
+     * Runs a command handing its stdout to the consumer instead of collecting it into the result.
+     * The default collects the output first and then feeds it to the consumer, so mocks only need
+     * to implement runCommand(String).
+     */
+    default ExecutionResult runCommand(String command, Duration timeout, StdoutConsumer stdoutConsumer) {
+        ExecutionResult result = runCommand(command, timeout);
+        String stdout = result.getStdout() == null ? "" : result.getStdout();
+        try {
+            stdoutConsumer.consume(new ByteArrayInputStream(stdout.getBytes(StandardCharsets.UTF_8)));
+        } catch (IOException e) {
+            return new ExecutionResult("", String.valueOf(e.getMessage()), 1);
+        }
+        return result;
+    }
 }
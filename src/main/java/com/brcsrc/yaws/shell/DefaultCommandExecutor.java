@@ -2,6 +2,9 @@ package com.brcsrc.yaws.shell;
 
 import org.springframework.stereotype.Component;
 
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+
 /**
  * Default implementation of CommandExecutor that delegates to the static Executor class.
  */
@@ -11,4 +14,24 @@ public class DefaultCommandExecutor implements CommandExecutor {
     public ExecutionResult runCommand(String command) {
         return Executor.runCommand(command);
     }
+
+    @Override
+    public ExecutionResult runCommand(String command, Duration timeout) {
+        return Executor.runCommand(command, timeout);
+    }
+
+    @Override
+    public CompletableFuture<ExecutionResult> runCommandAsync(String command) {
+        return Executor.runCommandAsync(command);
+    }
+
+    @Override
+    public CompletableFuture<ExecutionResult> runCommandAsync(String command, Duration timeout) {
+        return Executor.runCommandAsync(command, timeout);
+    }
+
+    @Override
+    public ExecutionResult runCommand(String command, Duration timeout, StdoutConsumer stdoutConsumer) {
+        return Executor.runCommand(command, timeout, stdoutConsumer);
+    }
 }
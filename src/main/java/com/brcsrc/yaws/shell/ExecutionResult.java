@@ -4,10 +4,21 @@ public class ExecutionResult {
     String stdout;
     String stderr;
     int exitCode;
+    // true when the command was killed at its deadline
+    boolean timedOut;
+    // true when stdout or stderr exceeded the capture limit and was cut off
+    boolean truncated;
+
     public ExecutionResult(String stdout, String stderr, int exitCode) {
+        this(stdout, stderr, exitCode, false, false);
+    }
+
+    public ExecutionResult(String stdout, String stderr, int exitCode, boolean timedOut, boolean truncated) {
         this.stdout = stdout;
         this.stderr = stderr;
         this.exitCode = exitCode;
+        this.timedOut = timedOut;
+        this.truncated = truncated;
     }
 
     public String getStdout() {
@@ -34,12 +45,30 @@ public class ExecutionResult {
         this.exitCode = exitCode;
     }
 
+    public boolean isTimedOut() {
+        return timedOut;
+    }
+
+    public void setTimedOut(boolean timedOut) {
+        this.timedOut = timedOut;
+    }
+
+    public boolean isTruncated() {
+        return truncated;
+    }
+
+    public void setTruncated(boolean truncated) {
+        this.truncated = truncated;
+    }
+
     @Override
     public String toString() {
         return "ExecutionResult{" +
                 "stdout='" + stdout + '\'' +
                 ", stderr='" + stderr + '\'' +
                 ", exitCode=" + exitCode +
+                ", timedOut=" + timedOut +
+                ", truncated=" + truncated +
                 '}';
     }
 }
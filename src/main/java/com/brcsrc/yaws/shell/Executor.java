@@ -1,38 +1,246 @@
 package com.brcsrc.yaws.shell;
-import java.io.BufferedReader;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
-
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
 
+/**
+ * runs shell commands as child processes.
+ *
+ * stdout and stderr are drained concurrently on a shared pool of daemon threads, so a child
+ * that fills one pipe while we are reading the other can no longer deadlock. every command
+ * has a deadline, when it passes the whole process tree is killed and the result is marked
+ * as timed out. captured output is bounded per stream, anything past the limit is read and
+ * discarded so the child never blocks on a full pipe.
+ *
+ * the async variant does not hold a thread while the child runs, completion is driven by
+ * {@link Process#onExit()}. cancelling the returned future kills the process tree.
+ */
 public class Executor {
 
-    private static String readStdFromStream(InputStream inputStream) throws IOException {
-        StringBuilder std = new StringBuilder();
-        BufferedReader reader = new BufferedReader(new InputStreamReader(inputStream));
-        String line;
-        while ((line = reader.readLine()) != null) {
-            std.append(line).append("\n");
+    private static final Logger logger = LoggerFactory.getLogger(Executor.class);
+
+    /** deadline applied when the caller does not give one */
+    public static final Duration DEFAULT_TIMEOUT = Duration.ofSeconds(60);
+
+    /** maximum bytes kept per stream, the rest of the output is drained and dropped */
+    public static final int MAX_CAPTURED_OUTPUT_BYTES = 1024 * 1024;
+
+    /** exit code reported for commands killed at their deadline, same as coreutils 'timeout' */
+    public static final int TIMEOUT_EXIT_CODE = 124;
+
+    /** how long to wait for the pipes to close after the process tree was killed */
+    private static final long DRAIN_GRACE_PERIOD_MS = 5000;
+
+    private static final ExecutorService STREAM_DRAINERS = Executors.newCachedThreadPool(new ThreadFactory() {
+        private final AtomicInteger count = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "yaws-exec-drain-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
         }
-        return std.toString();
-    }
+    });
 
     public static ExecutionResult runCommand(String command) {
-        String stdout = "";
-        String stderr = "";
-        int exitCode = 1;
+        return runCommand(command, DEFAULT_TIMEOUT);
+    }
+
+    public static ExecutionResult runCommand(String command, Duration timeout) {
+        CompletableFuture<ExecutionResult> future = runCommandAsync(command, timeout);
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            // kill the child instead of leaving it running unobserved, and keep the interrupt visible to the caller
+            future.cancel(true);
+            Thread.currentThread().interrupt();
+            logger.error("interrupted while waiting for command '{}'", command);
+            return new ExecutionResult("", "interrupted while waiting for command", 1);
+        } catch (ExecutionException e) {
+            logger.error("error waiting for command '{}'", command, e.getCause());
+            return new ExecutionResult("", String.valueOf(e.getCause().getMessage()), 1);
+        }
+    }
+
+    public static CompletableFuture<ExecutionResult> runCommandAsync(String command) {
+        return runCommandAsync(command, DEFAULT_TIMEOUT);
+    }
+
+    public static CompletableFuture<ExecutionResult> runCommandAsync(String command, Duration timeout) {
+        return start(command, timeout, null);
+    }
+
+    /**
+     * runs a command handing its stdout to the consumer as it is produced, nothing is buffered
+     * into the result's stdout. stderr is still captured. if the consumer throws, the result
+     * reports exit code 1 with the error in stderr.
+     */
+    public static ExecutionResult runCommand(String command, Duration timeout, StdoutConsumer stdoutConsumer) {
+        CompletableFuture<ExecutionResult> future = start(command, timeout, stdoutConsumer);
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            future.cancel(true);
+            Thread.currentThread().interrupt();
+            logger.error("interrupted while waiting for command '{}'", command);
+            return new ExecutionResult("", "interrupted while waiting for command", 1);
+        } catch (ExecutionException e) {
+            logger.error("error consuming output of command '{}'", command, e.getCause());
+            return new ExecutionResult("", String.valueOf(e.getCause().getMessage()), 1);
+        }
+    }
+
+    private static CompletableFuture<ExecutionResult> start(String command, Duration timeout, StdoutConsumer stdoutConsumer) {
+        Process process;
         try {
             ProcessBuilder processBuilder = new ProcessBuilder(command.split("\\s+"));
-            Process process = processBuilder.start();
-            stdout = readStdFromStream(process.getInputStream());
-            stderr = readStdFromStream(process.getErrorStream());
-            exitCode = process.waitFor();
-        } catch (IOException | InterruptedException e) {
-            e.printStackTrace();
+            process = processBuilder.start();
+            // none of our commands read stdin, close it so nothing can wait on it
+            process.getOutputStream().close();
+        } catch (IOException e) {
+            logger.error("failed to start command '{}': {}", command, e.getMessage());
+            return CompletableFuture.completedFuture(new ExecutionResult("", String.valueOf(e.getMessage()), 1));
+        }
+
+        BoundedOutput stdout = new BoundedOutput(MAX_CAPTURED_OUTPUT_BYTES);
+        BoundedOutput stderr = new BoundedOutput(MAX_CAPTURED_OUTPUT_BYTES);
+        CompletableFuture<Void> stdoutDrained = stdoutConsumer == null
+                ? CompletableFuture.runAsync(() -> stdout.drain(process.getInputStream()), STREAM_DRAINERS)
+                : CompletableFuture.runAsync(() -> consume(process.getInputStream(), stdoutConsumer), STREAM_DRAINERS);
+        CompletableFuture<Void> stderrDrained = CompletableFuture.runAsync(
+                () -> stderr.drain(process.getErrorStream()), STREAM_DRAINERS);
+
+        CompletableFuture<ExecutionResult> result = new CompletableFuture<>();
+        process.onExit()
+                .orTimeout(timeout.toMillis(), TimeUnit.MILLISECONDS)
+                .whenComplete((exited, error) -> {
+                    boolean timedOut = error != null && unwrap(error) instanceof TimeoutException;
+                    if (timedOut) {
+                        logger.error("command '{}' exceeded its {}ms deadline, killing process tree", command, timeout.toMillis());
+                        destroyProcessTree(process);
+                    } else if (error != null) {
+                        logger.error("failed waiting for command '{}', killing process tree", command, unwrap(error));
+                        destroyProcessTree(process);
+                    }
+                    CompletableFuture.allOf(process.onExit(), stdoutDrained, stderrDrained)
+                            .completeOnTimeout(null, DRAIN_GRACE_PERIOD_MS, TimeUnit.MILLISECONDS)
+                            .whenComplete((ignored, drainError) -> {
+                                if (drainError != null && !timedOut) {
+                                    // only the stdout consumer can fail, the bounded drains swallow io errors
+                                    result.completeExceptionally(unwrap(drainError));
+                                    return;
+                                }
+                                int exitCode = timedOut ? TIMEOUT_EXIT_CODE : exitCodeOf(process);
+                                result.complete(new ExecutionResult(
+                                        stdout.toString(),
+                                        stderr.toString(),
+                                        exitCode,
+                                        timedOut,
+                                        stdout.isTruncated() || stderr.isTruncated()
+                                ));
+                            });
+                });
+
+        // CompletableFuture.cancel does not reach the child, do that here
+        result.whenComplete((ignored, error) -> {
+            if (result.isCancelled()) {
+                logger.info("command '{}' was cancelled, killing process tree", command);
+                destroyProcessTree(process);
+            }
+        });
+        return result;
+    }
+
+    private static void consume(InputStream inputStream, StdoutConsumer stdoutConsumer) {
+        try (inputStream) {
+            stdoutConsumer.consume(inputStream);
+            // the consumer may stop early, keep reading so the child does not block on a full pipe
+            inputStream.transferTo(OutputStream.nullOutputStream());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
         }
-        return new ExecutionResult(stdout, stderr, exitCode);
     }
-}
 
+    static void destroyProcessTree(Process process) {
+        // collect descendants first, once the parent dies they are re-parented and no longer reachable
+        List<ProcessHandle> descendants = process.descendants().toList();
+        process.destroyForcibly();
+        descendants.forEach(ProcessHandle::destroyForcibly);
+    }
 
+    private static int exitCodeOf(Process process) {
+        try {
+            return process.exitValue();
+        } catch (IllegalThreadStateException e) {
+            // still running after the drain grace period, treat as failure
+            return 1;
+        }
+    }
 
+    private static Throwable unwrap(Throwable error) {
+        return (error instanceof CompletionException && error.getCause() != null) ? error.getCause() : error;
+    }
+
+    /**
+     * collects up to a fixed number of bytes from a stream and keeps reading past the limit
+     * so the writing process is never blocked on a full pipe
+     */
+    private static class BoundedOutput {
+        private final int maxBytes;
+        private final ByteArrayOutputStream captured = new ByteArrayOutputStream();
+        private volatile boolean truncated = false;
+
+        BoundedOutput(int maxBytes) {
+            this.maxBytes = maxBytes;
+        }
+
+        void drain(InputStream inputStream) {
+            byte[] buffer = new byte[8192];
+            try (inputStream) {
+                int read;
+                while ((read = inputStream.read(buffer)) != -1) {
+                    int keep = Math.min(read, maxBytes - captured.size());
+                    if (keep > 0) {
+                        synchronized (captured) {
+                            captured.write(buffer, 0, keep);
+                        }
+                    }
+                    if (keep < read) {
+                        truncated = true;
+                    }
+                }
+            } catch (IOException e) {
+                // the stream is closed when the process is killed, whatever was read so far is kept
+                logger.debug("stream closed while draining: {}", e.getMessage());
+            }
+        }
+
+        boolean isTruncated() {
+            return truncated;
+        }
+
+        @Override
+        public String toString() {
+            synchronized (captured) {
+                return captured.toString(StandardCharsets.UTF_8);
+            }
+        }
+    }
+}
@@ -0,0 +1,13 @@
+package com.brcsrc.yaws.shell;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Reads a command's stdout as it is produced instead of collecting it into a String first.
+ * The stream is closed by the executor, implementations only need to read it.
+ */
+@FunctionalInterface
+public interface StdoutConsumer {
+    void consume(InputStream stdout) throws IOException;
+}
@@ -0,0 +1,434 @@
+package com.brcsrc.yaws.sse;
+
+import com.brcsrc.yaws.lifecycle.PeerLifecycleDetector;
+import com.brcsrc.yaws.lifecycle.PeerState;
+import com.brcsrc.yaws.system.ClientConnectionInformation;
+import com.brcsrc.yaws.system.NetworkConnectionInformation;
+import com.brcsrc.yaws.system.WireguardChangeListener;
+import com.brcsrc.yaws.system.WireguardConnectionDiff;
+import com.brcsrc.yaws.system.WireguardInformationProvider;
+import com.brcsrc.yaws.system.WireguardInformationProvider.WireguardConnectionData;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Component;
+import org.springframework.web.servlet.mvc.method.annotation.ResponseBodyEmitter.DataWithMediaType;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Pushes WireGuard connection information to SSE subscribers when it changes.
+ *
+ * Subscribers follow topics, a network or client public key. A single-topic stream follows
+ * exactly one, a multiplexed stream follows any set of them over one connection and can change
+ * that set while it is open. After each provider refresh the changed topics are serialized to
+ * JSON exactly once per variant (a network seen through the online-only filter is a separate
+ * variant) and the same pre-built event is written to every subscriber of that topic, so the
+ * cost of a refresh is one serialization per changed entity no matter how many streams are open.
+ * Streams that received nothing during a refresh get one SSE comment line as a heartbeat, which
+ * keeps idle connections from being dropped by proxies.
+ *
+ * All subscriber bookkeeping and every write happens on one dispatcher thread, see SseBroadcaster.
+ * The provider's refresh thread only enqueues the diff, so slow clients never delay the next refresh.
+ */
+@Component
+public class ConnectionInfoBroadcaster extends SseBroadcaster<ConnectionInfoBroadcaster.Subscription> implements WireguardChangeListener {
+
+    private static final Logger logger = LoggerFactory.getLogger(ConnectionInfoBroadcaster.class);
+
+    /** Event name for network connection information updates */
+    public static final String EVENT_NETWORK_INFO_UPDATE = "network-info-update";
+
+    /** Event name for client/peer connection information updates */
+    public static final String EVENT_CLIENT_INFO_UPDATE = "client-info-update";
+
+    /** Event name for application-level errors (e.g., "Network not found") */
+    public static final String EVENT_ERROR = "error";
+
+    /** First event on a multiplexed stream, carries the id used to modify the subscription */
+    public static final String EVENT_STREAM_OPENED = "stream-opened";
+
+    public enum TopicType {
+        NETWORK,
+        CLIENT
+    }
+
+    /**
+     * Which peers a network event includes, client events are never filtered
+     */
+    public enum PeerFilter {
+        ALL,
+        ONLINE
+    }
+
+    record Topic(TopicType type, String publicKey) {}
+
+    /**
+     * Identifies one serialized variant of a topic. tagged only matters for not-found errors,
+     * found entities already carry their public key in the payload.
+     */
+    private record EventKey(Topic topic, PeerFilter filter, boolean tagged) {}
+
+    /**
+     * @param onlinePeers the peers included in an online-only network event, to notice peers
+     *                    going stale without any change in the dump
+     */
+    private record CachedEvent(Set<DataWithMediaType> event, Set<String> onlinePeers) {}
+
+    /** Error payload on multiplexed streams, where the key is needed to tell which topic it is about */
+    record NotFoundError(String type, String publicKey, String message) {}
+
+    private final WireguardInformationProvider wireguardInfo;
+    private final PeerLifecycleDetector lifecycleDetector;
+    private final ObjectMapper objectMapper;
+    private final AtomicInteger subscriberCount = new AtomicInteger();
+    private final Map<String, Subscription> multiplexedById = new ConcurrentHashMap<>();
+
+    // only touched on the dispatcher thread
+    private final Map<Topic, Set<Subscription>> subscriptionsByTopic = new HashMap<>();
+    private final Set<Subscription> subscriptions = new LinkedHashSet<>();
+    private final Map<EventKey, CachedEvent> eventCache = new HashMap<>();
+    private WireguardConnectionData currentData;
+    private long round = 0;
+
+    @Autowired
+    public ConnectionInfoBroadcaster(WireguardInformationProvider wireguardInfo, PeerLifecycleDetector lifecycleDetector,
+                                     ObjectMapper objectMapper) {
+        // no timed heartbeats, every refresh sends one to the streams it had nothing for
+        super("yaws-sse-broadcast", "connection info stream");
+        this.wireguardInfo = wireguardInfo;
+        this.lifecycleDetector = lifecycleDetector;
+        this.objectMapper = objectMapper;
+    }
+
+    @PostConstruct
+    public void initialize() {
+        wireguardInfo.addChangeListener(this);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        wireguardInfo.removeChangeListener(this);
+        closeAll();
+    }
+
+    /**
+     * Registers the emitter for a network or client and sends it the current state. The emitter
+     * is removed again when it completes, times out or a write to it fails.
+     * @param type TopicType - whether the key is a network or a client public key
+     * @param publicKey String - the WireGuard public key to follow
+     * @param emitter SseConnection - the stream to write to, from SseConnectionRegistry
+     */
+    public void subscribe(TopicType type, String publicKey, SseConnection emitter) {
+        Subscription subscription = new Subscription(null, emitter, false);
+        register(subscription, type.name().toLowerCase() + " " + publicKey,
+                Set.of(new Topic(type, publicKey)), PeerFilter.ALL, null);
+    }
+
+    /**
+     * Registers the emitter for any number of networks and clients. The first event is
+     * stream-opened with the stream id, followed by the current state of every topic.
+     * @param networkPublicKeys Set of String - networks to follow
+     * @param clientPublicKeys Set of String - clients to follow
+     * @param filter PeerFilter - which peers network events include
+     * @param emitter SseConnection - the stream to write to, from SseConnectionRegistry
+     * @return String - the stream id to pass to updateSubscription
+     */
+    public String subscribeMultiplexed(Set<String> networkPublicKeys, Set<String> clientPublicKeys,
+                                       PeerFilter filter, SseConnection emitter) {
+        String streamId = UUID.randomUUID().toString();
+        Subscription subscription = new Subscription(streamId, emitter, true);
+        multiplexedById.put(streamId, subscription);
+        Set<DataWithMediaType> opened = SseEmitter.event()
+                .name(EVENT_STREAM_OPENED)
+                .data(Map.of("streamId", streamId), MediaType.APPLICATION_JSON)
+                .build();
+        register(subscription, "stream " + streamId, toTopics(networkPublicKeys, clientPublicKeys), filter, opened);
+        return streamId;
+    }
+
+    /**
+     * Replaces the topics and filter of a multiplexed stream. Topics that were added, or all of
+     * them if the filter changed, are sent their current state right away.
+     * @return boolean - false if no open stream has this id
+     */
+    public boolean updateSubscription(String streamId, Set<String> networkPublicKeys, Set<String> clientPublicKeys,
+                                      PeerFilter filter) {
+        Subscription subscription = multiplexedById.get(streamId);
+        if (subscription == null || subscription.isClosed()) {
+            return false;
+        }
+        Set<Topic> topics = toTopics(networkPublicKeys, clientPublicKeys);
+        try {
+            return dispatcher.submit(() -> {
+                if (subscription.isClosed()) {
+                    return false;
+                }
+                Set<Topic> added = new LinkedHashSet<>(topics);
+                if (subscription.filter == filter) {
+                    added.removeAll(subscription.topics);
+                }
+                for (Topic topic : subscription.topics) {
+                    if (!topics.contains(topic)) {
+                        removeFromTopic(subscription, topic);
+                    }
+                }
+                subscription.topics = topics;
+                subscription.filter = filter;
+                for (Topic topic : topics) {
+                    subscriptionsByTopic.computeIfAbsent(topic, key -> new LinkedHashSet<>()).add(subscription);
+                }
+                logger.info("SSE stream {} now follows {} topics", streamId, topics.size());
+                sendCurrentState(subscription, added);
+                return true;
+            }).get(5, TimeUnit.SECONDS);
+        } catch (Exception e) {
+            logger.error("Failed to update SSE stream {}", streamId, e);
+            return false;
+        }
+    }
+
+    /**
+     * @return int - the open streams, including those not registered on the dispatcher yet
+     */
+    @Override
+    public int getSubscriberCount() {
+        return subscriberCount.get();
+    }
+
+    private void register(Subscription subscription, String description, Set<Topic> topics, PeerFilter filter,
+                          Set<DataWithMediaType> firstEvent) {
+        wireguardInfo.acquireSubscriber();
+        subscriberCount.incrementAndGet();
+        register(subscription, description, () -> {
+            subscription.topics = topics;
+            subscription.filter = filter;
+            subscriptions.add(subscription);
+            for (Topic topic : topics) {
+                subscriptionsByTopic.computeIfAbsent(topic, key -> new LinkedHashSet<>()).add(subscription);
+            }
+            if (firstEvent != null && !subscription.send(firstEvent)) {
+                remove(subscription);
+                return;
+            }
+            // initial data right away, the client should not wait for the next change
+            sendCurrentState(subscription, topics);
+        });
+    }
+
+    private void sendCurrentState(Subscription subscription, Set<Topic> topics) {
+        if (currentData == null) {
+            currentData = wireguardInfo.getConnectionData();
+        }
+        for (Topic topic : topics) {
+            if (!subscription.send(eventFor(keyFor(topic, subscription)))) {
+                remove(subscription);
+                return;
+            }
+        }
+    }
+
+    @Override
+    public void onChange(WireguardConnectionDiff diff) {
+        execute(() -> broadcast(diff));
+    }
+
+    private void broadcast(WireguardConnectionDiff diff) {
+        round++;
+        currentData = diff.getCurrent();
+        Set<String> affectedNetworks = diff.getAffectedNetworkKeys();
+        Set<String> affectedPeers = diff.getAffectedPeerKeys();
+        long nowEpochMillis = System.currentTimeMillis();
+
+        // drop variants of changed or unwatched topics, online-only variants also go stale with time alone
+        Set<EventKey> invalidated = new HashSet<>();
+        eventCache.entrySet().removeIf(entry -> {
+            Topic topic = entry.getKey().topic();
+            boolean stale = !subscriptionsByTopic.containsKey(topic)
+                    || isAffected(topic, affectedNetworks, affectedPeers)
+                    || (entry.getValue().onlinePeers() != null
+                        && !entry.getValue().onlinePeers().equals(onlinePeerKeys(topic, nowEpochMillis)));
+            if (stale) {
+                invalidated.add(entry.getKey());
+            }
+            return stale;
+        });
+
+        Set<Subscription> failed = new HashSet<>();
+        for (Map.Entry<Topic, Set<Subscription>> entry : subscriptionsByTopic.entrySet()) {
+            Topic topic = entry.getKey();
+            boolean changed = isAffected(topic, affectedNetworks, affectedPeers);
+            for (Subscription subscription : entry.getValue()) {
+                EventKey key = keyFor(topic, subscription);
+                if (!changed && !invalidated.contains(key)) {
+                    continue;
+                }
+                // serialized once per variant by eventFor, shared by every subscriber of the topic
+                if (subscription.send(eventFor(key))) {
+                    subscription.lastSentRound = round;
+                } else {
+                    failed.add(subscription);
+                }
+            }
+        }
+        for (Subscription subscription : subscriptions) {
+            if (subscription.lastSentRound != round && !failed.contains(subscription) && !subscription.send(HEARTBEAT)) {
+                failed.add(subscription);
+            }
+        }
+        failed.forEach(this::remove);
+    }
+
+    private static boolean isAffected(Topic topic, Set<String> affectedNetworks, Set<String> affectedPeers) {
+        return topic.type() == TopicType.NETWORK
+                ? affectedNetworks.contains(topic.publicKey())
+                : affectedPeers.contains(topic.publicKey());
+    }
+
+    private EventKey keyFor(Topic topic, Subscription subscription) {
+        if (entityOf(topic) == null) {
+            return new EventKey(topic, PeerFilter.ALL, subscription.tagged);
+        }
+        PeerFilter filter = topic.type() == TopicType.NETWORK ? subscription.filter : PeerFilter.ALL;
+        return new EventKey(topic, filter, false);
+    }
+
+    private Object entityOf(Topic topic) {
+        return topic.type() == TopicType.NETWORK
+                ? currentData.getNetworksByPublicKey().get(topic.publicKey())
+                : currentData.getPeersByPublicKey().get(topic.publicKey());
+    }
+
+    private Set<DataWithMediaType> eventFor(EventKey key) {
+        return eventCache.computeIfAbsent(key, this::buildEvent).event();
+    }
+
+    private CachedEvent buildEvent(EventKey key) {
+        Topic topic = key.topic();
+        Object entity = entityOf(topic);
+        if (entity == null) {
+            String notFound = topic.type() == TopicType.NETWORK ? "Network not found" : "Client not found";
+            logger.warn("{} for public key: {}", notFound, topic.publicKey());
+            if (!key.tagged()) {
+                return new CachedEvent(SseEmitter.event().name(EVENT_ERROR).data(notFound, MediaType.TEXT_PLAIN).build(), null);
+            }
+            return new CachedEvent(jsonEvent(EVENT_ERROR, topic,
+                    new NotFoundError(topic.type().name().toLowerCase(), topic.publicKey(), notFound)), null);
+        }
+        if (topic.type() == TopicType.CLIENT) {
+            return new CachedEvent(jsonEvent(EVENT_CLIENT_INFO_UPDATE, topic, entity), null);
+        }
+        if (key.filter() == PeerFilter.ALL) {
+            return new CachedEvent(jsonEvent(EVENT_NETWORK_INFO_UPDATE, topic, entity), null);
+        }
+
+        // a filtered copy, the snapshot itself is never modified
+        NetworkConnectionInformation network = (NetworkConnectionInformation) entity;
+        Set<String> onlinePeers = onlinePeerKeys(topic, System.currentTimeMillis());
+        Map<String, ClientConnectionInformation> onlineNetworkPeers = new HashMap<>();
+        for (String peerKey : onlinePeers) {
+            onlineNetworkPeers.put(peerKey, network.getPeers().get(peerKey));
+        }
+        // the totals stay those of the whole network, offline peers hardly move them anyway
+        NetworkConnectionInformation filtered = network.withPeers(onlineNetworkPeers);
+        return new CachedEvent(jsonEvent(EVENT_NETWORK_INFO_UPDATE, topic, filtered), onlinePeers);
+    }
+
+    /**
+     * @return Set of String - the peers of the network topic the lifecycle detector classifies
+     * ONLINE, by the same yaws.lifecycle.online-handshake-seconds threshold as everywhere else
+     */
+    private Set<String> onlinePeerKeys(Topic topic, long nowEpochMillis) {
+        NetworkConnectionInformation network = topic.type() == TopicType.NETWORK
+                ? currentData.getNetworksByPublicKey().get(topic.publicKey())
+                : null;
+        if (network == null) {
+            return Set.of();
+        }
+        Set<String> online = new HashSet<>();
+        for (Map.Entry<String, ClientConnectionInformation> peer : network.getPeers().entrySet()) {
+            if (lifecycleDetector.classify(peer.getValue().knownLatestHandshakeEpochSeconds(), nowEpochMillis) == PeerState.ONLINE) {
+                online.add(peer.getKey());
+            }
+        }
+        return online;
+    }
+
+    private Set<DataWithMediaType> jsonEvent(String eventName, Topic topic, Object payload) {
+        try {
+            return SseEmitter.event().name(eventName).data(objectMapper.writeValueAsBytes(payload), MediaType.APPLICATION_JSON).build();
+        } catch (JsonProcessingException e) {
+            logger.error("Failed to serialize connection information for {}", topic.publicKey(), e);
+            return SseEmitter.event().name(EVENT_ERROR).data("Failed to serialize connection information", MediaType.TEXT_PLAIN).build();
+        }
+    }
+
+    private static Set<Topic> toTopics(Set<String> networkPublicKeys, Set<String> clientPublicKeys) {
+        Set<Topic> topics = new LinkedHashSet<>();
+        networkPublicKeys.forEach(key -> topics.add(new Topic(TopicType.NETWORK, key)));
+        clientPublicKeys.forEach(key -> topics.add(new Topic(TopicType.CLIENT, key)));
+        return topics;
+    }
+
+    @Override
+    protected Collection<Subscription> subscriptions() {
+        return subscriptions;
+    }
+
+    @Override
+    protected void removed(Subscription subscription) {
+        subscriptions.remove(subscription);
+        for (Topic topic : subscription.topics) {
+            removeFromTopic(subscription, topic);
+        }
+    }
+
+    private void removeFromTopic(Subscription subscription, Topic topic) {
+        Set<Subscription> topicSubscriptions = subscriptionsByTopic.get(topic);
+        if (topicSubscriptions != null) {
+            topicSubscriptions.remove(subscription);
+            if (topicSubscriptions.isEmpty()) {
+                subscriptionsByTopic.remove(topic);
+            }
+        }
+    }
+
+    @Override
+    protected void released(Subscription subscription) {
+        if (subscription.id != null) {
+            multiplexedById.remove(subscription.id);
+        }
+        subscriberCount.decrementAndGet();
+        wireguardInfo.releaseSubscriber();
+    }
+
+    static class Subscription extends SseBroadcaster.Subscription {
+        private final String id;
+        private final boolean tagged;
+        // only touched on the dispatcher thread
+        private Set<Topic> topics = Set.of();
+        private PeerFilter filter = PeerFilter.ALL;
+        private long lastSentRound = -1;
+
+        Subscription(String id, SseConnection emitter, boolean tagged) {
+            super(emitter);
+            this.id = id;
+            this.tagged = tagged;
+        }
+    }
+}
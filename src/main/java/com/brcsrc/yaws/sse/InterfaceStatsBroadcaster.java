@@ -0,0 +1,143 @@
+package com.brcsrc.yaws.sse;
+
+import com.brcsrc.yaws.system.InterfaceStats;
+import com.brcsrc.yaws.system.InterfaceStatsListener;
+import com.brcsrc.yaws.system.InterfaceStatsSampler;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Component;
+import org.springframework.web.servlet.mvc.method.annotation.ResponseBodyEmitter.DataWithMediaType;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Pushes interface counter samples to SSE subscribers.
+ *
+ * A subscriber can narrow the feed to some networks. Every sample of an interface is serialized
+ * once, on first use, and the same bytes are written to every matching subscriber. The sampler
+ * only runs while at least one stream is open. Samples arrive every second, the heartbeat only
+ * keeps streams alive while no network is active.
+ *
+ * All bookkeeping and writes happen on one dispatcher thread, see SseBroadcaster.
+ */
+@Component
+public class InterfaceStatsBroadcaster extends SseBroadcaster<InterfaceStatsBroadcaster.Subscription> implements InterfaceStatsListener {
+
+    private static final Logger logger = LoggerFactory.getLogger(InterfaceStatsBroadcaster.class);
+
+    /** Event name of an InterfaceStats sample */
+    public static final String EVENT_INTERFACE_STATS = "interface-stats";
+
+    private final InterfaceStatsSampler sampler;
+    private final ObjectMapper objectMapper;
+
+    // only touched on the dispatcher thread
+    private final Set<Subscription> subscriptions = new LinkedHashSet<>();
+
+    @Autowired
+    public InterfaceStatsBroadcaster(InterfaceStatsSampler sampler, ObjectMapper objectMapper) {
+        super("yaws-sse-interface-stats", "interface stats stream");
+        this.sampler = sampler;
+        this.objectMapper = objectMapper;
+    }
+
+    @PostConstruct
+    public void initialize() {
+        sampler.addListener(this);
+        startHeartbeats();
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        sampler.removeListener(this);
+        closeAll();
+    }
+
+    /**
+     * Registers the emitter, it receives every sample of the matching interfaces from the next
+     * one on, the first within a sample interval.
+     * @param networkPublicKeys Set of String - networks whose interfaces to report, empty for all
+     * @param emitter SseConnection - the stream to write to, from SseConnectionRegistry
+     */
+    public void subscribe(Set<String> networkPublicKeys, SseConnection emitter) {
+        Subscription subscription = new Subscription(emitter, networkPublicKeys);
+        sampler.acquireSubscriber();
+        register(subscription, "interface stats stream", () -> subscriptions.add(subscription));
+    }
+
+    @Override
+    public void onSample(List<InterfaceStats> samples) {
+        if (!samples.isEmpty()) {
+            execute(() -> dispatch(samples));
+        }
+    }
+
+    private void dispatch(List<InterfaceStats> samples) {
+        Set<Subscription> failed = new HashSet<>();
+        for (InterfaceStats stats : samples) {
+            Set<DataWithMediaType> serialized = null;
+            for (Subscription subscription : subscriptions) {
+                if (!subscription.matches(stats) || failed.contains(subscription)) {
+                    continue;
+                }
+                if (serialized == null) {
+                    serialized = jsonEvent(stats);
+                }
+                if (!subscription.send(serialized)) {
+                    failed.add(subscription);
+                }
+            }
+        }
+        failed.forEach(this::remove);
+    }
+
+    private Set<DataWithMediaType> jsonEvent(InterfaceStats stats) {
+        try {
+            return SseEmitter.event().name(EVENT_INTERFACE_STATS)
+                    .data(objectMapper.writeValueAsBytes(stats), MediaType.APPLICATION_JSON).build();
+        } catch (JsonProcessingException e) {
+            logger.error("Failed to serialize {} event", EVENT_INTERFACE_STATS, e);
+            return SseEmitter.event().name(ConnectionInfoBroadcaster.EVENT_ERROR)
+                    .data("Failed to serialize interface stats", MediaType.TEXT_PLAIN).build();
+        }
+    }
+
+    @Override
+    protected Collection<Subscription> subscriptions() {
+        return subscriptions;
+    }
+
+    @Override
+    protected void removed(Subscription subscription) {
+        subscriptions.remove(subscription);
+    }
+
+    @Override
+    protected void released(Subscription subscription) {
+        sampler.releaseSubscriber();
+    }
+
+    static class Subscription extends SseBroadcaster.Subscription {
+        private final Set<String> networkPublicKeys;
+
+        Subscription(SseConnection emitter, Set<String> networkPublicKeys) {
+            super(emitter);
+            this.networkPublicKeys = networkPublicKeys;
+        }
+
+        boolean matches(InterfaceStats stats) {
+            return networkPublicKeys.isEmpty() || networkPublicKeys.contains(stats.networkPublicKey());
+        }
+    }
+}
@@ -0,0 +1,110 @@
+package com.brcsrc.yaws.sse;
+
+import com.brcsrc.yaws.system.ClientConnectionInformation;
+import com.brcsrc.yaws.system.NetworkConnectionInformation;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * What changed in one network from one refresh to the next, the payload of a network-delta event.
+ *
+ * Field maps only hold the fields that changed, by their JSON property name, with the new value
+ * which may be null. Applying a delta to the state of sequence - 1 gives the state of sequence.
+ *
+ * @param network changed fields of the network itself
+ * @param addedPeers peers new to the network, in full
+ * @param removedPeers public keys of the peers that left it
+ * @param changedPeers changed fields by peer public key
+ */
+public record NetworkDelta(
+        String networkPublicKey,
+        long sequence,
+        Map<String, Object> network,
+        List<ClientConnectionInformation> addedPeers,
+        List<String> removedPeers,
+        Map<String, Map<String, Object>> changedPeers
+) {
+
+    /**
+     * Full state of a network, the payload of a network-snapshot event. Sent on connect, on
+     * resync and whenever the network appears or disappears.
+     * @param network null if the network is not up
+     */
+    public record Snapshot(String networkPublicKey, long sequence, NetworkConnectionInformation network) {}
+
+    /**
+     * @return NetworkDelta - the changes from previous to current, numbered sequence
+     */
+    static NetworkDelta between(NetworkConnectionInformation previous, NetworkConnectionInformation current, long sequence) {
+        Map<String, Object> network = new LinkedHashMap<>();
+        putIfChanged(network, "interfaceName", previous.getInterfaceName(), current.getInterfaceName());
+        putIfChanged(network, "listeningPort", previous.getListeningPort(), current.getListeningPort());
+        putIfChanged(network, "receiveBytesPerSecond", previous.getReceiveBytesPerSecond(), current.getReceiveBytesPerSecond());
+        putIfChanged(network, "sendBytesPerSecond", previous.getSendBytesPerSecond(), current.getSendBytesPerSecond());
+        putIfChanged(network, "smoothedReceiveBytesPerSecond",
+                previous.getSmoothedReceiveBytesPerSecond(), current.getSmoothedReceiveBytesPerSecond());
+        putIfChanged(network, "smoothedSendBytesPerSecond",
+                previous.getSmoothedSendBytesPerSecond(), current.getSmoothedSendBytesPerSecond());
+
+        List<ClientConnectionInformation> addedPeers = new ArrayList<>();
+        Map<String, Map<String, Object>> changedPeers = new LinkedHashMap<>();
+        for (Map.Entry<String, ClientConnectionInformation> entry : current.getPeers().entrySet()) {
+            ClientConnectionInformation before = previous.getPeers().get(entry.getKey());
+            if (before == null) {
+                addedPeers.add(entry.getValue());
+                continue;
+            }
+            // snapshots share unchanged peers, nothing to compare then
+            if (before != entry.getValue()) {
+                Map<String, Object> fields = changedFields(before, entry.getValue());
+                if (!fields.isEmpty()) {
+                    changedPeers.put(entry.getKey(), fields);
+                }
+            }
+        }
+        List<String> removedPeers = new ArrayList<>();
+        for (String peerKey : previous.getPeers().keySet()) {
+            if (!current.getPeers().containsKey(peerKey)) {
+                removedPeers.add(peerKey);
+            }
+        }
+        return new NetworkDelta(current.getPublicKey(), sequence, network, addedPeers, removedPeers, changedPeers);
+    }
+
+    /**
+     * @return boolean - true if nothing changed, such a delta is not sent
+     */
+    boolean isEmpty() {
+        return network.isEmpty() && addedPeers.isEmpty() && removedPeers.isEmpty() && changedPeers.isEmpty();
+    }
+
+    // the names must match the serialized properties, NetworkDeltaBroadcasterTests fails when they drift apart
+    private static Map<String, Object> changedFields(ClientConnectionInformation before, ClientConnectionInformation after) {
+        Map<String, Object> fields = new LinkedHashMap<>();
+        putIfChanged(fields, "presharedKey", before.getPresharedKey(), after.getPresharedKey());
+        putIfChanged(fields, "endpoint", before.getEndpoint(), after.getEndpoint());
+        putIfChanged(fields, "allowedIps", before.getAllowedIps(), after.getAllowedIps());
+        putIfChanged(fields, "latestHandshakeEpochSeconds",
+                before.getLatestHandshakeEpochSeconds(), after.getLatestHandshakeEpochSeconds());
+        putIfChanged(fields, "bytesReceived", before.getBytesReceived(), after.getBytesReceived());
+        putIfChanged(fields, "bytesSent", before.getBytesSent(), after.getBytesSent());
+        putIfChanged(fields, "persistentKeepalive", before.getPersistentKeepalive(), after.getPersistentKeepalive());
+        putIfChanged(fields, "receiveBytesPerSecond", before.getReceiveBytesPerSecond(), after.getReceiveBytesPerSecond());
+        putIfChanged(fields, "sendBytesPerSecond", before.getSendBytesPerSecond(), after.getSendBytesPerSecond());
+        putIfChanged(fields, "smoothedReceiveBytesPerSecond",
+                before.getSmoothedReceiveBytesPerSecond(), after.getSmoothedReceiveBytesPerSecond());
+        putIfChanged(fields, "smoothedSendBytesPerSecond",
+                before.getSmoothedSendBytesPerSecond(), after.getSmoothedSendBytesPerSecond());
+        return fields;
+    }
+
+    private static void putIfChanged(Map<String, Object> fields, String name, Object before, Object after) {
+        if (!Objects.equals(before, after)) {
+            fields.put(name, after);
+        }
+    }
+}
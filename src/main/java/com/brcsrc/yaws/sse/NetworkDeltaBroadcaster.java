@@ -0,0 +1,396 @@
+package com.brcsrc.yaws.sse;
+
+import com.brcsrc.yaws.system.NetworkConnectionInformation;
+import com.brcsrc.yaws.system.WireguardChangeListener;
+import com.brcsrc.yaws.system.WireguardConnectionDiff;
+import com.brcsrc.yaws.system.WireguardInformationProvider;
+import com.brcsrc.yaws.system.WireguardInformationProvider.WireguardConnectionData;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.env.Environment;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Component;
+import org.springframework.web.servlet.mvc.method.annotation.ResponseBodyEmitter.DataWithMediaType;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Streams a network as one full snapshot followed by deltas, so a dashboard of a large network
+ * receives the few peers that moved instead of every peer on every refresh.
+ *
+ * Every followed network has a sequence number, bumped by each delta. Subscribers get a
+ * network-snapshot event with the current sequence first, then network-delta events carrying
+ * only the changed fields, added and removed peers, each carrying the next sequence.
+ * A client that sees a sequence other than the last one + 1 has missed a delta and asks for a
+ * resync with the stream id from the stream-opened event, which sends a fresh snapshot on the
+ * same stream. When the network goes up or down a snapshot is sent instead of a delta.
+ *
+ * Event ids are the snapshot version the event brings the client to, prefixed with an epoch of
+ * this broadcaster so ids from before a restart are never mistaken for current ones. The newest
+ * yaws.sse.replay-buffer-size deltas of every network are kept, a client reconnecting with a
+ * Last-Event-ID still covered by them receives only the deltas it missed instead of a snapshot.
+ * A network stays followed for yaws.sse.replay-retention-ms after its last subscriber left, so
+ * the usual reconnect of a single dashboard can resume. After that its deltas are no longer
+ * computed and the next subscriber starts over with a new sequence and a snapshot.
+ *
+ * Deltas are computed once per network and refresh, and serialized once when someone receives
+ * them. Going up or down breaks the chain of deltas of a network and empties its replay buffer.
+ *
+ * All bookkeeping and writes happen on one dispatcher thread, see SseBroadcaster.
+ */
+@Component
+public class NetworkDeltaBroadcaster extends SseBroadcaster<NetworkDeltaBroadcaster.Subscription> implements WireguardChangeListener {
+
+    private static final Logger logger = LoggerFactory.getLogger(NetworkDeltaBroadcaster.class);
+
+    /** Event name of the full state of a network, with the sequence the next delta follows */
+    public static final String EVENT_NETWORK_SNAPSHOT = "network-snapshot";
+
+    /** Event name of the changes of a network since the previous sequence */
+    public static final String EVENT_NETWORK_DELTA = "network-delta";
+
+    static final String REPLAY_BUFFER_SIZE_PROPERTY = "yaws.sse.replay-buffer-size";
+    static final String REPLAY_RETENTION_PROPERTY = "yaws.sse.replay-retention-ms";
+    static final int DEFAULT_REPLAY_BUFFER_SIZE = 64;
+    static final long DEFAULT_REPLAY_RETENTION_MS = 300_000;
+
+    private final WireguardInformationProvider wireguardInfo;
+    private final ObjectMapper objectMapper;
+    private final int replayBufferSize;
+    private final long replayRetentionMs;
+    // ids of this run, versions start over with the provider
+    private final String epoch = Long.toString(System.currentTimeMillis(), 36);
+    private final Map<String, Subscription> subscriptionsById = new ConcurrentHashMap<>();
+
+    // only touched on the dispatcher thread
+    private final Map<String, NetworkLog> logs = new HashMap<>();
+    private WireguardConnectionData currentData;
+
+    @Autowired
+    public NetworkDeltaBroadcaster(WireguardInformationProvider wireguardInfo, ObjectMapper objectMapper, Environment env) {
+        this(
+            wireguardInfo,
+            objectMapper,
+            env.getProperty(REPLAY_BUFFER_SIZE_PROPERTY, Integer.class, DEFAULT_REPLAY_BUFFER_SIZE),
+            env.getProperty(REPLAY_RETENTION_PROPERTY, Long.class, DEFAULT_REPLAY_RETENTION_MS)
+        );
+    }
+
+    NetworkDeltaBroadcaster(WireguardInformationProvider wireguardInfo, ObjectMapper objectMapper,
+                            int replayBufferSize, long replayRetentionMs) {
+        super("yaws-sse-network-delta", "network delta stream");
+        if (replayBufferSize < 0 || replayRetentionMs < 0) {
+            throw new IllegalArgumentException("replay buffer size and retention must not be negative");
+        }
+        this.wireguardInfo = wireguardInfo;
+        this.objectMapper = objectMapper;
+        this.replayBufferSize = replayBufferSize;
+        this.replayRetentionMs = replayRetentionMs;
+    }
+
+    @PostConstruct
+    public void initialize() {
+        wireguardInfo.addChangeListener(this);
+        startHeartbeats();
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        wireguardInfo.removeChangeListener(this);
+        closeAll();
+    }
+
+    /**
+     * Registers the emitter, the first events are stream-opened with the stream id and the
+     * network's snapshot, or only the missed deltas if lastEventId can be resumed from
+     * @param networkPublicKey String - the network to follow
+     * @param lastEventId String - the Last-Event-ID of a reconnecting client, may be null
+     * @param emitter SseConnection - the stream to write to, from SseConnectionRegistry
+     * @return String - the stream id to pass to resync
+     */
+    public String subscribe(String networkPublicKey, String lastEventId, SseConnection emitter) {
+        String streamId = UUID.randomUUID().toString();
+        Subscription subscription = new Subscription(streamId, networkPublicKey, emitter);
+        subscriptionsById.put(streamId, subscription);
+        wireguardInfo.acquireSubscriber();
+
+        Set<DataWithMediaType> opened = SseEmitter.event()
+                .name(ConnectionInfoBroadcaster.EVENT_STREAM_OPENED)
+                .data(Map.of("streamId", streamId), MediaType.APPLICATION_JSON)
+                .build();
+        register(subscription, "network delta stream " + streamId, () -> {
+            NetworkLog log = logs.computeIfAbsent(networkPublicKey, key -> new NetworkLog());
+            boolean restarted = !log.followed;
+            if (restarted) {
+                // nobody followed the network for a while, its last state and sequence are stale
+                WireguardConnectionData data = currentData();
+                log.followed = true;
+                log.sequence++;
+                log.version = data.getVersion();
+                log.network = data.getNetworksByPublicKey().get(networkPublicKey);
+                log.snapshotEvent = null;
+                log.restartReplay();
+            }
+            log.subscriptions.add(subscription);
+            if (!subscription.send(opened)) {
+                remove(subscription);
+                return;
+            }
+            List<Replay> missed = restarted ? null : log.missedSince(parseVersion(lastEventId));
+            if (missed == null) {
+                if (!subscription.send(snapshotEvent(networkPublicKey, log))) {
+                    remove(subscription);
+                }
+                return;
+            }
+            logger.info("Resuming network delta stream {} with {} missed deltas", streamId, missed.size());
+            for (Replay replay : missed) {
+                if (!subscription.send(replayEvent(replay))) {
+                    remove(subscription);
+                    return;
+                }
+            }
+        });
+        return streamId;
+    }
+
+    /**
+     * Sends the current snapshot again on an open stream, for a client that missed a delta
+     * @return boolean - false if no open stream has this id
+     */
+    public boolean resync(String streamId) {
+        Subscription subscription = subscriptionsById.get(streamId);
+        if (subscription == null || subscription.isClosed()) {
+            return false;
+        }
+        return execute(() -> {
+            NetworkLog log = logs.get(subscription.networkPublicKey);
+            if (subscription.isClosed() || log == null) {
+                return;
+            }
+            logger.info("Resyncing network delta stream {} at sequence {}", streamId, log.sequence);
+            if (!subscription.send(snapshotEvent(subscription.networkPublicKey, log))) {
+                remove(subscription);
+            }
+        });
+    }
+
+    @Override
+    public void onChange(WireguardConnectionDiff diff) {
+        execute(() -> dispatch(diff.getCurrent()));
+    }
+
+    private void dispatch(WireguardConnectionData data) {
+        currentData = data;
+        long now = System.currentTimeMillis();
+        Set<Subscription> failed = new HashSet<>();
+        for (Map.Entry<String, NetworkLog> entry : logs.entrySet()) {
+            NetworkLog log = entry.getValue();
+            if (log.subscriptions.isEmpty() && log.followed && now - log.idleSinceMillis >= replayRetentionMs) {
+                log.followed = false;
+                log.replay.clear();
+            }
+            NetworkConnectionInformation network = data.getNetworksByPublicKey().get(entry.getKey());
+            if (!log.followed || network == log.network) {
+                continue;
+            }
+            Set<DataWithMediaType> event;
+            if (network == null || log.network == null) {
+                // the network went up or down, there is nothing to apply a delta to
+                log.sequence++;
+                log.version = data.getVersion();
+                log.network = network;
+                log.snapshotEvent = null;
+                log.restartReplay();
+                if (log.subscriptions.isEmpty()) {
+                    continue;
+                }
+                event = snapshotEvent(entry.getKey(), log);
+            } else {
+                NetworkDelta delta = NetworkDelta.between(log.network, network, log.sequence + 1);
+                log.network = network;
+                if (delta.isEmpty()) {
+                    continue;
+                }
+                log.sequence = delta.sequence();
+                log.version = data.getVersion();
+                log.snapshotEvent = null;
+                Replay replay = log.record(new Replay(data.getVersion(), delta), replayBufferSize);
+                if (log.subscriptions.isEmpty()) {
+                    continue;
+                }
+                event = replayEvent(replay);
+            }
+            for (Subscription subscription : log.subscriptions) {
+                if (!subscription.send(event)) {
+                    failed.add(subscription);
+                }
+            }
+        }
+        failed.forEach(this::remove);
+    }
+
+    private WireguardConnectionData currentData() {
+        if (currentData == null) {
+            currentData = wireguardInfo.getConnectionData();
+        }
+        return currentData;
+    }
+
+    // built once per sequence, shared by every subscriber that connects or resyncs at it
+    private Set<DataWithMediaType> snapshotEvent(String networkPublicKey, NetworkLog log) {
+        if (log.snapshotEvent == null) {
+            log.snapshotEvent = jsonEvent(EVENT_NETWORK_SNAPSHOT, log.version,
+                    new NetworkDelta.Snapshot(networkPublicKey, log.sequence, log.network));
+        }
+        return log.snapshotEvent;
+    }
+
+    // built when first sent, live or replayed
+    private Set<DataWithMediaType> replayEvent(Replay replay) {
+        if (replay.event == null) {
+            replay.event = jsonEvent(EVENT_NETWORK_DELTA, replay.version, replay.delta);
+        }
+        return replay.event;
+    }
+
+    /**
+     * @return Long - the snapshot version of an event id of this run, null if absent or not one of ours
+     */
+    private Long parseVersion(String lastEventId) {
+        if (lastEventId == null || !lastEventId.startsWith(epoch + "-")) {
+            return null;
+        }
+        try {
+            return Long.parseLong(lastEventId.substring(epoch.length() + 1));
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    private Set<DataWithMediaType> jsonEvent(String eventName, long version, Object payload) {
+        try {
+            return SseEmitter.event().name(eventName).id(epoch + "-" + version)
+                    .data(objectMapper.writeValueAsBytes(payload), MediaType.APPLICATION_JSON).build();
+        } catch (JsonProcessingException e) {
+            logger.error("Failed to serialize {} event", eventName, e);
+            return SseEmitter.event().name(ConnectionInfoBroadcaster.EVENT_ERROR)
+                    .data("Failed to serialize network delta", MediaType.TEXT_PLAIN).build();
+        }
+    }
+
+    @Override
+    protected Collection<Subscription> subscriptions() {
+        List<Subscription> subscriptions = new ArrayList<>();
+        logs.values().forEach(log -> subscriptions.addAll(log.subscriptions));
+        return subscriptions;
+    }
+
+    @Override
+    protected void removed(Subscription subscription) {
+        NetworkLog log = logs.get(subscription.networkPublicKey);
+        if (log != null && log.subscriptions.remove(subscription) && log.subscriptions.isEmpty()) {
+            log.idleSinceMillis = System.currentTimeMillis();
+        }
+    }
+
+    @Override
+    protected void released(Subscription subscription) {
+        subscriptionsById.remove(subscription.id);
+        wireguardInfo.releaseSubscriber();
+    }
+
+    /**
+     * The delta state of one network, kept for as long as the broadcaster runs
+     */
+    private static class NetworkLog {
+        private final Set<Subscription> subscriptions = new LinkedHashSet<>();
+        // deltas are computed while followed, until the retention after the last subscriber passed
+        private boolean followed;
+        private long idleSinceMillis;
+        private long sequence;
+        // the snapshot version the state as of sequence was taken from
+        private long version;
+        // the state as of sequence, null while the network is down
+        private NetworkConnectionInformation network;
+        private Set<DataWithMediaType> snapshotEvent;
+        // the newest deltas, oldest first, the first one applies to the state of replayBaseVersion
+        private final ArrayDeque<Replay> replay = new ArrayDeque<>();
+        private long replayBaseVersion;
+
+        private void restartReplay() {
+            replay.clear();
+            replayBaseVersion = version;
+        }
+
+        private Replay record(Replay delta, int capacity) {
+            replay.addLast(delta);
+            while (replay.size() > capacity) {
+                replayBaseVersion = replay.removeFirst().version;
+            }
+            return delta;
+        }
+
+        /**
+         * @return List - the deltas after the state of lastVersion, empty if that is the current
+         *         state, null if it is unknown or older than the buffer and a snapshot is needed
+         */
+        private List<Replay> missedSince(Long lastVersion) {
+            if (lastVersion == null || lastVersion > version) {
+                return null;
+            }
+            if (lastVersion == version) {
+                return List.of();
+            }
+            // only the versions a state was sent for, anything in between was never an event id
+            boolean known = lastVersion == replayBaseVersion;
+            List<Replay> missed = new ArrayList<>();
+            for (Replay delta : replay) {
+                if (delta.version > lastVersion) {
+                    missed.add(delta);
+                } else if (delta.version == lastVersion) {
+                    known = true;
+                }
+            }
+            return known ? missed : null;
+        }
+    }
+
+    private static class Replay {
+        private final long version;
+        private final NetworkDelta delta;
+        private Set<DataWithMediaType> event;
+
+        Replay(long version, NetworkDelta delta) {
+            this.version = version;
+            this.delta = delta;
+        }
+    }
+
+    static class Subscription extends SseBroadcaster.Subscription {
+        private final String id;
+        private final String networkPublicKey;
+
+        Subscription(String id, String networkPublicKey, SseConnection emitter) {
+            super(emitter);
+            this.id = id;
+            this.networkPublicKey = networkPublicKey;
+        }
+    }
+}
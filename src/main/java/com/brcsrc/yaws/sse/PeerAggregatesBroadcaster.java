@@ -0,0 +1,155 @@
+package com.brcsrc.yaws.sse;
+
+import com.brcsrc.yaws.aggregates.PeerAggregates;
+import com.brcsrc.yaws.aggregates.PeerAggregatesListener;
+import com.brcsrc.yaws.aggregates.PeerAggregator;
+import com.brcsrc.yaws.system.WireguardInformationProvider;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Component;
+import org.springframework.web.servlet.mvc.method.annotation.ResponseBodyEmitter.DataWithMediaType;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/**
+ * Pushes the peer aggregates to SSE subscribers whenever a refresh changed them.
+ *
+ * A subscriber can narrow the per network summaries to some networks, the global summary is
+ * always included. Subscribers of all networks share one serialization of every update. Every
+ * open stream counts as a provider subscriber, so the aggregates follow the active refresh
+ * interval while anyone is watching.
+ *
+ * All bookkeeping and writes happen on one dispatcher thread, see SseBroadcaster.
+ */
+@Component
+public class PeerAggregatesBroadcaster extends SseBroadcaster<PeerAggregatesBroadcaster.Subscription> implements PeerAggregatesListener {
+
+    private static final Logger logger = LoggerFactory.getLogger(PeerAggregatesBroadcaster.class);
+
+    /** Event name of a PeerAggregates update, also sent on connect */
+    public static final String EVENT_PEER_AGGREGATES = "peer-aggregates";
+
+    private final PeerAggregator aggregator;
+    private final WireguardInformationProvider wireguardInfo;
+    private final ObjectMapper objectMapper;
+
+    // only touched on the dispatcher thread
+    private final Set<Subscription> subscriptions = new LinkedHashSet<>();
+
+    @Autowired
+    public PeerAggregatesBroadcaster(PeerAggregator aggregator, WireguardInformationProvider wireguardInfo,
+                                     ObjectMapper objectMapper) {
+        super("yaws-sse-peer-aggregates", "peer aggregates stream");
+        this.aggregator = aggregator;
+        this.wireguardInfo = wireguardInfo;
+        this.objectMapper = objectMapper;
+    }
+
+    @PostConstruct
+    public void initialize() {
+        aggregator.addListener(this);
+        startHeartbeats();
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        aggregator.removeListener(this);
+        closeAll();
+    }
+
+    /**
+     * Registers the emitter, the first event carries the current aggregates
+     * @param networkPublicKeys Set of String - networks whose summaries to report, empty for all
+     * @param emitter SseConnection - the stream to write to, from SseConnectionRegistry
+     */
+    public void subscribe(Set<String> networkPublicKeys, SseConnection emitter) {
+        Subscription subscription = new Subscription(emitter, networkPublicKeys);
+        wireguardInfo.acquireSubscriber();
+        register(subscription, "peer aggregates stream", () -> {
+            // updates queued before this task are older than what it sends, they are skipped by version
+            PeerAggregates current = aggregator.getAggregates();
+            subscription.lastVersion = current.version();
+            if (subscription.send(jsonEvent(current.forNetworks(networkPublicKeys)))) {
+                subscriptions.add(subscription);
+            } else {
+                remove(subscription);
+            }
+        });
+    }
+
+    @Override
+    public void onAggregates(PeerAggregates aggregates) {
+        execute(() -> dispatch(aggregates));
+    }
+
+    private void dispatch(PeerAggregates aggregates) {
+        Set<Subscription> failed = new HashSet<>();
+        Set<DataWithMediaType> allNetworks = null;
+        for (Subscription subscription : subscriptions) {
+            if (aggregates.version() <= subscription.lastVersion) {
+                continue;
+            }
+            subscription.lastVersion = aggregates.version();
+            Set<DataWithMediaType> event;
+            if (subscription.networkPublicKeys.isEmpty()) {
+                if (allNetworks == null) {
+                    allNetworks = jsonEvent(aggregates);
+                }
+                event = allNetworks;
+            } else {
+                event = jsonEvent(aggregates.forNetworks(subscription.networkPublicKeys));
+            }
+            if (!subscription.send(event)) {
+                failed.add(subscription);
+            }
+        }
+        failed.forEach(this::remove);
+    }
+
+    private Set<DataWithMediaType> jsonEvent(PeerAggregates aggregates) {
+        try {
+            return SseEmitter.event().name(EVENT_PEER_AGGREGATES).id(String.valueOf(aggregates.version()))
+                    .data(objectMapper.writeValueAsBytes(aggregates), MediaType.APPLICATION_JSON).build();
+        } catch (JsonProcessingException e) {
+            logger.error("Failed to serialize {} event", EVENT_PEER_AGGREGATES, e);
+            return SseEmitter.event().name(ConnectionInfoBroadcaster.EVENT_ERROR)
+                    .data("Failed to serialize peer aggregates", MediaType.TEXT_PLAIN).build();
+        }
+    }
+
+    @Override
+    protected Collection<Subscription> subscriptions() {
+        return subscriptions;
+    }
+
+    @Override
+    protected void removed(Subscription subscription) {
+        subscriptions.remove(subscription);
+    }
+
+    @Override
+    protected void released(Subscription subscription) {
+        wireguardInfo.releaseSubscriber();
+    }
+
+    static class Subscription extends SseBroadcaster.Subscription {
+        private final Set<String> networkPublicKeys;
+        // only touched on the dispatcher thread
+        private long lastVersion;
+
+        Subscription(SseConnection emitter, Set<String> networkPublicKeys) {
+            super(emitter);
+            this.networkPublicKeys = networkPublicKeys;
+        }
+    }
+}
@@ -0,0 +1,172 @@
+package com.brcsrc.yaws.sse;
+
+import com.brcsrc.yaws.lifecycle.PeerLifecycleDetector;
+import com.brcsrc.yaws.lifecycle.PeerLifecycleEvent;
+import com.brcsrc.yaws.lifecycle.PeerLifecycleListener;
+import com.brcsrc.yaws.system.WireguardInformationProvider;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Component;
+import org.springframework.web.servlet.mvc.method.annotation.ResponseBodyEmitter.DataWithMediaType;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Pushes peer lifecycle events to SSE subscribers.
+ *
+ * A subscriber can narrow the feed to some networks and some event types, everything else is
+ * skipped on the server. Each event is serialized once, on first use, and the same bytes are
+ * written to every matching subscriber. Lifecycle events are rare compared to connection info
+ * updates, so every stream gets a heartbeat comment every HEARTBEAT_INTERVAL_SECONDS.
+ *
+ * Every open stream counts as a provider subscriber, the detector runs at the provider's refresh
+ * interval and would otherwise see at most one refresh a minute, too few to notice handshake
+ * churn. All bookkeeping and writes happen on one dispatcher thread, see SseBroadcaster.
+ */
+@Component
+public class PeerEventBroadcaster extends SseBroadcaster<PeerEventBroadcaster.Subscription> implements PeerLifecycleListener {
+
+    private static final Logger logger = LoggerFactory.getLogger(PeerEventBroadcaster.class);
+
+    /** Event name of a PeerLifecycleEvent */
+    public static final String EVENT_PEER_LIFECYCLE = "peer-lifecycle";
+
+    /** First event on a stream, carries the last sequence and the peer counts per state */
+    public static final String EVENT_PEER_EVENTS_OPENED = "peer-events-opened";
+
+    private final PeerLifecycleDetector detector;
+    private final WireguardInformationProvider wireguardInfo;
+    private final ObjectMapper objectMapper;
+
+    // only touched on the dispatcher thread
+    private final Set<Subscription> subscriptions = new LinkedHashSet<>();
+
+    @Autowired
+    public PeerEventBroadcaster(PeerLifecycleDetector detector, WireguardInformationProvider wireguardInfo,
+                                ObjectMapper objectMapper) {
+        super("yaws-sse-peer-events", "peer event stream");
+        this.detector = detector;
+        this.wireguardInfo = wireguardInfo;
+        this.objectMapper = objectMapper;
+    }
+
+    @PostConstruct
+    public void initialize() {
+        detector.addListener(this);
+        startHeartbeats();
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        detector.removeListener(this);
+        closeAll();
+    }
+
+    /**
+     * Registers the emitter, the first event is peer-events-opened with the sequence the stream
+     * starts after, earlier events can be read from the detector.
+     * @param networkPublicKeys Set of String - networks whose peers to report, empty for all
+     * @param types Set of PeerLifecycleEvent.Type - event types to report, empty for all
+     * @param emitter SseConnection - the stream to write to, from SseConnectionRegistry
+     */
+    public void subscribe(Set<String> networkPublicKeys, Set<PeerLifecycleEvent.Type> types, SseConnection emitter) {
+        Subscription subscription = new Subscription(emitter, networkPublicKeys, types);
+        wireguardInfo.acquireSubscriber();
+        register(subscription, "peer event stream", () -> {
+            // batches numbered but not dispatched yet are skipped by startAfter, they are older than the opened event
+            subscription.startAfter = detector.getLastSequence();
+            Map<String, Object> opened = Map.of(
+                    "lastSequence", subscription.startAfter,
+                    "stateCounts", detector.getStateCounts());
+            if (subscription.send(jsonEvent(EVENT_PEER_EVENTS_OPENED, null, opened))) {
+                subscriptions.add(subscription);
+            } else {
+                remove(subscription);
+            }
+        });
+    }
+
+    @Override
+    public void onEvents(List<PeerLifecycleEvent> events) {
+        execute(() -> dispatch(events));
+    }
+
+    private void dispatch(List<PeerLifecycleEvent> events) {
+        Set<Subscription> failed = new HashSet<>();
+        for (PeerLifecycleEvent event : events) {
+            Set<DataWithMediaType> serialized = null;
+            for (Subscription subscription : subscriptions) {
+                if (!subscription.matches(event) || failed.contains(subscription)) {
+                    continue;
+                }
+                if (serialized == null) {
+                    serialized = jsonEvent(EVENT_PEER_LIFECYCLE, String.valueOf(event.sequence()), event);
+                }
+                if (!subscription.send(serialized)) {
+                    failed.add(subscription);
+                }
+            }
+        }
+        failed.forEach(this::remove);
+    }
+
+    private Set<DataWithMediaType> jsonEvent(String eventName, String id, Object payload) {
+        SseEmitter.SseEventBuilder builder = SseEmitter.event().name(eventName);
+        if (id != null) {
+            builder.id(id);
+        }
+        try {
+            return builder.data(objectMapper.writeValueAsBytes(payload), MediaType.APPLICATION_JSON).build();
+        } catch (JsonProcessingException e) {
+            logger.error("Failed to serialize {} event", eventName, e);
+            return SseEmitter.event().name(ConnectionInfoBroadcaster.EVENT_ERROR)
+                    .data("Failed to serialize peer event", MediaType.TEXT_PLAIN).build();
+        }
+    }
+
+    @Override
+    protected Collection<Subscription> subscriptions() {
+        return subscriptions;
+    }
+
+    @Override
+    protected void removed(Subscription subscription) {
+        subscriptions.remove(subscription);
+    }
+
+    @Override
+    protected void released(Subscription subscription) {
+        wireguardInfo.releaseSubscriber();
+    }
+
+    static class Subscription extends SseBroadcaster.Subscription {
+        private final Set<String> networkPublicKeys;
+        private final Set<PeerLifecycleEvent.Type> types;
+        // only touched on the dispatcher thread
+        private long startAfter;
+
+        Subscription(SseConnection emitter, Set<String> networkPublicKeys, Set<PeerLifecycleEvent.Type> types) {
+            super(emitter);
+            this.networkPublicKeys = networkPublicKeys;
+            this.types = types;
+        }
+
+        boolean matches(PeerLifecycleEvent event) {
+            return event.sequence() > startAfter
+                    && (types.isEmpty() || types.contains(event.type()))
+                    && (networkPublicKeys.isEmpty() || networkPublicKeys.contains(event.networkPublicKey()));
+        }
+    }
+}
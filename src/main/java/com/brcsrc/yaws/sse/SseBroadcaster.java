@@ -0,0 +1,221 @@
+package com.brcsrc.yaws.sse;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.web.servlet.mvc.method.annotation.ResponseBodyEmitter.DataWithMediaType;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * What every broadcaster does the same way: one dispatcher thread that owns the subscriptions
+ * and does every write, an optional heartbeat comment for streams that can stay silent, and
+ * ending a subscription exactly once whether its stream completed, timed out, failed in the
+ * container or failed a send.
+ *
+ * Subclasses keep their subscriptions in whatever structure they dispatch from, they only
+ * touch it on the dispatcher thread and hand it out through subscriptions().
+ *
+ * @param <S> the subscription type of the broadcaster
+ */
+abstract class SseBroadcaster<S extends SseBroadcaster.Subscription> {
+
+    private static final Logger logger = LoggerFactory.getLogger(SseBroadcaster.class);
+
+    static final long HEARTBEAT_INTERVAL_SECONDS = 30;
+    static final Set<DataWithMediaType> HEARTBEAT = SseEmitter.event().comment("heartbeat").build();
+
+    /** How long shutdown waits for the dispatcher to close the streams, and tests for it to catch up */
+    private static final long DISPATCHER_WAIT_SECONDS = 5;
+
+    // what the streams are called in logs, e.g. "peer event stream"
+    private final String streamName;
+    protected final ScheduledExecutorService dispatcher;
+
+    protected SseBroadcaster(String threadName, String streamName) {
+        this.streamName = streamName;
+        this.dispatcher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, threadName);
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * @return Collection - every open subscription, only called on the dispatcher thread
+     */
+    protected abstract Collection<S> subscriptions();
+
+    /**
+     * Drops the subscription from the dispatch structures, on the dispatcher thread. Called once
+     * a subscription is closed, possibly more than once.
+     */
+    protected abstract void removed(S subscription);
+
+    /**
+     * Gives back what the subscription held, e.g. a provider subscriber. Called exactly once per
+     * subscription, from whichever thread ended it.
+     */
+    protected void released(S subscription) {
+    }
+
+    /**
+     * Writes a heartbeat comment to every stream every HEARTBEAT_INTERVAL_SECONDS
+     */
+    protected void startHeartbeats() {
+        dispatcher.scheduleAtFixedRate(this::sendHeartbeats, HEARTBEAT_INTERVAL_SECONDS, HEARTBEAT_INTERVAL_SECONDS, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Completes every open stream and stops the dispatcher
+     */
+    protected void closeAll() {
+        try {
+            dispatcher.submit(() -> new ArrayList<>(subscriptions()).forEach(subscription -> {
+                subscription.emitter.complete();
+                remove(subscription);
+            })).get(DISPATCHER_WAIT_SECONDS, TimeUnit.SECONDS);
+        } catch (Exception e) {
+            logger.warn("Failed to close {}s on shutdown: {}", streamName, e.getMessage());
+        }
+        dispatcher.shutdownNow();
+    }
+
+    /**
+     * Ties the subscription to the lifetime of its stream and runs start on the dispatcher, unless
+     * the stream ended before that. start typically sends the first events and adds the subscription to the
+     * dispatch structures.
+     * @param subscription S - the new subscription
+     * @param description String - identifies the stream in logs
+     * @param start Runnable - run on the dispatcher thread while the stream is open
+     */
+    protected void register(S subscription, String description, Runnable start) {
+        SseConnection emitter = subscription.emitter;
+        emitter.onCompletion(() -> {
+            logger.info("SSE completed for {}", description);
+            unsubscribe(subscription);
+        });
+        // the connection completes itself after its timeout callbacks
+        emitter.onTimeout(() -> logger.info("SSE timeout for {}", description));
+        emitter.onError(ex -> {
+            logger.error("SSE error for {}", description, ex);
+            unsubscribe(subscription);
+        });
+
+        try {
+            dispatcher.execute(() -> {
+                if (!subscription.isClosed()) {
+                    start.run();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            logger.warn("SSE subscription rejected during shutdown for {}", description);
+            unsubscribe(subscription);
+            emitter.complete();
+        }
+    }
+
+    /**
+     * Runs the task on the dispatcher thread, or drops it after shutdown
+     * @return boolean - false if the task was dropped
+     */
+    protected boolean execute(Runnable task) {
+        try {
+            dispatcher.execute(task);
+            return true;
+        } catch (RejectedExecutionException e) {
+            logger.debug("Dropping {} update after shutdown", streamName);
+            return false;
+        }
+    }
+
+    /**
+     * Ends the subscription from any thread, the dispatch structures follow on the dispatcher
+     */
+    protected void unsubscribe(S subscription) {
+        if (!subscription.close()) {
+            return;
+        }
+        released(subscription);
+        try {
+            dispatcher.execute(() -> removed(subscription));
+        } catch (RejectedExecutionException e) {
+            // shutting down, the structures go away with the dispatcher
+        }
+    }
+
+    /**
+     * Ends the subscription on the dispatcher thread, after a failed send
+     */
+    protected void remove(S subscription) {
+        if (subscription.close()) {
+            released(subscription);
+        }
+        removed(subscription);
+    }
+
+    private void sendHeartbeats() {
+        Set<S> failed = new HashSet<>();
+        for (S subscription : subscriptions()) {
+            if (!subscription.send(HEARTBEAT)) {
+                failed.add(subscription);
+            }
+        }
+        failed.forEach(this::remove);
+    }
+
+    // waits until everything queued so far has been dispatched, for testing
+    void awaitDispatched() throws Exception {
+        dispatcher.submit(() -> null).get(DISPATCHER_WAIT_SECONDS, TimeUnit.SECONDS);
+    }
+
+    int getSubscriberCount() throws Exception {
+        return dispatcher.submit(() -> subscriptions().size()).get(DISPATCHER_WAIT_SECONDS, TimeUnit.SECONDS);
+    }
+
+    /**
+     * One open stream. close() is idempotent, completion, timeout and error callbacks as well as
+     * a failed send can all end the same subscription.
+     */
+    static class Subscription {
+        final SseConnection emitter;
+        private final AtomicBoolean closed = new AtomicBoolean(false);
+
+        Subscription(SseConnection emitter) {
+            this.emitter = emitter;
+        }
+
+        boolean isClosed() {
+            return closed.get();
+        }
+
+        /**
+         * @return boolean - true for the call that closed it
+         */
+        boolean close() {
+            return closed.compareAndSet(false, true);
+        }
+
+        /**
+         * @return boolean - false if the stream is gone and should be dropped
+         */
+        boolean send(Set<DataWithMediaType> event) {
+            try {
+                emitter.send(event);
+                return true;
+            } catch (IllegalStateException e) {
+                // evicted for lagging, closed, or completed by the container, a failed write closes it as well
+                logger.debug("SSE stream {} is closed: {}", emitter.getId(), e.getMessage());
+                return false;
+            }
+        }
+    }
+}
@@ -0,0 +1,300 @@
+package com.brcsrc.yaws.sse;
+
+import org.springframework.http.MediaType;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+
+/**
+ * An SseEmitter registered with SseConnectionRegistry whose sends only queue the event.
+ *
+ * The registry's writer threads write the queue to the client in order, so a client that stops
+ * reading blocks a writer instead of the dispatcher thread of a broadcaster and every other
+ * subscriber behind it. A send that finds more than maxQueuedEvents waiting evicts the stream:
+ * the queue is dropped, the emitter completed and the send throws IllegalStateException like a
+ * send on a completed emitter, which the broadcasters treat as a stream to drop. Sends never
+ * throw IOException, only the writers see the client.
+ *
+ * Any failed write closes the stream quietly with complete(), whatever the exception says, see
+ * SystemController on why not completeWithError(). complete() itself is queued behind the
+ * events already sent, a stream closed on shutdown still receives them.
+ *
+ * The emitter keeps a single completion, timeout and error callback, a second onCompletion()
+ * replaces the first. The connection registers its own with the emitter once and collects those
+ * of the broadcasters, which run after the registry released the stream's slot.
+ */
+public class SseConnection extends SseEmitter {
+
+    private enum State { OPEN, CLOSING, CLOSED }
+
+    private final long id;
+    private final String owner;
+    private final String kind;
+    private final long openedEpochMillis = System.currentTimeMillis();
+    private final int maxQueuedEvents;
+    private final SseConnectionRegistry registry;
+
+    // not the emitter's own monitor, which a write stuck on a slow client holds
+    private final Object lock = new Object();
+    private final ArrayDeque<Set<DataWithMediaType>> queue = new ArrayDeque<>();
+    private State state = State.OPEN;
+    // a writer task is scheduled or running
+    private boolean writing = false;
+    private boolean completePending = false;
+    private Throwable completionError;
+    private long sentEvents = 0;
+
+    private final List<Runnable> completionCallbacks = new CopyOnWriteArrayList<>();
+    private final List<Runnable> timeoutCallbacks = new CopyOnWriteArrayList<>();
+    private final List<Consumer<Throwable>> errorCallbacks = new CopyOnWriteArrayList<>();
+
+    SseConnection(long id, String owner, String kind, long timeoutMs, int maxQueuedEvents, SseConnectionRegistry registry) {
+        super(timeoutMs);
+        this.id = id;
+        this.owner = owner;
+        this.kind = kind;
+        this.maxQueuedEvents = maxQueuedEvents;
+        this.registry = registry;
+        super.onCompletion(this::containerCompleted);
+        super.onTimeout(this::containerTimedOut);
+        super.onError(this::containerFailed);
+    }
+
+    /**
+     * Adds a callback for when the stream is done, next to those added before
+     */
+    @Override
+    public void onCompletion(Runnable callback) {
+        completionCallbacks.add(callback);
+    }
+
+    /**
+     * Adds a callback for when the stream timed out, next to those added before. The stream is
+     * completed after all of them ran.
+     */
+    @Override
+    public void onTimeout(Runnable callback) {
+        timeoutCallbacks.add(callback);
+    }
+
+    /**
+     * Adds a callback for when the container failed the stream, next to those added before
+     */
+    @Override
+    public void onError(Consumer<Throwable> callback) {
+        errorCallbacks.add(callback);
+    }
+
+    @Override
+    public void send(Set<DataWithMediaType> items) {
+        boolean evict;
+        boolean schedule;
+        synchronized (lock) {
+            if (state != State.OPEN) {
+                throw new IllegalStateException(String.format("SSE stream %d is closed", id));
+            }
+            evict = queue.size() >= maxQueuedEvents;
+            if (evict) {
+                queue.clear();
+                state = State.CLOSING;
+                completePending = true;
+            } else {
+                queue.addLast(items);
+            }
+            schedule = !writing;
+            writing = true;
+        }
+        if (schedule) {
+            registry.schedule(this);
+        }
+        if (evict) {
+            registry.evicted(this);
+            throw new IllegalStateException(String.format("SSE stream %d evicted, more than %d events behind", id, maxQueuedEvents));
+        }
+    }
+
+    @Override
+    public void send(SseEventBuilder builder) {
+        send(builder.build());
+    }
+
+    @Override
+    public void send(Object object, MediaType mediaType) {
+        send(event().data(object, mediaType));
+    }
+
+    @Override
+    public void complete() {
+        close(null);
+    }
+
+    @Override
+    public void completeWithError(Throwable ex) {
+        close(ex);
+    }
+
+    private void close(Throwable error) {
+        boolean schedule;
+        synchronized (lock) {
+            if (state != State.OPEN) {
+                return;
+            }
+            state = State.CLOSING;
+            completePending = true;
+            completionError = error;
+            schedule = !writing;
+            writing = true;
+        }
+        if (schedule) {
+            registry.schedule(this);
+        }
+    }
+
+    /**
+     * Writes the queue until it is empty, on a writer thread of the registry
+     */
+    void drain() {
+        while (true) {
+            Set<DataWithMediaType> items;
+            synchronized (lock) {
+                items = queue.pollFirst();
+                if (items == null) {
+                    if (!completePending) {
+                        writing = false;
+                        return;
+                    }
+                    completePending = false;
+                    state = State.CLOSED;
+                }
+            }
+            if (items == null) {
+                finish(completionError);
+                return;
+            }
+            try {
+                super.send(items);
+                synchronized (lock) {
+                    sentEvents++;
+                }
+            } catch (IOException | IllegalStateException e) {
+                // a client that went away or a stream the container already completed
+                synchronized (lock) {
+                    queue.clear();
+                    completePending = false;
+                    state = State.CLOSED;
+                }
+                registry.failed(this, e);
+                finish(null);
+                return;
+            }
+        }
+    }
+
+    /**
+     * Drops what is queued and closes the stream, for when the writers are shutting down. A
+     * write in progress is left to complete the stream when it returns, completing it from
+     * here would wait for that write.
+     */
+    void abandon() {
+        synchronized (lock) {
+            if (state == State.CLOSED) {
+                return;
+            }
+            queue.clear();
+            if (writing) {
+                state = State.CLOSING;
+                completePending = true;
+                return;
+            }
+            state = State.CLOSED;
+        }
+        finish(null);
+    }
+
+    /**
+     * The writer task could not be scheduled, nothing writes this stream anymore
+     */
+    void rejected() {
+        synchronized (lock) {
+            writing = false;
+        }
+        abandon();
+    }
+
+    /**
+     * The request is done, after a complete() or because the container ended it
+     */
+    void containerCompleted() {
+        closed();
+        completionCallbacks.forEach(Runnable::run);
+    }
+
+    void containerTimedOut() {
+        timeoutCallbacks.forEach(Runnable::run);
+        complete();
+    }
+
+    void containerFailed(Throwable ex) {
+        closed();
+        errorCallbacks.forEach(callback -> callback.accept(ex));
+    }
+
+    // nothing is written after the container is done with the request, a running write fails on its own
+    private void closed() {
+        synchronized (lock) {
+            queue.clear();
+            completePending = false;
+            state = State.CLOSED;
+        }
+        registry.release(this);
+    }
+
+    private void finish(Throwable error) {
+        try {
+            if (error == null) {
+                super.complete();
+            } else {
+                super.completeWithError(error);
+            }
+        } catch (IllegalStateException e) {
+            // already completed by the container
+        }
+        registry.release(this);
+    }
+
+    public long getId() {
+        return id;
+    }
+
+    public String getOwner() {
+        return owner;
+    }
+
+    public String getKind() {
+        return kind;
+    }
+
+    public long getOpenedEpochMillis() {
+        return openedEpochMillis;
+    }
+
+    /**
+     * @return int - events waiting to be written, how far the client is behind
+     */
+    public int getQueuedEvents() {
+        synchronized (lock) {
+            return queue.size();
+        }
+    }
+
+    public long getSentEvents() {
+        synchronized (lock) {
+            return sentEvents;
+        }
+    }
+}
@@ -0,0 +1,223 @@
+package com.brcsrc.yaws.sse;
+
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.env.Environment;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Hands out every SSE stream and keeps track of the open ones.
+ *
+ * A stream is refused with 429 once yaws.sse.max-connections are open in total, or
+ * yaws.sse.max-connections-per-user for the user asking, so a burst of browsers cannot take
+ * all async request slots. Streams are SseConnections: broadcasters send to them as to any
+ * emitter, the events are queued and written by a shared pool of writer threads, one at a time
+ * per stream. A stream more than yaws.sse.max-queued-events behind is evicted, so a stuck client
+ * holds a bounded number of events and never blocks a broadcaster. A writer is only busy while
+ * its stream has something queued, a pool thread is only held by a stream with something to write.
+ *
+ * On shutdown new streams are refused with 503, every open stream is completed after the events
+ * already queued for it, and the writers get yaws.sse.drain-timeout-ms to finish.
+ */
+@Component
+public class SseConnectionRegistry {
+
+    private static final Logger logger = LoggerFactory.getLogger(SseConnectionRegistry.class);
+
+    static final String MAX_CONNECTIONS_PROPERTY = "yaws.sse.max-connections";
+    static final String MAX_CONNECTIONS_PER_USER_PROPERTY = "yaws.sse.max-connections-per-user";
+    static final String MAX_QUEUED_EVENTS_PROPERTY = "yaws.sse.max-queued-events";
+    static final String TIMEOUT_PROPERTY = "yaws.sse.timeout-ms";
+    static final String DRAIN_TIMEOUT_PROPERTY = "yaws.sse.drain-timeout-ms";
+    static final int DEFAULT_MAX_CONNECTIONS = 200;
+    static final int DEFAULT_MAX_CONNECTIONS_PER_USER = 20;
+    static final int DEFAULT_MAX_QUEUED_EVENTS = 100;
+    static final long DEFAULT_TIMEOUT_MS = 30 * 60 * 1000L;
+    static final long DEFAULT_DRAIN_TIMEOUT_MS = 5_000;
+
+    private final int maxConnections;
+    private final int maxConnectionsPerUser;
+    private final int maxQueuedEvents;
+    private final long timeoutMs;
+    private final long drainTimeoutMs;
+    private final ExecutorService writers;
+
+    private final Map<Long, SseConnection> connections = new ConcurrentHashMap<>();
+    // guarded by this, like opening and releasing
+    private final Map<String, Integer> connectionsByOwner = new HashMap<>();
+    private boolean draining = false;
+
+    private final AtomicLong nextId = new AtomicLong();
+    private final AtomicLong openedTotal = new AtomicLong();
+    private final AtomicLong rejectedTotal = new AtomicLong();
+    private final AtomicLong evictedTotal = new AtomicLong();
+    private final AtomicLong failedTotal = new AtomicLong();
+
+    @Autowired
+    public SseConnectionRegistry(Environment env) {
+        this(
+            env.getProperty(MAX_CONNECTIONS_PROPERTY, Integer.class, DEFAULT_MAX_CONNECTIONS),
+            env.getProperty(MAX_CONNECTIONS_PER_USER_PROPERTY, Integer.class, DEFAULT_MAX_CONNECTIONS_PER_USER),
+            env.getProperty(MAX_QUEUED_EVENTS_PROPERTY, Integer.class, DEFAULT_MAX_QUEUED_EVENTS),
+            env.getProperty(TIMEOUT_PROPERTY, Long.class, DEFAULT_TIMEOUT_MS),
+            env.getProperty(DRAIN_TIMEOUT_PROPERTY, Long.class, DEFAULT_DRAIN_TIMEOUT_MS),
+            null
+        );
+    }
+
+    /**
+     * @param writers ExecutorService - runs the writes, null for a pool of up to twice maxConnections daemon threads
+     */
+    SseConnectionRegistry(int maxConnections, int maxConnectionsPerUser, int maxQueuedEvents,
+                          long timeoutMs, long drainTimeoutMs, ExecutorService writers) {
+        if (maxConnections < 1 || maxConnectionsPerUser < 1 || maxQueuedEvents < 1) {
+            throw new IllegalArgumentException("connection caps and the queued event limit must be at least 1");
+        }
+        this.maxConnections = maxConnections;
+        this.maxConnectionsPerUser = maxConnectionsPerUser;
+        this.maxQueuedEvents = maxQueuedEvents;
+        this.timeoutMs = timeoutMs;
+        this.drainTimeoutMs = drainTimeoutMs;
+        this.writers = writers != null ? writers : writerPool(maxConnections);
+    }
+
+    private static ExecutorService writerPool(int maxConnections) {
+        AtomicInteger threadCount = new AtomicInteger();
+        // a stream has at most one write task, twice the cap leaves room for writes still
+        // finishing on streams the container already released
+        return new ThreadPoolExecutor(0, maxConnections * 2, 60, TimeUnit.SECONDS, new SynchronousQueue<>(), runnable -> {
+            Thread thread = new Thread(runnable, "yaws-sse-writer-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Opens a stream for the user, to be returned from the controller and handed to a broadcaster
+     * @param owner String - the user the stream counts against
+     * @param kind String - what the stream carries, for the metrics
+     * @return SseConnection - the emitter of the new stream
+     * @throws ResponseStatusException 429 if a cap is reached, 503 while shutting down
+     */
+    public synchronized SseConnection open(String owner, String kind) {
+        if (draining) {
+            rejectedTotal.incrementAndGet();
+            String errMsg = "server is shutting down, no new streams are accepted";
+            logger.error(errMsg);
+            throw new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE, errMsg);
+        }
+        if (connections.size() >= maxConnections) {
+            rejectedTotal.incrementAndGet();
+            String errMsg = String.format("too many open streams, at most %d are allowed", maxConnections);
+            logger.error(errMsg);
+            throw new ResponseStatusException(HttpStatus.TOO_MANY_REQUESTS, errMsg);
+        }
+        int ownerConnections = connectionsByOwner.getOrDefault(owner, 0);
+        if (ownerConnections >= maxConnectionsPerUser) {
+            rejectedTotal.incrementAndGet();
+            String errMsg = String.format("user '%s' has too many open streams, at most %d are allowed", owner, maxConnectionsPerUser);
+            logger.error(errMsg);
+            throw new ResponseStatusException(HttpStatus.TOO_MANY_REQUESTS, errMsg);
+        }
+        SseConnection connection = new SseConnection(nextId.incrementAndGet(), owner, kind, timeoutMs, maxQueuedEvents, this);
+        connections.put(connection.getId(), connection);
+        connectionsByOwner.put(owner, ownerConnections + 1);
+        openedTotal.incrementAndGet();
+        return connection;
+    }
+
+    /**
+     * @return SseMetrics - the open streams, their lag and the totals since start
+     */
+    public SseMetrics getMetrics() {
+        Map<String, Integer> activeByKind = new TreeMap<>();
+        long queuedEvents = 0;
+        int maxQueuedEventsOfStream = 0;
+        for (SseConnection connection : connections.values()) {
+            activeByKind.merge(connection.getKind(), 1, Integer::sum);
+            int queued = connection.getQueuedEvents();
+            queuedEvents += queued;
+            maxQueuedEventsOfStream = Math.max(maxQueuedEventsOfStream, queued);
+        }
+        int users;
+        synchronized (this) {
+            users = connectionsByOwner.size();
+        }
+        return new SseMetrics(
+                activeByKind.values().stream().mapToInt(Integer::intValue).sum(),
+                activeByKind,
+                users,
+                openedTotal.get(),
+                rejectedTotal.get(),
+                evictedTotal.get(),
+                failedTotal.get(),
+                queuedEvents,
+                maxQueuedEventsOfStream,
+                maxConnections,
+                maxConnectionsPerUser,
+                maxQueuedEvents
+        );
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        synchronized (this) {
+            draining = true;
+        }
+        logger.info("Draining {} SSE streams", connections.size());
+        connections.values().forEach(SseConnection::complete);
+        writers.shutdown();
+        try {
+            if (!writers.awaitTermination(drainTimeoutMs, TimeUnit.MILLISECONDS)) {
+                logger.warn("SSE streams not drained within {}ms, closing the rest", drainTimeoutMs);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        writers.shutdownNow();
+        connections.values().forEach(SseConnection::abandon);
+    }
+
+    void schedule(SseConnection connection) {
+        try {
+            writers.execute(connection::drain);
+        } catch (RejectedExecutionException e) {
+            // shutting down, whatever is still queued is not written anymore
+            connection.rejected();
+        }
+    }
+
+    void evicted(SseConnection connection) {
+        evictedTotal.incrementAndGet();
+        logger.warn("Evicted SSE stream {} ({}) of user '{}', more than {} events behind",
+                connection.getId(), connection.getKind(), connection.getOwner(), maxQueuedEvents);
+    }
+
+    void failed(SseConnection connection, Exception e) {
+        failedTotal.incrementAndGet();
+        logger.debug("SSE stream {} closed after a failed write: {}", connection.getId(), e.getMessage());
+    }
+
+    synchronized void release(SseConnection connection) {
+        if (connections.remove(connection.getId()) == null) {
+            return;
+        }
+        connectionsByOwner.computeIfPresent(connection.getOwner(), (owner, count) -> count > 1 ? count - 1 : null);
+    }
+}
@@ -0,0 +1,31 @@
+package com.brcsrc.yaws.sse;
+
+import java.util.Map;
+
+/**
+ * Open SSE streams and what happened to the closed ones, see SseConnectionRegistry
+ *
+ * @param active streams open right now
+ * @param activeByKind open streams by the endpoint that opened them
+ * @param users users with at least one open stream
+ * @param openedTotal streams opened since start
+ * @param rejectedTotal streams refused for being over a cap or during shutdown
+ * @param evictedTotal streams closed for falling more than maxQueuedEvents behind
+ * @param failedTotal streams closed because a write failed, mostly clients that went away
+ * @param queuedEvents events waiting to be written over all streams
+ * @param maxQueuedEventsOfStream most events waiting for one stream, the worst lag
+ */
+public record SseMetrics(
+        int active,
+        Map<String, Integer> activeByKind,
+        int users,
+        long openedTotal,
+        long rejectedTotal,
+        long evictedTotal,
+        long failedTotal,
+        long queuedEvents,
+        int maxQueuedEventsOfStream,
+        int maxConnections,
+        int maxConnectionsPerUser,
+        int maxQueuedEvents
+) {}
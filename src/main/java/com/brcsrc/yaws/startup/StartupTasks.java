@@ -1,11 +1,13 @@
 package com.brcsrc.yaws.startup;
 
 import com.brcsrc.yaws.exceptions.InternalServerException;
+import com.brcsrc.yaws.history.TransferTotalsStore;
 import com.brcsrc.yaws.model.Network;
 import com.brcsrc.yaws.model.NetworkStatus;
+import com.brcsrc.yaws.persistence.NetworkClientRepository;
 import com.brcsrc.yaws.persistence.NetworkRepository;
+import com.brcsrc.yaws.shell.CommandExecutor;
 import com.brcsrc.yaws.shell.ExecutionResult;
-import com.brcsrc.yaws.shell.Executor;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -17,11 +19,22 @@ import java.util.List;
 @Component
 public class StartupTasks {
     private final NetworkRepository networkRepository;
+    private final NetworkClientRepository networkClientRepository;
+    private final CommandExecutor commandExecutor;
+    private final TransferTotalsStore transferTotalsStore;
     private static final Logger logger = LoggerFactory.getLogger(StartupTasks.class);
 
     @Autowired
-    public StartupTasks(NetworkRepository networkRepository) {
+    public StartupTasks(
+            NetworkRepository networkRepository,
+            NetworkClientRepository networkClientRepository,
+            CommandExecutor commandExecutor,
+            TransferTotalsStore transferTotalsStore
+    ) {
         this.networkRepository = networkRepository;
+        this.networkClientRepository = networkClientRepository;
+        this.commandExecutor = commandExecutor;
+        this.transferTotalsStore = transferTotalsStore;
     }
 
     @Async
@@ -34,7 +47,7 @@ public class StartupTasks {
         for (Network network : activeNetworks) {
             logger.info(String.format("activating existing network '%s'", network.getNetworkName()));
             final String activateNetworkInterfaceCommand = String.format("wg-quick up %s", network.getNetworkName());
-            ExecutionResult activateResult = Executor.runCommand(activateNetworkInterfaceCommand);
+            ExecutionResult activateResult = this.commandExecutor.runCommand(activateNetworkInterfaceCommand);
             if (activateResult.getExitCode() != 0) {
                 errorsOnActivate = true;
                 logger.error(String.format(
@@ -42,7 +55,13 @@ public class StartupTasks {
                         activateNetworkInterfaceCommand,
                         activateResult.getExitCode(),
                         activateResult.getStderr()));
+                continue;
             }
+            // wg-quick fails on an interface that survived the restart, this one was created and counts from 0
+            this.transferTotalsStore.restarted(this.networkClientRepository
+                    .findAllByNetwork_NetworkName(network.getNetworkName()).stream()
+                    .map(networkClient -> networkClient.getClient().getClientPublicKeyValue())
+                    .toList());
         }
         if (errorsOnActivate) {
             throw new InternalServerException("restartActiveNetworks ran into an error");
@@ -1,21 +1,35 @@
 package com.brcsrc.yaws.system;
 
+/**
+ * A peer of a published snapshot, read only. Rates are filled in on a copy before it is published.
+ */
 public class ClientConnectionInformation {
-    private String publicKey;
-    private String presharedKey;
-    private String endpoint;
-    private String allowedIps;
-    private Long latestHandshakeEpochSeconds;
-    private Long bytesReceived;
-    private Long bytesSent;
-    private Long persistentKeepalive;
-
-    public ClientConnectionInformation() {
-    }
+    private final String publicKey;
+    private final String presharedKey;
+    private final String endpoint;
+    private final String allowedIps;
+    private final Long latestHandshakeEpochSeconds;
+    private final Long bytesReceived;
+    private final Long bytesSent;
+    private final Long persistentKeepalive;
+    // computed by the provider from the previous refresh, 0 for a peer seen for the first time
+    private final Double receiveBytesPerSecond;
+    private final Double sendBytesPerSecond;
+    private final Double smoothedReceiveBytesPerSecond;
+    private final Double smoothedSendBytesPerSecond;
 
     public ClientConnectionInformation(String publicKey, String presharedKey, String endpoint,
                                       String allowedIps, Long latestHandshakeEpochSeconds,
                                       Long bytesReceived, Long bytesSent, Long persistentKeepalive) {
+        this(publicKey, presharedKey, endpoint, allowedIps, latestHandshakeEpochSeconds,
+                bytesReceived, bytesSent, persistentKeepalive, null, null, null, null);
+    }
+
+    ClientConnectionInformation(String publicKey, String presharedKey, String endpoint,
+                                String allowedIps, Long latestHandshakeEpochSeconds,
+                                Long bytesReceived, Long bytesSent, Long persistentKeepalive,
+                                Double receiveBytesPerSecond, Double sendBytesPerSecond,
+                                Double smoothedReceiveBytesPerSecond, Double smoothedSendBytesPerSecond) {
         this.publicKey = publicKey;
         this.presharedKey = presharedKey;
         this.endpoint = endpoint;
@@ -24,70 +38,84 @@ public class ClientConnectionInformation {
         this.bytesReceived = bytesReceived;
         this.bytesSent = bytesSent;
         this.persistentKeepalive = persistentKeepalive;
+        this.receiveBytesPerSecond = receiveBytesPerSecond;
+        this.sendBytesPerSecond = sendBytesPerSecond;
+        this.smoothedReceiveBytesPerSecond = smoothedReceiveBytesPerSecond;
+        this.smoothedSendBytesPerSecond = smoothedSendBytesPerSecond;
     }
 
-    public String getPublicKey() {
-        return publicKey;
+    /**
+     * @return ClientConnectionInformation - a copy with these rates, the peer itself is never changed
+     */
+    ClientConnectionInformation withRates(double receiveBytesPerSecond, double sendBytesPerSecond,
+                                          double smoothedReceiveBytesPerSecond, double smoothedSendBytesPerSecond) {
+        return new ClientConnectionInformation(publicKey, presharedKey, endpoint, allowedIps,
+                latestHandshakeEpochSeconds, bytesReceived, bytesSent, persistentKeepalive,
+                receiveBytesPerSecond, sendBytesPerSecond, smoothedReceiveBytesPerSecond, smoothedSendBytesPerSecond);
     }
 
-    public void setPublicKey(String publicKey) {
-        this.publicKey = publicKey;
+    public String getPublicKey() {
+        return publicKey;
     }
 
     public String getPresharedKey() {
         return presharedKey;
     }
 
-    public void setPresharedKey(String presharedKey) {
-        this.presharedKey = presharedKey;
-    }
-
     public String getEndpoint() {
         return endpoint;
     }
 
-    public void setEndpoint(String endpoint) {
-        this.endpoint = endpoint;
-    }
-
     public String getAllowedIps() {
         return allowedIps;
     }
 
-    public void setAllowedIps(String allowedIps) {
-        this.allowedIps = allowedIps;
-    }
-
     public Long getLatestHandshakeEpochSeconds() {
         return latestHandshakeEpochSeconds;
     }
 
-    public void setLatestHandshakeEpochSeconds(Long latestHandshakeEpochSeconds) {
-        this.latestHandshakeEpochSeconds = latestHandshakeEpochSeconds;
-    }
-
     public Long getBytesReceived() {
         return bytesReceived;
     }
 
-    public void setBytesReceived(Long bytesReceived) {
-        this.bytesReceived = bytesReceived;
-    }
-
     public Long getBytesSent() {
         return bytesSent;
     }
 
-    public void setBytesSent(Long bytesSent) {
-        this.bytesSent = bytesSent;
-    }
-
     public Long getPersistentKeepalive() {
         return persistentKeepalive;
     }
 
-    public void setPersistentKeepalive(Long persistentKeepalive) {
-        this.persistentKeepalive = persistentKeepalive;
+    public Double getReceiveBytesPerSecond() {
+        return receiveBytesPerSecond;
+    }
+
+    public Double getSendBytesPerSecond() {
+        return sendBytesPerSecond;
+    }
+
+    public Double getSmoothedReceiveBytesPerSecond() {
+        return smoothedReceiveBytesPerSecond;
+    }
+
+    public Double getSmoothedSendBytesPerSecond() {
+        return smoothedSendBytesPerSecond;
+    }
+
+    /**
+     * Not a bean property, the JSON keeps what wg printed
+     * @return String - the endpoint, null for a peer that never connected, which wg prints as (none)
+     */
+    public String knownEndpoint() {
+        return endpoint == null || endpoint.equals("(none)") ? null : endpoint;
+    }
+
+    /**
+     * Not a bean property, the JSON keeps what wg printed
+     * @return Long - the latest handshake in epoch seconds, null for a peer that never handshook, which wg prints as 0
+     */
+    public Long knownLatestHandshakeEpochSeconds() {
+        return latestHandshakeEpochSeconds == null || latestHandshakeEpochSeconds == 0 ? null : latestHandshakeEpochSeconds;
     }
 
     @Override
@@ -101,6 +129,8 @@ public class ClientConnectionInformation {
                 ", bytesReceived=" + bytesReceived +
                 ", bytesSent=" + bytesSent +
                 ", persistentKeepalive=" + persistentKeepalive +
+                ", receiveBytesPerSecond=" + receiveBytesPerSecond +
+                ", sendBytesPerSecond=" + sendBytesPerSecond +
                 '}';
     }
 }
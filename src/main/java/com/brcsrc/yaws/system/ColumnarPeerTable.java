@@ -0,0 +1,712 @@
+package com.brcsrc.yaws.system;
+
+import java.nio.charset.StandardCharsets;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * The peers of one refresh stored column by column, used instead of one ClientConnectionInformation
+ * per peer when yaws.wireguard.snapshot.columnar is set.
+ *
+ * A peer is a row. Public keys are kept as their 32 decoded bytes in one byte[], counters in
+ * long[] and double[] columns, and endpoints, allowed ips and preshared keys are references to
+ * the parser's intern table, which lives across refreshes and doubles as the shared string table.
+ * An open addressing int[] maps a key's bytes to its row, the rows of each interface are kept
+ * in one int[] so a network's peers need no map of their own. A second one maps every allowed ip
+ * entry, and the bare address of host routes, to the row routing it. No per peer object is retained.
+ *
+ * The rest of the application keeps reading Map views: getPeersByPublicKey() and each network's
+ * getPeers() look rows up through the index and build a short lived ClientConnectionInformation
+ * for whatever is read. Iterating all peers therefore allocates, but that garbage dies young,
+ * what the table saves is the heap held between refreshes.
+ *
+ * Keys that are not canonical base64 of 32 bytes, which 'wg' never prints but tests do, are kept
+ * as Strings on the side. The rate columns are written by ThroughputCalculator before the
+ * snapshot is published, the table is immutable afterwards.
+ */
+public final class ColumnarPeerTable {
+    static final int KEY_BYTES = 32;
+    private static final int BASE64_KEY_LENGTH = 44;
+    private static final byte[] BASE64_VALUES = new byte[128];
+
+    static {
+        Arrays.fill(BASE64_VALUES, (byte) -1);
+        String alphabet = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/";
+        for (int i = 0; i < alphabet.length(); i++) {
+            BASE64_VALUES[alphabet.charAt(i)] = (byte) i;
+        }
+    }
+
+    private final int size;
+    private final byte[] keys;
+    private final Map<Integer, String> irregularKeysByRow;
+    private final Map<String, Integer> irregularRowsByKey;
+    private final int[] slots;
+    // rows whose key a later row on another interface has again, the later row wins like in the object snapshot
+    private final boolean[] shadowedRows;
+    private final int peerCount;
+    private final String[] interfaceNames;
+    private final int[] interfaceOfRow;
+    // rows of interface i are rowsByInterface[interfaceStarts[i]] to rowsByInterface[interfaceStarts[i + 1] - 1]
+    private final int[] interfaceStarts;
+    private final int[] rowsByInterface;
+    private final String[] presharedKeys;
+    private final String[] endpoints;
+    private final String[] allowedIps;
+    private final long[] latestHandshakes;
+    private final long[] bytesReceived;
+    private final long[] bytesSent;
+    private final long[] persistentKeepalives;
+    private final double[] receiveRates;
+    private final double[] sendRates;
+    private final double[] smoothedReceiveRates;
+    private final double[] smoothedSendRates;
+    // allowed ip entries with the row routing each, indexed by allowedIpSlots like the keys by slots
+    private final String[] allowedIpEntries;
+    private final int[] allowedIpRows;
+    private final int[] allowedIpSlots;
+    private final int allowedIpCount;
+    private final Map<String, ClientConnectionInformation> peerView = new PeerMap(-1);
+    private final Map<String, ClientConnectionInformation> allowedIpView = new AllowedIpMap();
+
+    private ColumnarPeerTable(Builder builder) {
+        this.size = builder.size;
+        this.keys = Arrays.copyOf(builder.keys, size * KEY_BYTES);
+        this.irregularKeysByRow = Map.copyOf(builder.irregularKeysByRow);
+        this.interfaceNames = builder.interfaceNames.toArray(new String[0]);
+        this.interfaceOfRow = Arrays.copyOf(builder.interfaceOfRow, size);
+        this.presharedKeys = Arrays.copyOf(builder.presharedKeys, size);
+        this.endpoints = Arrays.copyOf(builder.endpoints, size);
+        this.allowedIps = Arrays.copyOf(builder.allowedIps, size);
+        this.latestHandshakes = Arrays.copyOf(builder.latestHandshakes, size);
+        this.bytesReceived = Arrays.copyOf(builder.bytesReceived, size);
+        this.bytesSent = Arrays.copyOf(builder.bytesSent, size);
+        this.persistentKeepalives = Arrays.copyOf(builder.persistentKeepalives, size);
+        this.receiveRates = new double[size];
+        this.sendRates = new double[size];
+        this.smoothedReceiveRates = new double[size];
+        this.smoothedSendRates = new double[size];
+
+        // a counting sort of the rows by interface
+        this.interfaceStarts = new int[interfaceNames.length + 1];
+        for (int row = 0; row < size; row++) {
+            interfaceStarts[interfaceOfRow[row] + 1]++;
+        }
+        for (int i = 0; i < interfaceNames.length; i++) {
+            interfaceStarts[i + 1] += interfaceStarts[i];
+        }
+        this.rowsByInterface = new int[size];
+        int[] next = Arrays.copyOf(interfaceStarts, interfaceNames.length);
+        for (int row = 0; row < size; row++) {
+            rowsByInterface[next[interfaceOfRow[row]]++] = row;
+        }
+
+        this.slots = new int[Math.max(2, Integer.highestOneBit(Math.max(1, size) * 2) * 2)];
+        this.shadowedRows = new boolean[size];
+        Map<String, Integer> irregularRows = new HashMap<>();
+        for (int row = 0; row < size; row++) {
+            String irregularKey = irregularKeysByRow.get(row);
+            if (irregularKey == null) {
+                insert(row);
+            } else {
+                Integer shadowed = irregularRows.put(irregularKey, row);
+                if (shadowed != null) {
+                    shadowedRows[shadowed] = true;
+                }
+            }
+        }
+        this.irregularRowsByKey = Map.copyOf(irregularRows);
+        int shadowedCount = 0;
+        for (boolean shadowed : shadowedRows) {
+            if (shadowed) {
+                shadowedCount++;
+            }
+        }
+        this.peerCount = size - shadowedCount;
+
+        List<String> entries = new ArrayList<>(size * 2);
+        int[] entryRows = new int[Math.max(16, size * 2)];
+        for (int row = 0; row < size; row++) {
+            String ips = allowedIps[row];
+            if (ips == null || ips.equals("(none)")) {
+                continue;
+            }
+            for (String allowedIp : ips.split(",")) {
+                String entry = allowedIp.trim();
+                if (entry.isEmpty()) {
+                    continue;
+                }
+                if (entries.size() + 2 > entryRows.length) {
+                    entryRows = Arrays.copyOf(entryRows, entryRows.length * 2);
+                }
+                entryRows[entries.size()] = row;
+                entries.add(entry);
+                if (entry.endsWith("/32") || entry.endsWith("/128")) {
+                    entryRows[entries.size()] = row;
+                    entries.add(entry.substring(0, entry.lastIndexOf('/')));
+                }
+            }
+        }
+        this.allowedIpEntries = entries.toArray(new String[0]);
+        this.allowedIpRows = Arrays.copyOf(entryRows, allowedIpEntries.length);
+        this.allowedIpSlots = new int[Math.max(2, Integer.highestOneBit(Math.max(1, allowedIpEntries.length) * 2) * 2)];
+        int distinct = 0;
+        for (int entry = 0; entry < allowedIpEntries.length; entry++) {
+            if (insertAllowedIp(entry)) {
+                distinct++;
+            }
+        }
+        this.allowedIpCount = distinct;
+    }
+
+    static Builder builder(int expectedPeers) {
+        return new Builder(expectedPeers);
+    }
+
+    /**
+     * @return int - the number of rows, a peer on two interfaces has two, asMap().size() counts it once
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return Map of peer public key to peer, a view that builds the peer on every read
+     */
+    public Map<String, ClientConnectionInformation> asMap() {
+        return peerView;
+    }
+
+    /**
+     * @return Map of allowed ip entry to peer, host routes also by their bare address, a view that
+     *         builds the peer on every read
+     */
+    public Map<String, ClientConnectionInformation> allowedIpMap() {
+        return allowedIpView;
+    }
+
+    /**
+     * @return Map of peer public key to peer for the peers of one interface, empty if it has none
+     */
+    Map<String, ClientConnectionInformation> peersOf(String interfaceName) {
+        for (int i = 0; i < interfaceNames.length; i++) {
+            if (interfaceNames[i].equals(interfaceName)) {
+                return new PeerMap(i);
+            }
+        }
+        return Map.of();
+    }
+
+    /**
+     * @return int - the row of the peer, -1 if it is not in the table
+     */
+    int rowOf(String publicKey) {
+        if (publicKey == null) {
+            return -1;
+        }
+        byte[] key = new byte[KEY_BYTES];
+        if (publicKey.length() != BASE64_KEY_LENGTH || !decodeKey(publicKey, key)) {
+            Integer row = irregularRowsByKey.get(publicKey);
+            return row == null ? -1 : row;
+        }
+        return find(key, 0);
+    }
+
+    /**
+     * @return int - the row in this table of the peer on the given row of other, -1 if it is not in the table
+     */
+    int rowOf(ColumnarPeerTable other, int otherRow) {
+        String irregularKey = other.irregularKeysByRow.get(otherRow);
+        if (irregularKey != null) {
+            Integer row = irregularRowsByKey.get(irregularKey);
+            return row == null ? -1 : row;
+        }
+        return find(other.keys, otherRow * KEY_BYTES);
+    }
+
+    String publicKey(int row) {
+        String irregularKey = irregularKeysByRow.get(row);
+        if (irregularKey != null) {
+            return irregularKey;
+        }
+        return Base64.getEncoder().encodeToString(Arrays.copyOfRange(keys, row * KEY_BYTES, (row + 1) * KEY_BYTES));
+    }
+
+    long bytesReceived(int row) {
+        return bytesReceived[row];
+    }
+
+    long bytesSent(int row) {
+        return bytesSent[row];
+    }
+
+    double smoothedReceiveRate(int row) {
+        return smoothedReceiveRates[row];
+    }
+
+    double smoothedSendRate(int row) {
+        return smoothedSendRates[row];
+    }
+
+    // only before the snapshot is published, see ThroughputCalculator
+    void setRates(int row, double receive, double send, double smoothedReceive, double smoothedSend) {
+        receiveRates[row] = receive;
+        sendRates[row] = send;
+        smoothedReceiveRates[row] = smoothedReceive;
+        smoothedSendRates[row] = smoothedSend;
+    }
+
+    /**
+     * @return int[] - rows of the interface, in a fresh array
+     */
+    int[] rowsOf(String interfaceName) {
+        for (int i = 0; i < interfaceNames.length; i++) {
+            if (interfaceNames[i].equals(interfaceName)) {
+                return Arrays.copyOfRange(rowsByInterface, interfaceStarts[i], interfaceStarts[i + 1]);
+            }
+        }
+        return new int[0];
+    }
+
+    /**
+     * @return ClientConnectionInformation - a new object with the row's values, counters of 0
+     *         are null as in the object snapshot
+     */
+    ClientConnectionInformation toPeer(int row) {
+        return new ClientConnectionInformation(
+                publicKey(row),
+                presharedKeys[row],
+                endpoints[row],
+                allowedIps[row],
+                boxOrNull(latestHandshakes[row]),
+                boxOrNull(bytesReceived[row]),
+                boxOrNull(bytesSent[row]),
+                boxOrNull(persistentKeepalives[row]),
+                receiveRates[row],
+                sendRates[row],
+                smoothedReceiveRates[row],
+                smoothedSendRates[row]
+        );
+    }
+
+    private static Long boxOrNull(long value) {
+        return value == 0 ? null : value;
+    }
+
+    private void insert(int row) {
+        int mask = slots.length - 1;
+        int slot = hash(keys, row * KEY_BYTES) & mask;
+        while (slots[slot] != 0) {
+            int existing = slots[slot] - 1;
+            if (Arrays.equals(keys, existing * KEY_BYTES, (existing + 1) * KEY_BYTES,
+                    keys, row * KEY_BYTES, (row + 1) * KEY_BYTES)) {
+                // the same key on a second interface, the later row wins like in the object snapshot
+                shadowedRows[existing] = true;
+                slots[slot] = row + 1;
+                return;
+            }
+            slot = (slot + 1) & mask;
+        }
+        slots[slot] = row + 1;
+    }
+
+    /**
+     * @return boolean - false if the entry was already there, it is then routed by the later row
+     *         like in the object snapshot
+     */
+    private boolean insertAllowedIp(int entry) {
+        int mask = allowedIpSlots.length - 1;
+        int slot = hash(allowedIpEntries[entry]) & mask;
+        while (allowedIpSlots[slot] != 0) {
+            if (allowedIpEntries[allowedIpSlots[slot] - 1].equals(allowedIpEntries[entry])) {
+                allowedIpSlots[slot] = entry + 1;
+                return false;
+            }
+            slot = (slot + 1) & mask;
+        }
+        allowedIpSlots[slot] = entry + 1;
+        return true;
+    }
+
+    private int findAllowedIp(Object allowedIp) {
+        if (!(allowedIp instanceof String entry)) {
+            return -1;
+        }
+        int mask = allowedIpSlots.length - 1;
+        int slot = hash(entry) & mask;
+        while (allowedIpSlots[slot] != 0) {
+            int found = allowedIpSlots[slot] - 1;
+            if (allowedIpEntries[found].equals(entry)) {
+                return found;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return -1;
+    }
+
+    private int find(byte[] key, int offset) {
+        int mask = slots.length - 1;
+        int slot = hash(key, offset) & mask;
+        while (slots[slot] != 0) {
+            int row = slots[slot] - 1;
+            if (Arrays.equals(keys, row * KEY_BYTES, (row + 1) * KEY_BYTES, key, offset, offset + KEY_BYTES)) {
+                return row;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return -1;
+    }
+
+    // keys are random, their first four bytes are as good a hash as any
+    private static int hash(byte[] key, int offset) {
+        int hash = (key[offset] & 0xff) | (key[offset + 1] & 0xff) << 8 | (key[offset + 2] & 0xff) << 16 | key[offset + 3] << 24;
+        return hash ^ (hash >>> 16);
+    }
+
+    private static int hash(String entry) {
+        int hash = entry.hashCode();
+        return hash ^ (hash >>> 16);
+    }
+
+    private static boolean decodeKey(CharSequence chars, byte[] dest) {
+        return decodeKey(index -> chars.charAt(index), 0, dest, 0);
+    }
+
+    private interface CharSource {
+        int charAt(int index);
+    }
+
+    /**
+     * Decodes 44 characters of canonical base64 into 32 bytes at dest[destOffset]
+     * @return boolean - false if the characters are not a canonical encoding of 32 bytes
+     */
+    private static boolean decodeKey(CharSource source, int start, byte[] dest, int destOffset) {
+        if (source.charAt(start + BASE64_KEY_LENGTH - 1) != '=') {
+            return false;
+        }
+        int bits = 0;
+        int bitCount = 0;
+        int written = 0;
+        for (int i = 0; i < BASE64_KEY_LENGTH - 1; i++) {
+            int c = source.charAt(start + i);
+            int value = c < 128 ? BASE64_VALUES[c] : -1;
+            if (value < 0) {
+                return false;
+            }
+            bits = (bits << 6) | value;
+            bitCount += 6;
+            if (bitCount >= 8) {
+                bitCount -= 8;
+                dest[destOffset + written++] = (byte) (bits >> bitCount);
+                bits &= (1 << bitCount) - 1;
+            }
+        }
+        // 43 characters carry 258 bits, the 2 left over must be 0 for the encoding to be canonical
+        return written == KEY_BYTES && bits == 0;
+    }
+
+    /**
+     * Read only view over all rows (interfaceId -1) or the rows of one interface
+     */
+    private final class PeerMap extends AbstractMap<String, ClientConnectionInformation> {
+        private final int interfaceId;
+
+        PeerMap(int interfaceId) {
+            this.interfaceId = interfaceId;
+        }
+
+        private int start() {
+            return interfaceId < 0 ? 0 : interfaceStarts[interfaceId];
+        }
+
+        private int end() {
+            return interfaceId < 0 ? size : interfaceStarts[interfaceId + 1];
+        }
+
+        private int rowAt(int position) {
+            return interfaceId < 0 ? position : rowsByInterface[position];
+        }
+
+        /**
+         * @return boolean - whether the row is one of this map's entries, the full map leaves out
+         *         shadowed rows so every key is listed once
+         */
+        private boolean lists(int row) {
+            return interfaceId >= 0 || !shadowedRows[row];
+        }
+
+        private int rowOfKey(Object key) {
+            if (!(key instanceof String publicKey)) {
+                return -1;
+            }
+            int row = rowOf(publicKey);
+            if (row < 0 || interfaceId < 0 || interfaceOfRow[row] == interfaceId) {
+                return row;
+            }
+            // the key's row on this interface is shadowed by one on a later interface
+            for (int position = start(); position < end(); position++) {
+                int candidate = rowAt(position);
+                if (shadowedRows[candidate] && publicKey(candidate).equals(publicKey)) {
+                    return candidate;
+                }
+            }
+            return -1;
+        }
+
+        @Override
+        public int size() {
+            return interfaceId < 0 ? peerCount : end() - start();
+        }
+
+        @Override
+        public boolean containsKey(Object key) {
+            return rowOfKey(key) >= 0;
+        }
+
+        @Override
+        public ClientConnectionInformation get(Object key) {
+            int row = rowOfKey(key);
+            return row < 0 ? null : toPeer(row);
+        }
+
+        @Override
+        public Set<String> keySet() {
+            return new AbstractSet<>() {
+                @Override
+                public Iterator<String> iterator() {
+                    return new RowIterator<>(PeerMap.this) {
+                        @Override
+                        String element(int row) {
+                            return publicKey(row);
+                        }
+                    };
+                }
+
+                @Override
+                public int size() {
+                    return PeerMap.this.size();
+                }
+
+                @Override
+                public boolean contains(Object key) {
+                    return containsKey(key);
+                }
+            };
+        }
+
+        @Override
+        public Set<Map.Entry<String, ClientConnectionInformation>> entrySet() {
+            return new AbstractSet<>() {
+                @Override
+                public Iterator<Map.Entry<String, ClientConnectionInformation>> iterator() {
+                    return new RowIterator<>(PeerMap.this) {
+                        @Override
+                        Map.Entry<String, ClientConnectionInformation> element(int row) {
+                            ClientConnectionInformation peer = toPeer(row);
+                            return new SimpleImmutableEntry<>(peer.getPublicKey(), peer);
+                        }
+                    };
+                }
+
+                @Override
+                public int size() {
+                    return PeerMap.this.size();
+                }
+            };
+        }
+    }
+
+    /**
+     * Read only view over the allowed ip index, iterated in slot order
+     */
+    private final class AllowedIpMap extends AbstractMap<String, ClientConnectionInformation> {
+
+        @Override
+        public int size() {
+            return allowedIpCount;
+        }
+
+        @Override
+        public boolean containsKey(Object key) {
+            return findAllowedIp(key) >= 0;
+        }
+
+        @Override
+        public ClientConnectionInformation get(Object key) {
+            int entry = findAllowedIp(key);
+            return entry < 0 ? null : toPeer(allowedIpRows[entry]);
+        }
+
+        @Override
+        public Set<Map.Entry<String, ClientConnectionInformation>> entrySet() {
+            return new AbstractSet<>() {
+                @Override
+                public Iterator<Map.Entry<String, ClientConnectionInformation>> iterator() {
+                    return new Iterator<>() {
+                        private int slot = next(0);
+
+                        private int next(int from) {
+                            while (from < allowedIpSlots.length && allowedIpSlots[from] == 0) {
+                                from++;
+                            }
+                            return from;
+                        }
+
+                        @Override
+                        public boolean hasNext() {
+                            return slot < allowedIpSlots.length;
+                        }
+
+                        @Override
+                        public Map.Entry<String, ClientConnectionInformation> next() {
+                            if (!hasNext()) {
+                                throw new NoSuchElementException();
+                            }
+                            int entry = allowedIpSlots[slot] - 1;
+                            slot = next(slot + 1);
+                            return new SimpleImmutableEntry<>(allowedIpEntries[entry], toPeer(allowedIpRows[entry]));
+                        }
+                    };
+                }
+
+                @Override
+                public int size() {
+                    return allowedIpCount;
+                }
+            };
+        }
+    }
+
+    private abstract static class RowIterator<T> implements Iterator<T> {
+        private final PeerMap map;
+        private int position;
+
+        RowIterator(PeerMap map) {
+            this.map = map;
+            this.position = skipUnlisted(map.start());
+        }
+
+        abstract T element(int row);
+
+        private int skipUnlisted(int from) {
+            while (from < map.end() && !map.lists(map.rowAt(from))) {
+                from++;
+            }
+            return from;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return position < map.end();
+        }
+
+        @Override
+        public T next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            int row = map.rowAt(position);
+            position = skipUnlisted(position + 1);
+            return element(row);
+        }
+    }
+
+    /**
+     * Collects the rows of one parse. The public key arrives as the raw bytes of the dump line
+     * and is decoded into the key column without ever becoming a String.
+     */
+    static final class Builder implements WgShowDumpParser.RawKeySink {
+        private final List<NetworkConnectionInformation> networks = new ArrayList<>();
+        private final List<String> interfaceNames = new ArrayList<>();
+        private final Map<String, Integer> interfaceIds = new HashMap<>();
+        private final Map<Integer, String> irregularKeysByRow = new HashMap<>();
+        private int size = 0;
+        private byte[] keys;
+        private int[] interfaceOfRow;
+        private String[] presharedKeys;
+        private String[] endpoints;
+        private String[] allowedIps;
+        private long[] latestHandshakes;
+        private long[] bytesReceived;
+        private long[] bytesSent;
+        private long[] persistentKeepalives;
+
+        private Builder(int expectedPeers) {
+            allocate(Math.max(16, expectedPeers));
+        }
+
+        @Override
+        public void onInterface(String interfaceName, String publicKey, int listeningPort) {
+            networks.add(new NetworkConnectionInformation(interfaceName, publicKey, listeningPort));
+            interfaceId(interfaceName);
+        }
+
+        @Override
+        public void onPeer(String interfaceName, byte[] buffer, int keyStart, int keyEnd, String presharedKey,
+                           String endpoint, String allowedIps, long latestHandshakeEpochSeconds, long bytesReceived,
+                           long bytesSent, long persistentKeepalive) {
+            if (size == latestHandshakes.length) {
+                allocate(size * 2);
+            }
+            int row = size++;
+            if (keyEnd - keyStart != BASE64_KEY_LENGTH
+                    || !decodeKey(index -> buffer[index] & 0xff, keyStart, keys, row * KEY_BYTES)) {
+                Arrays.fill(keys, row * KEY_BYTES, (row + 1) * KEY_BYTES, (byte) 0);
+                irregularKeysByRow.put(row, new String(buffer, keyStart, keyEnd - keyStart, StandardCharsets.UTF_8));
+            }
+            interfaceOfRow[row] = interfaceId(interfaceName);
+            presharedKeys[row] = presharedKey;
+            endpoints[row] = endpoint;
+            this.allowedIps[row] = allowedIps;
+            latestHandshakes[row] = latestHandshakeEpochSeconds;
+            this.bytesReceived[row] = bytesReceived;
+            this.bytesSent[row] = bytesSent;
+            persistentKeepalives[row] = persistentKeepalive;
+        }
+
+        private int interfaceId(String interfaceName) {
+            return interfaceIds.computeIfAbsent(interfaceName, name -> {
+                interfaceNames.add(name);
+                return interfaceNames.size() - 1;
+            });
+        }
+
+        private void allocate(int capacity) {
+            keys = keys == null ? new byte[capacity * KEY_BYTES] : Arrays.copyOf(keys, capacity * KEY_BYTES);
+            interfaceOfRow = interfaceOfRow == null ? new int[capacity] : Arrays.copyOf(interfaceOfRow, capacity);
+            presharedKeys = presharedKeys == null ? new String[capacity] : Arrays.copyOf(presharedKeys, capacity);
+            endpoints = endpoints == null ? new String[capacity] : Arrays.copyOf(endpoints, capacity);
+            allowedIps = allowedIps == null ? new String[capacity] : Arrays.copyOf(allowedIps, capacity);
+            latestHandshakes = latestHandshakes == null ? new long[capacity] : Arrays.copyOf(latestHandshakes, capacity);
+            bytesReceived = bytesReceived == null ? new long[capacity] : Arrays.copyOf(bytesReceived, capacity);
+            bytesSent = bytesSent == null ? new long[capacity] : Arrays.copyOf(bytesSent, capacity);
+            persistentKeepalives = persistentKeepalives == null ? new long[capacity] : Arrays.copyOf(persistentKeepalives, capacity);
+        }
+
+        boolean hasInterface(String interfaceName) {
+            for (NetworkConnectionInformation network : networks) {
+                if (network.getInterfaceName().equals(interfaceName)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        List<NetworkConnectionInformation> networks() {
+            return networks;
+        }
+
+        ColumnarPeerTable build() {
+            return new ColumnarPeerTable(this);
+        }
+    }
+}
@@ -0,0 +1,191 @@
+package com.brcsrc.yaws.system;
+
+import java.io.IOException;
+import java.lang.foreign.Arena;
+import java.lang.foreign.FunctionDescriptor;
+import java.lang.foreign.Linker;
+import java.lang.foreign.MemoryLayout;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.StructLayout;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import static java.lang.foreign.ValueLayout.ADDRESS;
+import static java.lang.foreign.ValueLayout.JAVA_INT;
+import static java.lang.foreign.ValueLayout.JAVA_LONG;
+import static java.lang.foreign.ValueLayout.JAVA_SHORT;
+
+/**
+ * A NETLINK_GENERIC socket opened through libc with the foreign function API.
+ *
+ * The API is a preview in Java 21, so this is the only class compiled against it and the JVM
+ * needs --enable-preview to load it. Nothing references it unless yaws.wireguard.source is
+ * netlink, without the flag loading it fails with an UnsupportedClassVersionError, which the
+ * provider treats like any other failure to open the socket.
+ *
+ * Receives time out after RECEIVE_TIMEOUT_SECONDS so a lost reply can not stall a refresh.
+ */
+final class FfmNetlinkTransport implements NetlinkTransport {
+    // linux/socket.h, linux/netlink.h, asm-generic/socket.h
+    private static final int AF_NETLINK = 16;
+    private static final int SOCK_RAW = 3;
+    private static final int SOCK_CLOEXEC = 0x80000;
+    private static final int NETLINK_GENERIC = 16;
+    private static final int SOL_SOCKET = 1;
+    private static final int SO_RCVTIMEO = 20;
+    private static final int EINTR = 4;
+    private static final int EAGAIN = 11;
+    private static final long SOCKADDR_NL_LENGTH = 12;
+    private static final long TIMEVAL_LENGTH = 16;
+    private static final long SEND_BUFFER_SIZE = 4096;
+    // large enough for any message the kernel puts into one dump datagram
+    private static final long RECEIVE_BUFFER_SIZE = 64 * 1024;
+    static final long RECEIVE_TIMEOUT_SECONDS = 5;
+
+    private static final Linker LINKER = Linker.nativeLinker();
+    private static final StructLayout CALL_STATE_LAYOUT = Linker.Option.captureStateLayout();
+    private static final VarHandle ERRNO = CALL_STATE_LAYOUT.varHandle(MemoryLayout.PathElement.groupElement("errno"));
+    private static final MethodHandle SOCKET = downcall("socket", FunctionDescriptor.of(JAVA_INT, JAVA_INT, JAVA_INT, JAVA_INT));
+    private static final MethodHandle BIND = downcall("bind", FunctionDescriptor.of(JAVA_INT, JAVA_INT, ADDRESS, JAVA_INT));
+    private static final MethodHandle SETSOCKOPT = downcall("setsockopt",
+            FunctionDescriptor.of(JAVA_INT, JAVA_INT, JAVA_INT, JAVA_INT, ADDRESS, JAVA_INT));
+    private static final MethodHandle SENDTO = downcall("sendto",
+            FunctionDescriptor.of(JAVA_LONG, JAVA_INT, ADDRESS, JAVA_LONG, JAVA_INT, ADDRESS, JAVA_INT));
+    private static final MethodHandle RECV = downcall("recv", FunctionDescriptor.of(JAVA_LONG, JAVA_INT, ADDRESS, JAVA_LONG, JAVA_INT));
+    private static final MethodHandle CLOSE = downcall("close", FunctionDescriptor.of(JAVA_INT, JAVA_INT));
+
+    private final Arena arena;
+    private final MemorySegment callState;
+    private final MemorySegment kernelAddress;
+    private final MemorySegment sendBuffer;
+    private final MemorySegment receiveBuffer;
+    private final int fd;
+    private boolean closed = false;
+
+    private FfmNetlinkTransport(Arena arena, int fd) {
+        this.arena = arena;
+        this.fd = fd;
+        this.callState = arena.allocate(CALL_STATE_LAYOUT);
+        this.kernelAddress = sockaddrNl(arena);
+        this.sendBuffer = arena.allocate(SEND_BUFFER_SIZE);
+        this.receiveBuffer = arena.allocate(RECEIVE_BUFFER_SIZE);
+    }
+
+    static FfmNetlinkTransport open() throws IOException {
+        // shared, the provider reads from whichever thread refreshes
+        Arena arena = Arena.ofShared();
+        try {
+            MemorySegment callState = arena.allocate(CALL_STATE_LAYOUT);
+            int fd = (int) SOCKET.invokeExact(callState, AF_NETLINK, SOCK_RAW | SOCK_CLOEXEC, NETLINK_GENERIC);
+            if (fd < 0) {
+                throw new IOException("socket(AF_NETLINK) failed with errno " + errno(callState));
+            }
+            FfmNetlinkTransport transport = new FfmNetlinkTransport(arena, fd);
+            transport.configure();
+            return transport;
+        } catch (IOException | RuntimeException | Error e) {
+            arena.close();
+            throw e;
+        } catch (Throwable e) {
+            arena.close();
+            throw new IOException("could not open a netlink socket", e);
+        }
+    }
+
+    private void configure() throws Throwable {
+        // port id 0 lets the kernel assign one
+        int bound = (int) BIND.invokeExact(callState, fd, sockaddrNl(arena), (int) SOCKADDR_NL_LENGTH);
+        if (bound != 0) {
+            closeQuietly();
+            throw new IOException("bind(AF_NETLINK) failed with errno " + errno(callState));
+        }
+        MemorySegment timeout = arena.allocate(TIMEVAL_LENGTH);
+        timeout.set(JAVA_LONG, 0, RECEIVE_TIMEOUT_SECONDS);
+        timeout.set(JAVA_LONG, 8, 0L);
+        int set = (int) SETSOCKOPT.invokeExact(callState, fd, SOL_SOCKET, SO_RCVTIMEO, timeout, (int) TIMEVAL_LENGTH);
+        if (set != 0) {
+            closeQuietly();
+            throw new IOException("setsockopt(SO_RCVTIMEO) failed with errno " + errno(callState));
+        }
+    }
+
+    @Override
+    public synchronized void send(ByteBuffer message) throws IOException {
+        int length = message.remaining();
+        if (length > SEND_BUFFER_SIZE) {
+            throw new IOException(String.format("netlink request of %d bytes is too large", length));
+        }
+        MemorySegment.copy(MemorySegment.ofBuffer(message), 0, sendBuffer, 0, length);
+        try {
+            long sent;
+            do {
+                sent = (long) SENDTO.invokeExact(callState, fd, sendBuffer, (long) length, 0, kernelAddress, (int) SOCKADDR_NL_LENGTH);
+            } while (sent < 0 && errno(callState) == EINTR);
+            if (sent != length) {
+                throw new IOException("sendto(AF_NETLINK) failed with errno " + errno(callState));
+            }
+        } catch (IOException | RuntimeException | Error e) {
+            throw e;
+        } catch (Throwable e) {
+            throw new IOException(e);
+        }
+    }
+
+    @Override
+    public synchronized ByteBuffer receive() throws IOException {
+        try {
+            long received;
+            do {
+                received = (long) RECV.invokeExact(callState, fd, receiveBuffer, RECEIVE_BUFFER_SIZE, 0);
+            } while (received < 0 && errno(callState) == EINTR);
+            if (received < 0) {
+                int errno = errno(callState);
+                throw new IOException(errno == EAGAIN
+                        ? "no netlink reply within " + RECEIVE_TIMEOUT_SECONDS + "s"
+                        : "recv(AF_NETLINK) failed with errno " + errno);
+            }
+            return receiveBuffer.asSlice(0, received).asByteBuffer().order(ByteOrder.nativeOrder());
+        } catch (IOException | RuntimeException | Error e) {
+            throw e;
+        } catch (Throwable e) {
+            throw new IOException(e);
+        }
+    }
+
+    @Override
+    public synchronized void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        closeQuietly();
+        arena.close();
+    }
+
+    private void closeQuietly() {
+        try {
+            int ignored = (int) CLOSE.invokeExact(callState, fd);
+        } catch (Throwable e) {
+            // nothing left to do with a socket that can not be closed
+        }
+    }
+
+    private static MemorySegment sockaddrNl(Arena arena) {
+        // struct sockaddr_nl { sa_family_t nl_family; unsigned short nl_pad; __u32 nl_pid; __u32 nl_groups; }
+        MemorySegment address = arena.allocate(SOCKADDR_NL_LENGTH);
+        address.set(JAVA_SHORT, 0, (short) AF_NETLINK);
+        return address;
+    }
+
+    private static int errno(MemorySegment callState) {
+        return (int) ERRNO.get(callState);
+    }
+
+    private static MethodHandle downcall(String name, FunctionDescriptor descriptor) {
+        MemorySegment symbol = LINKER.defaultLookup().find(name)
+                .orElseThrow(() -> new UnsatisfiedLinkError("libc has no " + name));
+        return LINKER.downcallHandle(symbol, descriptor, Linker.Option.captureCallState("errno"));
+    }
+}
@@ -0,0 +1,111 @@
+package com.brcsrc.yaws.system;
+
+import com.brcsrc.yaws.shell.CommandExecutor;
+import com.brcsrc.yaws.shell.ExecutionResult;
+import com.brcsrc.yaws.system.WireguardInformationProvider.WireguardConnectionData;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Supplier;
+
+/**
+ * Reads every interface at once, over netlink when a WireguardNetlinkReader is given and with
+ * 'wg show all dump' otherwise or when the netlink read fails. The default RefreshStrategy.
+ *
+ * With columnar snapshots the dump is parsed into a ColumnarPeerTable, netlink reads always
+ * produce object snapshots.
+ */
+class FullDumpRefresh implements RefreshStrategy {
+    private static final Logger logger = LoggerFactory.getLogger(FullDumpRefresh.class);
+    static final String WG_SHOW_DUMP_COMMAND = "wg show all dump";
+    private static final Duration WG_SHOW_DUMP_TIMEOUT = Duration.ofSeconds(10);
+
+    private final CommandExecutor commandExecutor;
+    private final ThroughputCalculator throughputCalculator;
+    private final boolean columnarSnapshots;
+    // null unless yaws.wireguard.source is netlink and the socket could be opened
+    private final WireguardNetlinkReader netlinkReader;
+    private final SnapshotPublisher publisher;
+    private final Supplier<WireguardConnectionData> published;
+    private final WgShowDumpParser dumpParser = new WgShowDumpParser();
+
+    /**
+     * @param published Supplier - the published snapshot, its peer count sizes the next columnar table
+     */
+    FullDumpRefresh(CommandExecutor commandExecutor, ThroughputCalculator throughputCalculator, boolean columnarSnapshots,
+                    WireguardNetlinkReader netlinkReader, SnapshotPublisher publisher,
+                    Supplier<WireguardConnectionData> published) {
+        this.commandExecutor = commandExecutor;
+        this.throughputCalculator = throughputCalculator;
+        this.columnarSnapshots = columnarSnapshots;
+        this.netlinkReader = netlinkReader;
+        this.publisher = publisher;
+        this.published = published;
+    }
+
+    @Override
+    public void refresh() {
+        if (netlinkReader != null) {
+            try {
+                WireguardConnectionData read = netlinkReader.read();
+                long now = System.currentTimeMillis();
+                publisher.publish(previous -> throughputCalculator.apply(previous, read, now), now);
+                return;
+            } catch (Exception e) {
+                // the command reads the same state, only slower
+                logger.error("Error reading WireGuard state over netlink, falling back to '{}'", WG_SHOW_DUMP_COMMAND, e);
+            }
+        }
+        try {
+            AtomicReference<WireguardConnectionData> parsed = new AtomicReference<>();
+            // stdout is parsed while wg is still writing it, the dump never exists as one String
+            ExecutionResult result = commandExecutor.runCommand(
+                WG_SHOW_DUMP_COMMAND,
+                WG_SHOW_DUMP_TIMEOUT,
+                stdout -> parsed.set(parse(stdout))
+            );
+
+            if (result.getExitCode() != 0) {
+                logger.error("Failed to execute '{}': exit code {}, stderr: {}",
+                    WG_SHOW_DUMP_COMMAND, result.getExitCode(), result.getStderr());
+                return;
+            }
+
+            long now = System.currentTimeMillis();
+            WireguardConnectionData unversioned = parsed.get() != null ? parsed.get() : new WireguardConnectionData();
+            WireguardConnectionData newData = publisher.publish(previous -> throughputCalculator.apply(previous, unversioned, now), now);
+
+            logger.debug("Successfully refreshed WireGuard connection data: {} interfaces, {} total peers",
+                newData.getNetworksByPublicKey().size(),
+                newData.getPeersByPublicKey().size());
+
+        } catch (Exception e) {
+            logger.error("Error refreshing WireGuard connection data", e);
+        }
+    }
+
+    private WireguardConnectionData parse(InputStream stdout) throws IOException {
+        // the parser keeps its intern table across refreshes and is not thread safe
+        synchronized (dumpParser) {
+            if (columnarSnapshots) {
+                return dumpParser.parseColumnar(stdout, published.get().getPeersByPublicKey().size());
+            }
+            return dumpParser.parse(stdout);
+        }
+    }
+
+    @Override
+    public void close() {
+        if (netlinkReader != null) {
+            try {
+                netlinkReader.close();
+            } catch (IOException e) {
+                logger.warn("Error closing the netlink socket", e);
+            }
+        }
+    }
+}
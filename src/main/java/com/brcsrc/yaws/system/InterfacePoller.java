@@ -0,0 +1,174 @@
+package com.brcsrc.yaws.system;
+
+import com.brcsrc.yaws.shell.CommandExecutor;
+import com.brcsrc.yaws.shell.ExecutionResult;
+import com.brcsrc.yaws.system.WireguardInformationProvider.WireguardConnectionData;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Duration;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.LongSupplier;
+
+/**
+ * Polls a single interface with 'wg show <interface> dump' on a schedule of its own.
+ *
+ * Used by WireguardInformationProvider when yaws.wireguard.refresh.per-interface is set. Every
+ * poll produces a partial snapshot holding only this interface, its rates are calculated against
+ * the previous partial of the same interface and it is handed to the provider, which replaces the
+ * interface's networks and peers in the published snapshot. A failing or slow interface therefore
+ * only delays or keeps stale its own entries.
+ *
+ * The next poll is scheduled after the current one finished, at the provider's effective interval.
+ * An interface whose dump takes longer than a quarter of that interval is polled at four times
+ * its dump duration instead, so one huge interface can not keep a pool thread busy all the time.
+ *
+ * Polls of one interface never overlap, they run under the poller's lock.
+ */
+class InterfacePoller {
+    private static final Logger logger = LoggerFactory.getLogger(InterfacePoller.class);
+    private static final String WG_SHOW_INTERFACE_DUMP_COMMAND = "wg show %s dump";
+    private static final Duration WG_SHOW_DUMP_TIMEOUT = Duration.ofSeconds(10);
+    static final int SLOW_POLL_FACTOR = 4;
+
+    /**
+     * Receives the partial snapshot of every successful poll
+     */
+    @FunctionalInterface
+    interface PartialPublisher {
+        /**
+         * @param partial WireguardConnectionData - the versioned partial of this poll
+         */
+        void publish(WireguardConnectionData partial);
+    }
+
+    private final String interfaceName;
+    private final CommandExecutor commandExecutor;
+    private final ScheduledExecutorService pool;
+    private final ThroughputCalculator throughputCalculator;
+    private final LongSupplier intervalMs;
+    private final PartialPublisher publisher;
+    private final WgShowDumpParser dumpParser = new WgShowDumpParser();
+
+    // guarded by this
+    private WireguardConnectionData lastPartial;
+    private long polls = 0;
+    private boolean stopped = false;
+    private volatile long lastPollDurationMs = 0;
+
+    private final Object scheduleLock = new Object();
+    private ScheduledFuture<?> nextPoll;
+
+    InterfacePoller(String interfaceName, CommandExecutor commandExecutor, ScheduledExecutorService pool,
+                    ThroughputCalculator throughputCalculator, LongSupplier intervalMs, PartialPublisher publisher) {
+        this.interfaceName = interfaceName;
+        this.commandExecutor = commandExecutor;
+        this.pool = pool;
+        this.throughputCalculator = throughputCalculator;
+        this.intervalMs = intervalMs;
+        this.publisher = publisher;
+    }
+
+    String getInterfaceName() {
+        return interfaceName;
+    }
+
+    /**
+     * Polls now on the calling thread, then schedules the next poll after delayMs
+     * @return boolean - whether a partial was published
+     */
+    boolean pollNow(long delayMs) {
+        boolean published = poll();
+        scheduleNext(delayMs);
+        return published;
+    }
+
+    /**
+     * Schedules the next poll, replacing the pending one
+     */
+    void scheduleNext(long delayMs) {
+        synchronized (scheduleLock) {
+            if (nextPoll != null) {
+                nextPoll.cancel(false);
+            }
+            if (isStopped()) {
+                return;
+            }
+            try {
+                nextPoll = pool.schedule(this::runScheduledPoll, delayMs, TimeUnit.MILLISECONDS);
+            } catch (RejectedExecutionException e) {
+                logger.debug("Interface pool is shut down, not scheduling further polls of {}", interfaceName);
+            }
+        }
+    }
+
+    /**
+     * Stops polling, waits for a running poll to finish
+     * @return WireguardConnectionData - the last published partial, to be removed from the snapshot, or null
+     */
+    WireguardConnectionData stop() {
+        synchronized (this) {
+            stopped = true;
+        }
+        synchronized (scheduleLock) {
+            if (nextPoll != null) {
+                nextPoll.cancel(false);
+            }
+        }
+        synchronized (this) {
+            return lastPartial;
+        }
+    }
+
+    long nextDelayMs() {
+        return Math.max(intervalMs.getAsLong(), lastPollDurationMs * SLOW_POLL_FACTOR);
+    }
+
+    private void runScheduledPoll() {
+        poll();
+        scheduleNext(nextDelayMs());
+    }
+
+    private synchronized boolean isStopped() {
+        return stopped;
+    }
+
+    private synchronized boolean poll() {
+        if (stopped) {
+            return false;
+        }
+        String command = String.format(WG_SHOW_INTERFACE_DUMP_COMMAND, interfaceName);
+        long started = System.currentTimeMillis();
+        try {
+            AtomicReference<WireguardConnectionData> parsed = new AtomicReference<>();
+            ExecutionResult result = commandExecutor.runCommand(
+                command,
+                WG_SHOW_DUMP_TIMEOUT,
+                stdout -> parsed.set(dumpParser.parse(stdout, interfaceName))
+            );
+            long now = System.currentTimeMillis();
+            lastPollDurationMs = now - started;
+
+            if (result.getExitCode() != 0) {
+                // the interface keeps its last published state until it is polled again or removed
+                logger.error("Failed to execute '{}': exit code {}, stderr: {}",
+                    command, result.getExitCode(), result.getStderr());
+                return false;
+            }
+
+            WireguardConnectionData partial = parsed.get() != null ? parsed.get() : new WireguardConnectionData();
+            partial = throughputCalculator.apply(lastPartial != null ? lastPartial : new WireguardConnectionData(), partial, now)
+                    .withVersion(++polls, now);
+            publisher.publish(partial);
+            lastPartial = partial;
+            return true;
+        } catch (Exception e) {
+            logger.error("Error polling WireGuard interface {}", interfaceName, e);
+            return false;
+        }
+    }
+}
@@ -0,0 +1,24 @@
+package com.brcsrc.yaws.system;
+
+/**
+ * Kernel counters of one network interface as read from /sys/class/net/<interface>/statistics,
+ * with the rates since the previous sample. The rates are null on the first sample of an
+ * interface, and after its counters went backwards because the interface was recreated.
+ */
+public record InterfaceStats(
+        String interfaceName,
+        String networkPublicKey,
+        long epochMillis,
+        long rxBytes,
+        long txBytes,
+        long rxPackets,
+        long txPackets,
+        long rxDropped,
+        long txDropped,
+        long rxErrors,
+        long txErrors,
+        Double rxBytesPerSecond,
+        Double txBytesPerSecond,
+        Double rxPacketsPerSecond,
+        Double txPacketsPerSecond
+) {}
@@ -0,0 +1,15 @@
+package com.brcsrc.yaws.system;
+
+import java.util.List;
+
+/**
+ * Notified by InterfaceStatsSampler with every sample, on the sampler thread. Implementations
+ * should hand off anything slow, the next sample waits for all listeners.
+ */
+@FunctionalInterface
+public interface InterfaceStatsListener {
+    /**
+     * @param samples List of InterfaceStats - one per sampled interface, may be empty
+     */
+    void onSample(List<InterfaceStats> samples);
+}
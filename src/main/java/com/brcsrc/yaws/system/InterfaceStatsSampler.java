@@ -0,0 +1,380 @@
+package com.brcsrc.yaws.system;
+
+import com.brcsrc.yaws.model.Network;
+import com.brcsrc.yaws.model.NetworkStatus;
+import com.brcsrc.yaws.persistence.NetworkRepository;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.env.Environment;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * Samples the kernel's interface counters of every active network, for throughput gauges that
+ * only need interface totals.
+ *
+ * Every yaws.interface-stats.sample-interval-ms the rx and tx bytes, packets, drops and errors
+ * are read from &lt;yaws.interface-stats.sysfs-root&gt;/&lt;interface&gt;/statistics, a network's
+ * name is its interface name. This is independent of the 'wg show' refresh and far cheaper than
+ * it: the counter files stay open and every sample is 8 positional reads per interface, no
+ * process is forked and no peers are parsed. The active networks are listed from the database
+ * at most every NETWORK_LIST_INTERVAL_MS.
+ *
+ * Sampling only runs while at least one subscriber is registered, on its own thread. The files
+ * are closed and the rates start over once the last subscriber leaves.
+ */
+@Component
+public class InterfaceStatsSampler {
+    private static final Logger logger = LoggerFactory.getLogger(InterfaceStatsSampler.class);
+
+    static final String SAMPLE_INTERVAL_PROPERTY = "yaws.interface-stats.sample-interval-ms";
+    static final String SYSFS_ROOT_PROPERTY = "yaws.interface-stats.sysfs-root";
+    static final long DEFAULT_SAMPLE_INTERVAL_MS = 1_000;
+    static final String DEFAULT_SYSFS_ROOT = "/sys/class/net";
+    static final long NETWORK_LIST_INTERVAL_MS = 10_000;
+
+    // the order of the counters in InterfaceCounters.values
+    private static final String[] COUNTER_FILES = {
+        "rx_bytes", "tx_bytes", "rx_packets", "tx_packets", "rx_dropped", "tx_dropped", "rx_errors", "tx_errors"
+    };
+
+    private final Supplier<Map<String, String>> activeNetworks;
+    private final Path sysfsRoot;
+    private final long sampleIntervalMs;
+    private final ScheduledExecutorService sampler;
+    private final List<InterfaceStatsListener> listeners = new CopyOnWriteArrayList<>();
+    private final AtomicInteger subscribers = new AtomicInteger();
+    private final Object scheduleLock = new Object();
+    private ScheduledFuture<?> sampling;
+
+    // only touched on the sampler thread
+    private final Map<String, InterfaceCounters> interfaces = new TreeMap<>();
+    private long networksListedNanos;
+    private boolean networksListed = false;
+
+    private volatile List<InterfaceStats> latestSample = List.of();
+
+    @Autowired
+    public InterfaceStatsSampler(NetworkRepository networkRepository, Environment env) {
+        this(
+            () -> listActiveNetworks(networkRepository),
+            Path.of(env.getProperty(SYSFS_ROOT_PROPERTY, String.class, DEFAULT_SYSFS_ROOT)),
+            env.getProperty(SAMPLE_INTERVAL_PROPERTY, Long.class, DEFAULT_SAMPLE_INTERVAL_MS)
+        );
+    }
+
+    /**
+     * @param activeNetworks Supplier of Map of String to String - interface name to network public key of every active network
+     */
+    InterfaceStatsSampler(Supplier<Map<String, String>> activeNetworks, Path sysfsRoot, long sampleIntervalMs) {
+        if (sampleIntervalMs <= 0) {
+            throw new IllegalArgumentException("sample interval must be positive");
+        }
+        this.activeNetworks = activeNetworks;
+        this.sysfsRoot = sysfsRoot;
+        this.sampleIntervalMs = sampleIntervalMs;
+        this.sampler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "yaws-interface-stats");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    private static Map<String, String> listActiveNetworks(NetworkRepository networkRepository) {
+        Map<String, String> networks = new TreeMap<>();
+        for (Network network : networkRepository.findAllByNetworkStatus(NetworkStatus.ACTIVE)) {
+            networks.put(network.getNetworkName(), network.getNetworkPublicKeyValue());
+        }
+        return networks;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        sampler.shutdownNow();
+        try {
+            sampler.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        closeAll();
+    }
+
+    /**
+     * Registers a consumer of the samples, sampling runs while any are registered
+     */
+    public void acquireSubscriber() {
+        if (subscribers.incrementAndGet() != 1) {
+            return;
+        }
+        synchronized (scheduleLock) {
+            if (sampling == null) {
+                logger.debug("Sampling interface counters from {} every {}ms", sysfsRoot, sampleIntervalMs);
+                try {
+                    sampling = sampler.scheduleAtFixedRate(this::sampleNow, 0, sampleIntervalMs, TimeUnit.MILLISECONDS);
+                } catch (RejectedExecutionException e) {
+                    logger.debug("Not sampling interface counters after shutdown");
+                }
+            }
+        }
+    }
+
+    /**
+     * Must be called exactly once for each acquireSubscriber()
+     */
+    public void releaseSubscriber() {
+        if (subscribers.updateAndGet(count -> Math.max(0, count - 1)) != 0) {
+            return;
+        }
+        synchronized (scheduleLock) {
+            // a subscriber may have arrived since the count dropped to zero
+            if (sampling == null || subscribers.get() != 0) {
+                return;
+            }
+            logger.debug("Last subscriber left, no longer sampling interface counters");
+            sampling.cancel(false);
+            sampling = null;
+            try {
+                // queued ahead of the first sample of a new schedule
+                sampler.execute(this::closeAll);
+            } catch (RejectedExecutionException e) {
+                // shutting down, shutdown() closes the files
+            }
+        }
+    }
+
+    public void addListener(InterfaceStatsListener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(InterfaceStatsListener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * @return List of InterfaceStats - the most recent sample, empty before the first one
+     */
+    public List<InterfaceStats> getLatestSample() {
+        return latestSample;
+    }
+
+    public long getSampleIntervalMs() {
+        return sampleIntervalMs;
+    }
+
+    private void sampleNow() {
+        try {
+            sample(System.nanoTime(), System.currentTimeMillis());
+        } catch (RuntimeException e) {
+            // an exception would cancel the schedule for good
+            logger.error("Error sampling interface counters", e);
+        }
+    }
+
+    /**
+     * Reads the counters of every active network's interface and notifies the listeners
+     * @param nanoTime long - monotonic time of the sample, the rates are computed from it
+     * @param epochMillis long - wall clock time reported with the sample
+     * @return List of InterfaceStats - one per interface that could be read, by interface name
+     */
+    synchronized List<InterfaceStats> sample(long nanoTime, long epochMillis) {
+        if (!networksListed || nanoTime - networksListedNanos >= TimeUnit.MILLISECONDS.toNanos(NETWORK_LIST_INTERVAL_MS)) {
+            networksListed = true;
+            networksListedNanos = nanoTime;
+            updateInterfaces();
+        }
+        List<InterfaceStats> samples = new ArrayList<>(interfaces.size());
+        for (InterfaceCounters counters : interfaces.values()) {
+            InterfaceStats stats = counters.sample(nanoTime, epochMillis);
+            if (stats != null) {
+                samples.add(stats);
+            }
+        }
+        List<InterfaceStats> published = List.copyOf(samples);
+        latestSample = published;
+        for (InterfaceStatsListener listener : listeners) {
+            try {
+                listener.onSample(published);
+            } catch (RuntimeException e) {
+                logger.error("Error in interface stats listener {}", listener, e);
+            }
+        }
+        return published;
+    }
+
+    private void updateInterfaces() {
+        Map<String, String> networks;
+        try {
+            networks = activeNetworks.get();
+        } catch (RuntimeException e) {
+            logger.warn("Could not list the active networks, sampling the previous ones: {}", e.getMessage());
+            return;
+        }
+        Iterator<InterfaceCounters> iterator = interfaces.values().iterator();
+        while (iterator.hasNext()) {
+            InterfaceCounters counters = iterator.next();
+            if (!networks.containsKey(counters.interfaceName)) {
+                counters.close();
+                iterator.remove();
+            }
+        }
+        for (Map.Entry<String, String> network : networks.entrySet()) {
+            String interfaceName = network.getKey();
+            if (!WireguardInformationProvider.INTERFACE_NAME.matcher(interfaceName).matches()) {
+                logger.warn("Not sampling network '{}', it is not a valid interface name", interfaceName);
+                continue;
+            }
+            interfaces.computeIfAbsent(interfaceName,
+                    name -> new InterfaceCounters(name, sysfsRoot.resolve(name).resolve("statistics")))
+                .networkPublicKey = network.getValue();
+        }
+    }
+
+    private synchronized void closeAll() {
+        interfaces.values().forEach(InterfaceCounters::close);
+        interfaces.clear();
+        networksListed = false;
+        latestSample = List.of();
+    }
+
+    /**
+     * The open counter files of one interface and its previous sample
+     */
+    private static class InterfaceCounters {
+        private final String interfaceName;
+        private final Path statistics;
+        private final ByteBuffer buffer = ByteBuffer.allocate(32);
+        private final long[] values = new long[COUNTER_FILES.length];
+        private final long[] previousValues = new long[COUNTER_FILES.length];
+        private String networkPublicKey;
+        private FileChannel[] channels;
+        private long previousNanoTime;
+        private boolean hasPrevious = false;
+        private boolean unreadable = false;
+
+        InterfaceCounters(String interfaceName, Path statistics) {
+            this.interfaceName = interfaceName;
+            this.statistics = statistics;
+        }
+
+        /**
+         * @return InterfaceStats - null if the counters could not be read, the interface may be down
+         */
+        InterfaceStats sample(long nanoTime, long epochMillis) {
+            try {
+                read();
+            } catch (IOException e) {
+                if (!unreadable) {
+                    logger.debug("Could not read the counters of interface {}: {}", interfaceName, e.toString());
+                    unreadable = true;
+                }
+                // reopened on the next sample, the interface may have been recreated
+                close();
+                return null;
+            }
+            unreadable = false;
+
+            Double[] rates = new Double[4];
+            if (hasPrevious && nanoTime > previousNanoTime) {
+                double seconds = (nanoTime - previousNanoTime) / 1e9;
+                boolean reset = false;
+                for (int i = 0; i < rates.length; i++) {
+                    reset |= values[i] < previousValues[i];
+                    rates[i] = (values[i] - previousValues[i]) / seconds;
+                }
+                if (reset) {
+                    // counters went backwards, the interface was recreated since the previous sample
+                    rates = new Double[4];
+                }
+            }
+            System.arraycopy(values, 0, previousValues, 0, values.length);
+            previousNanoTime = nanoTime;
+            hasPrevious = true;
+
+            return new InterfaceStats(interfaceName, networkPublicKey, epochMillis,
+                values[0], values[1], values[2], values[3], values[4], values[5], values[6], values[7],
+                rates[0], rates[1], rates[2], rates[3]);
+        }
+
+        private void read() throws IOException {
+            if (channels == null) {
+                FileChannel[] opened = new FileChannel[COUNTER_FILES.length];
+                try {
+                    for (int i = 0; i < opened.length; i++) {
+                        opened[i] = FileChannel.open(statistics.resolve(COUNTER_FILES[i]), StandardOpenOption.READ);
+                    }
+                } catch (IOException e) {
+                    closeAll(opened);
+                    throw e;
+                }
+                channels = opened;
+            }
+            for (int i = 0; i < channels.length; i++) {
+                // sysfs regenerates an attribute on every read from offset 0
+                buffer.clear();
+                channels[i].read(buffer, 0);
+                values[i] = parseCounter(buffer.flip());
+            }
+        }
+
+        private long parseCounter(ByteBuffer content) throws IOException {
+            long value = 0;
+            int digits = 0;
+            while (content.hasRemaining()) {
+                byte b = content.get();
+                if (b == '\n') {
+                    break;
+                }
+                if (b < '0' || b > '9' || digits == 19) {
+                    throw new IOException("unexpected counter in " + statistics);
+                }
+                value = value * 10 + (b - '0');
+                digits++;
+            }
+            if (digits == 0) {
+                throw new IOException("empty counter in " + statistics);
+            }
+            return value;
+        }
+
+        void close() {
+            if (channels != null) {
+                closeAll(channels);
+                channels = null;
+            }
+            hasPrevious = false;
+        }
+
+        private static void closeAll(FileChannel[] channels) {
+            for (FileChannel channel : channels) {
+                if (channel == null) {
+                    continue;
+                }
+                try {
+                    channel.close();
+                } catch (IOException e) {
+                    // nothing was written, nothing to lose
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,24 @@
+package com.brcsrc.yaws.system;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * A generic netlink socket, see WireguardNetlinkReader. Implementations only move datagrams,
+ * the messages in them are built and decoded by WireguardNetlinkCodec.
+ */
+interface NetlinkTransport extends Closeable {
+
+    /**
+     * Sends one request message to the kernel
+     */
+    void send(ByteBuffer message) throws IOException;
+
+    /**
+     * Receives one datagram, which may hold several messages. The returned buffer is only valid
+     * until the next call.
+     * @throws IOException - also when nothing arrived within the transport's timeout
+     */
+    ByteBuffer receive() throws IOException;
+}
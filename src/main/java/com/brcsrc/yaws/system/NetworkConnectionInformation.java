@@ -1,59 +1,90 @@
 package com.brcsrc.yaws.system;
 
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.Collections;
 import java.util.Map;
 
+/**
+ * A network of a published snapshot, read only. The provider derives copies with the peers and
+ * rates filled in instead of changing an instance anyone may already hold.
+ */
 public class NetworkConnectionInformation {
-    private String interfaceName;
-    private String publicKey;
-    private int listeningPort;
-    private Map<String, ClientConnectionInformation> peers;
+    private final String interfaceName;
+    private final String publicKey;
+    private final int listeningPort;
+    private final Map<String, ClientConnectionInformation> peers;
+    // sums over the peers, computed by the provider
+    private final Double receiveBytesPerSecond;
+    private final Double sendBytesPerSecond;
+    private final Double smoothedReceiveBytesPerSecond;
+    private final Double smoothedSendBytesPerSecond;
 
-    public NetworkConnectionInformation() {
-        this.peers = new ConcurrentHashMap<>();
+    public NetworkConnectionInformation(String interfaceName, String publicKey, int listeningPort) {
+        this(interfaceName, publicKey, listeningPort, Map.of(), null, null, null, null);
     }
 
-    public NetworkConnectionInformation(String interfaceName, String publicKey, int listeningPort) {
+    private NetworkConnectionInformation(String interfaceName, String publicKey, int listeningPort,
+                                         Map<String, ClientConnectionInformation> peers,
+                                         Double receiveBytesPerSecond, Double sendBytesPerSecond,
+                                         Double smoothedReceiveBytesPerSecond, Double smoothedSendBytesPerSecond) {
         this.interfaceName = interfaceName;
         this.publicKey = publicKey;
         this.listeningPort = listeningPort;
-        this.peers = new ConcurrentHashMap<>();
+        this.peers = peers;
+        this.receiveBytesPerSecond = receiveBytesPerSecond;
+        this.sendBytesPerSecond = sendBytesPerSecond;
+        this.smoothedReceiveBytesPerSecond = smoothedReceiveBytesPerSecond;
+        this.smoothedSendBytesPerSecond = smoothedSendBytesPerSecond;
     }
 
-    public String getInterfaceName() {
-        return interfaceName;
+    /**
+     * @param peers Map - the peers by public key, only ever read through an unmodifiable view
+     * @return NetworkConnectionInformation - a copy with these peers and the same rates
+     */
+    public NetworkConnectionInformation withPeers(Map<String, ClientConnectionInformation> peers) {
+        return new NetworkConnectionInformation(interfaceName, publicKey, listeningPort,
+                Collections.unmodifiableMap(peers),
+                receiveBytesPerSecond, sendBytesPerSecond, smoothedReceiveBytesPerSecond, smoothedSendBytesPerSecond);
     }
 
-    public void setInterfaceName(String interfaceName) {
-        this.interfaceName = interfaceName;
+    /**
+     * @return NetworkConnectionInformation - a copy with these rates and the same peers
+     */
+    NetworkConnectionInformation withRates(double receiveBytesPerSecond, double sendBytesPerSecond,
+                                           double smoothedReceiveBytesPerSecond, double smoothedSendBytesPerSecond) {
+        return new NetworkConnectionInformation(interfaceName, publicKey, listeningPort, peers,
+                receiveBytesPerSecond, sendBytesPerSecond, smoothedReceiveBytesPerSecond, smoothedSendBytesPerSecond);
     }
 
-    public String getPublicKey() {
-        return publicKey;
+    public String getInterfaceName() {
+        return interfaceName;
     }
 
-    public void setPublicKey(String publicKey) {
-        this.publicKey = publicKey;
+    public String getPublicKey() {
+        return publicKey;
     }
 
     public int getListeningPort() {
         return listeningPort;
     }
 
-    public void setListeningPort(int listeningPort) {
-        this.listeningPort = listeningPort;
-    }
-
     public Map<String, ClientConnectionInformation> getPeers() {
         return peers;
     }
 
-    public void setPeers(Map<String, ClientConnectionInformation> peers) {
-        this.peers = peers;
+    public Double getReceiveBytesPerSecond() {
+        return receiveBytesPerSecond;
+    }
+
+    public Double getSendBytesPerSecond() {
+        return sendBytesPerSecond;
+    }
+
+    public Double getSmoothedReceiveBytesPerSecond() {
+        return smoothedReceiveBytesPerSecond;
     }
 
-    public void addPeer(String publicKey, ClientConnectionInformation peerInfo) {
-        this.peers.put(publicKey, peerInfo);
+    public Double getSmoothedSendBytesPerSecond() {
+        return smoothedSendBytesPerSecond;
     }
 
     @Override
@@ -62,6 +93,8 @@ public class NetworkConnectionInformation {
                 "interfaceName='" + interfaceName + '\'' +
                 ", publicKey='" + publicKey + '\'' +
                 ", listeningPort=" + listeningPort +
+                ", receiveBytesPerSecond=" + receiveBytesPerSecond +
+                ", sendBytesPerSecond=" + sendBytesPerSecond +
                 ", peers=" + peers +
                 '}';
     }
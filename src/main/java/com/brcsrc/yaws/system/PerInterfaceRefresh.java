@@ -0,0 +1,166 @@
+package com.brcsrc.yaws.system;
+
+import com.brcsrc.yaws.shell.CommandExecutor;
+import com.brcsrc.yaws.shell.ExecutionResult;
+import com.brcsrc.yaws.system.WireguardInformationProvider.WireguardConnectionData;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+/**
+ * Reads every interface on its own with an InterfacePoller, on a bounded pool of threads, used
+ * with yaws.wireguard.refresh.per-interface.
+ *
+ * The provider's schedule only runs 'wg show interfaces' to start pollers for new interfaces and
+ * stop those of interfaces that are gone. New interfaces get their first poll spread over the
+ * interval so their forks do not line up, each poll replaces only its interface's entries in the
+ * published snapshot. refresh() polls every interface and waits for the polls.
+ */
+class PerInterfaceRefresh implements RefreshStrategy {
+    private static final Logger logger = LoggerFactory.getLogger(PerInterfaceRefresh.class);
+    private static final String WG_SHOW_INTERFACES_COMMAND = "wg show interfaces";
+    private static final Duration WG_SHOW_INTERFACES_TIMEOUT = Duration.ofSeconds(10);
+
+    private final CommandExecutor commandExecutor;
+    private final ThroughputCalculator throughputCalculator;
+    private final LongSupplier intervalMs;
+    private final SnapshotPublisher publisher;
+    private final ScheduledExecutorService interfacePool;
+    private final Map<String, InterfacePoller> interfacePollers = new ConcurrentHashMap<>();
+
+    /**
+     * @param intervalMs LongSupplier - the provider's effective refresh interval, the pollers follow it
+     */
+    PerInterfaceRefresh(CommandExecutor commandExecutor, ThroughputCalculator throughputCalculator, int poolSize,
+                        LongSupplier intervalMs, SnapshotPublisher publisher) {
+        this.commandExecutor = commandExecutor;
+        this.throughputCalculator = throughputCalculator;
+        this.intervalMs = intervalMs;
+        this.publisher = publisher;
+        this.interfacePool = Executors.newScheduledThreadPool(poolSize, runnable -> {
+            Thread thread = new Thread(runnable, "yaws-wg-interface-poller");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @Override
+    public void refresh() {
+        try {
+            refreshInterfaces(true);
+        } catch (Exception e) {
+            logger.error("Error refreshing WireGuard connection data", e);
+        }
+    }
+
+    @Override
+    public boolean readsOnOwnSchedules() {
+        return true;
+    }
+
+    @Override
+    public void maintainSchedules() {
+        try {
+            refreshInterfaces(false);
+        } catch (Exception e) {
+            logger.error("Error refreshing WireGuard interfaces", e);
+        }
+    }
+
+    /**
+     * Starts pollers for new interfaces and removes the interfaces that are gone from the snapshot
+     * @param pollAll boolean - poll every interface now and wait for the polls, otherwise new
+     *                interfaces get their first poll spread over the interval
+     */
+    private void refreshInterfaces(boolean pollAll) {
+        List<String> interfaceNames = listInterfaces();
+        if (interfaceNames == null) {
+            return;
+        }
+
+        for (String interfaceName : List.copyOf(interfacePollers.keySet())) {
+            if (!interfaceNames.contains(interfaceName)) {
+                InterfacePoller poller = interfacePollers.remove(interfaceName);
+                WireguardConnectionData lastPartial = poller.stop();
+                logger.info("WireGuard interface {} is gone, no longer polling it", interfaceName);
+                if (lastPartial != null) {
+                    publisher.publish(previous -> previous.replacing(interfaceName, null), System.currentTimeMillis());
+                }
+            }
+        }
+
+        long interval = intervalMs.getAsLong();
+        List<CompletableFuture<Boolean>> polls = new ArrayList<>();
+        for (int i = 0; i < interfaceNames.size(); i++) {
+            String interfaceName = interfaceNames.get(i);
+            // spread evenly over the interval so the pollers do not fork at the same time
+            long staggerMs = interval * i / interfaceNames.size();
+            boolean added = !interfacePollers.containsKey(interfaceName);
+            InterfacePoller poller = interfacePollers.computeIfAbsent(interfaceName, this::newInterfacePoller);
+            if (pollAll) {
+                polls.add(CompletableFuture.supplyAsync(() -> poller.pollNow(interval + staggerMs), interfacePool));
+            } else if (added) {
+                poller.scheduleNext(staggerMs);
+            }
+        }
+
+        if (pollAll) {
+            CompletableFuture.allOf(polls.toArray(new CompletableFuture[0])).join();
+            if (polls.stream().noneMatch(CompletableFuture::join)) {
+                // nothing was published, still complete this refresh for waiters and listeners
+                publisher.publish(previous -> previous, System.currentTimeMillis());
+            }
+        }
+    }
+
+    private InterfacePoller newInterfacePoller(String interfaceName) {
+        logger.info("Polling WireGuard interface {} on its own schedule", interfaceName);
+        return new InterfacePoller(interfaceName, commandExecutor, interfacePool, throughputCalculator, intervalMs,
+            partial -> publisher.publish(previous -> previous.replacing(interfaceName, partial), partial.getRefreshedEpochMillis()));
+    }
+
+    /**
+     * @return List of String - the interfaces 'wg show interfaces' lists, null if it failed
+     */
+    private List<String> listInterfaces() {
+        ExecutionResult result = commandExecutor.runCommand(WG_SHOW_INTERFACES_COMMAND, WG_SHOW_INTERFACES_TIMEOUT);
+        if (result.getExitCode() != 0) {
+            logger.error("Failed to execute '{}': exit code {}, stderr: {}",
+                WG_SHOW_INTERFACES_COMMAND, result.getExitCode(), result.getStderr());
+            return null;
+        }
+        String stdout = result.getStdout() == null ? "" : result.getStdout().trim();
+        List<String> interfaceNames = new ArrayList<>();
+        for (String interfaceName : stdout.isEmpty() ? new String[0] : stdout.split("\\s+")) {
+            if (!WireguardInformationProvider.INTERFACE_NAME.matcher(interfaceName).matches()) {
+                logger.warn("Ignoring unexpected interface name '{}' from '{}'", interfaceName, WG_SHOW_INTERFACES_COMMAND);
+                continue;
+            }
+            interfaceNames.add(interfaceName);
+        }
+        return interfaceNames;
+    }
+
+    @Override
+    public void close() {
+        interfacePool.shutdown();
+        try {
+            if (!interfacePool.awaitTermination(5, TimeUnit.SECONDS)) {
+                interfacePool.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            interfacePool.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,51 @@
+package com.brcsrc.yaws.system;
+
+import com.brcsrc.yaws.system.WireguardInformationProvider.WireguardConnectionData;
+
+import java.util.function.UnaryOperator;
+
+/**
+ * How WireguardInformationProvider reads the WireGuard state, FullDumpRefresh with one dump of
+ * every interface or PerInterfaceRefresh with one InterfacePoller per interface. The provider
+ * keeps the schedule, versions, listeners and waiters, a strategy reads and hands what it read
+ * to its SnapshotPublisher.
+ */
+interface RefreshStrategy {
+
+    /**
+     * Publishes the next version of the snapshot, one publish at a time
+     */
+    @FunctionalInterface
+    interface SnapshotPublisher {
+        /**
+         * @param next UnaryOperator - derives the unversioned next snapshot from the published one
+         * @return WireguardConnectionData - the snapshot as published
+         */
+        WireguardConnectionData publish(UnaryOperator<WireguardConnectionData> next, long nowEpochMillis);
+    }
+
+    /**
+     * Reads every interface now and publishes the result before returning. Failures are logged,
+     * the published snapshot then stays as it was.
+     */
+    void refresh();
+
+    /**
+     * @return boolean - whether the interfaces are read on schedules of the strategy's own, the
+     * provider's schedule then only calls maintainSchedules() instead of refresh()
+     */
+    default boolean readsOnOwnSchedules() {
+        return false;
+    }
+
+    /**
+     * Starts and stops the strategy's own schedules, e.g. for interfaces that came or went
+     */
+    default void maintainSchedules() {
+    }
+
+    /**
+     * Stops the strategy's threads and releases what it opened
+     */
+    void close();
+}
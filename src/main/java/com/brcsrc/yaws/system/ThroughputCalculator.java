@@ -0,0 +1,129 @@
+package com.brcsrc.yaws.system;
+
+import com.brcsrc.yaws.system.WireguardInformationProvider.WireguardConnectionData;
+
+/**
+ * Derives a snapshot with the per peer and per network rates filled in before it is published.
+ *
+ * The instantaneous rate is the counter delta since the previous snapshot divided by the time
+ * between the two refreshes. A counter lower than before means the interface or peer was
+ * recreated and the counter restarted at 0, so the new value itself is the traffic since then.
+ *
+ * The smoothed rate is an exponentially weighted moving average with a time constant of
+ * smoothingWindowMs. The weight of a new sample depends on how long ago the previous one was
+ * taken, 1 - e^(-elapsed / window), so the average means the same at the 2 second active and
+ * the 60 second idle refresh interval. Smoothed rates under 1 byte per second are reported as 0
+ * so an idle peer settles instead of decaying forever.
+ *
+ * A columnar snapshot gets the same calculation on its rate columns, rows of the previous
+ * snapshot are found through its key index without building peer objects.
+ */
+class ThroughputCalculator {
+    private static final double SETTLED_BYTES_PER_SECOND = 1.0;
+
+    private final long smoothingWindowMs;
+
+    ThroughputCalculator(long smoothingWindowMs) {
+        if (smoothingWindowMs <= 0) {
+            throw new IllegalArgumentException("rate smoothing window must be positive");
+        }
+        this.smoothingWindowMs = smoothingWindowMs;
+    }
+
+    /**
+     * @param previous WireguardConnectionData - the published snapshot, its rates are the EWMA state
+     * @param current WireguardConnectionData - the unpublished snapshot to derive from, its peers and networks are not changed
+     * @param currentEpochMillis long - when current was taken
+     * @return WireguardConnectionData - current with the rates filled in
+     */
+    WireguardConnectionData apply(WireguardConnectionData previous, WireguardConnectionData current, long currentEpochMillis) {
+        long elapsedMs = currentEpochMillis - previous.getRefreshedEpochMillis();
+        boolean hasPrevious = previous.getVersion() > 0 && elapsedMs > 0;
+        double weight = hasPrevious ? 1 - Math.exp(-(double) elapsedMs / smoothingWindowMs) : 0;
+
+        if (current.getColumns() != null) {
+            // the table is still private to this refresh, its rate columns are filled in place
+            applyColumnar(hasPrevious ? previous : null, current.getColumns(), elapsedMs, weight);
+            return current.derive(null, ThroughputCalculator::withPeerSums);
+        }
+        return current.derive(peer -> {
+            ClientConnectionInformation before = hasPrevious ? previous.getPeersByPublicKey().get(peer.getPublicKey()) : null;
+            if (before == null) {
+                // nothing to compare a new peer with, it starts out idle rather than unknown so
+                // that an unchanged dump keeps producing an unchanged snapshot
+                return peer.withRates(0.0, 0.0, 0.0, 0.0);
+            }
+            double rx = rate(before.getBytesReceived(), peer.getBytesReceived(), elapsedMs);
+            double tx = rate(before.getBytesSent(), peer.getBytesSent(), elapsedMs);
+            return peer.withRates(rx, tx,
+                    smooth(before.getSmoothedReceiveBytesPerSecond(), rx, weight),
+                    smooth(before.getSmoothedSendBytesPerSecond(), tx, weight));
+        }, ThroughputCalculator::withPeerSums);
+    }
+
+    private void applyColumnar(WireguardConnectionData previous, ColumnarPeerTable current, long elapsedMs, double weight) {
+        ColumnarPeerTable previousColumns = previous != null ? previous.getColumns() : null;
+        for (int row = 0; row < current.size(); row++) {
+            long rxBefore;
+            long txBefore;
+            Double smoothedRxBefore;
+            Double smoothedTxBefore;
+            if (previousColumns != null) {
+                int before = previousColumns.rowOf(current, row);
+                if (before < 0) {
+                    continue;
+                }
+                rxBefore = previousColumns.bytesReceived(before);
+                txBefore = previousColumns.bytesSent(before);
+                smoothedRxBefore = previousColumns.smoothedReceiveRate(before);
+                smoothedTxBefore = previousColumns.smoothedSendRate(before);
+            } else {
+                // the first columnar snapshot after an object one
+                ClientConnectionInformation before = previous != null
+                        ? previous.getPeersByPublicKey().get(current.publicKey(row)) : null;
+                if (before == null) {
+                    continue;
+                }
+                rxBefore = before.getBytesReceived() == null ? 0 : before.getBytesReceived();
+                txBefore = before.getBytesSent() == null ? 0 : before.getBytesSent();
+                smoothedRxBefore = before.getSmoothedReceiveBytesPerSecond();
+                smoothedTxBefore = before.getSmoothedSendBytesPerSecond();
+            }
+            // rows without a previous peer keep the 0 rates the table starts with
+            double rx = rate(rxBefore, current.bytesReceived(row), elapsedMs);
+            double tx = rate(txBefore, current.bytesSent(row), elapsedMs);
+            current.setRates(row, rx, tx, smooth(smoothedRxBefore, rx, weight), smooth(smoothedTxBefore, tx, weight));
+        }
+    }
+
+    private static NetworkConnectionInformation withPeerSums(NetworkConnectionInformation network) {
+        double rx = 0;
+        double tx = 0;
+        double smoothedRx = 0;
+        double smoothedTx = 0;
+        for (ClientConnectionInformation peer : network.getPeers().values()) {
+            rx += valueOf(peer.getReceiveBytesPerSecond());
+            tx += valueOf(peer.getSendBytesPerSecond());
+            smoothedRx += valueOf(peer.getSmoothedReceiveBytesPerSecond());
+            smoothedTx += valueOf(peer.getSmoothedSendBytesPerSecond());
+        }
+        return network.withRates(rx, tx, smoothedRx, smoothedTx);
+    }
+
+    private static double rate(Long before, Long after, long elapsedMs) {
+        long previousBytes = before == null ? 0 : before;
+        long currentBytes = after == null ? 0 : after;
+        // a reset counter restarted at 0, everything it shows now was transferred since
+        long delta = currentBytes >= previousBytes ? currentBytes - previousBytes : currentBytes;
+        return delta * 1000.0 / elapsedMs;
+    }
+
+    private static double smooth(Double previous, double sample, double weight) {
+        double smoothed = previous == null ? sample : previous + weight * (sample - previous);
+        return smoothed < SETTLED_BYTES_PER_SECOND ? 0 : smoothed;
+    }
+
+    private static double valueOf(Double value) {
+        return value == null ? 0 : value;
+    }
+}
@@ -0,0 +1,407 @@
+package com.brcsrc.yaws.system;
+
+import com.brcsrc.yaws.system.WireguardInformationProvider.WireguardConnectionData;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Parses 'wg show all dump' output straight from the process stdout.
+ *
+ * The stream is read into a reusable byte buffer and tokenized in place on tabs and newlines,
+ * numeric fields are parsed from the bytes without building intermediate Strings. Keys,
+ * endpoints, allowed ips and interface names are interned in a table that lives across
+ * refreshes, so a peer whose fields did not change costs no String allocation at all. Entries
+ * not seen during a refresh are swept once they make up a quarter of the live ones.
+ *
+ * parseColumnar skips interning the peer keys and hands their bytes to a ColumnarPeerTable,
+ * which keeps them decoded in one byte array.
+ *
+ * Not thread safe, the provider parses from its single refresh thread and every InterfacePoller
+ * owns a parser of its own.
+ *
+ * Format (tab-delimited):
+ * - Interface line: interface_name\tprivate_key\tpublic_key\tlisten_port\tfwmark
+ * - Peer lines: interface_name\tpeer_public_key\tpreshared_key\tendpoint\tallowed_ips\tlatest_handshake\ttransfer_rx\ttransfer_tx\tpersistent_keepalive
+ *
+ * 'wg show <interface> dump' prints the same lines without the interface_name column, parse them
+ * with parse(stdout, interfaceName).
+ */
+class WgShowDumpParser {
+    private static final Logger logger = LoggerFactory.getLogger(WgShowDumpParser.class);
+
+    static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+    // peer lines have 9 fields, anything past that is counted but not tokenized
+    private static final int MAX_FIELDS = 9;
+
+    /**
+     * Receives the parsed lines. Counters are passed as primitives with 0 meaning absent,
+     * the same way 'wg' prints them.
+     */
+    interface Sink {
+        void onInterface(String interfaceName, String publicKey, int listeningPort);
+
+        void onPeer(String interfaceName, String publicKey, String presharedKey, String endpoint, String allowedIps,
+                    long latestHandshakeEpochSeconds, long bytesReceived, long bytesSent, long persistentKeepalive);
+    }
+
+    /**
+     * Receives the peer's public key as the bytes of the line instead of an interned String, for
+     * sinks that store keys in binary. The range is only valid during the call.
+     */
+    interface RawKeySink {
+        void onInterface(String interfaceName, String publicKey, int listeningPort);
+
+        void onPeer(String interfaceName, byte[] buffer, int keyStart, int keyEnd, String presharedKey, String endpoint,
+                    String allowedIps, long latestHandshakeEpochSeconds, long bytesReceived, long bytesSent,
+                    long persistentKeepalive);
+    }
+
+    private final StringInterner interner = new StringInterner();
+    private final int[] fieldStarts = new int[MAX_FIELDS];
+    private final int[] fieldEnds = new int[MAX_FIELDS];
+    private byte[] buffer;
+    // set while parsing the dump of a single interface, whose lines have no interface column
+    private String fixedInterfaceName;
+
+    WgShowDumpParser() {
+        this(DEFAULT_BUFFER_SIZE);
+    }
+
+    WgShowDumpParser(int bufferSize) {
+        this.buffer = new byte[bufferSize];
+    }
+
+    /**
+     * Parses the dump into a new, unversioned WireguardConnectionData
+     */
+    WireguardConnectionData parse(InputStream stdout) throws IOException {
+        WireguardConnectionData.Builder builder = WireguardConnectionData.builder();
+        parse(stdout, new ConnectionDataSink(builder));
+        return builder.build();
+    }
+
+    /**
+     * Parses the dump of one interface, 'wg show <interface> dump', into a new, unversioned
+     * WireguardConnectionData
+     */
+    WireguardConnectionData parse(InputStream stdout, String interfaceName) throws IOException {
+        fixedInterfaceName = interfaceName;
+        try {
+            return parse(stdout);
+        } finally {
+            fixedInterfaceName = null;
+        }
+    }
+
+    /**
+     * Parses the dump into a new, unversioned WireguardConnectionData backed by a ColumnarPeerTable
+     * @param expectedPeers int - initial capacity of the columns, the previous refresh's peer count
+     */
+    WireguardConnectionData parseColumnar(InputStream stdout, int expectedPeers) throws IOException {
+        ColumnarPeerTable.Builder builder = ColumnarPeerTable.builder(expectedPeers);
+        parse(stdout, null, builder);
+        return WireguardConnectionData.fromColumns(builder.networks(), builder.build());
+    }
+
+    void parse(InputStream stdout, Sink sink) throws IOException {
+        parse(stdout, sink, null);
+    }
+
+    // exactly one of sink and rawKeySink receives the lines
+    private void parse(InputStream stdout, Sink sink, RawKeySink rawKeySink) throws IOException {
+        interner.startGeneration();
+        int start = 0;
+        int end = 0;
+        int scanFrom = 0;
+        while (true) {
+            // hand every complete line in the buffer to the tokenizer
+            for (int i = scanFrom; i < end; i++) {
+                if (buffer[i] == '\n') {
+                    parseLine(start, i, sink, rawKeySink);
+                    start = i + 1;
+                }
+            }
+            if (start == end) {
+                start = 0;
+                end = 0;
+            } else if (start > 0) {
+                // move the partial line to the front of the buffer
+                System.arraycopy(buffer, start, buffer, 0, end - start);
+                end -= start;
+                start = 0;
+            } else if (end == buffer.length) {
+                // a single line longer than the buffer
+                buffer = Arrays.copyOf(buffer, buffer.length * 2);
+            }
+            scanFrom = end;
+
+            int read = stdout.read(buffer, end, buffer.length - end);
+            if (read == -1) {
+                break;
+            }
+            end += read;
+        }
+        if (start < end) {
+            // output without a trailing newline
+            parseLine(start, end, sink, rawKeySink);
+        }
+        interner.endGeneration();
+    }
+
+    private void parseLine(int start, int end, Sink sink, RawKeySink rawKeySink) {
+        if (isBlank(start, end)) {
+            return;
+        }
+
+        int fieldCount = 0;
+        if (fixedInterfaceName != null) {
+            // field 0 is the interface column the single interface dump leaves out
+            fieldStarts[0] = start;
+            fieldEnds[0] = start;
+            fieldCount = 1;
+        }
+        int fieldStart = start;
+        for (int i = start; i <= end; i++) {
+            if (i == end || buffer[i] == '\t') {
+                if (fieldCount < MAX_FIELDS) {
+                    fieldStarts[fieldCount] = fieldStart;
+                    fieldEnds[fieldCount] = i;
+                }
+                fieldCount++;
+                fieldStart = i + 1;
+            }
+        }
+        // String.split drops trailing empty fields, keep counting the same way the old parser did
+        while (fieldCount > 0 && fieldCount <= MAX_FIELDS && fieldStarts[fieldCount - 1] == fieldEnds[fieldCount - 1]) {
+            fieldCount--;
+        }
+
+        if (fieldCount < 4) {
+            logger.warn("Skipping malformed line in wg show dump output: {}", lineToString(start, end));
+            return;
+        }
+
+        if (fieldCount == 5) {
+            // the private key in field 1 is never turned into a String
+            if (rawKeySink != null) {
+                rawKeySink.onInterface(intern(0), intern(2), (int) parseNumber(3));
+                return;
+            }
+            sink.onInterface(
+                    intern(0),
+                    intern(2),
+                    (int) parseNumber(3)
+            );
+        } else if (fieldCount >= 8 && rawKeySink != null) {
+            rawKeySink.onPeer(
+                    intern(0),
+                    buffer,
+                    fieldStarts[1],
+                    fieldEnds[1],
+                    intern(2),
+                    intern(3),
+                    intern(4),
+                    parseNumber(5),
+                    parseNumber(6),
+                    parseNumber(7),
+                    fieldCount > 8 ? parseNumber(8) : 0
+            );
+        } else if (fieldCount >= 8) {
+            sink.onPeer(
+                    intern(0),
+                    intern(1),
+                    intern(2),
+                    intern(3),
+                    intern(4),
+                    parseNumber(5),
+                    parseNumber(6),
+                    parseNumber(7),
+                    fieldCount > 8 ? parseNumber(8) : 0
+            );
+        } else {
+            logger.warn("Unexpected number of fields ({}) in wg show dump line: {}", fieldCount, lineToString(start, end));
+        }
+    }
+
+    private String intern(int field) {
+        if (field == 0 && fixedInterfaceName != null) {
+            return fixedInterfaceName;
+        }
+        return interner.intern(buffer, fieldStarts[field], fieldEnds[field]);
+    }
+
+    /**
+     * Parses an unsigned decimal field, anything else ('off', empty, overflow) is 0
+     */
+    private long parseNumber(int field) {
+        int start = fieldStarts[field];
+        int end = fieldEnds[field];
+        if (start == end || end - start > 18) {
+            return 0;
+        }
+        long value = 0;
+        for (int i = start; i < end; i++) {
+            int digit = buffer[i] - '0';
+            if (digit < 0 || digit > 9) {
+                return 0;
+            }
+            value = value * 10 + digit;
+        }
+        return value;
+    }
+
+    private boolean isBlank(int start, int end) {
+        for (int i = start; i < end; i++) {
+            if ((buffer[i] & 0xff) > ' ') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private String lineToString(int start, int end) {
+        return new String(buffer, start, end - start, StandardCharsets.UTF_8);
+    }
+
+    int internedCount() {
+        return interner.size;
+    }
+
+    /**
+     * Builds the provider's maps, keeping the old null-for-zero convention of the boxed counters
+     */
+    static class ConnectionDataSink implements Sink {
+        private final WireguardConnectionData.Builder builder;
+
+        ConnectionDataSink(WireguardConnectionData.Builder builder) {
+            this.builder = builder;
+        }
+
+        @Override
+        public void onInterface(String interfaceName, String publicKey, int listeningPort) {
+            builder.addNetwork(new NetworkConnectionInformation(interfaceName, publicKey, listeningPort));
+        }
+
+        @Override
+        public void onPeer(String interfaceName, String publicKey, String presharedKey, String endpoint, String allowedIps,
+                           long latestHandshakeEpochSeconds, long bytesReceived, long bytesSent, long persistentKeepalive) {
+            ClientConnectionInformation clientInfo = new ClientConnectionInformation(
+                    publicKey,
+                    presharedKey,
+                    endpoint,
+                    allowedIps,
+                    boxOrNull(latestHandshakeEpochSeconds),
+                    boxOrNull(bytesReceived),
+                    boxOrNull(bytesSent),
+                    boxOrNull(persistentKeepalive)
+            );
+            if (!builder.hasInterface(interfaceName)) {
+                logger.warn("Peer {} belongs to unknown interface {}", publicKey, interfaceName);
+            }
+            builder.addPeer(interfaceName, clientInfo);
+        }
+
+        private static Long boxOrNull(long value) {
+            return value == 0 ? null : value;
+        }
+    }
+
+    /**
+     * Open addressing table from byte ranges to Strings. Each entry remembers the generation
+     * (refresh) it was last looked up in so stale endpoints and removed peers can be dropped.
+     */
+    private static class StringInterner {
+        private static final int INITIAL_CAPACITY = 1024;
+        private static final int MIN_STALE_TO_SWEEP = 256;
+
+        private byte[][] keys = new byte[INITIAL_CAPACITY][];
+        private String[] values = new String[INITIAL_CAPACITY];
+        private int[] hashes = new int[INITIAL_CAPACITY];
+        private int[] lastSeen = new int[INITIAL_CAPACITY];
+        private int size = 0;
+        private int generation = 0;
+        private int seenThisGeneration = 0;
+
+        void startGeneration() {
+            generation++;
+            seenThisGeneration = 0;
+        }
+
+        void endGeneration() {
+            int stale = size - seenThisGeneration;
+            if (stale > MIN_STALE_TO_SWEEP && stale > seenThisGeneration / 4) {
+                rehash(keys.length, true);
+            }
+        }
+
+        String intern(byte[] buffer, int start, int end) {
+            int hash = 1;
+            for (int i = start; i < end; i++) {
+                hash = 31 * hash + buffer[i];
+            }
+            int mask = keys.length - 1;
+            int slot = spread(hash) & mask;
+            while (keys[slot] != null) {
+                if (hashes[slot] == hash && Arrays.equals(keys[slot], 0, keys[slot].length, buffer, start, end)) {
+                    markSeen(slot);
+                    return values[slot];
+                }
+                slot = (slot + 1) & mask;
+            }
+
+            keys[slot] = Arrays.copyOfRange(buffer, start, end);
+            values[slot] = new String(keys[slot], StandardCharsets.UTF_8);
+            hashes[slot] = hash;
+            lastSeen[slot] = generation;
+            seenThisGeneration++;
+            String value = values[slot];
+            if (++size > keys.length / 2) {
+                rehash(keys.length * 2, false);
+            }
+            return value;
+        }
+
+        private void markSeen(int slot) {
+            if (lastSeen[slot] != generation) {
+                lastSeen[slot] = generation;
+                seenThisGeneration++;
+            }
+        }
+
+        private void rehash(int capacity, boolean dropStale) {
+            byte[][] oldKeys = keys;
+            String[] oldValues = values;
+            int[] oldHashes = hashes;
+            int[] oldLastSeen = lastSeen;
+            keys = new byte[capacity][];
+            values = new String[capacity];
+            hashes = new int[capacity];
+            lastSeen = new int[capacity];
+            size = 0;
+            int mask = capacity - 1;
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldKeys[i] == null || (dropStale && oldLastSeen[i] != generation)) {
+                    continue;
+                }
+                int slot = spread(oldHashes[i]) & mask;
+                while (keys[slot] != null) {
+                    slot = (slot + 1) & mask;
+                }
+                keys[slot] = oldKeys[i];
+                values[slot] = oldValues[i];
+                hashes[slot] = oldHashes[i];
+                lastSeen[slot] = oldLastSeen[i];
+                size++;
+            }
+        }
+
+        private static int spread(int hash) {
+            return hash ^ (hash >>> 16);
+        }
+    }
+}
@@ -0,0 +1,14 @@
+package com.brcsrc.yaws.system;
+
+/**
+ * Notified by WireguardInformationProvider after every successful refresh, on the thread that ran
+ * it. Calls never overlap, even when interfaces are polled in parallel. Implementations should
+ * hand off anything slow, the next refresh waits for all listeners.
+ */
+@FunctionalInterface
+public interface WireguardChangeListener {
+    /**
+     * @param diff WireguardConnectionDiff - changes since the previous refresh, may be empty
+     */
+    void onChange(WireguardConnectionDiff diff);
+}
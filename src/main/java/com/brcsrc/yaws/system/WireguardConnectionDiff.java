@@ -0,0 +1,259 @@
+package com.brcsrc.yaws.system;
+
+import com.brcsrc.yaws.system.WireguardInformationProvider.WireguardConnectionData;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * Structural difference between two consecutive WireguardConnectionData snapshots.
+ *
+ * Computed by walking the current snapshot's key indexed maps and looking each entry up in the
+ * previous one, then walking the previous maps once more for removals. When both snapshots were
+ * composed from per-interface partials only the partials that differ are walked, so the diff of
+ * a single interface's poll costs what that interface holds. Nothing is copied, the diff only
+ * holds references to entries of the two snapshots, and both snapshots are never modified after
+ * they are published so those references stay valid.
+ */
+public class WireguardConnectionDiff {
+
+    /**
+     * A peer present in both snapshots whose state moved
+     */
+    public record PeerChange(
+            String publicKey,
+            ClientConnectionInformation previous,
+            ClientConnectionInformation current,
+            boolean handshakeAdvanced,
+            boolean transferChanged,
+            boolean endpointChanged,
+            boolean allowedIpsChanged,
+            boolean ratesChanged
+    ) {}
+
+    /**
+     * A network present in both snapshots whose own fields or peer set moved
+     */
+    public record NetworkChange(
+            String publicKey,
+            NetworkConnectionInformation previous,
+            NetworkConnectionInformation current,
+            boolean listeningPortChanged,
+            boolean peersChanged
+    ) {}
+
+    private final WireguardConnectionData previous;
+    private final WireguardConnectionData current;
+    private final List<ClientConnectionInformation> addedPeers = new ArrayList<>();
+    private final List<ClientConnectionInformation> removedPeers = new ArrayList<>();
+    private final Map<String, PeerChange> changedPeers = new HashMap<>();
+    private final List<NetworkConnectionInformation> addedNetworks = new ArrayList<>();
+    private final List<NetworkConnectionInformation> removedNetworks = new ArrayList<>();
+    private final Map<String, NetworkChange> changedNetworks = new HashMap<>();
+
+    private WireguardConnectionDiff(WireguardConnectionData previous, WireguardConnectionData current) {
+        this.previous = previous;
+        this.current = current;
+    }
+
+    /**
+     * @param previous WireguardConnectionData - the snapshot that was replaced
+     * @param current WireguardConnectionData - the snapshot that replaced it
+     * @return WireguardConnectionDiff - what changed from previous to current
+     */
+    public static WireguardConnectionDiff between(WireguardConnectionData previous, WireguardConnectionData current) {
+        WireguardConnectionDiff diff = new WireguardConnectionDiff(previous, current);
+        diff.diffPeers();
+        diff.diffNetworks();
+        return diff;
+    }
+
+    private void diffPeers() {
+        Map<String, ClientConnectionInformation> previousPeers = previous.getPeersByPublicKey();
+        Map<String, ClientConnectionInformation> currentPeers = current.getPeersByPublicKey();
+        Set<String> visited = new HashSet<>();
+
+        for (WireguardConnectionData part : current.partsChangedSince(previous)) {
+            for (Map.Entry<String, ClientConnectionInformation> entry : part.getPeersByPublicKey().entrySet()) {
+                // an entry shadowed by another interface is compared through the one that shadows it,
+                // a snapshot that was not composed has no such entries and may build its values per lookup
+                if ((part != current && currentPeers.get(entry.getKey()) != entry.getValue()) || !visited.add(entry.getKey())) {
+                    continue;
+                }
+                ClientConnectionInformation before = previousPeers.get(entry.getKey());
+                if (before == null) {
+                    addedPeers.add(entry.getValue());
+                } else {
+                    comparePeers(entry.getKey(), before, entry.getValue());
+                }
+            }
+        }
+
+        for (WireguardConnectionData part : previous.partsChangedSince(current)) {
+            for (Map.Entry<String, ClientConnectionInformation> entry : part.getPeersByPublicKey().entrySet()) {
+                if (part != previous && previousPeers.get(entry.getKey()) != entry.getValue()) {
+                    continue;
+                }
+                ClientConnectionInformation after = currentPeers.get(entry.getKey());
+                if (after == null) {
+                    removedPeers.add(entry.getValue());
+                } else if (visited.add(entry.getKey())) {
+                    // still there through an interface that was not polled
+                    comparePeers(entry.getKey(), entry.getValue(), after);
+                }
+            }
+        }
+    }
+
+    private void comparePeers(String publicKey, ClientConnectionInformation before, ClientConnectionInformation after) {
+        boolean handshakeAdvanced = valueOf(after.getLatestHandshakeEpochSeconds()) > valueOf(before.getLatestHandshakeEpochSeconds());
+        // a counter going down means the interface was recreated, report that as a change too
+        boolean transferChanged = !Objects.equals(before.getBytesReceived(), after.getBytesReceived())
+                || !Objects.equals(before.getBytesSent(), after.getBytesSent());
+        boolean endpointChanged = !Objects.equals(before.getEndpoint(), after.getEndpoint());
+        boolean allowedIpsChanged = !Objects.equals(before.getAllowedIps(), after.getAllowedIps());
+        // rates fall back to 0 without the counters moving, so they are compared on their own
+        boolean ratesChanged = !Objects.equals(before.getReceiveBytesPerSecond(), after.getReceiveBytesPerSecond())
+                || !Objects.equals(before.getSendBytesPerSecond(), after.getSendBytesPerSecond())
+                || !Objects.equals(before.getSmoothedReceiveBytesPerSecond(), after.getSmoothedReceiveBytesPerSecond())
+                || !Objects.equals(before.getSmoothedSendBytesPerSecond(), after.getSmoothedSendBytesPerSecond());
+        if (handshakeAdvanced || transferChanged || endpointChanged || allowedIpsChanged || ratesChanged) {
+            changedPeers.put(publicKey, new PeerChange(publicKey, before, after,
+                    handshakeAdvanced, transferChanged, endpointChanged, allowedIpsChanged, ratesChanged));
+        }
+    }
+
+    private void diffNetworks() {
+        Map<String, NetworkConnectionInformation> previousNetworks = previous.getNetworksByPublicKey();
+        Map<String, NetworkConnectionInformation> currentNetworks = current.getNetworksByPublicKey();
+        Set<String> visited = new HashSet<>();
+
+        for (WireguardConnectionData part : current.partsChangedSince(previous)) {
+            for (Map.Entry<String, NetworkConnectionInformation> entry : part.getNetworksByPublicKey().entrySet()) {
+                if ((part != current && currentNetworks.get(entry.getKey()) != entry.getValue()) || !visited.add(entry.getKey())) {
+                    continue;
+                }
+                NetworkConnectionInformation before = previousNetworks.get(entry.getKey());
+                if (before == null) {
+                    addedNetworks.add(entry.getValue());
+                } else {
+                    compareNetworks(entry.getKey(), before, entry.getValue());
+                }
+            }
+        }
+
+        for (WireguardConnectionData part : previous.partsChangedSince(current)) {
+            for (Map.Entry<String, NetworkConnectionInformation> entry : part.getNetworksByPublicKey().entrySet()) {
+                if (part != previous && previousNetworks.get(entry.getKey()) != entry.getValue()) {
+                    continue;
+                }
+                NetworkConnectionInformation after = currentNetworks.get(entry.getKey());
+                if (after == null) {
+                    removedNetworks.add(entry.getValue());
+                } else if (visited.add(entry.getKey())) {
+                    compareNetworks(entry.getKey(), entry.getValue(), after);
+                }
+            }
+        }
+    }
+
+    private void compareNetworks(String publicKey, NetworkConnectionInformation before, NetworkConnectionInformation after) {
+        boolean listeningPortChanged = before.getListeningPort() != after.getListeningPort();
+        boolean peersChanged = hasPeerChanges(before, after);
+        if (listeningPortChanged || peersChanged) {
+            changedNetworks.put(publicKey, new NetworkChange(publicKey, before, after, listeningPortChanged, peersChanged));
+        }
+    }
+
+    private boolean hasPeerChanges(NetworkConnectionInformation before, NetworkConnectionInformation after) {
+        if (before.getPeers().size() != after.getPeers().size()) {
+            return true;
+        }
+        // same size, so a peer moved in or out only if one of the current peers is new to this network
+        for (String peerKey : after.getPeers().keySet()) {
+            if (changedPeers.containsKey(peerKey) || !before.getPeers().containsKey(peerKey)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static long valueOf(Long value) {
+        return value == null ? 0 : value;
+    }
+
+    public WireguardConnectionData getPrevious() {
+        return previous;
+    }
+
+    public WireguardConnectionData getCurrent() {
+        return current;
+    }
+
+    public List<ClientConnectionInformation> getAddedPeers() {
+        return Collections.unmodifiableList(addedPeers);
+    }
+
+    public List<ClientConnectionInformation> getRemovedPeers() {
+        return Collections.unmodifiableList(removedPeers);
+    }
+
+    public Map<String, PeerChange> getChangedPeers() {
+        return Collections.unmodifiableMap(changedPeers);
+    }
+
+    public List<NetworkConnectionInformation> getAddedNetworks() {
+        return Collections.unmodifiableList(addedNetworks);
+    }
+
+    public List<NetworkConnectionInformation> getRemovedNetworks() {
+        return Collections.unmodifiableList(removedNetworks);
+    }
+
+    public Map<String, NetworkChange> getChangedNetworks() {
+        return Collections.unmodifiableMap(changedNetworks);
+    }
+
+    /**
+     * @return Set of String - public keys of every peer that was added, removed or changed
+     */
+    public Set<String> getAffectedPeerKeys() {
+        Set<String> keys = new HashSet<>(changedPeers.keySet());
+        addedPeers.forEach(peer -> keys.add(peer.getPublicKey()));
+        removedPeers.forEach(peer -> keys.add(peer.getPublicKey()));
+        return keys;
+    }
+
+    /**
+     * @return Set of String - public keys of every network that was added, removed or changed
+     */
+    public Set<String> getAffectedNetworkKeys() {
+        Set<String> keys = new HashSet<>(changedNetworks.keySet());
+        addedNetworks.forEach(network -> keys.add(network.getPublicKey()));
+        removedNetworks.forEach(network -> keys.add(network.getPublicKey()));
+        return keys;
+    }
+
+    public boolean isEmpty() {
+        return addedPeers.isEmpty() && removedPeers.isEmpty() && changedPeers.isEmpty()
+                && addedNetworks.isEmpty() && removedNetworks.isEmpty() && changedNetworks.isEmpty();
+    }
+
+    @Override
+    public String toString() {
+        return "WireguardConnectionDiff{" +
+                "addedPeers=" + addedPeers.size() +
+                ", removedPeers=" + removedPeers.size() +
+                ", changedPeers=" + changedPeers.size() +
+                ", addedNetworks=" + addedNetworks.size() +
+                ", removedNetworks=" + removedNetworks.size() +
+                ", changedNetworks=" + changedNetworks.size() +
+                '}';
+    }
+}
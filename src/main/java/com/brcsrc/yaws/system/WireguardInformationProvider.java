@@ -1,25 +1,51 @@
 package com.brcsrc.yaws.system;
 
 import com.brcsrc.yaws.shell.CommandExecutor;
-import com.brcsrc.yaws.shell.ExecutionResult;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.env.Environment;
 import org.springframework.stereotype.Component;
 
 import jakarta.annotation.PostConstruct;
 import jakarta.annotation.PreDestroy;
-import java.util.concurrent.ConcurrentHashMap;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Function;
+import java.util.function.UnaryOperator;
+import java.util.regex.Pattern;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
 import java.util.Map;
 
 /**
  * Provides cached WireGuard connection information for all networks and clients.
  * This singleton-style component maintains an in-memory cache of connection data
- * from 'wg show dump' that is refreshed every 5 seconds in the background.
+ * from 'wg show dump' that is refreshed in the background.
  *
  * Startup Sequence:
  * 1. Application starts - Spring Boot begins initializing
@@ -33,54 +59,156 @@ import java.util.Map;
  *    - Calls @PostConstruct initialize() on WireguardInformationProvider
  * 4. initialize() runs:
  *    - Performs initial wg show dump (gets current state)
- *    - Starts background scheduler (refreshes every 5000ms)
+ *    - Schedules the next refresh at the idle interval
  * 5. StartupTasks.restartActiveNetworks() runs (via @Async):
  *    - Restarts all active WireGuard networks
  *    - Runs independently/asynchronously
  *
+ * Refresh Scheduling:
+ * - The yaws.wireguard.* properties are read into a WireguardRefreshSettings, the provider keeps
+ *   the schedule, versions, listeners and waiters and leaves reading to a RefreshStrategy,
+ *   FullDumpRefresh or PerInterfaceRefresh
+ * - IDLE: nobody is streaming, refresh every yaws.wireguard.refresh.idle-interval-ms (default 60s)
+ * - ACTIVE: at least one SSE stream is open, refresh every yaws.wireguard.refresh.active-interval-ms
+ *   (default 2s). Streams call acquireSubscriber() / releaseSubscriber()
+ * - Each refresh schedules the next one, so a change of mode takes effect on the following refresh.
+ *   Going from IDLE to ACTIVE refreshes immediately so the first subscriber does not wait out
+ *   the idle interval
+ * - With yaws.wireguard.refresh.per-interface every interface is polled on its own with
+ *   'wg show <interface> dump' by an InterfacePoller of PerInterfaceRefresh, on a bounded pool of
+ *   yaws.wireguard.refresh.interface-pool-size threads. Each interface follows its own schedule,
+ *   the interfaces' first polls are spread over the interval so their forks do not line up, and
+ *   each poll replaces only its interface's entries in the published snapshot. The refresh
+ *   schedule above then only runs 'wg show interfaces' to start and stop pollers, a requested
+ *   refresh polls every interface
+ * - With yaws.wireguard.source=netlink the snapshot is read over generic netlink by a
+ *   WireguardNetlinkReader instead of forking 'wg show all dump'. The command stays the fallback,
+ *   it is used when the socket can not be opened and for any refresh the netlink read fails.
+ *   Per-interface polling still uses the command, columnar snapshots are not read over netlink
+ * - With yaws.wireguard.snapshot.columnar the peers of a snapshot are stored in a ColumnarPeerTable,
+ *   primitive columns instead of an object per peer, for hosts monitoring tens of thousands of peers
+ * - Before a snapshot is published, ThroughputCalculator fills in instantaneous and smoothed
+ *   transfer rates per peer and per network from the counters of the previous snapshot
+ * - After every successful refresh the diff against the previous snapshot is passed to the
+ *   registered WireguardChangeListeners
+ * - awaitVersion() lets callers such as long-polling requests wait for the next snapshot
+ *   without holding a thread, the refresh that publishes it completes their futures
+ * - requestRefresh() runs one refresh as soon as possible, requests made while one is pending
+ *   are coalesced into it. Used after mutations such as adding or removing a client
+ *
  * Thread Safety:
  * - Uses AtomicReference for the main data holder
- * - Uses ConcurrentHashMap for all internal maps
+ * - Each refresh publishes a new immutable, versioned WireguardConnectionData, readers get
+ *   views of it without copying
+ * - All refreshes run on the single scheduler thread, so two never overlap. With per-interface
+ *   polling snapshots are published under a lock, so versions and listener calls stay sequential
  * - Safe for concurrent access from multiple SSE endpoints
  */
 @Component
 public class WireguardInformationProvider {
     private static final Logger logger = LoggerFactory.getLogger(WireguardInformationProvider.class);
-    private static final long REFRESH_INTERVAL_MS = 5000;
-    private static final String WG_SHOW_DUMP_COMMAND = "wg show all dump";
+    // what the kernel accepts as an interface name, anything else is never put into a command
+    static final Pattern INTERFACE_NAME = Pattern.compile("[A-Za-z0-9_=+.-]{1,15}");
+
+    static final String SOURCE_PROPERTY = "yaws.wireguard.source";
+    static final String SOURCE_NETLINK = "netlink";
+
+    public enum RefreshMode {
+        IDLE,
+        ACTIVE
+    }
+
+    public record RefreshStatus(
+            RefreshMode mode,
+            long effectiveIntervalMs,
+            long idleIntervalMs,
+            long activeIntervalMs,
+            int subscribers,
+            Long lastRefreshEpochMillis,
+            Long nextRefreshInMs
+    ) {}
 
     private final AtomicReference<WireguardConnectionData> connectionDataRef;
+    private final AtomicLong versionCounter = new AtomicLong();
     private final ScheduledExecutorService scheduler;
-    private final CommandExecutor commandExecutor;
+    private final WireguardRefreshSettings settings;
+    private final long idleIntervalMs;
+    private final long activeIntervalMs;
+    private final RefreshStrategy refreshStrategy;
+    private final Object publishLock = new Object();
+
+    private final AtomicInteger subscribers = new AtomicInteger();
+    private final AtomicBoolean refreshRequested = new AtomicBoolean(false);
+    private final Object scheduleLock = new Object();
+    private ScheduledFuture<?> nextRefresh;
+    private volatile long lastRefreshEpochMillis = 0;
+    private final List<WireguardChangeListener> changeListeners = new CopyOnWriteArrayList<>();
+    private final Queue<VersionWaiter> versionWaiters = new ConcurrentLinkedQueue<>();
+
+    private record VersionWaiter(long minVersion, CompletableFuture<WireguardConnectionData> future) {}
 
     @Autowired
-    public WireguardInformationProvider(CommandExecutor commandExecutor) {
-        this.commandExecutor = commandExecutor;
-        this.connectionDataRef = new AtomicReference<>(new WireguardConnectionData());
-        this.scheduler = Executors.newSingleThreadScheduledExecutor();
+    public WireguardInformationProvider(CommandExecutor commandExecutor, Environment env) {
+        this(
+            commandExecutor,
+            Executors.newSingleThreadScheduledExecutor(),
+            WireguardRefreshSettings.fromEnvironment(env),
+            SOURCE_NETLINK.equals(env.getProperty(SOURCE_PROPERTY, String.class, "command")) ? openNetlinkReader() : null
+        );
+    }
+
+    private static WireguardNetlinkReader openNetlinkReader() {
+        try {
+            return WireguardNetlinkReader.open();
+        } catch (IOException | LinkageError e) {
+            // LinkageError when the JVM was started without --enable-preview, see FfmNetlinkTransport
+            logger.warn("Could not open a netlink socket, reading WireGuard state with '{}' instead: {}",
+                FullDumpRefresh.WG_SHOW_DUMP_COMMAND, e.toString());
+            return null;
+        }
     }
 
     // Constructor for testing
     WireguardInformationProvider(CommandExecutor commandExecutor, ScheduledExecutorService scheduler) {
-        this.commandExecutor = commandExecutor;
+        this(commandExecutor, scheduler, WireguardRefreshSettings.defaults());
+    }
+
+    WireguardInformationProvider(CommandExecutor commandExecutor, ScheduledExecutorService scheduler,
+                                 WireguardRefreshSettings settings) {
+        this(commandExecutor, scheduler, settings, null);
+    }
+
+    /**
+     * @param netlinkReader WireguardNetlinkReader - reads the single snapshot refresh instead of 'wg show all dump', may be null
+     */
+    WireguardInformationProvider(CommandExecutor commandExecutor, ScheduledExecutorService scheduler,
+                                 WireguardRefreshSettings settings, WireguardNetlinkReader netlinkReader) {
         this.connectionDataRef = new AtomicReference<>(new WireguardConnectionData());
         this.scheduler = scheduler;
+        this.settings = settings;
+        this.idleIntervalMs = settings.idleIntervalMs();
+        this.activeIntervalMs = settings.activeIntervalMs();
+        ThroughputCalculator throughputCalculator = new ThroughputCalculator(settings.rateSmoothingWindowMs());
+        this.refreshStrategy = settings.perInterface()
+            ? new PerInterfaceRefresh(commandExecutor, throughputCalculator, settings.interfacePoolSize(),
+                this::getEffectiveIntervalMs, this::publish)
+            : new FullDumpRefresh(commandExecutor, throughputCalculator, settings.columnarSnapshots(), netlinkReader,
+                this::publish, connectionDataRef::get);
     }
 
     @PostConstruct
     public void initialize() {
-        logger.info("Initializing WireguardInformationProvider with {}ms refresh interval", REFRESH_INTERVAL_MS);
+        logger.info("Initializing WireguardInformationProvider with {}ms idle and {}ms active refresh interval",
+            idleIntervalMs, activeIntervalMs);
+        if (settings.perInterface() && settings.columnarSnapshots()) {
+            logger.warn("{} is ignored while interfaces are polled one by one",
+                WireguardRefreshSettings.COLUMNAR_SNAPSHOT_PROPERTY);
+        }
 
         // Initial fetch
         refreshConnectionData();
 
-        // Schedule periodic refresh
-        scheduler.scheduleAtFixedRate(
-            this::refreshConnectionData,
-            REFRESH_INTERVAL_MS,
-            REFRESH_INTERVAL_MS,
-            TimeUnit.MILLISECONDS
-        );
+        scheduleNextRefresh(getEffectiveIntervalMs());
 
         logger.info("WireguardInformationProvider initialized successfully");
     }
@@ -97,142 +225,207 @@ public class WireguardInformationProvider {
             scheduler.shutdownNow();
             Thread.currentThread().interrupt();
         }
+        refreshStrategy.close();
     }
 
-    void refreshConnectionData() {
-        try {
-            ExecutionResult result = commandExecutor.runCommand(WG_SHOW_DUMP_COMMAND);
-
-            if (result.getExitCode() != 0) {
-                logger.error("Failed to execute '{}': exit code {}, stderr: {}",
-                    WG_SHOW_DUMP_COMMAND, result.getExitCode(), result.getStderr());
-                return;
+    /**
+     * Registers an open stream, the provider refreshes at the active interval while any are registered
+     */
+    public void acquireSubscriber() {
+        if (subscribers.incrementAndGet() == 1) {
+            logger.debug("First subscriber connected, switching to {}ms refresh interval", activeIntervalMs);
+            // do not leave the first subscriber waiting for the rest of an idle interval, but a
+            // client that reconnects right after a refresh does not get one earlier than the
+            // active interval would give it either
+            long sinceLastRefresh = System.currentTimeMillis() - lastRefreshEpochMillis;
+            // pollers only pick up the active interval after their next poll, poll them all now
+            if (sinceLastRefresh >= activeIntervalMs || refreshStrategy.readsOnOwnSchedules()) {
+                requestRefresh();
+            } else {
+                scheduleNextRefresh(activeIntervalMs - sinceLastRefresh);
             }
-
-            WireguardConnectionData newData = parseWgShowDump(result.getStdout());
-            connectionDataRef.set(newData);
-
-            logger.debug("Successfully refreshed WireGuard connection data: {} interfaces, {} total peers",
-                newData.getNetworksByPublicKey().size(),
-                newData.getPeersByPublicKey().size());
-
-        } catch (Exception e) {
-            logger.error("Error refreshing WireGuard connection data", e);
         }
     }
 
     /**
-     * Parses the output of 'wg show dump' command.
-     *
-     * Format (tab-delimited):
-     * - Interface line: interface_name\tprivate_key\tpublic_key\tlisten_port\tfwmark
-     * - Peer lines: interface_name\tpeer_public_key\tpreshared_key\tendpoint\tallowed_ips\tlatest_handshake\ttransfer_rx\ttransfer_tx\tpersistent_keepalive
+     * Must be called exactly once for each acquireSubscriber()
      */
-    WireguardConnectionData parseWgShowDump(String output) {
-        WireguardConnectionData data = new WireguardConnectionData();
+    public void releaseSubscriber() {
+        int remaining = subscribers.updateAndGet(count -> Math.max(0, count - 1));
+        if (remaining == 0) {
+            logger.debug("Last subscriber disconnected, switching to {}ms refresh interval", idleIntervalMs);
+        }
+    }
 
-        if (output == null || output.trim().isEmpty()) {
-            return data;
+    /**
+     * Refreshes as soon as the scheduler thread is free. Requests made before the pending
+     * refresh starts share it, a request made while a refresh is running gets a new one so
+     * it always observes state from after the request.
+     */
+    public void requestRefresh() {
+        if (!refreshRequested.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            scheduler.execute(this::runRequestedRefresh);
+        } catch (RejectedExecutionException e) {
+            refreshRequested.set(false);
+            logger.debug("Refresh requested after shutdown, ignoring");
         }
+    }
 
-        String[] lines = output.split("\n");
+    public RefreshMode getRefreshMode() {
+        return subscribers.get() > 0 ? RefreshMode.ACTIVE : RefreshMode.IDLE;
+    }
 
-        for (String line : lines) {
-            if (line.trim().isEmpty()) {
-                continue;
-            }
+    public long getEffectiveIntervalMs() {
+        return getRefreshMode() == RefreshMode.ACTIVE ? activeIntervalMs : idleIntervalMs;
+    }
 
-            String[] parts = line.split("\t");
+    public long getActiveIntervalMs() {
+        return activeIntervalMs;
+    }
 
-            if (parts.length < 4) {
-                logger.warn("Skipping malformed line in wg show dump output: {}", line);
-                continue;
-            }
+    public RefreshStatus getRefreshStatus() {
+        Long nextRefreshInMs;
+        synchronized (scheduleLock) {
+            nextRefreshInMs = nextRefresh == null || nextRefresh.isDone()
+                ? null
+                : Math.max(0, nextRefresh.getDelay(TimeUnit.MILLISECONDS));
+        }
+        long lastRefresh = lastRefreshEpochMillis;
+        return new RefreshStatus(
+            getRefreshMode(),
+            getEffectiveIntervalMs(),
+            idleIntervalMs,
+            activeIntervalMs,
+            subscribers.get(),
+            lastRefresh == 0 ? null : lastRefresh,
+            nextRefreshInMs
+        );
+    }
 
-            String interfaceName = parts[0];
+    /**
+     * Completes once a snapshot with at least minVersion is published, right away if the current
+     * one already is. No thread waits, the future is completed by the refresh that publishes the
+     * version. While pending it counts as a subscriber so refreshes run at the active interval,
+     * cancel the future to stop waiting.
+     * @param minVersion long - the version to wait for, usually the last seen version + 1
+     * @return CompletableFuture of WireguardConnectionData - the first snapshot with version >= minVersion
+     */
+    public CompletableFuture<WireguardConnectionData> awaitVersion(long minVersion) {
+        WireguardConnectionData current = connectionDataRef.get();
+        if (current.getVersion() >= minVersion) {
+            return CompletableFuture.completedFuture(current);
+        }
+        VersionWaiter waiter = new VersionWaiter(minVersion, new CompletableFuture<>());
+        waiter.future().whenComplete((data, error) -> {
+            versionWaiters.remove(waiter);
+            releaseSubscriber();
+        });
+        // acquired before the waiter is visible to a refresh, so the release can not come first
+        acquireSubscriber();
+        versionWaiters.add(waiter);
+        // a refresh may have published between the first check and registering the waiter
+        completeVersionWaiters(connectionDataRef.get());
+        return waiter.future();
+    }
 
-            // Interface line has 5 fields, peer line has 9 fields
-            if (parts.length == 5) {
-                // Interface line: interface_name, private_key, public_key, listen_port, fwmark
-                parseInterfaceLine(data, parts);
-            } else if (parts.length >= 8) {
-                // Peer line: interface_name, peer_public_key, preshared_key, endpoint, allowed_ips,
-                //            latest_handshake, transfer_rx, transfer_tx, [persistent_keepalive]
-                parsePeerLine(data, parts);
-            } else {
-                logger.warn("Unexpected number of fields ({}) in wg show dump line: {}", parts.length, line);
+    private void completeVersionWaiters(WireguardConnectionData published) {
+        for (VersionWaiter waiter : versionWaiters) {
+            if (published.getVersion() >= waiter.minVersion()) {
+                waiter.future().complete(published);
             }
         }
+    }
 
-        return data;
+    /**
+     * Registers a listener called with the diff of every successful refresh, see WireguardChangeListener
+     */
+    public void addChangeListener(WireguardChangeListener listener) {
+        changeListeners.add(listener);
     }
 
-    private void parseInterfaceLine(WireguardConnectionData data, String[] parts) {
-        String interfaceName = parts[0];
-        String publicKey = parts[2];
-        int listeningPort = parseIntOrDefault(parts[3], 0);
+    public void removeChangeListener(WireguardChangeListener listener) {
+        changeListeners.remove(listener);
+    }
 
-        NetworkConnectionInformation networkInfo = new NetworkConnectionInformation(
-            interfaceName,
-            publicKey,
-            listeningPort
-        );
+    private void notifyChangeListeners(WireguardConnectionDiff diff) {
+        if (!diff.isEmpty()) {
+            logger.debug("WireGuard connection data changed: {}", diff);
+        }
+        for (WireguardChangeListener listener : changeListeners) {
+            try {
+                listener.onChange(diff);
+            } catch (Exception e) {
+                // one broken listener must not starve the others or stop the refresh schedule
+                logger.error("Error in WireGuard change listener {}", listener, e);
+            }
+        }
+    }
 
-        data.addNetwork(publicKey, networkInfo);
-        logger.debug("Parsed interface: {} (public key: {})", interfaceName, publicKey);
-    }
-
-    private void parsePeerLine(WireguardConnectionData data, String[] parts) {
-        String interfaceName = parts[0];
-        String peerPublicKey = parts[1];
-        String presharedKey = parts[2];
-        String endpoint = parts[3];
-        String allowedIps = parts[4];
-        Long latestHandshake = parseLongOrNull(parts[5]);
-        Long bytesReceived = parseLongOrNull(parts[6]);
-        Long bytesSent = parseLongOrNull(parts[7]);
-        Long persistentKeepalive = parts.length > 8 ? parseLongOrNull(parts[8]) : null;
-
-        ClientConnectionInformation clientInfo = new ClientConnectionInformation(
-            peerPublicKey,
-            presharedKey,
-            endpoint,
-            allowedIps,
-            latestHandshake,
-            bytesReceived,
-            bytesSent,
-            persistentKeepalive
-        );
+    private void runRequestedRefresh() {
+        // cleared before the dump starts so a request arriving mid-refresh queues another one
+        refreshRequested.set(false);
+        refreshConnectionData();
+        scheduleNextRefresh(getEffectiveIntervalMs());
+    }
 
-        data.addPeer(peerPublicKey, clientInfo);
+    private void runScheduledRefresh() {
+        if (!refreshStrategy.readsOnOwnSchedules()) {
+            runRequestedRefresh();
+            return;
+        }
+        // the interfaces are read on their own schedules, this only starts and stops those
+        refreshStrategy.maintainSchedules();
+        scheduleNextRefresh(getEffectiveIntervalMs());
+    }
 
-        // Also add this peer to its parent network
-        NetworkConnectionInformation networkInfo = data.getNetworkByInterface(interfaceName);
-        if (networkInfo != null) {
-            networkInfo.addPeer(peerPublicKey, clientInfo);
-        } else {
-            logger.warn("Peer {} belongs to unknown interface {}", peerPublicKey, interfaceName);
+    private void scheduleNextRefresh(long delayMs) {
+        synchronized (scheduleLock) {
+            if (nextRefresh != null) {
+                nextRefresh.cancel(false);
+            }
+            try {
+                nextRefresh = scheduler.schedule(this::runScheduledRefresh, delayMs, TimeUnit.MILLISECONDS);
+            } catch (RejectedExecutionException e) {
+                logger.debug("Scheduler is shut down, not scheduling further refreshes");
+            }
         }
+    }
 
-        logger.debug("Parsed peer: {} on interface {}", peerPublicKey, interfaceName);
+    void refreshConnectionData() {
+        refreshStrategy.refresh();
     }
 
-    private int parseIntOrDefault(String value, int defaultValue) {
-        try {
-            return Integer.parseInt(value);
-        } catch (NumberFormatException e) {
-            return defaultValue;
+    /**
+     * Publishes the snapshot built from the current one as the next version and notifies listeners
+     * and waiters, one publish at a time
+     */
+    private WireguardConnectionData publish(UnaryOperator<WireguardConnectionData> next, long now) {
+        synchronized (publishLock) {
+            WireguardConnectionData previousData = connectionDataRef.get();
+            WireguardConnectionData newData = next.apply(previousData).withVersion(versionCounter.incrementAndGet(), now);
+            connectionDataRef.set(newData);
+            lastRefreshEpochMillis = now;
+            notifyChangeListeners(WireguardConnectionDiff.between(previousData, newData));
+            completeVersionWaiters(newData);
+            return newData;
         }
     }
 
-    private Long parseLongOrNull(String value) {
+    /**
+     * Parses the output of 'wg show dump' command. See {@link WgShowDumpParser} for the format.
+     */
+    WireguardConnectionData parseWgShowDump(String output) {
+        if (output == null || output.trim().isEmpty()) {
+            return new WireguardConnectionData();
+        }
         try {
-            if (value == null || value.trim().isEmpty() || value.equals("0")) {
-                return null;
-            }
-            return Long.parseLong(value);
-        } catch (NumberFormatException e) {
-            return null;
+            return new WgShowDumpParser().parse(new ByteArrayInputStream(output.getBytes(StandardCharsets.UTF_8)));
+        } catch (IOException e) {
+            // not reachable for an in memory stream
+            throw new UncheckedIOException(e);
         }
     }
 
@@ -251,46 +444,224 @@ public class WireguardInformationProvider {
     }
 
     /**
-     * Get all network connection information
+     * Get the current snapshot, it is immutable and its version increases with every refresh
+     */
+    public WireguardConnectionData getConnectionData() {
+        return connectionDataRef.get();
+    }
+
+    /**
+     * Get network connection information by interface name, e.g. wg0
+     */
+    public NetworkConnectionInformation getNetworkByInterface(String interfaceName) {
+        return connectionDataRef.get().getNetworkByInterface(interfaceName);
+    }
+
+    /**
+     * Get the peer (client) routing an allowed ip, see WireguardConnectionData.getPeerByAllowedIp
+     */
+    public ClientConnectionInformation getPeerByAllowedIp(String allowedIp) {
+        return connectionDataRef.get().getPeerByAllowedIp(allowedIp);
+    }
+
+    /**
+     * Get all network connection information, an unmodifiable view of the current snapshot
      */
     public Map<String, NetworkConnectionInformation> getAllNetworks() {
-        return new ConcurrentHashMap<>(connectionDataRef.get().getNetworksByPublicKey());
+        return connectionDataRef.get().getNetworksByPublicKey();
     }
 
     /**
-     * Get all peer connection information
+     * Get all peer connection information, an unmodifiable view of the current snapshot
      */
     public Map<String, ClientConnectionInformation> getAllPeers() {
-        return new ConcurrentHashMap<>(connectionDataRef.get().getPeersByPublicKey());
+        return connectionDataRef.get().getPeersByPublicKey();
     }
 
     /**
-     * Internal data structure to hold all WireGuard connection information
+     * Immutable snapshot of all WireGuard connection information produced by one refresh.
+     *
+     * Built once with a Builder, then every index is frozen into a compact immutable map and the
+     * snapshot is never modified again, so readers share it without locking or copying. Each
+     * published snapshot carries the version of the refresh that produced it, versions increase
+     * by one per successful refresh, and the time it was taken.
+     *
+     * With yaws.wireguard.snapshot.columnar the peers live in a ColumnarPeerTable instead and the
+     * peer maps are views over it, see there. With per-interface polling the snapshot is composed
+     * of the partial snapshot of every interface and the maps are views over theirs, see replacing().
      */
-    static class WireguardConnectionData {
+    public static class WireguardConnectionData {
+        private final long version;
+        private final long refreshedEpochMillis;
         private final Map<String, NetworkConnectionInformation> networksByPublicKey;
         private final Map<String, NetworkConnectionInformation> networksByInterface;
         private final Map<String, ClientConnectionInformation> peersByPublicKey;
+        private final Map<String, ClientConnectionInformation> peersByAllowedIp;
+        private final ColumnarPeerTable columns;
+        // the partial snapshot of every interface in the order they were published, null unless composed by replacing()
+        private final List<Part> parts;
+
+        private record Part(String interfaceName, WireguardConnectionData data) {}
 
+        /**
+         * An empty snapshot, version 0, what the provider holds before its first refresh
+         */
         public WireguardConnectionData() {
-            this.networksByPublicKey = new ConcurrentHashMap<>();
-            this.networksByInterface = new ConcurrentHashMap<>();
-            this.peersByPublicKey = new ConcurrentHashMap<>();
+            this(0, 0, Map.of(), Map.of(), Map.of(), Map.of(), null, null);
         }
 
-        public void addNetwork(String publicKey, NetworkConnectionInformation network) {
-            networksByPublicKey.put(publicKey, network);
-            networksByInterface.put(network.getInterfaceName(), network);
+        private WireguardConnectionData(long version, long refreshedEpochMillis,
+                                        Map<String, NetworkConnectionInformation> networksByPublicKey,
+                                        Map<String, NetworkConnectionInformation> networksByInterface,
+                                        Map<String, ClientConnectionInformation> peersByPublicKey,
+                                        Map<String, ClientConnectionInformation> peersByAllowedIp,
+                                        ColumnarPeerTable columns,
+                                        List<Part> parts) {
+            this.version = version;
+            this.refreshedEpochMillis = refreshedEpochMillis;
+            this.networksByPublicKey = networksByPublicKey;
+            this.networksByInterface = networksByInterface;
+            this.peersByPublicKey = peersByPublicKey;
+            this.peersByAllowedIp = peersByAllowedIp;
+            this.columns = columns;
+            this.parts = parts;
         }
 
-        public void addPeer(String publicKey, ClientConnectionInformation peer) {
-            peersByPublicKey.put(publicKey, peer);
+        public static Builder builder() {
+            return new Builder();
         }
 
+        /**
+         * An unversioned snapshot whose peers are the rows of columns, each network's peers
+         * become a view of its interface's rows
+         */
+        static WireguardConnectionData fromColumns(List<NetworkConnectionInformation> networks, ColumnarPeerTable columns) {
+            Map<String, NetworkConnectionInformation> networksByPublicKey = new HashMap<>();
+            Map<String, NetworkConnectionInformation> networksByInterface = new HashMap<>();
+            for (NetworkConnectionInformation network : networks) {
+                NetworkConnectionInformation withPeers = network.withPeers(columns.peersOf(network.getInterfaceName()));
+                networksByPublicKey.put(network.getPublicKey(), withPeers);
+                networksByInterface.put(network.getInterfaceName(), withPeers);
+            }
+            return new WireguardConnectionData(0, 0, Map.copyOf(networksByPublicKey), Map.copyOf(networksByInterface),
+                    columns.asMap(), columns.allowedIpMap(), columns, null);
+        }
+
+        /**
+         * An unversioned snapshot with the partial of the interface replaced, used to publish the
+         * poll of a single interface. Only the list of partials is copied, the maps of the result
+         * are views over those of the partials, so a poll costs what its own interface holds. A
+         * key found on several interfaces, e.g. a peer configured on two of them, resolves to the
+         * one published last.
+         * @param interfaceName String - the interface that was polled
+         * @param partial WireguardConnectionData - its new state, or null to remove it
+         */
+        WireguardConnectionData replacing(String interfaceName, WireguardConnectionData partial) {
+            // a snapshot not composed this way is the empty one the provider starts with
+            List<Part> replaced = new ArrayList<>(parts != null ? parts.size() + 1 : 1);
+            if (parts != null) {
+                for (Part part : parts) {
+                    if (!part.interfaceName().equals(interfaceName)) {
+                        replaced.add(part);
+                    }
+                }
+            }
+            if (partial != null) {
+                replaced.add(new Part(interfaceName, partial));
+            }
+            List<Part> composed = List.copyOf(replaced);
+            return new WireguardConnectionData(0, 0,
+                    new PartsView<>(composed, data -> data.networksByPublicKey),
+                    new PartsView<>(composed, data -> data.networksByInterface),
+                    new PartsView<>(composed, data -> data.peersByPublicKey),
+                    new PartsView<>(composed, data -> data.peersByAllowedIp),
+                    null,
+                    composed);
+        }
+
+        /**
+         * @return List of WireguardConnectionData - what has to be walked to find every entry of
+         * this snapshot that previous does not have: the partials previous was not composed of,
+         * or this whole snapshot unless both were composed by replacing()
+         */
+        List<WireguardConnectionData> partsChangedSince(WireguardConnectionData previous) {
+            if (parts == null || previous.parts == null) {
+                return List.of(this);
+            }
+            Set<WireguardConnectionData> unchanged = Collections.newSetFromMap(new IdentityHashMap<>());
+            previous.parts.forEach(part -> unchanged.add(part.data()));
+            List<WireguardConnectionData> changed = new ArrayList<>();
+            for (Part part : parts) {
+                if (!unchanged.contains(part.data())) {
+                    changed.add(part.data());
+                }
+            }
+            return changed;
+        }
+
+        /**
+         * A copy of this snapshot with every peer and then every network replaced by what the
+         * derivations return, how the rates are filled in without changing anything already
+         * built. A network is derived after its peers, so it sees the derived ones.
+         * @param derivePeer UnaryOperator - null to keep the peers, the rows of a columnar snapshot are no objects
+         * @param deriveNetwork UnaryOperator - applied to every network once
+         */
+        WireguardConnectionData derive(UnaryOperator<ClientConnectionInformation> derivePeer,
+                                       UnaryOperator<NetworkConnectionInformation> deriveNetwork) {
+            if (parts != null) {
+                throw new IllegalStateException("a composed snapshot is derived per partial");
+            }
+            // a peer or network found under several keys is derived once and stays one object
+            Map<ClientConnectionInformation, ClientConnectionInformation> derivedPeers = new IdentityHashMap<>();
+            Function<ClientConnectionInformation, ClientConnectionInformation> peerOf =
+                    peer -> derivedPeers.computeIfAbsent(peer, derivePeer);
+            Map<NetworkConnectionInformation, NetworkConnectionInformation> derivedNetworks = new IdentityHashMap<>();
+            Function<NetworkConnectionInformation, NetworkConnectionInformation> networkOf =
+                    network -> derivedNetworks.computeIfAbsent(network, original -> deriveNetwork.apply(derivePeer == null
+                            ? original
+                            : original.withPeers(derivedValues(original.getPeers(), peerOf))));
+            return new WireguardConnectionData(version, refreshedEpochMillis,
+                    derivedValues(networksByPublicKey, networkOf),
+                    derivedValues(networksByInterface, networkOf),
+                    derivePeer == null ? peersByPublicKey : derivedValues(peersByPublicKey, peerOf),
+                    derivePeer == null ? peersByAllowedIp : derivedValues(peersByAllowedIp, peerOf),
+                    columns,
+                    null);
+        }
+
+        private static <V> Map<String, V> derivedValues(Map<String, V> map, Function<V, V> derive) {
+            Map<String, V> derived = new HashMap<>((int) (map.size() / 0.75f) + 1);
+            map.forEach((key, value) -> derived.put(key, derive.apply(value)));
+            return Collections.unmodifiableMap(derived);
+        }
+
+        /**
+         * The same snapshot tagged with the version and time it is published under, the
+         * indexes are shared rather than copied
+         */
+        WireguardConnectionData withVersion(long version, long refreshedEpochMillis) {
+            return new WireguardConnectionData(version, refreshedEpochMillis,
+                    networksByPublicKey, networksByInterface, peersByPublicKey, peersByAllowedIp, columns, parts);
+        }
+
+        public long getVersion() {
+            return version;
+        }
+
+        public long getRefreshedEpochMillis() {
+            return refreshedEpochMillis;
+        }
+
+        /**
+         * @return unmodifiable Map of network public key to network
+         */
         public Map<String, NetworkConnectionInformation> getNetworksByPublicKey() {
             return networksByPublicKey;
         }
 
+        /**
+         * @return unmodifiable Map of peer public key to peer
+         */
         public Map<String, ClientConnectionInformation> getPeersByPublicKey() {
             return peersByPublicKey;
         }
@@ -298,5 +669,182 @@ public class WireguardInformationProvider {
         public NetworkConnectionInformation getNetworkByInterface(String interfaceName) {
             return networksByInterface.get(interfaceName);
         }
+
+        /**
+         * @param allowedIp String - an allowed ip entry as 'wg' prints it (10.0.0.2/32), host
+         *                  routes can also be looked up by the bare address (10.0.0.2)
+         * @return ClientConnectionInformation - the peer routing it, or null
+         */
+        public ClientConnectionInformation getPeerByAllowedIp(String allowedIp) {
+            return peersByAllowedIp.get(allowedIp);
+        }
+
+        /**
+         * @return ColumnarPeerTable - the table behind the peer maps, null for an object snapshot
+         */
+        ColumnarPeerTable getColumns() {
+            return columns;
+        }
+
+        /**
+         * Collects the networks and peers of one refresh. Not thread safe, a builder is filled
+         * by a single parse and discarded after build().
+         */
+        public static class Builder {
+            private final Map<String, NetworkConnectionInformation> networksByPublicKey = new HashMap<>();
+            private final Map<String, NetworkConnectionInformation> networksByInterface = new HashMap<>();
+            private final Map<String, Map<String, ClientConnectionInformation>> peersByInterface = new HashMap<>();
+            private final Map<String, ClientConnectionInformation> peersByPublicKey = new HashMap<>();
+            private boolean built = false;
+
+            private Builder() {
+            }
+
+            public Builder addNetwork(NetworkConnectionInformation network) {
+                checkNotBuilt();
+                networksByPublicKey.put(network.getPublicKey(), network);
+                networksByInterface.put(network.getInterfaceName(), network);
+                peersByInterface.computeIfAbsent(network.getInterfaceName(), name -> new HashMap<>())
+                        .putAll(network.getPeers());
+                return this;
+            }
+
+            /**
+             * Adds the peer and assigns it to the network on interfaceName. A peer of an interface
+             * without a network line is still indexed by key and allowed ip.
+             */
+            public Builder addPeer(String interfaceName, ClientConnectionInformation peer) {
+                checkNotBuilt();
+                peersByPublicKey.put(peer.getPublicKey(), peer);
+                peersByInterface.computeIfAbsent(interfaceName, name -> new HashMap<>()).put(peer.getPublicKey(), peer);
+                return this;
+            }
+
+            public boolean hasInterface(String interfaceName) {
+                return networksByInterface.containsKey(interfaceName);
+            }
+
+            /**
+             * Freezes the collected state into an unversioned snapshot, the builder can not be
+             * used afterwards
+             */
+            public WireguardConnectionData build() {
+                checkNotBuilt();
+                built = true;
+                // the added networks stay as they are, the snapshot gets copies holding their peers
+                Map<NetworkConnectionInformation, NetworkConnectionInformation> withPeers = new IdentityHashMap<>();
+                Function<NetworkConnectionInformation, NetworkConnectionInformation> networkOf =
+                        network -> withPeers.computeIfAbsent(network, added -> {
+                            Map<String, ClientConnectionInformation> peers = peersByInterface.get(added.getInterfaceName());
+                            return added.withPeers(peers == null ? Map.of() : Map.copyOf(peers));
+                        });
+                Map<String, ClientConnectionInformation> peersByAllowedIp = new HashMap<>();
+                for (ClientConnectionInformation peer : peersByPublicKey.values()) {
+                    indexAllowedIps(peer, peersByAllowedIp);
+                }
+                return new WireguardConnectionData(0, 0,
+                        Map.copyOf(derivedValues(networksByPublicKey, networkOf)),
+                        Map.copyOf(derivedValues(networksByInterface, networkOf)),
+                        Map.copyOf(peersByPublicKey),
+                        Map.copyOf(peersByAllowedIp),
+                        null,
+                        null);
+            }
+
+            private static void indexAllowedIps(ClientConnectionInformation peer,
+                                                Map<String, ClientConnectionInformation> peersByAllowedIp) {
+                String allowedIps = peer.getAllowedIps();
+                if (allowedIps == null || allowedIps.equals("(none)")) {
+                    return;
+                }
+                for (String allowedIp : allowedIps.split(",")) {
+                    String entry = allowedIp.trim();
+                    if (entry.isEmpty()) {
+                        continue;
+                    }
+                    peersByAllowedIp.put(entry, peer);
+                    if (entry.endsWith("/32") || entry.endsWith("/128")) {
+                        peersByAllowedIp.put(entry.substring(0, entry.lastIndexOf('/')), peer);
+                    }
+                }
+            }
+
+            private void checkNotBuilt() {
+                if (built) {
+                    throw new IllegalStateException("WireguardConnectionData.Builder was already built");
+                }
+            }
+        }
+
+        /**
+         * One map of a composed snapshot, a read only view over the same map of every partial.
+         * Lookups ask the partials from the last published one back, an entry shadowed by a later
+         * partial is skipped when iterating. The size is counted on first use.
+         */
+        private static final class PartsView<V> extends AbstractMap<String, V> {
+            private final List<Part> parts;
+            private final Function<WireguardConnectionData, Map<String, V>> map;
+            private volatile int size = -1;
+
+            PartsView(List<Part> parts, Function<WireguardConnectionData, Map<String, V>> map) {
+                this.parts = parts;
+                this.map = map;
+            }
+
+            @Override
+            public V get(Object key) {
+                for (int i = parts.size() - 1; i >= 0; i--) {
+                    V value = map.apply(parts.get(i).data()).get(key);
+                    if (value != null) {
+                        return value;
+                    }
+                }
+                return null;
+            }
+
+            @Override
+            public boolean containsKey(Object key) {
+                return get(key) != null;
+            }
+
+            @Override
+            public int size() {
+                int counted = size;
+                if (counted < 0) {
+                    counted = (int) entries().count();
+                    size = counted;
+                }
+                return counted;
+            }
+
+            @Override
+            public Set<Entry<String, V>> entrySet() {
+                return new AbstractSet<>() {
+                    @Override
+                    public Iterator<Entry<String, V>> iterator() {
+                        return entries().iterator();
+                    }
+
+                    @Override
+                    public int size() {
+                        return PartsView.this.size();
+                    }
+                };
+            }
+
+            private Stream<Entry<String, V>> entries() {
+                return IntStream.range(0, parts.size()).boxed().flatMap(i -> map.apply(parts.get(i).data())
+                        .entrySet().stream().filter(entry -> !shadowed(entry.getKey(), i)));
+            }
+
+            private boolean shadowed(String key, int part) {
+                for (int i = part + 1; i < parts.size(); i++) {
+                    if (map.apply(parts.get(i).data()).containsKey(key)) {
+                        return true;
+                    }
+                }
+                return false;
+            }
+        }
     }
 }
@@ -0,0 +1,410 @@
+package com.brcsrc.yaws.system;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+
+/**
+ * Encodes the generic netlink requests 'wg' sends to the kernel and decodes the replies, so the
+ * provider can read the same data as 'wg show all dump' without forking.
+ *
+ * Only the messages needed for reading are supported: resolving the id of the "wireguard" family
+ * with CTRL_CMD_GETFAMILY and dumping one device with WG_CMD_GET_DEVICE. Netlink headers and
+ * attributes are in host byte order, ports and addresses inside endpoints in network order,
+ * see include/uapi/linux/wireguard.h.
+ *
+ * A device dump spans several messages when its peers do not fit into one, each continuing the
+ * peer list. A peer whose allowed ips did not fit is continued in the next message under the
+ * same public key, DeviceDump merges those parts the same way 'wg' does.
+ */
+final class WireguardNetlinkCodec {
+    static final ByteOrder HOST_ORDER = ByteOrder.nativeOrder();
+
+    // linux/netlink.h
+    static final int NLMSG_HEADER_LENGTH = 16;
+    static final int NLMSG_ERROR = 2;
+    static final int NLMSG_DONE = 3;
+    static final int NLM_F_REQUEST = 0x1;
+    static final int NLM_F_MULTI = 0x2;
+    static final int NLM_F_ACK = 0x4;
+    static final int NLM_F_DUMP = 0x300;
+    private static final int NLA_HEADER_LENGTH = 4;
+    private static final int NLA_TYPE_MASK = 0x3fff;
+
+    // linux/genetlink.h
+    static final int GENL_HEADER_LENGTH = 4;
+    static final int GENL_ID_CTRL = 0x10;
+    static final int CTRL_CMD_GETFAMILY = 3;
+    static final int CTRL_ATTR_FAMILY_ID = 1;
+    static final int CTRL_ATTR_FAMILY_NAME = 2;
+
+    // linux/wireguard.h
+    static final String WG_GENL_NAME = "wireguard";
+    static final int WG_GENL_VERSION = 1;
+    static final int WG_CMD_GET_DEVICE = 0;
+    static final int WGDEVICE_A_IFNAME = 2;
+    static final int WGDEVICE_A_PUBLIC_KEY = 4;
+    static final int WGDEVICE_A_LISTEN_PORT = 6;
+    static final int WGDEVICE_A_PEERS = 8;
+    static final int WGPEER_A_PUBLIC_KEY = 1;
+    static final int WGPEER_A_PRESHARED_KEY = 2;
+    static final int WGPEER_A_ENDPOINT = 4;
+    static final int WGPEER_A_PERSISTENT_KEEPALIVE_INTERVAL = 5;
+    static final int WGPEER_A_LAST_HANDSHAKE_TIME = 6;
+    static final int WGPEER_A_RX_BYTES = 7;
+    static final int WGPEER_A_TX_BYTES = 8;
+    static final int WGPEER_A_ALLOWEDIPS = 9;
+    static final int WGALLOWEDIP_A_FAMILY = 1;
+    static final int WGALLOWEDIP_A_IPADDR = 2;
+    static final int WGALLOWEDIP_A_CIDR_MASK = 3;
+
+    private static final int AF_INET = 2;
+    private static final int AF_INET6 = 10;
+    private static final int KEY_LENGTH = 32;
+    // how 'wg show dump' prints an absent key, endpoint or allowed ips list
+    private static final String NONE = "(none)";
+
+    private WireguardNetlinkCodec() {
+    }
+
+    static ByteBuffer getFamilyRequest(int sequence) {
+        ByteBuffer message = startMessage(GENL_ID_CTRL, NLM_F_REQUEST, sequence, CTRL_CMD_GETFAMILY, 1);
+        putStringAttribute(message, CTRL_ATTR_FAMILY_NAME, WG_GENL_NAME);
+        return finishMessage(message);
+    }
+
+    static ByteBuffer getDeviceRequest(int familyId, int sequence, String interfaceName) {
+        ByteBuffer message = startMessage(familyId, NLM_F_REQUEST | NLM_F_ACK | NLM_F_DUMP, sequence,
+                WG_CMD_GET_DEVICE, WG_GENL_VERSION);
+        putStringAttribute(message, WGDEVICE_A_IFNAME, interfaceName);
+        return finishMessage(message);
+    }
+
+    /**
+     * @return int - the family id in a CTRL_CMD_GETFAMILY reply, -1 if this message holds none
+     */
+    static int decodeFamilyId(ByteBuffer message) {
+        int[] familyId = {-1};
+        forEachAttribute(message, message.position() + GENL_HEADER_LENGTH, message.limit(), (type, value) -> {
+            if (type == CTRL_ATTR_FAMILY_ID) {
+                familyId[0] = Short.toUnsignedInt(value.getShort(value.position()));
+            }
+        });
+        return familyId[0];
+    }
+
+    /**
+     * Calls the visitor for every netlink message in a received datagram, each one a view
+     * positioned at its payload and limited to it
+     */
+    static void forEachMessage(ByteBuffer datagram, MessageVisitor visitor) throws NetlinkException {
+        ByteBuffer buffer = datagram.duplicate().order(HOST_ORDER);
+        while (buffer.remaining() >= NLMSG_HEADER_LENGTH) {
+            int start = buffer.position();
+            int length = buffer.getInt(start);
+            if (length < NLMSG_HEADER_LENGTH || length > buffer.remaining()) {
+                throw new NetlinkException(String.format("truncated netlink message of %d bytes", length), 0);
+            }
+            int type = Short.toUnsignedInt(buffer.getShort(start + 4));
+            int flags = Short.toUnsignedInt(buffer.getShort(start + 6));
+            int sequence = buffer.getInt(start + 8);
+            ByteBuffer payload = buffer.duplicate().order(HOST_ORDER);
+            payload.position(start + NLMSG_HEADER_LENGTH).limit(start + length);
+            visitor.visit(type, flags, sequence, payload);
+            buffer.position(Math.min(buffer.limit(), start + align(length)));
+        }
+    }
+
+    /**
+     * @return int - the errno of an NLMSG_ERROR payload, 0 when it acknowledges a successful request
+     */
+    static int decodeErrno(ByteBuffer payload) {
+        return payload.remaining() >= 4 ? -payload.getInt(payload.position()) : 0;
+    }
+
+    @FunctionalInterface
+    interface MessageVisitor {
+        void visit(int type, int flags, int sequence, ByteBuffer payload) throws NetlinkException;
+    }
+
+    static class NetlinkException extends IOException {
+        private final int errno;
+
+        NetlinkException(String message, int errno) {
+            super(message);
+            this.errno = errno;
+        }
+
+        /**
+         * @return int - the errno the kernel answered with, 0 for a malformed reply
+         */
+        int getErrno() {
+            return errno;
+        }
+    }
+
+    /**
+     * Collects the messages of one WG_CMD_GET_DEVICE dump and replays them to a parser sink
+     */
+    static class DeviceDump {
+        private String interfaceName;
+        private String publicKey;
+        private int listeningPort;
+        private final List<Peer> peers = new ArrayList<>();
+
+        /**
+         * @param payload ByteBuffer - a message's payload, starting with its generic netlink header
+         */
+        void add(ByteBuffer payload) {
+            forEachAttribute(payload, payload.position() + GENL_HEADER_LENGTH, payload.limit(), (type, value) -> {
+                switch (type) {
+                    case WGDEVICE_A_IFNAME -> interfaceName = readString(value);
+                    case WGDEVICE_A_PUBLIC_KEY -> publicKey = readKey(value);
+                    case WGDEVICE_A_LISTEN_PORT -> listeningPort = Short.toUnsignedInt(value.getShort(value.position()));
+                    case WGDEVICE_A_PEERS -> forEachAttribute(value, value.position(), value.limit(),
+                            (index, peer) -> addPeer(peer));
+                    default -> {
+                        // private key, flags, fwmark and ifindex are not part of the snapshot
+                    }
+                }
+            });
+        }
+
+        private void addPeer(ByteBuffer attributes) {
+            Peer peer = new Peer();
+            forEachAttribute(attributes, attributes.position(), attributes.limit(), (type, value) -> {
+                switch (type) {
+                    case WGPEER_A_PUBLIC_KEY -> peer.publicKey = readKey(value);
+                    case WGPEER_A_PRESHARED_KEY -> peer.presharedKey = readKey(value);
+                    case WGPEER_A_ENDPOINT -> peer.endpoint = readEndpoint(value);
+                    case WGPEER_A_PERSISTENT_KEEPALIVE_INTERVAL ->
+                            peer.persistentKeepalive = Short.toUnsignedInt(value.getShort(value.position()));
+                    // struct __kernel_timespec, only the seconds are printed by 'wg show dump'
+                    case WGPEER_A_LAST_HANDSHAKE_TIME -> peer.latestHandshakeEpochSeconds = value.getLong(value.position());
+                    case WGPEER_A_RX_BYTES -> peer.bytesReceived = value.getLong(value.position());
+                    case WGPEER_A_TX_BYTES -> peer.bytesSent = value.getLong(value.position());
+                    case WGPEER_A_ALLOWEDIPS -> forEachAttribute(value, value.position(), value.limit(),
+                            (index, allowedIp) -> peer.allowedIps.add(readAllowedIp(allowedIp)));
+                    default -> {
+                        // flags and protocol version are not part of the snapshot
+                    }
+                }
+            });
+            Peer last = peers.isEmpty() ? null : peers.get(peers.size() - 1);
+            if (last != null && last.publicKey != null && last.publicKey.equals(peer.publicKey)) {
+                // the rest of a peer whose allowed ips did not fit into the previous message
+                last.allowedIps.addAll(peer.allowedIps);
+                return;
+            }
+            peers.add(peer);
+        }
+
+        void replay(WgShowDumpParser.Sink sink) {
+            if (interfaceName == null) {
+                return;
+            }
+            sink.onInterface(interfaceName, publicKey == null ? NONE : publicKey, listeningPort);
+            for (Peer peer : peers) {
+                if (peer.publicKey == null) {
+                    continue;
+                }
+                sink.onPeer(
+                        interfaceName,
+                        peer.publicKey,
+                        peer.presharedKey == null ? NONE : peer.presharedKey,
+                        peer.endpoint == null ? NONE : peer.endpoint,
+                        peer.allowedIps.isEmpty() ? NONE : String.join(",", peer.allowedIps),
+                        peer.latestHandshakeEpochSeconds,
+                        peer.bytesReceived,
+                        peer.bytesSent,
+                        peer.persistentKeepalive
+                );
+            }
+        }
+    }
+
+    private static class Peer {
+        String publicKey;
+        String presharedKey;
+        String endpoint;
+        final List<String> allowedIps = new ArrayList<>();
+        long latestHandshakeEpochSeconds;
+        long bytesReceived;
+        long bytesSent;
+        long persistentKeepalive;
+    }
+
+    @FunctionalInterface
+    private interface AttributeVisitor {
+        void visit(int type, ByteBuffer value);
+    }
+
+    private static void forEachAttribute(ByteBuffer buffer, int from, int to, AttributeVisitor visitor) {
+        int position = from;
+        while (to - position >= NLA_HEADER_LENGTH) {
+            int length = Short.toUnsignedInt(buffer.getShort(position));
+            int type = Short.toUnsignedInt(buffer.getShort(position + 2)) & NLA_TYPE_MASK;
+            if (length < NLA_HEADER_LENGTH || position + length > to) {
+                // a malformed attribute ends the list rather than reading into the next message
+                return;
+            }
+            ByteBuffer value = buffer.duplicate().order(HOST_ORDER);
+            value.limit(position + length).position(position + NLA_HEADER_LENGTH);
+            visitor.visit(type, value);
+            position += align(length);
+        }
+    }
+
+    private static String readString(ByteBuffer value) {
+        int end = value.position();
+        while (end < value.limit() && value.get(end) != 0) {
+            end++;
+        }
+        byte[] bytes = new byte[end - value.position()];
+        value.get(value.position(), bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @return String - the key in base64 like 'wg' prints it, null for the all zero key the kernel reports when none is set
+     */
+    private static String readKey(ByteBuffer value) {
+        if (value.remaining() != KEY_LENGTH) {
+            return null;
+        }
+        byte[] key = new byte[KEY_LENGTH];
+        value.get(value.position(), key);
+        for (byte b : key) {
+            if (b != 0) {
+                return Base64.getEncoder().encodeToString(key);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Formats a struct sockaddr_in or sockaddr_in6 as 'wg' does: 1.2.3.4:51820 or [fd00::1]:51820
+     */
+    private static String readEndpoint(ByteBuffer value) {
+        int start = value.position();
+        int family = Short.toUnsignedInt(value.getShort(start));
+        int port = Short.toUnsignedInt(value.duplicate().order(ByteOrder.BIG_ENDIAN).getShort(start + 2));
+        if (family == AF_INET && value.remaining() >= 8) {
+            return formatAddress(value, start + 4, 4) + ":" + port;
+        }
+        if (family == AF_INET6 && value.remaining() >= 28) {
+            String address = formatAddress(value, start + 8, 16);
+            int scopeId = value.getInt(start + 24);
+            return "[" + address + (scopeId != 0 ? "%" + Integer.toUnsignedString(scopeId) : "") + "]:" + port;
+        }
+        return null;
+    }
+
+    private static String readAllowedIp(ByteBuffer attributes) {
+        int[] family = {0};
+        int[] cidr = {0};
+        int[] address = {-1};
+        forEachAttribute(attributes, attributes.position(), attributes.limit(), (type, value) -> {
+            switch (type) {
+                case WGALLOWEDIP_A_FAMILY -> family[0] = Short.toUnsignedInt(value.getShort(value.position()));
+                case WGALLOWEDIP_A_CIDR_MASK -> cidr[0] = Byte.toUnsignedInt(value.get(value.position()));
+                case WGALLOWEDIP_A_IPADDR -> address[0] = value.position();
+                default -> {
+                }
+            }
+        });
+        int length = family[0] == AF_INET6 ? 16 : 4;
+        return formatAddress(attributes, address[0], length) + "/" + cidr[0];
+    }
+
+    /**
+     * Formats an address in the shortest form inet_ntop gives, the longest run of two or more
+     * zero groups of an IPv6 address is collapsed to ::
+     */
+    static String formatAddress(ByteBuffer buffer, int offset, int length) {
+        if (offset < 0) {
+            return "";
+        }
+        StringBuilder text = new StringBuilder();
+        if (length == 4) {
+            for (int i = 0; i < 4; i++) {
+                if (i > 0) {
+                    text.append('.');
+                }
+                text.append(Byte.toUnsignedInt(buffer.get(offset + i)));
+            }
+            return text.toString();
+        }
+        int[] groups = new int[8];
+        for (int i = 0; i < 8; i++) {
+            groups[i] = (Byte.toUnsignedInt(buffer.get(offset + 2 * i)) << 8) | Byte.toUnsignedInt(buffer.get(offset + 2 * i + 1));
+        }
+        int bestStart = -1;
+        int bestLength = 1;
+        for (int i = 0; i < 8; ) {
+            if (groups[i] != 0) {
+                i++;
+                continue;
+            }
+            int runStart = i;
+            while (i < 8 && groups[i] == 0) {
+                i++;
+            }
+            if (i - runStart > bestLength) {
+                bestStart = runStart;
+                bestLength = i - runStart;
+            }
+        }
+        for (int i = 0; i < 8; i++) {
+            if (i == bestStart) {
+                text.append("::");
+                i += bestLength - 1;
+                continue;
+            }
+            if (text.length() > 0 && text.charAt(text.length() - 1) != ':') {
+                text.append(':');
+            }
+            text.append(Integer.toHexString(groups[i]));
+        }
+        return text.toString();
+    }
+
+    private static ByteBuffer startMessage(int type, int flags, int sequence, int command, int version) {
+        ByteBuffer message = ByteBuffer.allocate(256).order(HOST_ORDER);
+        message.putInt(0);
+        message.putShort((short) type);
+        message.putShort((short) flags);
+        message.putInt(sequence);
+        // port id 0, the kernel assigns the socket's
+        message.putInt(0);
+        message.put((byte) command);
+        message.put((byte) version);
+        message.putShort((short) 0);
+        return message;
+    }
+
+    private static void putStringAttribute(ByteBuffer message, int type, String value) {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        int length = NLA_HEADER_LENGTH + bytes.length + 1;
+        message.putShort((short) length);
+        message.putShort((short) type);
+        message.put(bytes);
+        message.put((byte) 0);
+        while (message.position() % 4 != 0) {
+            message.put((byte) 0);
+        }
+    }
+
+    private static ByteBuffer finishMessage(ByteBuffer message) {
+        message.putInt(0, message.position());
+        return message.flip();
+    }
+
+    private static int align(int length) {
+        return (length + 3) & ~3;
+    }
+}
@@ -0,0 +1,173 @@
+package com.brcsrc.yaws.system;
+
+import com.brcsrc.yaws.system.WireguardInformationProvider.WireguardConnectionData;
+import com.brcsrc.yaws.system.WireguardNetlinkCodec.DeviceDump;
+import com.brcsrc.yaws.system.WireguardNetlinkCodec.NetlinkException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+
+/**
+ * Reads the state of every WireGuard interface over generic netlink, the same requests 'wg show
+ * all dump' makes, without forking a process.
+ *
+ * WireGuard interfaces are found in /sys/class/net by the DEVTYPE=wireguard line of their uevent,
+ * then each is dumped with WG_CMD_GET_DEVICE. The id of the "wireguard" generic netlink family is
+ * resolved once, on the first read. The replies are fed through WgShowDumpParser's sink so the
+ * snapshot is built exactly like one parsed from the command's output.
+ *
+ * Reads are serialized, the transport is a single socket.
+ */
+class WireguardNetlinkReader implements Closeable {
+    private static final Logger logger = LoggerFactory.getLogger(WireguardNetlinkReader.class);
+    static final Path SYS_CLASS_NET = Path.of("/sys/class/net");
+    private static final String WIREGUARD_DEVTYPE = "DEVTYPE=wireguard";
+    private static final int ENODEV = 19;
+
+    private final NetlinkTransport transport;
+    private final Path sysClassNet;
+    private int familyId = -1;
+    private int sequence = 0;
+
+    WireguardNetlinkReader(NetlinkTransport transport, Path sysClassNet) {
+        this.transport = transport;
+        this.sysClassNet = sysClassNet;
+    }
+
+    /**
+     * Opens a netlink socket through the foreign function API, see FfmNetlinkTransport
+     * @throws IOException - if the socket can not be opened
+     * @throws LinkageError - if the JVM runs without --enable-preview
+     */
+    static WireguardNetlinkReader open() throws IOException {
+        return new WireguardNetlinkReader(FfmNetlinkTransport.open(), SYS_CLASS_NET);
+    }
+
+    /**
+     * @return WireguardConnectionData - a new, unversioned snapshot of all WireGuard interfaces
+     */
+    synchronized WireguardConnectionData read() throws IOException {
+        if (familyId < 0) {
+            familyId = resolveFamilyId();
+        }
+        WireguardConnectionData.Builder builder = WireguardConnectionData.builder();
+        WgShowDumpParser.ConnectionDataSink sink = new WgShowDumpParser.ConnectionDataSink(builder);
+        for (String interfaceName : listInterfaces()) {
+            DeviceDump dump = new DeviceDump();
+            try {
+                request(WireguardNetlinkCodec.getDeviceRequest(familyId, nextSequence(), interfaceName),
+                        (type, payload) -> {
+                            if (type == familyId) {
+                                dump.add(payload);
+                            }
+                        });
+            } catch (NetlinkException e) {
+                if (e.getErrno() == ENODEV) {
+                    // removed between listing and dumping it
+                    logger.debug("WireGuard interface {} disappeared before it was read", interfaceName);
+                    continue;
+                }
+                throw e;
+            }
+            dump.replay(sink);
+        }
+        return builder.build();
+    }
+
+    private int resolveFamilyId() throws IOException {
+        int[] resolved = {-1};
+        request(WireguardNetlinkCodec.getFamilyRequest(nextSequence()), (type, payload) -> {
+            if (type == WireguardNetlinkCodec.GENL_ID_CTRL) {
+                resolved[0] = WireguardNetlinkCodec.decodeFamilyId(payload);
+            }
+        });
+        if (resolved[0] < 0) {
+            throw new IOException("no generic netlink family id in the reply for " + WireguardNetlinkCodec.WG_GENL_NAME);
+        }
+        logger.debug("Resolved generic netlink family {} to id {}", WireguardNetlinkCodec.WG_GENL_NAME, resolved[0]);
+        return resolved[0];
+    }
+
+    @FunctionalInterface
+    private interface ReplyHandler {
+        void onMessage(int type, ByteBuffer payload);
+    }
+
+    /**
+     * Sends the request and hands every reply message to the handler until the request is done:
+     * after NLMSG_DONE or an acknowledgement for a dump, after the first reply otherwise.
+     * Messages left over from an earlier request that timed out are skipped by their sequence.
+     */
+    private void request(ByteBuffer message, ReplyHandler handler) throws IOException {
+        int requestSequence = message.getInt(message.position() + 8);
+        boolean dump = (message.getShort(message.position() + 6) & WireguardNetlinkCodec.NLM_F_DUMP) != 0;
+        transport.send(message);
+        boolean[] done = {false};
+        while (!done[0]) {
+            WireguardNetlinkCodec.forEachMessage(transport.receive(), (type, flags, replySequence, payload) -> {
+                if (replySequence != requestSequence || done[0]) {
+                    return;
+                }
+                if (type == WireguardNetlinkCodec.NLMSG_ERROR) {
+                    int errno = WireguardNetlinkCodec.decodeErrno(payload);
+                    if (errno != 0) {
+                        throw new NetlinkException(String.format("netlink request %d failed with errno %d",
+                                requestSequence, errno), errno);
+                    }
+                    done[0] = true;
+                    return;
+                }
+                if (type == WireguardNetlinkCodec.NLMSG_DONE) {
+                    done[0] = true;
+                    return;
+                }
+                handler.onMessage(type, payload);
+                if (!dump && (flags & WireguardNetlinkCodec.NLM_F_MULTI) == 0) {
+                    done[0] = true;
+                }
+            });
+        }
+    }
+
+    private int nextSequence() {
+        return ++sequence;
+    }
+
+    /**
+     * @return List of String - names of the WireGuard interfaces, sorted
+     */
+    List<String> listInterfaces() throws IOException {
+        List<String> interfaceNames = new ArrayList<>();
+        try (Stream<Path> devices = Files.list(sysClassNet)) {
+            for (Path device : devices.sorted().toList()) {
+                Path uevent = device.resolve("uevent");
+                if (!Files.isReadable(uevent)) {
+                    continue;
+                }
+                try {
+                    if (Files.readAllLines(uevent, StandardCharsets.UTF_8).contains(WIREGUARD_DEVTYPE)) {
+                        interfaceNames.add(device.getFileName().toString());
+                    }
+                } catch (IOException e) {
+                    // removed while listing
+                    logger.debug("Could not read {}", uevent, e);
+                }
+            }
+        }
+        return interfaceNames;
+    }
+
+    @Override
+    public void close() throws IOException {
+        transport.close();
+    }
+}
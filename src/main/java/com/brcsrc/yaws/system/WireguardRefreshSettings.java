@@ -0,0 +1,85 @@
+package com.brcsrc.yaws.system;
+
+import org.springframework.core.env.Environment;
+
+/**
+ * How WireguardInformationProvider refreshes, read from the yaws.wireguard.* properties. Tests
+ * start from defaults() and change only what they exercise.
+ *
+ * @param idleIntervalMs refresh interval while nobody is streaming
+ * @param activeIntervalMs refresh interval while at least one stream is open
+ * @param rateSmoothingWindowMs time constant of the smoothed rates, see ThroughputCalculator
+ * @param columnarSnapshots store the peers of a single dump refresh in a ColumnarPeerTable
+ * @param interfacePoolSize threads polling interfaces one by one, 0 reads all of them with a single dump
+ */
+record WireguardRefreshSettings(
+        long idleIntervalMs,
+        long activeIntervalMs,
+        long rateSmoothingWindowMs,
+        boolean columnarSnapshots,
+        int interfacePoolSize
+) {
+    static final String IDLE_INTERVAL_PROPERTY = "yaws.wireguard.refresh.idle-interval-ms";
+    static final String ACTIVE_INTERVAL_PROPERTY = "yaws.wireguard.refresh.active-interval-ms";
+    static final long DEFAULT_IDLE_INTERVAL_MS = 60_000;
+    static final long DEFAULT_ACTIVE_INTERVAL_MS = 2_000;
+    static final String RATE_SMOOTHING_WINDOW_PROPERTY = "yaws.wireguard.rates.smoothing-window-ms";
+    static final long DEFAULT_RATE_SMOOTHING_WINDOW_MS = 30_000;
+    static final String COLUMNAR_SNAPSHOT_PROPERTY = "yaws.wireguard.snapshot.columnar";
+    static final String PER_INTERFACE_PROPERTY = "yaws.wireguard.refresh.per-interface";
+    static final String INTERFACE_POOL_SIZE_PROPERTY = "yaws.wireguard.refresh.interface-pool-size";
+    static final int DEFAULT_INTERFACE_POOL_SIZE = 4;
+
+    WireguardRefreshSettings {
+        if (idleIntervalMs <= 0 || activeIntervalMs <= 0) {
+            throw new IllegalArgumentException("refresh intervals must be positive");
+        }
+        if (rateSmoothingWindowMs <= 0) {
+            throw new IllegalArgumentException("rate smoothing window must be positive");
+        }
+        if (interfacePoolSize < 0) {
+            throw new IllegalArgumentException("interface pool size must not be negative");
+        }
+    }
+
+    static WireguardRefreshSettings defaults() {
+        return new WireguardRefreshSettings(DEFAULT_IDLE_INTERVAL_MS, DEFAULT_ACTIVE_INTERVAL_MS,
+                DEFAULT_RATE_SMOOTHING_WINDOW_MS, false, 0);
+    }
+
+    static WireguardRefreshSettings fromEnvironment(Environment env) {
+        return new WireguardRefreshSettings(
+                env.getProperty(IDLE_INTERVAL_PROPERTY, Long.class, DEFAULT_IDLE_INTERVAL_MS),
+                env.getProperty(ACTIVE_INTERVAL_PROPERTY, Long.class, DEFAULT_ACTIVE_INTERVAL_MS),
+                env.getProperty(RATE_SMOOTHING_WINDOW_PROPERTY, Long.class, DEFAULT_RATE_SMOOTHING_WINDOW_MS),
+                env.getProperty(COLUMNAR_SNAPSHOT_PROPERTY, Boolean.class, false),
+                env.getProperty(PER_INTERFACE_PROPERTY, Boolean.class, false)
+                        ? env.getProperty(INTERFACE_POOL_SIZE_PROPERTY, Integer.class, DEFAULT_INTERFACE_POOL_SIZE)
+                        : 0
+        );
+    }
+
+    WireguardRefreshSettings withIntervals(long idleIntervalMs, long activeIntervalMs) {
+        return new WireguardRefreshSettings(idleIntervalMs, activeIntervalMs, rateSmoothingWindowMs,
+                columnarSnapshots, interfacePoolSize);
+    }
+
+    WireguardRefreshSettings withRateSmoothingWindowMs(long rateSmoothingWindowMs) {
+        return new WireguardRefreshSettings(idleIntervalMs, activeIntervalMs, rateSmoothingWindowMs,
+                columnarSnapshots, interfacePoolSize);
+    }
+
+    WireguardRefreshSettings withColumnarSnapshots(boolean columnarSnapshots) {
+        return new WireguardRefreshSettings(idleIntervalMs, activeIntervalMs, rateSmoothingWindowMs,
+                columnarSnapshots, interfacePoolSize);
+    }
+
+    WireguardRefreshSettings withInterfacePoolSize(int interfacePoolSize) {
+        return new WireguardRefreshSettings(idleIntervalMs, activeIntervalMs, rateSmoothingWindowMs,
+                columnarSnapshots, interfacePoolSize);
+    }
+
+    boolean perInterface() {
+        return interfacePoolSize > 0;
+    }
+}
@@ -0,0 +1,145 @@
+package com.brcsrc.yaws.aggregates;
+
+import com.brcsrc.yaws.aggregates.PeerAggregates.Summary;
+import com.brcsrc.yaws.aggregates.PeerAggregates.TopPeer;
+import com.brcsrc.yaws.history.TransferTotalsStore.TransferTotals;
+import com.brcsrc.yaws.lifecycle.PeerState;
+import com.brcsrc.yaws.system.ClientConnectionInformation;
+import com.brcsrc.yaws.system.PeerSnapshots;
+import com.brcsrc.yaws.system.WireguardConnectionDiff;
+import com.brcsrc.yaws.system.WireguardInformationProvider.WireguardConnectionData;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static com.brcsrc.yaws.system.PeerSnapshots.snapshot;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class PeerAggregatorTests {
+
+    private static final long NOW_MILLIS = 1_700_000_000_000L;
+    private static final long NOW_SECONDS = NOW_MILLIS / 1000;
+
+    private final Map<String, TransferTotals> lifetimeTotals = new HashMap<>();
+    private final List<String> totalsLookups = new ArrayList<>();
+    private final List<PeerAggregates> notified = new ArrayList<>();
+    private PeerAggregator aggregator;
+    private WireguardConnectionData previous;
+
+    @BeforeEach
+    void setUp() {
+        // online within 180s, offline after 600s, like PeerLifecycleDetector's defaults
+        aggregator = new PeerAggregator(null, (handshake, now) -> {
+            if (handshake == null || now / 1000 - handshake > 600) {
+                return PeerState.OFFLINE;
+            }
+            return now / 1000 - handshake <= 180 ? PeerState.ONLINE : PeerState.IDLE;
+        }, key -> {
+            totalsLookups.add(key);
+            return lifetimeTotals.get(key);
+        }, 2);
+        aggregator.addListener(notified::add);
+        previous = WireguardConnectionData.builder().build();
+    }
+
+    private void refresh(WireguardConnectionData current) {
+        aggregator.aggregate(WireguardConnectionDiff.between(previous, current), NOW_MILLIS);
+        previous = current;
+    }
+
+    private static ClientConnectionInformation peer(String publicKey, Long handshake, long bytes, double rate) {
+        return PeerSnapshots.withRate(PeerSnapshots.peer(publicKey, "(none)", handshake, bytes, bytes), rate);
+    }
+
+    private static List<String> keys(List<TopPeer> top) {
+        return top.stream().map(TopPeer::publicKey).toList();
+    }
+
+    @Test
+    public void testTopListsCountsAndHistograms() {
+        lifetimeTotals.put("quiet", new TransferTotals(50_000, 50_000));
+        refresh(snapshot(Map.of(
+                "wg0", List.of(peer("busy", NOW_SECONDS - 10, 100, 500), peer("quiet", NOW_SECONDS - 400, 200, 1)),
+                "wg1", List.of(peer("medium", NOW_SECONDS - 90, 5_000, 50), peer("never", 0L, 0, 0)))));
+
+        PeerAggregates aggregates = aggregator.getAggregates();
+        Summary global = aggregates.global();
+        assertEquals(4, global.peers());
+        assertEquals(List.of("busy", "medium"), keys(global.topByRate()));
+        // quiet has been reset, its lifetime total is far above its counters
+        assertEquals(List.of("quiet", "medium"), keys(global.topByVolume()));
+        assertEquals(50_000, global.topByVolume().get(0).totalBytesReceived());
+        assertEquals("wg0Key", global.topByRate().get(0).networkPublicKey());
+        assertEquals(Integer.valueOf(2), global.stateCounts().get(PeerState.ONLINE));
+        assertEquals(Integer.valueOf(1), global.stateCounts().get(PeerState.IDLE));
+        assertEquals(Integer.valueOf(1), global.stateCounts().get(PeerState.OFFLINE));
+        assertEquals(551.0, global.receiveBytesPerSecond(), 1e-9);
+        // 10s in the first bucket, 90s in the second, 400s in the fifth
+        assertEquals(List.of(1, 1, 0, 0, 1, 0, 0, 0, 0, 0), global.handshakeAges().counts());
+        assertEquals(1, global.handshakeAges().neverConnected());
+
+        Summary wg1 = aggregates.networks().get("wg1Key");
+        assertEquals(2, wg1.peers());
+        assertEquals(List.of("medium", "never"), keys(wg1.topByRate()));
+        assertEquals(Integer.valueOf(1), wg1.stateCounts().get(PeerState.OFFLINE));
+        assertEquals(1, notified.size());
+    }
+
+    @Test
+    public void testOnlyChangedPeersAreReranked() {
+        ClientConnectionInformation busy = peer("busy", NOW_SECONDS - 10, 100, 500);
+        ClientConnectionInformation quiet = peer("quiet", NOW_SECONDS - 10, 200, 1);
+        ClientConnectionInformation medium = peer("medium", NOW_SECONDS - 10, 300, 50);
+        refresh(snapshot(Map.of("wg0", List.of(busy, quiet, medium))));
+        totalsLookups.clear();
+
+        // quiet starts a download, the others did not move
+        ClientConnectionInformation downloading = peer("quiet", NOW_SECONDS - 10, 90_000, 9_000);
+        refresh(snapshot(Map.of("wg0", List.of(busy, downloading, medium))));
+
+        assertEquals(List.of("quiet"), totalsLookups);
+        assertEquals(List.of("quiet", "busy"), keys(aggregator.getAggregates().global().topByRate()));
+        assertEquals(List.of("quiet", "medium"), keys(aggregator.getAggregates().networks().get("wg0Key").topByVolume()));
+        assertEquals(2, notified.size());
+
+        // nothing changed, nothing is sent
+        refresh(snapshot(Map.of("wg0", List.of(busy, downloading, medium))));
+        assertEquals(2, notified.size());
+    }
+
+    @Test
+    public void testPeersTradingNetworksMoveBetweenTheirSummaries() {
+        ClientConnectionInformation busy = peer("busy", NOW_SECONDS - 10, 100, 500);
+        ClientConnectionInformation quiet = peer("quiet", NOW_SECONDS - 10, 200, 1);
+        ClientConnectionInformation medium = peer("medium", NOW_SECONDS - 10, 5_000, 50);
+        ClientConnectionInformation never = peer("never", 0L, 0, 0);
+        refresh(snapshot(Map.of("wg0", List.of(busy, quiet), "wg1", List.of(medium, never))));
+
+        // busy and medium swap, both networks keep two peers
+        refresh(snapshot(Map.of("wg0", List.of(medium, quiet), "wg1", List.of(busy, never))));
+
+        PeerAggregates aggregates = aggregator.getAggregates();
+        assertEquals(List.of("medium", "quiet"), keys(aggregates.networks().get("wg0Key").topByRate()));
+        assertEquals(List.of("busy", "never"), keys(aggregates.networks().get("wg1Key").topByRate()));
+        assertEquals("wg1Key", aggregates.global().topByRate().get(0).networkPublicKey());
+    }
+
+    @Test
+    public void testRemovedPeersAndNetworksLeaveTheRankings() {
+        refresh(snapshot(Map.of(
+                "wg0", List.of(peer("busy", NOW_SECONDS - 10, 100, 500)),
+                "wg1", List.of(peer("medium", NOW_SECONDS - 10, 5_000, 50), peer("quiet", NOW_SECONDS - 10, 200, 1)))));
+
+        refresh(snapshot(Map.of("wg1", List.of(peer("quiet", NOW_SECONDS - 10, 200, 1)))));
+
+        PeerAggregates aggregates = aggregator.getAggregates();
+        assertEquals(List.of("quiet"), keys(aggregates.global().topByRate()));
+        assertEquals(List.of("wg1Key"), List.copyOf(aggregates.networks().keySet()));
+        assertEquals(1, aggregates.forNetworks(Set.of("wg1Key", "wg0Key")).networks().size());
+    }
+}
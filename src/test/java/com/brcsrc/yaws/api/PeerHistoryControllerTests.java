@@ -0,0 +1,73 @@
+package com.brcsrc.yaws.api;
+
+import com.brcsrc.yaws.history.PeerHistoryStore;
+import com.brcsrc.yaws.history.TelemetryStore;
+import com.brcsrc.yaws.model.requests.GetConnectionHistoryRequest;
+import com.brcsrc.yaws.shell.ExecutionResult;
+import com.brcsrc.yaws.system.WireguardConnectionDiff;
+import com.brcsrc.yaws.system.WireguardInformationProvider;
+import com.brcsrc.yaws.system.WireguardInformationProvider.WireguardConnectionData;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.http.HttpStatus;
+import org.springframework.mock.env.MockEnvironment;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.nio.file.Path;
+
+import static com.brcsrc.yaws.system.PeerSnapshots.peer;
+import static com.brcsrc.yaws.system.PeerSnapshots.snapshot;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class PeerHistoryControllerTests {
+
+    @TempDir
+    Path telemetryDirectory;
+
+    private WireguardInformationProvider provider;
+
+    @BeforeEach
+    void setUp() {
+        provider = new WireguardInformationProvider(command -> new ExecutionResult("", "no wg in tests", 1), new MockEnvironment());
+    }
+
+    @AfterEach
+    void tearDown() {
+        provider.shutdown();
+    }
+
+    @Test
+    public void testClientHistoryFallsBackToTelemetryForRemovedPeers() throws Exception {
+        TelemetryStore telemetryStore = new TelemetryStore(provider, new MockEnvironment()
+                .withProperty("yaws.telemetry.enabled", "true")
+                .withProperty("yaws.telemetry.directory", telemetryDirectory.toString()));
+        telemetryStore.initialize();
+        PeerHistoryController controller = new PeerHistoryController(
+                new PeerHistoryStore(provider, new MockEnvironment()), telemetryStore);
+        try {
+            // a peer that was sampled before it was removed from the network
+            telemetryStore.onChange(WireguardConnectionDiff.between(new WireguardConnectionData(),
+                    snapshot(peer("removedPeer", "1.2.3.4:1234", 1000L, 100, 200))));
+            GetConnectionHistoryRequest request = new GetConnectionHistoryRequest();
+            request.setPublicKeyValue("removedPeer");
+            long deadline = System.currentTimeMillis() + 5_000;
+            while (telemetryStore.queryPeer("removedPeer", 0, System.currentTimeMillis(), 10).isEmpty()
+                    && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+
+            PeerHistoryStore.PeerHistory history = controller.getClientHistory(request);
+            assertEquals("removedPeer", history.publicKey());
+            assertEquals(100, history.points().get(history.points().size() - 1).bytesReceived());
+
+            request.setPublicKeyValue("neverSeen");
+            ResponseStatusException notFound = assertThrows(ResponseStatusException.class,
+                    () -> controller.getClientHistory(request));
+            assertEquals(HttpStatus.NOT_FOUND, notFound.getStatusCode());
+        } finally {
+            telemetryStore.shutdown();
+        }
+    }
+}
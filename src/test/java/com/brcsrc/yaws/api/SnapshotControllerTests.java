@@ -0,0 +1,91 @@
+package com.brcsrc.yaws.api;
+
+import com.brcsrc.yaws.shell.ExecutionResult;
+import com.brcsrc.yaws.system.WireguardInformationProvider;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.mock.env.MockEnvironment;
+import org.springframework.web.context.request.async.DeferredResult;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class SnapshotControllerTests {
+
+    private static final String DUMP = "wg0\tprivateKey\twg0Key\t51820\toff\n" +
+            "wg0\tpeerKey\t(none)\t1.2.3.4:1234\t10.0.0.2/32\t1000\t100\t200\toff\n";
+
+    private WireguardInformationProvider provider;
+    private SnapshotController controller;
+
+    @BeforeEach
+    void setUp() {
+        provider = new WireguardInformationProvider(command -> new ExecutionResult(DUMP, "", 0), new MockEnvironment());
+        controller = new SnapshotController(provider);
+    }
+
+    @AfterEach
+    void tearDown() {
+        provider.shutdown();
+    }
+
+    private static ResponseEntity<?> responseOf(DeferredResult<ResponseEntity<?>> result) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5_000;
+        while (!result.hasResult() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertTrue(result.hasResult());
+        return (ResponseEntity<?>) result.getResult();
+    }
+
+    @Test
+    public void testMatchesEtag() {
+        String etag = "\"lq3k9x2a-42\"";
+        assertFalse(SnapshotController.matchesEtag(null, etag));
+        assertTrue(SnapshotController.matchesEtag(etag, etag));
+        assertTrue(SnapshotController.matchesEtag("\"lq3k9x2a-41\", W/" + etag, etag));
+        assertTrue(SnapshotController.matchesEtag("*", etag));
+        // the same version of an earlier run, or just the version
+        assertFalse(SnapshotController.matchesEtag("\"lq3k9x29-42\"", etag));
+        assertFalse(SnapshotController.matchesEtag("\"42\"", etag));
+    }
+
+    @Test
+    public void testCurrentEtagIsAnsweredWithNotModified() throws Exception {
+        ResponseEntity<?> first = responseOf(controller.getSnapshot(null, null));
+        assertEquals(HttpStatus.OK, first.getStatusCode());
+        String etag = first.getHeaders().getETag();
+        assertEquals(controller.snapshotEtag(provider.getConnectionData()), etag);
+        assertTrue(etag.endsWith("-0\""));
+
+        ResponseEntity<?> unchanged = responseOf(controller.getSnapshot(null, etag));
+        assertEquals(HttpStatus.NOT_MODIFIED, unchanged.getStatusCode());
+        assertEquals(etag, unchanged.getHeaders().getETag());
+        assertNull(unchanged.getBody());
+
+        // an ETag of the same version from before a restart gets the snapshot
+        ResponseEntity<?> restarted = responseOf(controller.getSnapshot(null, "\"0\""));
+        assertEquals(HttpStatus.OK, restarted.getStatusCode());
+    }
+
+    @Test
+    public void testWaitForVersionResolvesOnPublish() throws Exception {
+        String etag = responseOf(controller.getSnapshot(null, null)).getHeaders().getETag();
+
+        DeferredResult<ResponseEntity<?>> waiting = controller.getSnapshot(1L, etag);
+        assertFalse(waiting.hasResult());
+        provider.requestRefresh();
+
+        ResponseEntity<?> published = responseOf(waiting);
+        assertEquals(HttpStatus.OK, published.getStatusCode());
+        assertTrue(published.getHeaders().getETag().endsWith("-1\""));
+        SnapshotController.WireguardSnapshotResponse body = (SnapshotController.WireguardSnapshotResponse) published.getBody();
+        assertEquals(1, body.version());
+        assertTrue(body.networks().containsKey("wg0Key"));
+
+        // a version that is already published answers right away
+        assertTrue(controller.getSnapshot(1L, null).hasResult());
+    }
+}
@@ -0,0 +1,83 @@
+package com.brcsrc.yaws.history;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class CumulativeTransferCounterTests {
+
+    @Test
+    public void testTotalsFollowCountersUntilReset() {
+        CumulativeTransferCounter counter = new CumulativeTransferCounter(0, 0, 0, 0);
+
+        assertTrue(counter.observe(1000, 500));
+        assertFalse(counter.observe(1000, 500));
+        assertTrue(counter.observe(3000, 800));
+        // wg-quick down/up, both counters start over
+        assertTrue(counter.observe(200, 0));
+        counter.observe(700, 100);
+
+        assertEquals(3700, counter.totalBytesReceived());
+        assertEquals(900, counter.totalBytesSent());
+    }
+
+    @Test
+    public void testResetOfEitherCounterMovesBothIntoOffsets() {
+        CumulativeTransferCounter counter = new CumulativeTransferCounter(0, 0, 1000, 500);
+
+        // rx already grew past its old value, tx going down is what gives the reset away
+        counter.observe(1500, 100);
+
+        assertEquals(2500, counter.totalBytesReceived());
+        assertEquals(600, counter.totalBytesSent());
+    }
+
+    @Test
+    public void testRestoredCounterDetectsResetWhileStopped() {
+        // as loaded from client_transfer_totals: 10000 counted before, wg reported 4000 when last written
+        CumulativeTransferCounter restored = CumulativeTransferCounter.restored(10_000, 5_000, 4_000, 2_000);
+
+        // the interface was restarted on startup
+        restored.observe(50, 20);
+
+        assertEquals(14_050, restored.totalBytesReceived());
+        assertEquals(7_020, restored.totalBytesSent());
+        assertArrayEquals(new long[] {14_000, 7_000, 50, 20}, restored.state());
+
+        // StartupTasks reporting the interface afterwards does not count the stored counters twice
+        assertFalse(restored.restarted());
+        assertEquals(14_050, restored.totalBytesReceived());
+
+        // only yaws restarted, the interface kept counting and is never reported
+        CumulativeTransferCounter kept = CumulativeTransferCounter.restored(10_000, 5_000, 4_000, 2_000);
+        kept.observe(4_500, 2_000);
+        assertEquals(14_500, kept.totalBytesReceived());
+    }
+
+    @Test
+    public void testRestartedCountsTrafficPastTheStoredCounters() {
+        CumulativeTransferCounter restored = CumulativeTransferCounter.restored(10_000, 5_000, 4_000, 2_000);
+
+        // the interface brought up again already moved more than the stored counters before the first refresh
+        restored.observe(4_500, 2_000);
+        assertTrue(restored.restarted());
+
+        assertEquals(18_500, restored.totalBytesReceived());
+        assertEquals(9_000, restored.totalBytesSent());
+        assertFalse(restored.restarted());
+    }
+
+    @Test
+    public void testRestartedBeforeTheFirstObservation() {
+        CumulativeTransferCounter restored = CumulativeTransferCounter.restored(10_000, 5_000, 4_000, 2_000);
+
+        assertTrue(restored.restarted());
+        assertEquals(14_000, restored.totalBytesReceived());
+        restored.observe(4_500, 100);
+
+        assertEquals(18_500, restored.totalBytesReceived());
+        assertEquals(7_100, restored.totalBytesSent());
+        // a counter that was not restored has nothing to correct
+        assertFalse(new CumulativeTransferCounter(0, 0, 0, 0).restarted());
+    }
+}
@@ -0,0 +1,94 @@
+package com.brcsrc.yaws.history;
+
+import com.brcsrc.yaws.shell.ExecutionResult;
+import com.brcsrc.yaws.system.PeerSnapshots;
+import com.brcsrc.yaws.system.WireguardInformationProvider;
+import com.brcsrc.yaws.system.WireguardInformationProvider.WireguardConnectionData;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.env.MockEnvironment;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class PeerHistoryStoreTests {
+
+    private static final String DUMP = "wg0\tprivateKey\twg0Key\t51820\toff\n" +
+            "wg0\tpeerKey\t(none)\t1.2.3.4:1234\t10.0.0.2/32\t1000\t100\t200\toff\n";
+
+    private final WireguardInformationProvider provider = new WireguardInformationProvider(
+            command -> new ExecutionResult(DUMP, "", 0), new MockEnvironment());
+
+    @AfterEach
+    void tearDown() {
+        provider.shutdown();
+    }
+
+    private static WireguardConnectionData snapshot(long rx, long tx) {
+        return PeerSnapshots.snapshot(PeerSnapshots.peer("peerKey", "1.2.3.4:1234", 1000L, rx, tx));
+    }
+
+    @Test
+    public void testRingKeepsNewestSamplesAtFixedCapacity() {
+        PeerSampleRing ring = new PeerSampleRing(4);
+        for (int i = 1; i <= 10; i++) {
+            ring.append(i * 1000L, i * 100L, i * 10L, 0);
+        }
+
+        List<HistoryPoint> points = ring.query(0, 20_000, 100);
+
+        assertEquals(4, ring.size());
+        assertEquals(List.of(7000L, 8000L, 9000L, 10000L), points.stream().map(HistoryPoint::timestampEpochMillis).toList());
+        // 100 bytes received per second between consecutive samples
+        assertEquals(100.0, points.get(3).receiveBytesPerSecond(), 0.001);
+        assertEquals(0.0, points.get(0).receiveBytesPerSecond(), 0.001);
+    }
+
+    @Test
+    public void testRingQueryDownsamplesToNewestSampleOfEachBucket() {
+        PeerSampleRing ring = new PeerSampleRing(100);
+        for (int i = 0; i < 100; i++) {
+            ring.append(i * 1000L, i * 1000L, 0, 0);
+        }
+
+        List<HistoryPoint> points = ring.query(10_000, 49_000, 4);
+
+        assertTrue(points.size() <= 4, "expected at most 4 points, got " + points.size());
+        assertEquals(49_000, points.get(points.size() - 1).timestampEpochMillis());
+        // the first point's rate comes from the sample before the range
+        assertEquals(1000.0, points.get(0).receiveBytesPerSecond(), 0.001);
+        for (HistoryPoint point : points) {
+            assertTrue(point.timestampEpochMillis() >= 10_000 && point.timestampEpochMillis() <= 49_000);
+        }
+    }
+
+    @Test
+    public void testStoreSamplesAtMostOncePerInterval() {
+        PeerHistoryStore store = new PeerHistoryStore(provider, 10_000, 10);
+
+        store.record(snapshot(100, 200), 0);
+        store.record(snapshot(150, 250), 2_000);
+        store.record(snapshot(1100, 1200), 10_000);
+
+        List<HistoryPoint> points = store.queryPeer("peerKey", 0, 20_000, 10).points();
+        assertEquals(2, points.size());
+        assertEquals(1100, points.get(1).bytesReceived());
+        assertEquals(100.0, points.get(1).receiveBytesPerSecond(), 0.001);
+        assertNull(store.queryPeer("unknownKey", 0, 20_000, 10));
+    }
+
+    @Test
+    public void testNetworkQueryCoversCurrentPeers() {
+        provider.initialize();
+        PeerHistoryStore store = new PeerHistoryStore(provider, 0, 10);
+        store.record(snapshot(100, 200), 1_000);
+        store.record(snapshot(300, 400), 2_000);
+
+        PeerHistoryStore.NetworkHistory history = store.queryNetwork("wg0Key", 0, 3_000, 10);
+
+        assertEquals("wg0", history.interfaceName());
+        assertEquals(2, history.peers().get("peerKey").size());
+        assertNull(store.queryNetwork("unknownKey", 0, 3_000, 10));
+    }
+}
@@ -0,0 +1,169 @@
+package com.brcsrc.yaws.history;
+
+import com.brcsrc.yaws.shell.ExecutionResult;
+import com.brcsrc.yaws.system.WireguardInformationProvider;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.mock.env.MockEnvironment;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TelemetryStoreTests {
+
+    private static final long MINUTE = 60_000L;
+    private static final long HOUR = 60 * MINUTE;
+    private static final long DAY = 24 * HOUR;
+    // aligned to every segment span so the tests know which files they write
+    private static final long START = 1000 * 30 * DAY;
+
+    @TempDir
+    Path directory;
+
+    private final WireguardInformationProvider provider = new WireguardInformationProvider(
+            command -> new ExecutionResult("", "no wg in tests", 1), new MockEnvironment());
+    private TelemetryStore store;
+
+    @AfterEach
+    void tearDown() {
+        if (store != null) {
+            store.shutdown();
+        }
+        provider.shutdown();
+    }
+
+    private TelemetryStore openStore() {
+        TelemetryStore opened = new TelemetryStore(provider, true, directory);
+        opened.initialize();
+        return opened;
+    }
+
+    private static void sample(TelemetryStore store, long timestamp, long rx) {
+        store.record(timestamp, List.of("peerA", "peerB"), new long[]{rx, rx * 2}, new long[]{rx / 2, rx}, new long[]{timestamp / 1000, 0});
+    }
+
+    private long segmentCount(String prefix) throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.filter(file -> file.getFileName().toString().startsWith(prefix + "-")).count();
+        }
+    }
+
+    @Test
+    public void testRawSamplesSurviveRestart() throws Exception {
+        store = openStore();
+        for (int i = 0; i < 12; i++) {
+            sample(store, START + i * 5_000L, 1000L * i);
+        }
+        store.shutdown();
+
+        store = openStore();
+        List<HistoryPoint> points = store.queryPeer("peerA", START, START + MINUTE, 100);
+
+        assertEquals(12, points.size());
+        assertEquals(11_000, points.get(11).bytesReceived());
+        assertEquals(5_500, points.get(11).bytesSent());
+        assertEquals(200.0, points.get(11).receiveBytesPerSecond(), 0.001);
+        assertEquals(22_000, store.queryPeer("peerB", START, START + MINUTE, 100).get(11).bytesReceived());
+    }
+
+    @Test
+    public void testRawTierSkipsSamplesCloserThanResolution() {
+        store = openStore();
+        sample(store, START, 100);
+        sample(store, START + 1_000, 200);
+        sample(store, START + 5_000, 300);
+
+        List<HistoryPoint> points = store.queryPeer("peerA", START, START + 10_000, 100);
+        assertEquals(List.of(100L, 300L), points.stream().map(HistoryPoint::bytesReceived).toList());
+    }
+
+    @Test
+    public void testLongRangesReadOnlyRollupTiers() throws Exception {
+        store = openStore();
+        // a sample every 10 minutes for 30 days
+        for (long t = START; t <= START + 30 * DAY; t += 10 * MINUTE) {
+            sample(store, t, (t - START) / 1000);
+        }
+
+        List<HistoryPoint> month = store.queryPeer("peerA", START, START + 30 * DAY, 100);
+        assertFalse(month.isEmpty());
+        assertTrue(month.size() <= 100);
+        // hour rollups hold the last sample of each hour, stamped with minute 50 when it was taken
+        for (HistoryPoint point : month) {
+            assertEquals(50 * MINUTE, point.timestampEpochMillis() % HOUR);
+            assertEquals((point.timestampEpochMillis() - START) / 1000, point.bytesReceived());
+        }
+        // the counter grows a byte per second, the rates between rollup points must say so
+        for (HistoryPoint point : month.subList(1, month.size())) {
+            assertEquals(1.0, point.receiveBytesPerSecond(), 0.001);
+        }
+
+        assertEquals(1, segmentCount("hour"));
+        assertTrue(segmentCount("minute") >= 30);
+        // raw segments older than two days are gone
+        assertTrue(segmentCount("raw") <= 50, "expected old raw segments to be deleted, found " + segmentCount("raw"));
+    }
+
+    @Test
+    public void testQueryPeersMatchesQueryPeerForEveryPeer() {
+        store = openStore();
+        for (long t = START; t <= START + 2 * DAY; t += 10 * MINUTE) {
+            sample(store, t, (t - START) / 1000);
+        }
+
+        Map<String, List<HistoryPoint>> points = store.queryPeers(List.of("peerA", "peerB", "unknown"), START, START + 2 * DAY, 50);
+
+        assertEquals(3, points.size());
+        assertFalse(points.get("peerA").isEmpty());
+        assertEquals(store.queryPeer("peerA", START, START + 2 * DAY, 50), points.get("peerA"));
+        assertEquals(store.queryPeer("peerB", START, START + 2 * DAY, 50), points.get("peerB"));
+        assertEquals(List.of(), points.get("unknown"));
+        assertEquals(List.of(), store.queryPeers(List.of("peerA"), START, START + DAY, 0).get("peerA"));
+    }
+
+    @Test
+    public void testTornTailIsIgnoredOnRecovery() throws Exception {
+        store = openStore();
+        for (int i = 0; i < 3; i++) {
+            sample(store, START + i * 5_000L, 1000L * i);
+        }
+        store.shutdown();
+
+        // a frame header that claims a payload which was never fully written
+        Path segment = directory.resolve("raw-" + START + ".seg");
+        try (RandomAccessFile file = new RandomAccessFile(segment.toFile(), "rw")) {
+            long end = findEnd(file);
+            file.seek(end);
+            file.writeInt(64);
+            file.writeInt(12345);
+            file.writeLong(START + 15_000);
+            file.write(new byte[]{2, 0, 5});
+        }
+
+        store = openStore();
+        sample(store, START + 20_000, 4000);
+        List<HistoryPoint> points = store.queryPeer("peerA", START, START + MINUTE, 100);
+        assertEquals(List.of(0L, 1000L, 2000L, 4000L), points.stream().map(HistoryPoint::bytesReceived).toList());
+    }
+
+    // walks the frame lengths from the header to the first empty one
+    private static long findEnd(RandomAccessFile file) throws IOException {
+        long position = 16;
+        while (true) {
+            file.seek(position);
+            int length = file.readInt();
+            if (length == 0) {
+                return position;
+            }
+            position += 16 + length;
+        }
+    }
+}
@@ -0,0 +1,160 @@
+package com.brcsrc.yaws.history;
+
+import com.brcsrc.yaws.model.ClientTransferTotals;
+import com.brcsrc.yaws.persistence.ClientTransferTotalsRepository;
+import com.brcsrc.yaws.shell.ExecutionResult;
+import com.brcsrc.yaws.system.ClientConnectionInformation;
+import com.brcsrc.yaws.system.WireguardConnectionDiff;
+import com.brcsrc.yaws.system.WireguardInformationProvider;
+import com.brcsrc.yaws.system.WireguardInformationProvider.WireguardConnectionData;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.env.MockEnvironment;
+
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static com.brcsrc.yaws.system.PeerSnapshots.peer;
+import static com.brcsrc.yaws.system.PeerSnapshots.snapshot;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TransferTotalsStoreTests {
+
+    private final WireguardInformationProvider provider = new WireguardInformationProvider(
+            command -> new ExecutionResult("", "no wg in tests", 1), new MockEnvironment());
+    // client_transfer_totals by public key, and every saveAll batch
+    private final Map<String, ClientTransferTotals> rows = new ConcurrentHashMap<>();
+    private final List<List<String>> batches = new CopyOnWriteArrayList<>();
+    private final ClientTransferTotalsRepository repository = repository();
+    private TransferTotalsStore store;
+
+    @AfterEach
+    void tearDown() {
+        if (store != null) {
+            store.shutdown();
+        }
+        provider.shutdown();
+    }
+
+    // only what the store uses, the rest of JpaRepository is not needed here
+    @SuppressWarnings("unchecked")
+    private ClientTransferTotalsRepository repository() {
+        return (ClientTransferTotalsRepository) Proxy.newProxyInstance(getClass().getClassLoader(),
+                new Class<?>[] {ClientTransferTotalsRepository.class}, (proxy, method, args) -> switch (method.getName()) {
+                    case "findAll" -> new ArrayList<>(rows.values());
+                    case "saveAll" -> {
+                        List<String> batch = new ArrayList<>();
+                        for (ClientTransferTotals row : (Iterable<ClientTransferTotals>) args[0]) {
+                            rows.put(row.getClientPublicKeyValue(), row);
+                            batch.add(row.getClientPublicKeyValue());
+                        }
+                        batches.add(batch);
+                        yield args[0];
+                    }
+                    case "deleteById" -> rows.remove((String) args[0]);
+                    case "toString" -> "ClientTransferTotalsRepository";
+                    default -> throw new UnsupportedOperationException(method.getName());
+                });
+    }
+
+    private TransferTotalsStore openStore() {
+        // flushed by the tests, not by the schedule
+        TransferTotalsStore opened = new TransferTotalsStore(provider, repository,
+                new MockEnvironment().withProperty(TransferTotalsStore.FLUSH_INTERVAL_PROPERTY, "3600000"));
+        opened.initialize();
+        return opened;
+    }
+
+    private static void refresh(TransferTotalsStore store, ClientConnectionInformation... peers) {
+        store.onChange(WireguardConnectionDiff.between(new WireguardConnectionData(), snapshot(peers)));
+    }
+
+    private static ClientTransferTotals row(String publicKey, long rxOffset, long txOffset, long lastRx, long lastTx) {
+        ClientTransferTotals row = new ClientTransferTotals();
+        row.setClientPublicKeyValue(publicKey);
+        row.setBytesReceivedOffset(rxOffset);
+        row.setBytesSentOffset(txOffset);
+        row.setLastBytesReceived(lastRx);
+        row.setLastBytesSent(lastTx);
+        return row;
+    }
+
+    @Test
+    public void testChangesAreWrittenInOneBatchPerFlush() throws Exception {
+        store = openStore();
+        refresh(store, peer("peerA", "1.1.1.1:1", 100L, 1_000, 500), peer("peerB", "2.2.2.2:2", 100L, 10, 20));
+        refresh(store, peer("peerA", "1.1.1.1:1", 100L, 2_000, 600), peer("peerB", "2.2.2.2:2", 100L, 10, 20));
+        assertTrue(batches.isEmpty());
+
+        store.flushAndWait();
+
+        assertEquals(1, batches.size());
+        assertEquals(2, batches.get(0).size());
+        assertEquals(2_000, rows.get("peerA").getLastBytesReceived());
+        assertEquals(600, rows.get("peerA").getLastBytesSent());
+
+        // nothing changed, nothing written, then only the peer that moved
+        store.flushAndWait();
+        assertEquals(1, batches.size());
+        refresh(store, peer("peerA", "1.1.1.1:1", 100L, 2_000, 600), peer("peerB", "2.2.2.2:2", 100L, 30, 20));
+        store.flushAndWait();
+        assertEquals(List.of("peerB"), batches.get(1));
+    }
+
+    @Test
+    public void testTotalsAreReloadedOnStartup() throws Exception {
+        store = openStore();
+        refresh(store, peer("peerA", "1.1.1.1:1", 100L, 4_000, 2_000));
+        store.shutdown();
+        assertEquals(4_000, rows.get("peerA").getLastBytesReceived());
+
+        store = openStore();
+        assertEquals(new TransferTotalsStore.TransferTotals(4_000, 2_000), store.getTotals("peerA"));
+        // the interface survived the restart and kept counting
+        refresh(store, peer("peerA", "1.1.1.1:1", 100L, 5_000, 2_100));
+        assertEquals(new TransferTotalsStore.TransferTotals(5_000, 2_100), store.getTotals("peerA"));
+
+        store.flushAndWait();
+        assertEquals(0, rows.get("peerA").getBytesReceivedOffset());
+        assertEquals(5_000, rows.get("peerA").getLastBytesReceived());
+    }
+
+    @Test
+    public void testRestartedInterfaceKeepsTheStoredTotals() throws Exception {
+        rows.put("peerA", row("peerA", 10_000, 5_000, 4_000, 2_000));
+        rows.put("peerB", row("peerB", 0, 0, 300, 300));
+        store = openStore();
+
+        // StartupTasks brought peerA's interface up again, it passed the stored counters before the first refresh
+        refresh(store, peer("peerA", "1.1.1.1:1", 100L, 5_000, 100), peer("peerB", "2.2.2.2:2", 100L, 400, 400));
+        store.restarted(List.of("peerA", "unknown"));
+
+        assertEquals(new TransferTotalsStore.TransferTotals(19_000, 7_100), store.getTotals("peerA"));
+        assertEquals(new TransferTotalsStore.TransferTotals(400, 400), store.getTotals("peerB"));
+        store.flushAndWait();
+        assertEquals(14_000, rows.get("peerA").getBytesReceivedOffset());
+    }
+
+    @Test
+    public void testForgetDeletesTheTotals() throws Exception {
+        rows.put("peerA", row("peerA", 10_000, 5_000, 4_000, 2_000));
+        store = openStore();
+        refresh(store, peer("peerA", "1.1.1.1:1", 100L, 50, 20));
+
+        store.forget("peerA");
+        store.flushAndWait();
+
+        assertNull(store.getTotals("peerA"));
+        assertFalse(rows.containsKey("peerA"));
+        // nothing left to write for it either
+        assertTrue(batches.isEmpty());
+
+        // a new client reusing the key starts from 0
+        refresh(store, peer("peerA", "1.1.1.1:1", 100L, 70, 30));
+        assertEquals(new TransferTotalsStore.TransferTotals(70, 30), store.getTotals("peerA"));
+    }
+}
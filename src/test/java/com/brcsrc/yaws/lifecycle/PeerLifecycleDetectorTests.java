@@ -0,0 +1,123 @@
+package com.brcsrc.yaws.lifecycle;
+
+import com.brcsrc.yaws.shell.ExecutionResult;
+import com.brcsrc.yaws.system.ClientConnectionInformation;
+import com.brcsrc.yaws.system.PeerSnapshots;
+import com.brcsrc.yaws.system.WireguardInformationProvider;
+import com.brcsrc.yaws.system.WireguardInformationProvider.WireguardConnectionData;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.env.MockEnvironment;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static com.brcsrc.yaws.system.PeerSnapshots.snapshot;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class PeerLifecycleDetectorTests {
+
+    private static final long START_MILLIS = 1_700_000_000_000L;
+    private static final long START_SECONDS = START_MILLIS / 1000;
+
+    private WireguardInformationProvider provider;
+    private PeerLifecycleDetector detector;
+    private final List<PeerLifecycleEvent> received = new ArrayList<>();
+
+    @BeforeEach
+    void setUp() {
+        // the provider is only there to register with, its own refreshes never publish
+        provider = new WireguardInformationProvider(command -> new ExecutionResult("", "no wg in tests", 1), new MockEnvironment());
+        detector = new PeerLifecycleDetector(provider, 180, 600, 300_000, 4, 10);
+        detector.addListener(received::addAll);
+    }
+
+    @AfterEach
+    void tearDown() {
+        provider.shutdown();
+    }
+
+    private static ClientConnectionInformation peer(String publicKey, String endpoint, Long handshake) {
+        return PeerSnapshots.peer(publicKey, endpoint, handshake, 100, 200);
+    }
+
+    @Test
+    public void testFirstRefreshSeedsWithoutEvents() {
+        detector.detect(snapshot(peer("peerKey", "1.2.3.4:1234", START_SECONDS), peer("quietKey", "(none)", null)), START_MILLIS);
+
+        assertTrue(received.isEmpty());
+        assertEquals(0, detector.getLastSequence());
+        assertEquals(Integer.valueOf(1), detector.getStateCounts().get(PeerState.ONLINE));
+        assertEquals(Integer.valueOf(1), detector.getStateCounts().get(PeerState.OFFLINE));
+    }
+
+    @Test
+    public void testHandshakeAgeMovesPeerThroughStates() {
+        ClientConnectionInformation peer = peer("peerKey", "1.2.3.4:1234", START_SECONDS);
+        detector.detect(snapshot(peer), START_MILLIS);
+
+        // the same dump over and over, only the clock moves
+        detector.detect(snapshot(peer), START_MILLIS + 170_000);
+        detector.detect(snapshot(peer), START_MILLIS + 200_000);
+        detector.detect(snapshot(peer), START_MILLIS + 400_000);
+        detector.detect(snapshot(peer), START_MILLIS + 700_000);
+
+        assertEquals(2, received.size());
+        assertEquals(PeerLifecycleEvent.Type.STATE_CHANGED, received.get(0).type());
+        assertEquals(PeerState.ONLINE, received.get(0).previousState());
+        assertEquals(PeerState.IDLE, received.get(0).state());
+        assertEquals(PeerState.OFFLINE, received.get(1).state());
+        assertEquals("wg0Key", received.get(1).networkPublicKey());
+        assertEquals(List.of(1L, 2L), received.stream().map(PeerLifecycleEvent::sequence).toList());
+    }
+
+    @Test
+    public void testRoamingAddedRemovedAndChurn() {
+        detector.detect(snapshot(peer("peerKey", "(none)", null)), START_MILLIS);
+
+        // first connection is not a roam, only replacing a known endpoint is
+        detector.detect(snapshot(peer("peerKey", "1.2.3.4:1234", START_SECONDS + 1)), START_MILLIS + 2_000);
+        detector.detect(snapshot(peer("peerKey", "5.6.7.8:1234", START_SECONDS + 3)), START_MILLIS + 4_000);
+        detector.detect(snapshot(peer("peerKey", "5.6.7.8:1234", START_SECONDS + 5), peer("newKey", "(none)", null)), START_MILLIS + 6_000);
+        detector.detect(snapshot(peer("peerKey", "5.6.7.8:1234", START_SECONDS + 7)), START_MILLIS + 8_000);
+        // still churning, reported only once
+        detector.detect(snapshot(peer("peerKey", "5.6.7.8:1234", START_SECONDS + 9)), START_MILLIS + 10_000);
+
+        List<PeerLifecycleEvent.Type> types = received.stream().map(PeerLifecycleEvent::type).toList();
+        assertEquals(List.of(
+                PeerLifecycleEvent.Type.STATE_CHANGED,
+                PeerLifecycleEvent.Type.ROAMED,
+                PeerLifecycleEvent.Type.ADDED,
+                PeerLifecycleEvent.Type.HANDSHAKE_CHURN,
+                PeerLifecycleEvent.Type.REMOVED
+        ), types);
+        assertEquals("1.2.3.4:1234", received.get(1).previousEndpoint());
+        assertEquals("5.6.7.8:1234", received.get(1).endpoint());
+        assertEquals("newKey", received.get(4).publicKey());
+        assertEquals(PeerState.OFFLINE, received.get(4).previousState());
+    }
+
+    @Test
+    public void testChurnWindowTheRefreshCannotFitIsRejected() {
+        // the test provider refreshes every 2s at most, 4 handshakes need 3 refreshes
+        assertThrows(IllegalArgumentException.class, () -> new PeerLifecycleDetector(provider, 180, 600, 6_000, 4, 10));
+        new PeerLifecycleDetector(provider, 180, 600, 6_001, 4, 10);
+    }
+
+    @Test
+    public void testRecentEventsAreBoundedAndPagedBySequence() {
+        detector.detect(snapshot(), START_MILLIS);
+        for (int i = 0; i < 8; i++) {
+            // every refresh adds one peer and removes the previous one
+            detector.detect(snapshot(peer("peer" + i, "(none)", null)), START_MILLIS + i * 1000L);
+        }
+
+        assertEquals(15, detector.getLastSequence());
+        List<PeerLifecycleEvent> retained = detector.getEventsAfter(0, 100);
+        assertEquals(10, retained.size());
+        assertEquals(6, retained.get(0).sequence());
+        assertEquals(List.of(13L, 14L), detector.getEventsAfter(12, 2).stream().map(PeerLifecycleEvent::sequence).toList());
+        assertTrue(detector.getEventsAfter(15, 100).isEmpty());
+    }
+}
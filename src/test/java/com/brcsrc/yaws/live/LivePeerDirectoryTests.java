@@ -0,0 +1,132 @@
+package com.brcsrc.yaws.live;
+
+import com.brcsrc.yaws.aggregates.PeerAggregates;
+import com.brcsrc.yaws.aggregates.PeerAggregates.HandshakeAgeHistogram;
+import com.brcsrc.yaws.aggregates.PeerAggregates.Summary;
+import com.brcsrc.yaws.lifecycle.PeerState;
+import com.brcsrc.yaws.model.Client;
+import com.brcsrc.yaws.model.ClientLiveStatus;
+import com.brcsrc.yaws.model.Network;
+import com.brcsrc.yaws.model.NetworkClient;
+import com.brcsrc.yaws.model.NetworkLiveStatus;
+import com.brcsrc.yaws.system.ClientConnectionInformation;
+import com.brcsrc.yaws.system.PeerSnapshots;
+import com.brcsrc.yaws.system.WireguardConnectionDiff;
+import com.brcsrc.yaws.system.WireguardInformationProvider.WireguardConnectionData;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Map;
+
+import static com.brcsrc.yaws.system.PeerSnapshots.snapshot;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class LivePeerDirectoryTests {
+
+    // the snapshots carry no refresh time, states are classified against the clock
+    private static final long NOW_SECONDS = System.currentTimeMillis() / 1000;
+
+    private WireguardConnectionData current;
+    private PeerAggregates aggregates;
+    private LivePeerDirectory directory;
+
+    @BeforeEach
+    void setUp() {
+        current = WireguardConnectionData.builder().build();
+        aggregates = new PeerAggregates(0, 0, null, Map.of());
+        directory = new LivePeerDirectory(null, null, () -> current,
+                (handshake, now) -> handshake != null && now / 1000 - handshake <= 180 ? PeerState.ONLINE : PeerState.OFFLINE,
+                () -> aggregates);
+    }
+
+    private void refresh(WireguardConnectionData next) {
+        WireguardConnectionData previous = current;
+        current = next;
+        directory.onChange(WireguardConnectionDiff.between(previous, next));
+    }
+
+    private static ClientConnectionInformation peer(String publicKey, long handshake, double rate) {
+        return PeerSnapshots.withRate(PeerSnapshots.peer(publicKey, "203.0.113.7:51820", handshake, 100, 100), rate);
+    }
+
+    private static NetworkClient networkClient(String clientName, String publicKey) {
+        Network network = new Network();
+        network.setNetworkName("wg0");
+        Client client = new Client();
+        client.setClientName(clientName);
+        client.setClientPublicKeyValue(publicKey);
+        NetworkClient networkClient = new NetworkClient();
+        networkClient.setNetwork(network);
+        networkClient.setClient(client);
+        return networkClient;
+    }
+
+    @Test
+    public void testClientsFollowTheirPeersAcrossRefreshes() {
+        refresh(snapshot(peer("aliceKey", NOW_SECONDS - 10, 3_000_000)));
+        directory.clientAdded(networkClient("alice-laptop", "aliceKey"));
+
+        // joined with the peer already in the snapshot
+        ClientLiveStatus alice = directory.getClientStatus("aliceKey");
+        assertTrue(alice.present());
+        assertEquals(PeerState.ONLINE, alice.state());
+        assertEquals("203.0.113.7:51820", alice.endpoint());
+        assertEquals(Double.valueOf(3_000_000), alice.receiveBytesPerSecond());
+
+        // a client created before its peer shows up is joined on the refresh that adds it
+        directory.clientAdded(networkClient("bob-phone", "bobKey"));
+        assertFalse(directory.getClientStatus("bobKey").present());
+        refresh(snapshot(peer("aliceKey", NOW_SECONDS - 10, 3_000_000), peer("bobKey", 0, 0)));
+        ClientLiveStatus bob = directory.getClientStatus("bobKey");
+        assertTrue(bob.present());
+        assertNull(bob.latestHandshakeEpochSeconds());
+        assertEquals(PeerState.OFFLINE, bob.state());
+
+        // peers that are no client of yaws are not joined
+        refresh(snapshot(peer("aliceKey", NOW_SECONDS - 500, 0), peer("bobKey", 0, 0), peer("strangerKey", NOW_SECONDS, 1)));
+        assertFalse(directory.getClientStatus("strangerKey").present());
+        assertEquals(PeerState.OFFLINE, directory.getClientStatus("aliceKey").state());
+
+        // the interface went down
+        refresh(WireguardConnectionData.builder().build());
+        assertFalse(directory.getClientStatus("aliceKey").present());
+        assertFalse(directory.getClientStatus("bobKey").present());
+    }
+
+    @Test
+    public void testDeletedClientsAndNetworksAreDropped() {
+        directory.clientAdded(networkClient("alice-laptop", "aliceKey"));
+        directory.clientAdded(networkClient("bob-phone", "bobKey"));
+        refresh(snapshot(peer("aliceKey", NOW_SECONDS, 1), peer("bobKey", NOW_SECONDS, 1)));
+
+        directory.clientRemoved("aliceKey");
+        assertFalse(directory.getClientStatus("aliceKey").present());
+        assertTrue(directory.getClientStatus("bobKey").present());
+
+        // a later refresh does not bring a deleted client back
+        refresh(snapshot(peer("aliceKey", NOW_SECONDS - 1, 1), peer("bobKey", NOW_SECONDS - 1, 1)));
+        assertFalse(directory.getClientStatus("aliceKey").present());
+
+        directory.networkRemoved("wg0");
+        assertFalse(directory.getClientStatus("bobKey").present());
+    }
+
+    @Test
+    public void testNetworkStatusFromTheAggregates() {
+        refresh(snapshot(peer("aliceKey", NOW_SECONDS, 1)));
+        Summary summary = new Summary(1, Map.of(PeerState.ONLINE, 1), new HandshakeAgeHistogram(List.of(), List.of(1), 0),
+                250, 500, List.of(), List.of());
+        aggregates = new PeerAggregates(1, NOW_SECONDS * 1000, summary, Map.of("wg0Key", summary));
+
+        NetworkLiveStatus wg0 = directory.getNetworkStatus("wg0Key");
+        assertTrue(wg0.up());
+        assertEquals(1, wg0.peers());
+        assertEquals(Integer.valueOf(1), wg0.stateCounts().get(PeerState.ONLINE));
+        assertEquals(500.0, wg0.sendBytesPerSecond(), 1e-9);
+
+        NetworkLiveStatus down = directory.getNetworkStatus("wg1Key");
+        assertFalse(down.up());
+        assertEquals(0, down.peers());
+    }
+}
@@ -0,0 +1,228 @@
+package com.brcsrc.yaws.query;
+
+import com.brcsrc.yaws.lifecycle.PeerState;
+import com.brcsrc.yaws.query.PeerQuery.SortField;
+import com.brcsrc.yaws.query.PeerQueryResult.Peer;
+import com.brcsrc.yaws.system.ClientConnectionInformation;
+import com.brcsrc.yaws.system.NetworkConnectionInformation;
+import com.brcsrc.yaws.system.PeerSnapshots;
+import com.brcsrc.yaws.system.WireguardInformationProvider.WireguardConnectionData;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class PeerQueryEngineTests {
+
+    // the snapshot carries no refresh time, states and ages are relative to the clock
+    private static final long NOW_SECONDS = System.currentTimeMillis() / 1000;
+
+    private final Map<String, String> clientNames = new HashMap<>();
+    private final Map<String, String> clientTags = new HashMap<>();
+    private final AtomicLong generation = new AtomicLong();
+    private PeerQueryEngine engine;
+
+    @BeforeEach
+    void setUp() {
+        // 40 peers on wg0 and wg1, every third never handshook, rates repeat so the sort needs its tie break
+        WireguardConnectionData.Builder builder = WireguardConnectionData.builder()
+                .addNetwork(new NetworkConnectionInformation("wg0", "wg0Key", 51820))
+                .addNetwork(new NetworkConnectionInformation("wg1", "wg1Key", 51821));
+        for (int i = 0; i < 40; i++) {
+            String interfaceName = i < 20 ? "wg0" : "wg1";
+            String publicKey = String.format("peer%02d", i);
+            long handshake = i % 3 == 0 ? 0 : NOW_SECONDS - i * 30L;
+            ClientConnectionInformation peer = new ClientConnectionInformation(publicKey, "(none)", "(none)",
+                    String.format("10.%d.0.%d/32, fd00::%d/128", i < 20 ? 0 : 1, i + 2, i + 2), handshake, i * 100L, i * 10L, null);
+            builder.addPeer(interfaceName, PeerSnapshots.withRates(peer, (double) (i % 7) * 1000, 0.0));
+            if (i % 2 == 0) {
+                clientNames.put(publicKey, (i % 4 == 0 ? "alice-" : "bob-") + i);
+            }
+            if (i % 5 == 0) {
+                clientTags.put(publicKey, i % 10 == 0 ? "laptops" : "phones");
+            }
+        }
+        WireguardConnectionData snapshot = builder.build();
+        // online within 180s, offline after 600s
+        engine = new PeerQueryEngine(() -> snapshot, (handshake, now) -> {
+            if (handshake == null || now / 1000 - handshake > 600) {
+                return PeerState.OFFLINE;
+            }
+            return now / 1000 - handshake <= 180 ? PeerState.ONLINE : PeerState.IDLE;
+        }, clientNames::get, clientTags::get, generation::get);
+    }
+
+    private static PeerQuery query(SortField sort, boolean descending, int limit, String cursor) {
+        return new PeerQuery(null, Set.of(), null, null, null, null, null, null, null, sort, descending, limit, cursor);
+    }
+
+    private static List<String> keys(List<Peer> peers) {
+        return peers.stream().map(Peer::publicKey).toList();
+    }
+
+    // every page of a query, following the cursors
+    private List<Peer> allPages(PeerQuery first) {
+        List<Peer> peers = new ArrayList<>();
+        PeerQuery query = first;
+        while (true) {
+            PeerQueryResult page = engine.query(query);
+            assertTrue(page.peers().size() <= first.limit());
+            peers.addAll(page.peers());
+            if (page.nextCursor() == null) {
+                return peers;
+            }
+            query = new PeerQuery(first.networkPublicKey(), first.states(), first.minHandshakeAgeSeconds(),
+                    first.maxHandshakeAgeSeconds(), first.minBytesPerSecond(), first.maxBytesPerSecond(),
+                    first.allowedIpPrefix(), first.clientNamePrefix(), first.clientTag(), first.sort(), first.descending(),
+                    first.limit(), page.nextCursor());
+        }
+    }
+
+    @Test
+    public void testFiltersAndSort() {
+        // ONLINE is a handshake within 180s, peers 1, 2, 4 and 5
+        PeerQueryResult online = engine.query(new PeerQuery("wg0Key", Set.of(PeerState.ONLINE), null, null,
+                null, null, null, null, null, SortField.RATE, true, 10, null));
+        assertEquals(List.of("peer05", "peer04", "peer02", "peer01"), keys(online.peers()));
+        assertNull(online.nextCursor());
+        assertEquals("wg0", online.peers().get(0).interfaceName());
+
+        // peer 16 is 10.0.0.18, peer 36 is 10.1.0.38
+        assertEquals(List.of("peer16"), keys(engine.query(new PeerQuery(null, Set.of(), null, null, null, null,
+                "10.0.0.18", null, null, SortField.PUBLIC_KEY, false, 10, null)).peers()));
+        assertEquals(List.of("peer36"), keys(engine.query(new PeerQuery(null, Set.of(), null, null, null, null,
+                "fd00::38", null, null, SortField.PUBLIC_KEY, false, 10, null)).peers()));
+
+        // alice has the peers divisible by 4, the unnamed peers sort last by name
+        PeerQueryResult alice = engine.query(new PeerQuery(null, Set.of(), null, null, 3000.0, null, null, "alice-", null,
+                SortField.CLIENT_NAME, false, 10, null));
+        assertEquals(List.of("alice-12", "alice-20", "alice-24", "alice-32", "alice-4"),
+                alice.peers().stream().map(Peer::clientName).toList());
+        Peer last = engine.query(query(SortField.CLIENT_NAME, false, 40, null)).peers().get(39);
+        assertNull(last.clientName());
+
+        // handshakes about 5 to 10 minutes old, never handshook peers are left out
+        PeerQueryResult idle = engine.query(new PeerQuery(null, Set.of(), 290L, 610L, null, null, null, null, null,
+                SortField.HANDSHAKE, true, 10, null));
+        assertEquals(List.of("peer10", "peer11", "peer13", "peer14", "peer16", "peer17", "peer19", "peer20"),
+                keys(idle.peers()));
+        assertNull(idle.peers().get(0).endpoint());
+
+        // rates between 2000 and 3000 inclusive, peers 23, 30 and 37 tie at 2000
+        assertEquals(List.of(2000.0, 2000.0, 2000.0), engine.query(new PeerQuery("wg1Key", Set.of(), null, null,
+                2000.0, 3000.0, null, null, null, SortField.RATE, false, 3, null)).peers().stream()
+                .map(Peer::receiveBytesPerSecond).toList());
+    }
+
+    @Test
+    public void testCursorsVisitEveryPeerOnce() {
+        for (SortField sort : SortField.values()) {
+            for (boolean descending : new boolean[] {false, true}) {
+                List<Peer> all = engine.query(query(sort, descending, PeerQueryEngine.MAX_LIMIT, null)).peers();
+                assertEquals(40, all.size());
+                assertEquals(keys(all), keys(allPages(query(sort, descending, 3, null))), sort + " " + descending);
+            }
+        }
+
+        // a selective criterion evaluates its candidates instead of walking the order
+        List<Peer> bobs = allPages(new PeerQuery(null, Set.of(), null, null, null, null, null, "bob-", null,
+                SortField.VOLUME, true, 2, null));
+        assertEquals(10, bobs.size());
+        List<Peer> expected = new ArrayList<>(bobs);
+        expected.sort(Comparator.comparingLong((Peer peer) -> peer.bytesReceived() + peer.bytesSent()).reversed());
+        assertEquals(keys(expected), keys(bobs));
+        assertTrue(bobs.stream().allMatch(peer -> peer.clientName().startsWith("bob-")));
+    }
+
+    @Test
+    public void testCursorOfAnotherOrderIsRejected() {
+        String cursor = engine.query(query(SortField.RATE, false, 5, null)).nextCursor();
+        assertNotNull(cursor);
+        assertThrows(IllegalArgumentException.class, () -> engine.query(query(SortField.RATE, true, 5, cursor)));
+        assertThrows(IllegalArgumentException.class, () -> engine.query(query(SortField.VOLUME, false, 5, cursor)));
+        assertThrows(IllegalArgumentException.class, () -> engine.query(query(SortField.RATE, false, 5, "not a cursor")));
+        assertThrows(IllegalArgumentException.class, () -> engine.query(query(SortField.RATE, false, 0, null)));
+    }
+
+    @Test
+    public void testAllowedIpFilterMatchesByNetwork() {
+        WireguardConnectionData snapshot = WireguardConnectionData.builder()
+                .addNetwork(new NetworkConnectionInformation("wg0", "wg0Key", 51820))
+                .addPeer("wg0", new ClientConnectionInformation("host1", "(none)", "(none)", "10.0.0.1/32", 0L, 0L, 0L, null))
+                .addPeer("wg0", new ClientConnectionInformation("host10", "(none)", "(none)", "10.0.0.10/32", 0L, 0L, 0L, null))
+                .addPeer("wg0", new ClientConnectionInformation("host100", "(none)", "(none)", "10.0.0.100/32", 0L, 0L, 0L, null))
+                .addPeer("wg0", new ClientConnectionInformation("site", "(none)", "(none)", "192.168.1.0/24, fd00:1::/64", 0L, 0L, 0L, null))
+                .build();
+        PeerQueryEngine hosts = new PeerQueryEngine(() -> snapshot, (handshake, now) -> PeerState.OFFLINE,
+                key -> null, key -> null, () -> 0L);
+        Function<String, List<String>> matching = allowedIp -> keys(hosts.query(new PeerQuery(null, Set.of(), null, null,
+                null, null, allowedIp, null, null, SortField.PUBLIC_KEY, false, 10, null)).peers());
+
+        // an address is not a string prefix, 10.0.0.1 is neither 10.0.0.10 nor 10.0.0.100
+        assertEquals(List.of("host1"), matching.apply("10.0.0.1"));
+        assertEquals(List.of("host10"), matching.apply("10.0.0.10/32"));
+        assertEquals(List.of("host1", "host10"), matching.apply("10.0.0.0/28"));
+        assertEquals(List.of("host1", "host10", "host100"), matching.apply("10.0.0.0/24"));
+        // a network routed by a peer finds it from inside and outside
+        assertEquals(List.of("site"), matching.apply("192.168.1.7"));
+        assertEquals(List.of("site"), matching.apply("192.168.0.0/16"));
+        assertEquals(List.of("site"), matching.apply("fd00:1::7"));
+        assertTrue(matching.apply("10.0.1.1").isEmpty());
+
+        assertThrows(IllegalArgumentException.class, () -> matching.apply("10.0.0."));
+        assertThrows(IllegalArgumentException.class, () -> matching.apply("10.0.0.1/33"));
+        assertThrows(IllegalArgumentException.class, () -> matching.apply("localhost"));
+    }
+
+    @Test
+    public void testIndexFollowsTheClientNames() {
+        PeerQuery carol = new PeerQuery(null, Set.of(), null, null, null, null, null, "carol", null, SortField.PUBLIC_KEY, false, 10, null);
+        assertTrue(engine.query(carol).peers().isEmpty());
+
+        // the index is kept until the directory reports a change
+        clientNames.put("peer01", "carol-tablet");
+        assertTrue(engine.query(carol).peers().isEmpty());
+        generation.incrementAndGet();
+        assertEquals(List.of("peer01"), keys(engine.query(carol).peers()));
+    }
+
+    @Test
+    public void testClientTagFilter() {
+        // every fifth peer is tagged, laptops on the multiples of 10
+        PeerQueryResult laptops = engine.query(new PeerQuery(null, Set.of(), null, null, null, null, null, null,
+                "laptops", SortField.PUBLIC_KEY, false, 10, null));
+        assertEquals(List.of("peer00", "peer10", "peer20", "peer30"), keys(laptops.peers()));
+        assertEquals("laptops", laptops.peers().get(0).clientTag());
+
+        // combined with the other criteria, and paged over the tag's candidates
+        assertEquals(List.of("peer25", "peer35"), keys(engine.query(new PeerQuery("wg1Key", Set.of(), null, null,
+                null, null, null, null, "phones", SortField.PUBLIC_KEY, false, 10, null)).peers()));
+        assertEquals(List.of("peer35", "peer25", "peer15", "peer05"), keys(allPages(new PeerQuery(null, Set.of(),
+                null, null, null, null, null, null, "phones", SortField.PUBLIC_KEY, true, 1, null))));
+
+        // a tag is matched exactly, untagged peers never match
+        assertTrue(engine.query(new PeerQuery(null, Set.of(), null, null, null, null, null, null,
+                "phone", SortField.PUBLIC_KEY, false, 10, null)).peers().isEmpty());
+        assertNull(engine.query(query(SortField.PUBLIC_KEY, false, 2, null)).peers().get(1).clientTag());
+    }
+
+    @Test
+    public void testIndexFollowsTheClientTags() {
+        PeerQuery tablets = new PeerQuery(null, Set.of(), null, null, null, null, null, null, "tablets",
+                SortField.PUBLIC_KEY, false, 10, null);
+        assertTrue(engine.query(tablets).peers().isEmpty());
+
+        clientTags.put("peer01", "tablets");
+        generation.incrementAndGet();
+        assertEquals(List.of("peer01"), keys(engine.query(tablets).peers()));
+    }
+}
@@ -0,0 +1,87 @@
+package com.brcsrc.yaws.service;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.Base64;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class WireguardKeyServiceTests {
+
+    private final WireguardKeyService keyService = new WireguardKeyService();
+
+    // private key -> expected public key, as printed by 'echo <private key> | wg pubkey'.
+    // the first two are the RFC 7748 section 6.1 Alice and Bob vectors, the rest are
+    // unclamped random private keys which wg clamps before deriving the public key
+    private static final String[][] WG_PUBKEY_FIXTURES = new String[][]{
+            {"dwdtCnMYpX08FsFyUbJmRd9ML4frwJkqsXf7pR25LCo=", "hSDwCYkwp1R0i33ctD73Wg2/Og0mOBr066SpjqqbTmo="},
+            {"XasIfmJKikt54X+Lg4AO5m87sSkmGLb9HC+LJ/+I4Os=", "3p7bfXt9wbTTW2HC7OQ1Nz+DQ8hbeGdNrfx+FG+IK08="},
+            {"FK0IUt8ImfuweAk9Pk16lgOBh3b66DvnQhbb94qzZa8=", "TEpc+WgAcHYCJIgnN/TOXQOdlG9z0rszfK/Ve2pEWnI="},
+            {"vOK6mcB9E/bBq1ewJ6OD/sjNxni+Ovhy4lOC5cIgbLc=", "oc4OmUbMt+WeV4Err+2eb6gj68AjIGWNOwqt3Izuznw="},
+            {"1hs77cOm2Bc+hygGDZsdeex0ZJEUsoyL4nTUwysi+fM=", "HWw1KZD3e7LbCirSMsMeVTZhHbfMv0BYSh863qz8kjo="},
+    };
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    public void testDerivePublicKeyMatchesWgPubkeyFixtures() {
+        for (String[] fixture : WG_PUBKEY_FIXTURES) {
+            assertEquals(fixture[1], keyService.derivePublicKey(fixture[0]));
+        }
+    }
+
+    @Test
+    public void testDerivePublicKeyAcceptsTrailingNewline() {
+        // key files written by 'wg genkey' end in a newline
+        String[] fixture = WG_PUBKEY_FIXTURES[0];
+        assertEquals(fixture[1], keyService.derivePublicKey(fixture[0] + "\n"));
+    }
+
+    @Test
+    public void testDerivePublicKeyRejectsInvalidKeys() {
+        String[] invalidKeys = new String[]{
+                "not base64 !!",                                    // not base64
+                "dwdtCnMYpX08FsFyUbJmRd9ML4frwJkqsXf7pR25",         // too short
+                Base64.getEncoder().encodeToString(new byte[33]),   // too long
+        };
+        for (String key : invalidKeys) {
+            assertThrows(IllegalArgumentException.class, () -> keyService.derivePublicKey(key));
+        }
+    }
+
+    @Test
+    public void testGenerateKeyPairReturnsClampedPrivateKeyAndMatchingPublicKey() {
+        for (int i = 0; i < 20; i++) {
+            WireguardKeyService.WireguardKeyPair keyPair = keyService.generateKeyPair();
+            byte[] privateKey = Base64.getDecoder().decode(keyPair.privateKey());
+
+            assertEquals(32, privateKey.length);
+            assertEquals(0, privateKey[0] & 7);
+            assertEquals(0, privateKey[31] & 128);
+            assertEquals(64, privateKey[31] & 64);
+            assertEquals(44, keyPair.publicKey().length());
+            assertEquals(keyPair.publicKey(), keyService.derivePublicKey(keyPair.privateKey()));
+        }
+    }
+
+    @Test
+    public void testWriteKeyPairWritesOwnerOnlyKeyFiles() throws Exception {
+        Path privateKeyPath = tempDir.resolve("test-private-key");
+        Path publicKeyPath = tempDir.resolve("test-public-key");
+
+        WireguardKeyService.WireguardKeyPair keyPair = keyService.writeKeyPair(
+                privateKeyPath.toString(),
+                publicKeyPath.toString()
+        );
+
+        assertEquals(keyPair.privateKey() + "\n", Files.readString(privateKeyPath));
+        assertEquals(keyPair.publicKey() + "\n", Files.readString(publicKeyPath));
+        assertEquals("rw-------", PosixFilePermissions.toString(Files.getPosixFilePermissions(privateKeyPath)));
+        assertEquals("rw-------", PosixFilePermissions.toString(Files.getPosixFilePermissions(publicKeyPath)));
+    }
+}
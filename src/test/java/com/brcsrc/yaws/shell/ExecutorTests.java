@@ -2,8 +2,49 @@ package com.brcsrc.yaws.shell;
 
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.time.Duration;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 public class ExecutorTests {
+
+    @TempDir
+    Path tempDir;
+
+    // commands are split on whitespace, so anything needing a pipe or redirect runs from a script file
+    private String writeScript(String name, String body) throws Exception {
+        Path script = tempDir.resolve(name);
+        Files.writeString(script, "#!/usr/bin/env bash\n" + body + "\n");
+        Files.setPosixFilePermissions(script, PosixFilePermissions.fromString("rwx------"));
+        return script.toString();
+    }
+
+    private void waitForFile(Path path) throws Exception {
+        for (int i = 0; i < 100 && !Files.exists(path); i++) {
+            Thread.sleep(50);
+        }
+    }
+
+    private boolean isAlive(long pid) throws Exception {
+        for (int i = 0; i < 100; i++) {
+            Optional<ProcessHandle> handle = ProcessHandle.of(pid);
+            if (handle.isEmpty() || !handle.get().isAlive()) {
+                return false;
+            }
+            Thread.sleep(50);
+        }
+        return true;
+    }
+
     @Test
     void testExecutorReturnsStdout() {
         ExecutionResult result = Executor.runCommand("which uname");
@@ -25,4 +66,93 @@ public class ExecutorTests {
         Assertions.assertNotEquals(0, result.exitCode);
         Assertions.assertTrue(result.stderr.contains("command not found"));
     }
+
+    @Test
+    void testExecutorDoesNotDeadlockOnLargeStderr() throws Exception {
+        // far more than a pipe buffer on stderr before anything is written to stdout
+        String script = writeScript("large-stderr", "head -c 1000000 /dev/zero | tr '\\0' 'e' >&2\necho done");
+        ExecutionResult result = Executor.runCommand(script, Duration.ofSeconds(20));
+        Assertions.assertEquals(0, result.exitCode);
+        Assertions.assertFalse(result.isTimedOut());
+        Assertions.assertEquals("done\n", result.stdout);
+        Assertions.assertEquals(1000000, result.stderr.length());
+    }
+
+    @Test
+    void testExecutorBoundsCapturedOutput() throws Exception {
+        int outputBytes = Executor.MAX_CAPTURED_OUTPUT_BYTES + 4096;
+        String script = writeScript("large-stdout", String.format("head -c %d /dev/zero | tr '\\0' 'o'", outputBytes));
+        ExecutionResult result = Executor.runCommand(script, Duration.ofSeconds(20));
+        Assertions.assertEquals(0, result.exitCode);
+        Assertions.assertTrue(result.isTruncated());
+        Assertions.assertEquals(Executor.MAX_CAPTURED_OUTPUT_BYTES, result.stdout.length());
+    }
+
+    @Test
+    void testExecutorKillsProcessTreeAtDeadline() throws Exception {
+        Path pidFile = tempDir.resolve("child.pid");
+        String script = writeScript("timeout", String.format("sleep 30 &\necho $! > %s\nwait", pidFile));
+
+        long start = System.nanoTime();
+        ExecutionResult result = Executor.runCommand(script, Duration.ofMillis(500));
+        long elapsedMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+        Assertions.assertTrue(result.isTimedOut());
+        Assertions.assertEquals(Executor.TIMEOUT_EXIT_CODE, result.exitCode);
+        Assertions.assertTrue(elapsedMs < 10000, "command was not stopped at its deadline");
+        long childPid = Long.parseLong(Files.readString(pidFile).trim());
+        Assertions.assertFalse(isAlive(childPid), "background child outlived the deadline");
+    }
+
+    @Test
+    void testExecutorAsyncCancelKillsProcess() throws Exception {
+        Path pidFile = tempDir.resolve("cancel.pid");
+        String script = writeScript("cancel", String.format("echo $$ > %s\nsleep 30", pidFile));
+
+        CompletableFuture<ExecutionResult> future = Executor.runCommandAsync(script, Duration.ofSeconds(60));
+        waitForFile(pidFile);
+        Assertions.assertFalse(future.isDone());
+        future.cancel(true);
+
+        long pid = Long.parseLong(Files.readString(pidFile).trim());
+        Assertions.assertFalse(isAlive(pid), "cancelled command is still running");
+    }
+
+    @Test
+    void testExecutorAsyncCompletesWithResult() throws Exception {
+        ExecutionResult result = Executor.runCommandAsync("which uname").get(20, TimeUnit.SECONDS);
+        Assertions.assertEquals(0, result.exitCode);
+        Assertions.assertTrue(result.stdout.contains("/bin/uname"));
+    }
+
+    @Test
+    void testExecutorStreamsStdoutToConsumer() throws Exception {
+        int outputBytes = Executor.MAX_CAPTURED_OUTPUT_BYTES + 4096;
+        String script = writeScript("streamed-stdout", String.format("head -c %d /dev/zero | tr '\\0' 's'", outputBytes));
+        AtomicLong consumed = new AtomicLong();
+
+        // the consumer sees all of stdout, the captured copy is skipped entirely
+        ExecutionResult result = Executor.runCommand(script, Duration.ofSeconds(20),
+                stdout -> consumed.set(stdout.transferTo(OutputStream.nullOutputStream())));
+        Assertions.assertEquals(0, result.exitCode);
+        Assertions.assertEquals(outputBytes, consumed.get());
+        Assertions.assertEquals("", result.stdout);
+        Assertions.assertFalse(result.isTruncated());
+    }
+
+    @Test
+    void testExecutorReportsStdoutConsumerFailure() {
+        ExecutionResult result = Executor.runCommand("which uname", Duration.ofSeconds(20), stdout -> {
+            throw new IOException("consumer failed");
+        });
+        Assertions.assertEquals(1, result.exitCode);
+        Assertions.assertTrue(result.stderr.contains("consumer failed"));
+    }
+
+    @Test
+    void testExecutorReportsUnstartableCommand() {
+        ExecutionResult result = Executor.runCommand("/not/a/real/binary");
+        Assertions.assertEquals(1, result.exitCode);
+        Assertions.assertFalse(result.stderr.isEmpty());
+    }
 }
@@ -0,0 +1,232 @@
+package com.brcsrc.yaws.sse;
+
+import com.brcsrc.yaws.lifecycle.PeerLifecycleDetector;
+import com.brcsrc.yaws.shell.ExecutionResult;
+import com.brcsrc.yaws.system.ClientConnectionInformation;
+import com.brcsrc.yaws.system.PeerSnapshots;
+import com.brcsrc.yaws.system.WireguardConnectionDiff;
+import com.brcsrc.yaws.system.WireguardInformationProvider;
+import com.brcsrc.yaws.system.WireguardInformationProvider.WireguardConnectionData;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.env.MockEnvironment;
+import org.springframework.web.servlet.mvc.method.annotation.ResponseBodyEmitter.DataWithMediaType;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ConnectionInfoBroadcasterTests {
+
+    private WireguardInformationProvider provider;
+    private ConnectionInfoBroadcaster broadcaster;
+    private WireguardConnectionData currentData = new WireguardConnectionData();
+
+
+    @BeforeEach
+    void setUp() {
+        // the provider is only used for subscriber counting here, its own refreshes never publish
+        provider = new WireguardInformationProvider(command -> new ExecutionResult("", "no wg in tests", 1), new MockEnvironment());
+        broadcaster = new ConnectionInfoBroadcaster(provider, new PeerLifecycleDetector(provider, new MockEnvironment()), new ObjectMapper());
+        broadcaster.initialize();
+        publish(1000);
+    }
+
+    @AfterEach
+    void tearDown() {
+        broadcaster.shutdown();
+        provider.shutdown();
+    }
+
+    /**
+     * hands the broadcaster the diff a provider refresh would produce, peerKey's handshake is the only moving part
+     */
+    private void publish(long handshake) {
+        ClientConnectionInformation quietPeer = new ClientConnectionInformation("quietPeerKey", "(none)", "(none)",
+                "10.0.0.3/32", null, 0L, 0L, null);
+        WireguardConnectionData data = PeerSnapshots.snapshot(
+                PeerSnapshots.peer("peerKey", "1.2.3.4:1234", handshake, 100, 200), quietPeer);
+
+        broadcaster.onChange(WireguardConnectionDiff.between(currentData, data));
+        currentData = data;
+    }
+
+    private static String payloadOf(Set<DataWithMediaType> event) {
+        for (DataWithMediaType item : event) {
+            if (item.getData() instanceof byte[] bytes) {
+                return new String(bytes, StandardCharsets.UTF_8);
+            }
+        }
+        return null;
+    }
+
+    @Test
+    public void testSubscribeSendsCurrentState() throws Exception {
+        RecordingConnection emitter = new RecordingConnection(false);
+
+        broadcaster.subscribe(ConnectionInfoBroadcaster.TopicType.CLIENT, "peerKey", emitter);
+        broadcaster.awaitDispatched();
+
+        assertEquals(1, emitter.getEvents().size());
+        assertTrue(payloadOf(emitter.getEvents().get(0)).contains("\"endpoint\":\"1.2.3.4:1234\""));
+        assertEquals(1, broadcaster.getSubscriberCount());
+        assertEquals(WireguardInformationProvider.RefreshMode.ACTIVE, provider.getRefreshMode());
+    }
+
+    @Test
+    public void testChangedEntitySerializedOnceForAllSubscribers() throws Exception {
+        RecordingConnection first = new RecordingConnection(false);
+        RecordingConnection second = new RecordingConnection(false);
+        broadcaster.subscribe(ConnectionInfoBroadcaster.TopicType.NETWORK, "wg0Key", first);
+        broadcaster.subscribe(ConnectionInfoBroadcaster.TopicType.NETWORK, "wg0Key", second);
+
+        publish(2000);
+        broadcaster.awaitDispatched();
+
+        assertEquals(2, first.getEvents().size());
+        assertEquals(2, second.getEvents().size());
+        // the very same pre-built event is written to both streams
+        assertSame(first.getEvents().get(1), second.getEvents().get(1));
+        assertTrue(payloadOf(first.getEvents().get(1)).contains("\"latestHandshakeEpochSeconds\":2000"));
+    }
+
+    @Test
+    public void testUnchangedEntityOnlyGetsHeartbeat() throws Exception {
+        RecordingConnection quiet = new RecordingConnection(false);
+        RecordingConnection busy = new RecordingConnection(false);
+        broadcaster.subscribe(ConnectionInfoBroadcaster.TopicType.CLIENT, "quietPeerKey", quiet);
+        broadcaster.subscribe(ConnectionInfoBroadcaster.TopicType.CLIENT, "peerKey", busy);
+
+        publish(2000);
+        broadcaster.awaitDispatched();
+
+        assertEquals(2, quiet.getEvents().size());
+        assertNull(payloadOf(quiet.getEvents().get(1)));
+        assertNotNull(payloadOf(busy.getEvents().get(1)));
+    }
+
+    @Test
+    public void testDisconnectedSubscriberIsDropped() throws Exception {
+        RecordingConnection disconnected = new RecordingConnection(true);
+
+        broadcaster.subscribe(ConnectionInfoBroadcaster.TopicType.CLIENT, "peerKey", disconnected);
+        broadcaster.awaitDispatched();
+
+        assertEquals(0, broadcaster.getSubscriberCount());
+        assertEquals(WireguardInformationProvider.RefreshMode.IDLE, provider.getRefreshMode());
+    }
+
+    @Test
+    public void testUnknownKeyGetsErrorEvent() throws Exception {
+        RecordingConnection emitter = new RecordingConnection(false);
+
+        broadcaster.subscribe(ConnectionInfoBroadcaster.TopicType.NETWORK, "missingKey", emitter);
+        broadcaster.awaitDispatched();
+
+        assertEquals(1, emitter.getEvents().size());
+        assertTrue(emitter.getEvents().get(0).stream().anyMatch(item -> "Network not found".equals(item.getData())));
+    }
+
+    @Test
+    public void testMultiplexedStreamSharesEventsWithSingleKeyStreams() throws Exception {
+        RecordingConnection single = new RecordingConnection(false);
+        RecordingConnection multiplexed = new RecordingConnection(false);
+        broadcaster.subscribe(ConnectionInfoBroadcaster.TopicType.CLIENT, "peerKey", single);
+        String streamId = broadcaster.subscribeMultiplexed(
+                Set.of("wg0Key"), Set.of("peerKey", "quietPeerKey"), ConnectionInfoBroadcaster.PeerFilter.ALL, multiplexed);
+        broadcaster.awaitDispatched();
+
+        // stream-opened followed by one event per topic
+        assertNotNull(streamId);
+        assertEquals(4, multiplexed.getEvents().size());
+        assertEquals(2, broadcaster.getSubscriberCount());
+
+        publish(2000);
+        broadcaster.awaitDispatched();
+
+        // the network and peerKey changed, quietPeerKey did not and gets nothing
+        List<Set<DataWithMediaType>> events = multiplexed.getEvents();
+        assertEquals(6, events.size());
+        assertTrue(events.subList(4, 6).contains(single.getEvents().get(1)));
+    }
+
+    @Test
+    public void testOnlineOnlyFilterDropsStalePeers() throws Exception {
+        publish(System.currentTimeMillis() / 1000);
+        RecordingConnection online = new RecordingConnection(false);
+        RecordingConnection all = new RecordingConnection(false);
+        broadcaster.subscribeMultiplexed(Set.of("wg0Key"), Set.of(), ConnectionInfoBroadcaster.PeerFilter.ONLINE, online);
+        broadcaster.subscribeMultiplexed(Set.of("wg0Key"), Set.of(), ConnectionInfoBroadcaster.PeerFilter.ALL, all);
+        broadcaster.awaitDispatched();
+
+        String filtered = payloadOf(online.getEvents().get(1));
+        assertTrue(filtered.contains("\"peerKey\""));
+        assertFalse(filtered.contains("quietPeerKey"));
+        assertTrue(payloadOf(all.getEvents().get(1)).contains("quietPeerKey"));
+    }
+
+    @Test
+    public void testOnlineOnlyFilterUsesTheLifecycleThreshold() throws Exception {
+        // a minute old handshake is online by the default threshold, not by a 30 second one
+        MockEnvironment env = new MockEnvironment().withProperty("yaws.lifecycle.online-handshake-seconds", "30");
+        ConnectionInfoBroadcaster strict = new ConnectionInfoBroadcaster(provider, new PeerLifecycleDetector(provider, env), new ObjectMapper());
+        strict.initialize();
+        try {
+            WireguardConnectionData data = PeerSnapshots.snapshot(
+                    PeerSnapshots.peer("peerKey", "1.2.3.4:1234", System.currentTimeMillis() / 1000 - 60, 100, 200));
+            strict.onChange(WireguardConnectionDiff.between(new WireguardConnectionData(), data));
+            broadcaster.onChange(WireguardConnectionDiff.between(currentData, data));
+            currentData = data;
+            RecordingConnection strictOnline = new RecordingConnection(false);
+            RecordingConnection defaultOnline = new RecordingConnection(false);
+            strict.subscribeMultiplexed(Set.of("wg0Key"), Set.of(), ConnectionInfoBroadcaster.PeerFilter.ONLINE, strictOnline);
+            broadcaster.subscribeMultiplexed(Set.of("wg0Key"), Set.of(), ConnectionInfoBroadcaster.PeerFilter.ONLINE, defaultOnline);
+            strict.awaitDispatched();
+            broadcaster.awaitDispatched();
+
+            assertFalse(payloadOf(strictOnline.getEvents().get(1)).contains("\"peerKey\""));
+            assertTrue(payloadOf(defaultOnline.getEvents().get(1)).contains("\"peerKey\""));
+        } finally {
+            strict.shutdown();
+        }
+    }
+
+    @Test
+    public void testUpdateSubscriptionSendsAddedTopics() throws Exception {
+        RecordingConnection emitter = new RecordingConnection(false);
+        String streamId = broadcaster.subscribeMultiplexed(
+                Set.of(), Set.of("peerKey"), ConnectionInfoBroadcaster.PeerFilter.ALL, emitter);
+        broadcaster.awaitDispatched();
+        assertEquals(2, emitter.getEvents().size());
+
+        assertTrue(broadcaster.updateSubscription(
+                streamId, Set.of(), Set.of("quietPeerKey"), ConnectionInfoBroadcaster.PeerFilter.ALL));
+        assertEquals(3, emitter.getEvents().size());
+        assertTrue(payloadOf(emitter.getEvents().get(2)).contains("quietPeerKey"));
+
+        // peerKey is no longer followed, its change only produces a heartbeat
+        publish(2000);
+        broadcaster.awaitDispatched();
+        assertEquals(4, emitter.getEvents().size());
+        assertNull(payloadOf(emitter.getEvents().get(3)));
+
+        assertFalse(broadcaster.updateSubscription(
+                "unknownStream", Set.of(), Set.of(), ConnectionInfoBroadcaster.PeerFilter.ALL));
+    }
+
+    @Test
+    public void testMultiplexedUnknownKeyGetsTaggedErrorEvent() throws Exception {
+        RecordingConnection emitter = new RecordingConnection(false);
+
+        broadcaster.subscribeMultiplexed(Set.of(), Set.of("missingKey"), ConnectionInfoBroadcaster.PeerFilter.ALL, emitter);
+        broadcaster.awaitDispatched();
+
+        String error = payloadOf(emitter.getEvents().get(1));
+        assertTrue(error.contains("\"publicKey\":\"missingKey\""));
+        assertTrue(error.contains("Client not found"));
+    }
+}
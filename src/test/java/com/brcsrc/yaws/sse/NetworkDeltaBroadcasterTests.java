@@ -0,0 +1,312 @@
+package com.brcsrc.yaws.sse;
+
+import com.brcsrc.yaws.shell.ExecutionResult;
+import com.brcsrc.yaws.system.ClientConnectionInformation;
+import com.brcsrc.yaws.system.NetworkConnectionInformation;
+import com.brcsrc.yaws.system.PeerSnapshots;
+import com.brcsrc.yaws.system.VersionedSnapshots;
+import com.brcsrc.yaws.system.WireguardConnectionDiff;
+import com.brcsrc.yaws.system.WireguardInformationProvider;
+import com.brcsrc.yaws.system.WireguardInformationProvider.WireguardConnectionData;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.env.MockEnvironment;
+import org.springframework.web.servlet.mvc.method.annotation.ResponseBodyEmitter.DataWithMediaType;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class NetworkDeltaBroadcasterTests {
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private WireguardInformationProvider provider;
+    private NetworkDeltaBroadcaster broadcaster;
+    private WireguardConnectionData currentData = new WireguardConnectionData();
+    private long version = 0;
+
+
+    @BeforeEach
+    void setUp() {
+        // the provider is only used for subscriber counting here, its own refreshes never publish
+        provider = new WireguardInformationProvider(command -> new ExecutionResult("", "no wg in tests", 1), new MockEnvironment());
+        start(2, 60_000);
+    }
+
+    private void start(int replayBufferSize, long replayRetentionMs) {
+        broadcaster = new NetworkDeltaBroadcaster(provider, objectMapper, replayBufferSize, replayRetentionMs);
+        broadcaster.initialize();
+        publish(true, peer("peerKey", 1000, 100), peer("quietPeerKey", 0, 0));
+    }
+
+    @AfterEach
+    void tearDown() {
+        broadcaster.shutdown();
+        provider.shutdown();
+    }
+
+    private static ClientConnectionInformation peer(String publicKey, long handshake, long bytesSent) {
+        return PeerSnapshots.peer(publicKey, "1.2.3.4:1234", handshake, 100, bytesSent);
+    }
+
+    /**
+     * hands the broadcaster the diff a provider refresh would produce under the next version, wg0 only exists if up
+     */
+    private void publish(boolean up, ClientConnectionInformation... peers) {
+        WireguardConnectionData snapshot = up ? PeerSnapshots.snapshot(peers) : WireguardConnectionData.builder().build();
+        WireguardConnectionData data = VersionedSnapshots.withVersion(snapshot, ++version);
+        broadcaster.onChange(WireguardConnectionDiff.between(currentData, data));
+        currentData = data;
+    }
+
+    private static String nameOf(Set<DataWithMediaType> event) {
+        for (DataWithMediaType item : event) {
+            // the event, id and data lines arrive as one text item
+            if (item.getData() instanceof String text && text.startsWith("event:")) {
+                return text.substring("event:".length()).lines().findFirst().orElse("").trim();
+            }
+        }
+        return null;
+    }
+
+    private static String idOf(Set<DataWithMediaType> event) {
+        for (DataWithMediaType item : event) {
+            if (item.getData() instanceof String text && text.contains("id:")) {
+                return text.substring(text.indexOf("id:") + "id:".length()).lines().findFirst().orElse("").trim();
+            }
+        }
+        return null;
+    }
+
+    private JsonNode payloadOf(Set<DataWithMediaType> event) throws IOException {
+        for (DataWithMediaType item : event) {
+            if (item.getData() instanceof byte[] bytes) {
+                return objectMapper.readTree(new String(bytes, StandardCharsets.UTF_8));
+            }
+        }
+        return null;
+    }
+
+    @Test
+    public void testSubscribeSendsSnapshot() throws Exception {
+        RecordingConnection emitter = new RecordingConnection(false);
+
+        String streamId = broadcaster.subscribe("wg0Key", null, emitter);
+        broadcaster.awaitDispatched();
+
+        List<Set<DataWithMediaType>> events = emitter.getEvents();
+        assertEquals(2, events.size());
+        assertEquals(ConnectionInfoBroadcaster.EVENT_STREAM_OPENED, nameOf(events.get(0)));
+        assertTrue(events.get(0).stream().anyMatch(item -> item.getData().toString().contains(streamId)));
+        assertEquals(NetworkDeltaBroadcaster.EVENT_NETWORK_SNAPSHOT, nameOf(events.get(1)));
+        JsonNode snapshot = payloadOf(events.get(1));
+        assertEquals(1, snapshot.get("sequence").asLong());
+        assertEquals(2, snapshot.get("network").get("peers").size());
+        assertEquals(1, broadcaster.getSubscriberCount());
+        assertEquals(WireguardInformationProvider.RefreshMode.ACTIVE, provider.getRefreshMode());
+    }
+
+    @Test
+    public void testDeltaCarriesOnlyChangedFields() throws Exception {
+        RecordingConnection first = new RecordingConnection(false);
+        RecordingConnection second = new RecordingConnection(false);
+        broadcaster.subscribe("wg0Key", null, first);
+        broadcaster.subscribe("wg0Key", null, second);
+        broadcaster.awaitDispatched();
+
+        publish(true, peer("peerKey", 1000, 500), peer("quietPeerKey", 0, 0));
+        broadcaster.awaitDispatched();
+
+        List<Set<DataWithMediaType>> events = first.getEvents();
+        assertEquals(3, events.size());
+        assertEquals(NetworkDeltaBroadcaster.EVENT_NETWORK_DELTA, nameOf(events.get(2)));
+        // the very same pre-built event is written to both streams
+        assertSame(events.get(2), second.getEvents().get(2));
+        JsonNode delta = payloadOf(events.get(2));
+        assertEquals(2, delta.get("sequence").asLong());
+        assertEquals(1, delta.get("changedPeers").size());
+        JsonNode fields = delta.get("changedPeers").get("peerKey");
+        assertEquals(1, fields.size());
+        assertEquals(500, fields.get("bytesSent").asLong());
+
+        // an identical refresh is no delta at all
+        publish(true, peer("peerKey", 1000, 500), peer("quietPeerKey", 0, 0));
+        broadcaster.awaitDispatched();
+        assertEquals(3, first.getEvents().size());
+    }
+
+    @Test
+    public void testDeltaDiffsEverySerializedProperty() {
+        ClientConnectionInformation before = PeerSnapshots.withRates(new ClientConnectionInformation(
+                "peerKey", "psk1", "1.2.3.4:1", "10.0.0.2/32", 1L, 2L, 3L, 4L), 1, 2, 3, 4);
+        ClientConnectionInformation after = PeerSnapshots.withRates(new ClientConnectionInformation(
+                "peerKey", "psk2", "1.2.3.4:2", "10.0.0.3/32", 5L, 6L, 7L, 8L), 5, 6, 7, 8);
+        NetworkConnectionInformation previous = PeerSnapshots.withRates(
+                new NetworkConnectionInformation("wg0", "wg0Key", 51820), 1, 2, 3, 4).withPeers(Map.of("peerKey", before));
+        NetworkConnectionInformation current = PeerSnapshots.withRates(
+                new NetworkConnectionInformation("wg1", "wg0Key", 51821), 5, 6, 7, 8).withPeers(Map.of("peerKey", after));
+
+        NetworkDelta delta = NetworkDelta.between(previous, current, 1);
+
+        // a property added to the payloads but not to NetworkDelta would never reach delta streams
+        ObjectNode peerProperties = objectMapper.valueToTree(after);
+        peerProperties.remove("publicKey");
+        assertEquals(peerProperties, objectMapper.valueToTree(delta.changedPeers().get("peerKey")));
+        ObjectNode networkProperties = objectMapper.valueToTree(current);
+        networkProperties.remove(List.of("publicKey", "peers"));
+        assertEquals(networkProperties, objectMapper.valueToTree(delta.network()));
+    }
+
+    @Test
+    public void testAddedAndRemovedPeers() throws Exception {
+        RecordingConnection emitter = new RecordingConnection(false);
+        broadcaster.subscribe("wg0Key", null, emitter);
+
+        publish(true, peer("peerKey", 1000, 100), peer("newPeerKey", 2000, 0));
+        broadcaster.awaitDispatched();
+
+        JsonNode delta = payloadOf(emitter.getEvents().get(2));
+        assertEquals(1, delta.get("addedPeers").size());
+        assertEquals("newPeerKey", delta.get("addedPeers").get(0).get("publicKey").asText());
+        assertEquals("quietPeerKey", delta.get("removedPeers").get(0).asText());
+        assertEquals(0, delta.get("changedPeers").size());
+    }
+
+    @Test
+    public void testResyncResendsSnapshotAtCurrentSequence() throws Exception {
+        RecordingConnection emitter = new RecordingConnection(false);
+        String streamId = broadcaster.subscribe("wg0Key", null, emitter);
+        publish(true, peer("peerKey", 2000, 100), peer("quietPeerKey", 0, 0));
+
+        assertTrue(broadcaster.resync(streamId));
+        assertFalse(broadcaster.resync("missingStream"));
+        broadcaster.awaitDispatched();
+
+        List<Set<DataWithMediaType>> events = emitter.getEvents();
+        assertEquals(4, events.size());
+        assertEquals(NetworkDeltaBroadcaster.EVENT_NETWORK_SNAPSHOT, nameOf(events.get(3)));
+        JsonNode snapshot = payloadOf(events.get(3));
+        assertEquals(2, snapshot.get("sequence").asLong());
+        assertEquals(2000, snapshot.get("network").get("peers").get("peerKey").get("latestHandshakeEpochSeconds").asLong());
+    }
+
+    @Test
+    public void testNetworkGoingDownAndUpSendsSnapshots() throws Exception {
+        RecordingConnection emitter = new RecordingConnection(false);
+        broadcaster.subscribe("wg0Key", null, emitter);
+
+        publish(false);
+        publish(true, peer("peerKey", 1000, 100));
+        broadcaster.awaitDispatched();
+
+        List<Set<DataWithMediaType>> events = emitter.getEvents();
+        assertEquals(4, events.size());
+        assertEquals(NetworkDeltaBroadcaster.EVENT_NETWORK_SNAPSHOT, nameOf(events.get(2)));
+        assertTrue(payloadOf(events.get(2)).get("network").isNull());
+        assertEquals(NetworkDeltaBroadcaster.EVENT_NETWORK_SNAPSHOT, nameOf(events.get(3)));
+        JsonNode up = payloadOf(events.get(3));
+        assertEquals(3, up.get("sequence").asLong());
+        assertEquals(1, up.get("network").get("peers").size());
+    }
+
+    @Test
+    public void testDisconnectedSubscriberIsDropped() throws Exception {
+        RecordingConnection disconnected = new RecordingConnection(true);
+
+        String streamId = broadcaster.subscribe("wg0Key", null, disconnected);
+        broadcaster.awaitDispatched();
+
+        assertEquals(0, broadcaster.getSubscriberCount());
+        assertFalse(broadcaster.resync(streamId));
+        assertEquals(WireguardInformationProvider.RefreshMode.IDLE, provider.getRefreshMode());
+    }
+
+    @Test
+    public void testReconnectReceivesOnlyMissedDeltas() throws Exception {
+        RecordingConnection dropped = new RecordingConnection(false);
+        broadcaster.subscribe("wg0Key", null, dropped);
+        publish(true, peer("peerKey", 1000, 200), peer("quietPeerKey", 0, 0));
+        broadcaster.awaitDispatched();
+        String snapshotId = idOf(dropped.getEvents().get(1));
+        String firstDeltaId = idOf(dropped.getEvents().get(2));
+        assertTrue(firstDeltaId.endsWith("-2"));
+
+        // the connection drops, the network keeps changing
+        dropped.disconnect();
+        publish(true, peer("peerKey", 1000, 300), peer("quietPeerKey", 0, 0));
+        broadcaster.awaitDispatched();
+        assertEquals(0, broadcaster.getSubscriberCount());
+
+        RecordingConnection resumed = new RecordingConnection(false);
+        broadcaster.subscribe("wg0Key", firstDeltaId, resumed);
+        broadcaster.awaitDispatched();
+        List<Set<DataWithMediaType>> events = resumed.getEvents();
+        assertEquals(2, events.size());
+        assertEquals(NetworkDeltaBroadcaster.EVENT_NETWORK_DELTA, nameOf(events.get(1)));
+        JsonNode missed = payloadOf(events.get(1));
+        assertEquals(3, missed.get("sequence").asLong());
+        assertEquals(300, missed.get("changedPeers").get("peerKey").get("bytesSent").asLong());
+
+        // up to date, nothing to send
+        RecordingConnection current = new RecordingConnection(false);
+        broadcaster.subscribe("wg0Key", idOf(events.get(1)), current);
+        // both deltas since the snapshot are still buffered
+        RecordingConnection fromSnapshot = new RecordingConnection(false);
+        broadcaster.subscribe("wg0Key", snapshotId, fromSnapshot);
+        broadcaster.awaitDispatched();
+        assertEquals(1, current.getEvents().size());
+        assertEquals(3, fromSnapshot.getEvents().size());
+    }
+
+    @Test
+    public void testUnknownLastEventIdGetsSnapshot() throws Exception {
+        RecordingConnection first = new RecordingConnection(false);
+        broadcaster.subscribe("wg0Key", null, first);
+        broadcaster.awaitDispatched();
+        String snapshotId = idOf(first.getEvents().get(1));
+
+        // the buffer holds 2 deltas, the first one after the snapshot falls out
+        for (long bytesSent = 200; bytesSent <= 400; bytesSent += 100) {
+            publish(true, peer("peerKey", 1000, bytesSent), peer("quietPeerKey", 0, 0));
+        }
+        for (String lastEventId : new String[] {snapshotId, "0-2", "not an id"}) {
+            RecordingConnection emitter = new RecordingConnection(false);
+            broadcaster.subscribe("wg0Key", lastEventId, emitter);
+            broadcaster.awaitDispatched();
+            assertEquals(2, emitter.getEvents().size(), lastEventId);
+            assertEquals(NetworkDeltaBroadcaster.EVENT_NETWORK_SNAPSHOT, nameOf(emitter.getEvents().get(1)));
+            assertEquals(4, payloadOf(emitter.getEvents().get(1)).get("sequence").asLong());
+        }
+    }
+
+    @Test
+    public void testNetworkIsNoLongerFollowedAfterRetention() throws Exception {
+        broadcaster.shutdown();
+        start(2, 0);
+        RecordingConnection dropped = new RecordingConnection(false);
+        broadcaster.subscribe("wg0Key", null, dropped);
+        broadcaster.awaitDispatched();
+        String snapshotId = idOf(dropped.getEvents().get(1));
+
+        dropped.disconnect();
+        publish(true, peer("peerKey", 1000, 200), peer("quietPeerKey", 0, 0));
+        publish(true, peer("peerKey", 1000, 300), peer("quietPeerKey", 0, 0));
+
+        // the second change was never computed, resuming would miss it
+        RecordingConnection emitter = new RecordingConnection(false);
+        broadcaster.subscribe("wg0Key", snapshotId, emitter);
+        broadcaster.awaitDispatched();
+        assertEquals(NetworkDeltaBroadcaster.EVENT_NETWORK_SNAPSHOT, nameOf(emitter.getEvents().get(1)));
+        JsonNode snapshot = payloadOf(emitter.getEvents().get(1));
+        assertEquals(3, snapshot.get("sequence").asLong());
+        assertEquals(300, snapshot.get("network").get("peers").get("peerKey").get("bytesSent").asLong());
+    }
+}
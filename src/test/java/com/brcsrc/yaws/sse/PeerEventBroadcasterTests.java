@@ -0,0 +1,88 @@
+package com.brcsrc.yaws.sse;
+
+import com.brcsrc.yaws.lifecycle.PeerLifecycleDetector;
+import com.brcsrc.yaws.lifecycle.PeerLifecycleEvent;
+import com.brcsrc.yaws.lifecycle.PeerState;
+import com.brcsrc.yaws.shell.ExecutionResult;
+import com.brcsrc.yaws.system.WireguardInformationProvider;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.env.MockEnvironment;
+
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class PeerEventBroadcasterTests {
+
+    private WireguardInformationProvider provider;
+    private PeerEventBroadcaster broadcaster;
+
+
+    @BeforeEach
+    void setUp() {
+        provider = new WireguardInformationProvider(command -> new ExecutionResult("", "no wg in tests", 1), new MockEnvironment());
+        broadcaster = new PeerEventBroadcaster(new PeerLifecycleDetector(provider, new MockEnvironment()), provider, new ObjectMapper());
+        broadcaster.initialize();
+    }
+
+    @AfterEach
+    void tearDown() {
+        broadcaster.shutdown();
+        provider.shutdown();
+    }
+
+    private static PeerLifecycleEvent event(long sequence, PeerLifecycleEvent.Type type, String networkKey) {
+        return new PeerLifecycleEvent(sequence, type, 1000L, "peer" + sequence, networkKey,
+                PeerState.ONLINE, PeerState.IDLE, null, "1.2.3.4:1234", 1L);
+    }
+
+    @Test
+    public void testEventsAreFilteredByNetworkAndType() throws Exception {
+        RecordingConnection everything = new RecordingConnection(false);
+        RecordingConnection filtered = new RecordingConnection(false);
+        broadcaster.subscribe(Set.of(), Set.of(), everything);
+        broadcaster.subscribe(Set.of("networkKey"), Set.of(PeerLifecycleEvent.Type.STATE_CHANGED), filtered);
+
+        broadcaster.onEvents(List.of(
+                event(1, PeerLifecycleEvent.Type.STATE_CHANGED, "networkKey"),
+                event(2, PeerLifecycleEvent.Type.ROAMED, "networkKey"),
+                event(3, PeerLifecycleEvent.Type.STATE_CHANGED, "otherNetworkKey")));
+        broadcaster.awaitDispatched();
+
+        assertEquals(4, everything.getTexts().size());
+        assertTrue(everything.getTexts().get(0).contains(PeerEventBroadcaster.EVENT_PEER_EVENTS_OPENED));
+        assertEquals(2, filtered.getTexts().size());
+        String sent = filtered.getTexts().get(1);
+        assertTrue(sent.contains("id:1"));
+        assertTrue(sent.contains("\"peer1\""));
+        // absent fields are left out of the payload
+        assertFalse(sent.contains("previousEndpoint"));
+    }
+
+    @Test
+    public void testDisconnectedStreamIsDropped() throws Exception {
+        broadcaster.subscribe(Set.of(), Set.of(), new RecordingConnection(true));
+        broadcaster.awaitDispatched();
+
+        assertEquals(0, broadcaster.getSubscriberCount());
+        assertEquals(WireguardInformationProvider.RefreshMode.IDLE, provider.getRefreshMode());
+    }
+
+    @Test
+    public void testOpenStreamKeepsProviderActive() throws Exception {
+        RecordingConnection emitter = new RecordingConnection(false);
+        broadcaster.subscribe(Set.of(), Set.of(), emitter);
+        broadcaster.awaitDispatched();
+        // the detector has to see every handshake to notice churn
+        assertEquals(WireguardInformationProvider.RefreshMode.ACTIVE, provider.getRefreshMode());
+
+        emitter.containerCompleted();
+        broadcaster.awaitDispatched();
+        assertEquals(0, broadcaster.getSubscriberCount());
+        assertEquals(WireguardInformationProvider.RefreshMode.IDLE, provider.getRefreshMode());
+    }
+}
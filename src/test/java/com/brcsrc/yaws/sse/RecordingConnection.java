@@ -0,0 +1,60 @@
+package com.brcsrc.yaws.sse;
+
+import org.springframework.web.servlet.mvc.method.annotation.ResponseBodyEmitter.DataWithMediaType;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A stream that records the events sent to it instead of queueing them for a writer, or refuses
+ * every send like a stream that was evicted or closed
+ */
+class RecordingConnection extends SseConnection {
+
+    // the streams are not opened through it, releasing them does nothing
+    private static final SseConnectionRegistry REGISTRY = new SseConnectionRegistry(100, 100, 100, 60_000, 1_000, null);
+    private static final AtomicLong nextId = new AtomicLong();
+
+    private final List<Set<DataWithMediaType>> events = new ArrayList<>();
+    private boolean disconnected;
+
+    RecordingConnection(boolean disconnected) {
+        super(nextId.incrementAndGet(), "test", "test", 60_000, 100, REGISTRY);
+        this.disconnected = disconnected;
+    }
+
+    @Override
+    public synchronized void send(Set<DataWithMediaType> items) {
+        if (disconnected) {
+            throw new IllegalStateException("closed");
+        }
+        events.add(items);
+    }
+
+    synchronized void disconnect() {
+        disconnected = true;
+    }
+
+    synchronized List<Set<DataWithMediaType>> getEvents() {
+        return new ArrayList<>(events);
+    }
+
+    /**
+     * @return List of String - every event as the text the client would read
+     */
+    synchronized List<String> getTexts() {
+        List<String> texts = new ArrayList<>();
+        for (Set<DataWithMediaType> event : events) {
+            StringBuilder text = new StringBuilder();
+            for (DataWithMediaType item : event) {
+                Object data = item.getData();
+                text.append(data instanceof byte[] bytes ? new String(bytes, StandardCharsets.UTF_8) : data);
+            }
+            texts.add(text.toString());
+        }
+        return texts;
+    }
+}
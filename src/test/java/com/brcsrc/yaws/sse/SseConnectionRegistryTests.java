@@ -0,0 +1,209 @@
+package com.brcsrc.yaws.sse;
+
+import com.brcsrc.yaws.lifecycle.PeerLifecycleDetector;
+import com.brcsrc.yaws.shell.ExecutionResult;
+import com.brcsrc.yaws.system.WireguardInformationProvider;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpStatus;
+import org.springframework.mock.env.MockEnvironment;
+import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class SseConnectionRegistryTests {
+
+    private ManualExecutor writers;
+    private SseConnectionRegistry registry;
+
+    /**
+     * keeps the write tasks until the test runs them, a client that is not reading until then
+     */
+    private static class ManualExecutor extends AbstractExecutorService {
+        private final List<Runnable> tasks = new ArrayList<>();
+        private boolean shutdown = false;
+
+        @Override
+        public void execute(Runnable command) {
+            if (shutdown) {
+                throw new RejectedExecutionException("shut down");
+            }
+            tasks.add(command);
+        }
+
+        void runAll() {
+            while (!tasks.isEmpty()) {
+                tasks.remove(0).run();
+            }
+        }
+
+        @Override
+        public void shutdown() {
+            runAll();
+            shutdown = true;
+        }
+
+        @Override
+        public List<Runnable> shutdownNow() {
+            shutdown = true;
+            List<Runnable> pending = new ArrayList<>(tasks);
+            tasks.clear();
+            return pending;
+        }
+
+        @Override
+        public boolean isShutdown() {
+            return shutdown;
+        }
+
+        @Override
+        public boolean isTerminated() {
+            return shutdown && tasks.isEmpty();
+        }
+
+        @Override
+        public boolean awaitTermination(long timeout, TimeUnit unit) {
+            return isTerminated();
+        }
+    }
+
+    @BeforeEach
+    void setUp() {
+        writers = new ManualExecutor();
+        // 3 streams, 2 per user, at most 2 events behind
+        registry = new SseConnectionRegistry(3, 2, 2, 60_000, 1_000, writers);
+    }
+
+    @Test
+    public void testCapsRejectStreams() {
+        SseConnection first = registry.open("admin", "network");
+        registry.open("admin", "client");
+        ResponseStatusException perUser = assertThrows(ResponseStatusException.class, () -> registry.open("admin", "network"));
+        assertEquals(HttpStatus.TOO_MANY_REQUESTS, perUser.getStatusCode());
+
+        registry.open("viewer", "network");
+        ResponseStatusException global = assertThrows(ResponseStatusException.class, () -> registry.open("other", "network"));
+        assertEquals(HttpStatus.TOO_MANY_REQUESTS, global.getStatusCode());
+
+        // a closed stream frees its slots
+        first.complete();
+        writers.runAll();
+        registry.open("admin", "network");
+
+        SseMetrics metrics = registry.getMetrics();
+        assertEquals(3, metrics.active());
+        assertEquals(Integer.valueOf(2), metrics.activeByKind().get("network"));
+        assertEquals(2, metrics.users());
+        assertEquals(4, metrics.openedTotal());
+        assertEquals(2, metrics.rejectedTotal());
+    }
+
+    @Test
+    public void testEventsAreWrittenInOrderByTheWriters() throws Exception {
+        SseConnection connection = registry.open("admin", "network");
+        connection.send(SseEmitter.event().name("first").data("1"));
+        connection.send(SseEmitter.event().name("second").data("2"));
+
+        assertEquals(2, connection.getQueuedEvents());
+        assertEquals(2, registry.getMetrics().queuedEvents());
+        writers.runAll();
+        assertEquals(0, connection.getQueuedEvents());
+        assertEquals(2, connection.getSentEvents());
+    }
+
+    @Test
+    public void testLaggingStreamIsEvicted() throws Exception {
+        AtomicInteger completions = new AtomicInteger();
+        SseConnection slow = registry.open("admin", "network");
+        slow.onCompletion(completions::incrementAndGet);
+        slow.send(SseEmitter.event().data("1"));
+        slow.send(SseEmitter.event().data("2"));
+        assertEquals(2, registry.getMetrics().maxQueuedEventsOfStream());
+
+        // the third event finds the client 2 behind, the send fails like on a completed emitter
+        assertThrows(IllegalStateException.class, () -> slow.send(SseEmitter.event().data("3")));
+        assertThrows(IllegalStateException.class, () -> slow.send(SseEmitter.event().data("4")));
+        writers.runAll();
+
+        SseMetrics metrics = registry.getMetrics();
+        assertEquals(1, metrics.evictedTotal());
+        assertEquals(0, metrics.active());
+        assertEquals(0, slow.getSentEvents());
+        assertEquals(1, completions.get());
+    }
+
+    @Test
+    public void testShutdownDrainsQueuedEventsAndRefusesNewStreams() throws Exception {
+        AtomicInteger completions = new AtomicInteger();
+        SseConnection connection = registry.open("admin", "network");
+        connection.onCompletion(completions::incrementAndGet);
+        connection.send(SseEmitter.event().data("last words"));
+
+        registry.shutdown();
+
+        assertEquals(1, connection.getSentEvents());
+        assertEquals(1, completions.get());
+        assertEquals(0, registry.getMetrics().active());
+        ResponseStatusException refused = assertThrows(ResponseStatusException.class, () -> registry.open("admin", "network"));
+        assertEquals(HttpStatus.SERVICE_UNAVAILABLE, refused.getStatusCode());
+        assertThrows(IllegalStateException.class, () -> connection.send(SseEmitter.event().data("too late")));
+    }
+
+    @Test
+    public void testContainerCallbacksReleaseTheStreamAndReachTheBroadcaster() throws Exception {
+        WireguardInformationProvider provider = new WireguardInformationProvider(
+                command -> new ExecutionResult("", "no wg in tests", 1), new MockEnvironment());
+        ConnectionInfoBroadcaster broadcaster = new ConnectionInfoBroadcaster(provider, new PeerLifecycleDetector(provider, new MockEnvironment()), new ObjectMapper());
+        broadcaster.initialize();
+        try {
+            // the broadcaster registers its own callbacks, the registry's must still run
+            SseConnection completed = registry.open("admin", "network");
+            SseConnection failed = registry.open("admin", "client");
+            broadcaster.subscribe(ConnectionInfoBroadcaster.TopicType.NETWORK, "wg0Key", completed);
+            broadcaster.subscribe(ConnectionInfoBroadcaster.TopicType.CLIENT, "peerKey", failed);
+            broadcaster.awaitDispatched();
+            assertEquals(2, broadcaster.getSubscriberCount());
+
+            // the client went away without a write failing
+            completed.containerCompleted();
+            failed.containerFailed(new IOException("Connection reset"));
+            broadcaster.awaitDispatched();
+
+            assertEquals(0, broadcaster.getSubscriberCount());
+            assertEquals(0, registry.getMetrics().active());
+            assertEquals(0, registry.getMetrics().users());
+            assertThrows(IllegalStateException.class, () -> completed.send(SseEmitter.event().data("gone")));
+            registry.open("admin", "network");
+            registry.open("admin", "network");
+        } finally {
+            broadcaster.shutdown();
+            provider.shutdown();
+        }
+    }
+
+    @Test
+    public void testTimeoutRunsCallbacksAndCompletes() {
+        AtomicInteger timeouts = new AtomicInteger();
+        AtomicInteger completions = new AtomicInteger();
+        SseConnection connection = registry.open("admin", "network");
+        connection.onTimeout(timeouts::incrementAndGet);
+        connection.onCompletion(completions::incrementAndGet);
+
+        connection.containerTimedOut();
+        writers.runAll();
+
+        assertEquals(1, timeouts.get());
+        assertEquals(1, completions.get());
+        assertEquals(0, registry.getMetrics().active());
+    }
+}
@@ -0,0 +1,117 @@
+package com.brcsrc.yaws.system;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class InterfaceStatsSamplerTests {
+
+    private static final String WG0_KEY = "pHIlwYkv8dcj7gNwVD/Cj+YBSw+9Nm+SzH7I5QdbuiE=";
+    private static final String WG1_KEY = "b3qFkJumsbzH0t3o8/4JFB8qNUBLVmFsd4KNmKOuucQ=";
+    private static final long SECOND = 1_000_000_000L;
+
+    @Test
+    public void testSampleReadsCountersAndRates() throws IOException {
+        Path sysfsRoot = Files.createTempDirectory("sys-class-net");
+        writeCounters(sysfsRoot, "wg0", 1000, 5000, 10, 50, 1, 2, 3, 4);
+        InterfaceStatsSampler sampler = new InterfaceStatsSampler(() -> Map.of("wg0", WG0_KEY), sysfsRoot, 1000);
+        List<List<InterfaceStats>> notified = new ArrayList<>();
+        sampler.addListener(notified::add);
+
+        List<InterfaceStats> first = sampler.sample(0, 1_700_000_000_000L);
+        assertEquals(1, first.size());
+        InterfaceStats stats = first.get(0);
+        assertEquals("wg0", stats.interfaceName());
+        assertEquals(WG0_KEY, stats.networkPublicKey());
+        assertEquals(1_700_000_000_000L, stats.epochMillis());
+        assertEquals(1000, stats.rxBytes());
+        assertEquals(5000, stats.txBytes());
+        assertEquals(10, stats.rxPackets());
+        assertEquals(50, stats.txPackets());
+        assertEquals(1, stats.rxDropped());
+        assertEquals(2, stats.txDropped());
+        assertEquals(3, stats.rxErrors());
+        assertEquals(4, stats.txErrors());
+        // nothing to compare the first sample with
+        assertNull(stats.rxBytesPerSecond());
+        assertNull(stats.txPacketsPerSecond());
+
+        // the open files see the new values
+        writeCounters(sysfsRoot, "wg0", 3000, 9000, 30, 70, 1, 2, 3, 4);
+        stats = sampler.sample(2 * SECOND, 1_700_000_002_000L).get(0);
+        assertEquals(3000, stats.rxBytes());
+        assertEquals(Double.valueOf(1000.0), stats.rxBytesPerSecond());
+        assertEquals(Double.valueOf(2000.0), stats.txBytesPerSecond());
+        assertEquals(Double.valueOf(10.0), stats.rxPacketsPerSecond());
+        assertEquals(Double.valueOf(10.0), stats.txPacketsPerSecond());
+
+        // the interface was recreated, its counters start over
+        writeCounters(sysfsRoot, "wg0", 100, 200, 1, 2, 0, 0, 0, 0);
+        stats = sampler.sample(3 * SECOND, 1_700_000_003_000L).get(0);
+        assertEquals(100, stats.rxBytes());
+        assertNull(stats.rxBytesPerSecond());
+
+        assertEquals(3, notified.size());
+        assertSame(sampler.getLatestSample(), notified.get(2));
+    }
+
+    @Test
+    public void testSampleSkipsMissingInterfacesAndFollowsActiveNetworks() throws IOException {
+        Path sysfsRoot = Files.createTempDirectory("sys-class-net");
+        writeCounters(sysfsRoot, "wg0", 1000, 5000, 10, 50, 0, 0, 0, 0);
+        Map<String, String> activeNetworks = new TreeMap<>(Map.of("wg0", WG0_KEY, "wg1", WG1_KEY));
+        InterfaceStatsSampler sampler = new InterfaceStatsSampler(() -> new TreeMap<>(activeNetworks), sysfsRoot, 1000);
+
+        // wg1 is active but its interface is down
+        List<InterfaceStats> samples = sampler.sample(0, 0);
+        assertEquals(List.of("wg0"), samples.stream().map(InterfaceStats::interfaceName).toList());
+
+        // it is picked up once it comes up, the networks are not listed again in between
+        writeCounters(sysfsRoot, "wg1", 7, 8, 1, 1, 0, 0, 0, 0);
+        activeNetworks.remove("wg0");
+        samples = sampler.sample(SECOND, 1000);
+        assertEquals(List.of("wg0", "wg1"), samples.stream().map(InterfaceStats::interfaceName).toList());
+        assertEquals(WG1_KEY, samples.get(1).networkPublicKey());
+        assertNull(samples.get(1).rxBytesPerSecond());
+
+        // wg0 was deactivated, which is noticed on the next listing
+        long nextListing = InterfaceStatsSampler.NETWORK_LIST_INTERVAL_MS * 1_000_000L;
+        samples = sampler.sample(nextListing, nextListing / 1_000_000L);
+        assertEquals(List.of("wg1"), samples.stream().map(InterfaceStats::interfaceName).toList());
+        assertNotNull(samples.get(0).rxBytesPerSecond());
+    }
+
+    @Test
+    public void testSampleSkipsMalformedCounters() throws IOException {
+        Path sysfsRoot = Files.createTempDirectory("sys-class-net");
+        writeCounters(sysfsRoot, "wg0", 1000, 5000, 10, 50, 0, 0, 0, 0);
+        Files.writeString(sysfsRoot.resolve("wg0/statistics/tx_errors"), "n/a\n");
+        InterfaceStatsSampler sampler = new InterfaceStatsSampler(() -> Map.of("wg0", WG0_KEY, "../wg0", WG1_KEY), sysfsRoot, 1000);
+
+        assertTrue(sampler.sample(0, 0).isEmpty());
+
+        Files.writeString(sysfsRoot.resolve("wg0/statistics/tx_errors"), "0\n");
+        assertEquals(1, sampler.sample(SECOND, 1000).size());
+    }
+
+    private static void writeCounters(Path sysfsRoot, String interfaceName, long rxBytes, long txBytes, long rxPackets,
+                                      long txPackets, long rxDropped, long txDropped, long rxErrors, long txErrors) throws IOException {
+        Path statistics = Files.createDirectories(sysfsRoot.resolve(interfaceName).resolve("statistics"));
+        Files.writeString(statistics.resolve("rx_bytes"), rxBytes + "\n");
+        Files.writeString(statistics.resolve("tx_bytes"), txBytes + "\n");
+        Files.writeString(statistics.resolve("rx_packets"), rxPackets + "\n");
+        Files.writeString(statistics.resolve("tx_packets"), txPackets + "\n");
+        Files.writeString(statistics.resolve("rx_dropped"), rxDropped + "\n");
+        Files.writeString(statistics.resolve("tx_dropped"), txDropped + "\n");
+        Files.writeString(statistics.resolve("rx_errors"), rxErrors + "\n");
+        Files.writeString(statistics.resolve("tx_errors"), txErrors + "\n");
+    }
+}
@@ -0,0 +1,87 @@
+package com.brcsrc.yaws.system;
+
+import com.brcsrc.yaws.system.WireguardInformationProvider.WireguardConnectionData;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Builds the snapshots tests hand to the provider's listeners. A network is keyed by its
+ * interface, the network on wg0 has the public key wg0Key.
+ */
+public final class PeerSnapshots {
+
+    private PeerSnapshots() {
+    }
+
+    public static String networkKey(String interfaceName) {
+        return interfaceName + "Key";
+    }
+
+    /**
+     * @return WireguardConnectionData - wg0 up with the peers
+     */
+    public static WireguardConnectionData snapshot(ClientConnectionInformation... peers) {
+        return snapshot(Map.of("wg0", List.of(peers)));
+    }
+
+    /**
+     * @return WireguardConnectionData - every interface up with its peers
+     */
+    public static WireguardConnectionData snapshot(Map<String, List<ClientConnectionInformation>> peersByInterface) {
+        WireguardConnectionData.Builder builder = WireguardConnectionData.builder();
+        for (Map.Entry<String, List<ClientConnectionInformation>> entry : peersByInterface.entrySet()) {
+            builder.addNetwork(new NetworkConnectionInformation(entry.getKey(), networkKey(entry.getKey()), 51820));
+            for (ClientConnectionInformation peer : entry.getValue()) {
+                builder.addPeer(entry.getKey(), peer);
+            }
+        }
+        return builder.build();
+    }
+
+    /**
+     * @param endpoint String - (none) for a peer that never connected
+     * @param handshake Long - latest handshake in epoch seconds, null or 0 for none
+     * @return ClientConnectionInformation - a peer on 10.0.0.2/32 without preshared key or keepalive
+     */
+    public static ClientConnectionInformation peer(String publicKey, String endpoint, Long handshake,
+                                                   long bytesReceived, long bytesSent) {
+        return new ClientConnectionInformation(publicKey, "(none)", endpoint, "10.0.0.2/32", handshake,
+                bytesReceived, bytesSent, null);
+    }
+
+    /**
+     * @return ClientConnectionInformation - a copy with the smoothed rates the provider computes, the same in both directions
+     */
+    public static ClientConnectionInformation withRate(ClientConnectionInformation peer, double bytesPerSecond) {
+        return withRates(peer, bytesPerSecond, bytesPerSecond);
+    }
+
+    /**
+     * @return ClientConnectionInformation - a copy with the smoothed rates the provider computes
+     */
+    public static ClientConnectionInformation withRates(ClientConnectionInformation peer,
+                                                        double receiveBytesPerSecond, double sendBytesPerSecond) {
+        return new ClientConnectionInformation(peer.getPublicKey(), peer.getPresharedKey(), peer.getEndpoint(),
+                peer.getAllowedIps(), peer.getLatestHandshakeEpochSeconds(), peer.getBytesReceived(),
+                peer.getBytesSent(), peer.getPersistentKeepalive(), null, null, receiveBytesPerSecond, sendBytesPerSecond);
+    }
+
+    /**
+     * @return ClientConnectionInformation - a copy with the instantaneous and the smoothed rates
+     */
+    public static ClientConnectionInformation withRates(ClientConnectionInformation peer,
+                                                        double receiveBytesPerSecond, double sendBytesPerSecond,
+                                                        double smoothedReceiveBytesPerSecond, double smoothedSendBytesPerSecond) {
+        return peer.withRates(receiveBytesPerSecond, sendBytesPerSecond, smoothedReceiveBytesPerSecond, smoothedSendBytesPerSecond);
+    }
+
+    /**
+     * @return NetworkConnectionInformation - a copy with the instantaneous and the smoothed rates
+     */
+    public static NetworkConnectionInformation withRates(NetworkConnectionInformation network,
+                                                         double receiveBytesPerSecond, double sendBytesPerSecond,
+                                                         double smoothedReceiveBytesPerSecond, double smoothedSendBytesPerSecond) {
+        return network.withRates(receiveBytesPerSecond, sendBytesPerSecond, smoothedReceiveBytesPerSecond, smoothedSendBytesPerSecond);
+    }
+}
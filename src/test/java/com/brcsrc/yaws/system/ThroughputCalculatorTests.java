@@ -0,0 +1,100 @@
+package com.brcsrc.yaws.system;
+
+import com.brcsrc.yaws.system.WireguardInformationProvider.WireguardConnectionData;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ThroughputCalculatorTests {
+
+    private final ThroughputCalculator calculator = new ThroughputCalculator(10_000);
+
+    private static WireguardConnectionData snapshot(long rx, long tx, long otherRx) {
+        ClientConnectionInformation other = new ClientConnectionInformation("peer2", "(none)", "1.2.3.4:2", "10.0.0.3/32",
+                100L, otherRx, 0L, null);
+        return PeerSnapshots.snapshot(PeerSnapshots.peer("peer1", "1.2.3.4:1", 100L, rx, tx), other);
+    }
+
+    private static WireguardConnectionData columnarSnapshot(long rx, long tx, long otherRx) throws IOException {
+        String dump = "wg0\tprivate\twg0Key\t51820\toff\n" +
+                "wg0\tpeer1\t(none)\t1.2.3.4:1\t10.0.0.2/32\t100\t" + rx + "\t" + tx + "\toff\n" +
+                "wg0\tpeer2\t(none)\t1.2.3.4:2\t10.0.0.3/32\t100\t" + otherRx + "\t0\toff\n";
+        return new WgShowDumpParser().parseColumnar(new ByteArrayInputStream(dump.getBytes(StandardCharsets.UTF_8)), 2);
+    }
+
+    // applies the calculator the way the provider does and publishes the result
+    private WireguardConnectionData publish(WireguardConnectionData previous, WireguardConnectionData current, long version, long now) {
+        return calculator.apply(previous, current, now).withVersion(version, now);
+    }
+
+    @Test
+    public void testRatesFromCounterDeltas() {
+        WireguardConnectionData first = publish(new WireguardConnectionData(), snapshot(1_000, 500, 0), 1, 10_000);
+        WireguardConnectionData second = publish(first, snapshot(3_000, 1_500, 4_000), 2, 12_000);
+
+        ClientConnectionInformation peer = second.getPeersByPublicKey().get("peer1");
+        assertEquals(0.0, first.getPeersByPublicKey().get("peer1").getReceiveBytesPerSecond(), 0.0);
+        assertEquals(1_000.0, peer.getReceiveBytesPerSecond(), 0.001);
+        assertEquals(500.0, peer.getSendBytesPerSecond(), 0.001);
+
+        NetworkConnectionInformation network = second.getNetworksByPublicKey().get("wg0Key");
+        assertEquals(3_000.0, network.getReceiveBytesPerSecond(), 0.001);
+        assertEquals(500.0, network.getSendBytesPerSecond(), 0.001);
+    }
+
+    @Test
+    public void testColumnarSnapshotGetsTheSameRates() throws IOException {
+        WireguardConnectionData objects = publish(new WireguardConnectionData(), snapshot(1_000, 500, 0), 1, 10_000);
+        // switching representation between refreshes must not reset the rates
+        WireguardConnectionData columns = publish(objects, columnarSnapshot(3_000, 1_500, 4_000), 2, 12_000);
+        WireguardConnectionData next = publish(columns, columnarSnapshot(5_000, 1_500, 4_000), 3, 14_000);
+
+        assertEquals(1_000.0, columns.getPeersByPublicKey().get("peer1").getReceiveBytesPerSecond(), 0.001);
+        assertEquals(2_000.0, columns.getPeersByPublicKey().get("peer2").getReceiveBytesPerSecond(), 0.001);
+        ClientConnectionInformation peer = next.getPeersByPublicKey().get("peer1");
+        assertEquals(1_000.0, peer.getReceiveBytesPerSecond(), 0.001);
+        assertEquals(0.0, peer.getSendBytesPerSecond(), 0.0);
+        assertTrue(peer.getSmoothedSendBytesPerSecond() > 0);
+        assertEquals(1_000.0, next.getNetworksByPublicKey().get("wg0Key").getReceiveBytesPerSecond(), 0.001);
+    }
+
+    @Test
+    public void testCounterResetIsNotANegativeRate() {
+        WireguardConnectionData first = publish(new WireguardConnectionData(), snapshot(1_000_000, 0, 0), 1, 10_000);
+        // the interface was recreated, the counter restarted and has counted 2000 bytes since
+        WireguardConnectionData second = publish(first, snapshot(2_000, 0, 0), 2, 12_000);
+
+        assertEquals(1_000.0, second.getPeersByPublicKey().get("peer1").getReceiveBytesPerSecond(), 0.001);
+    }
+
+    @Test
+    public void testSmoothedRateWeightsByElapsedTime() {
+        WireguardConnectionData previous = publish(new WireguardConnectionData(), snapshot(0, 0, 0), 1, 0);
+        long rx = 0;
+        long now = 0;
+        // a steady 1000 B/s converges, a step to idle decays towards 0 and settles there
+        for (int i = 2; i < 40; i++) {
+            now += 2_000;
+            rx += 2_000;
+            previous = publish(previous, snapshot(rx, 0, 0), i, now);
+        }
+        assertEquals(1_000.0, previous.getPeersByPublicKey().get("peer1").getSmoothedReceiveBytesPerSecond(), 10.0);
+
+        now += 10_000;
+        WireguardConnectionData idle = publish(previous, snapshot(rx, 0, 0), 40, now);
+        double smoothed = idle.getPeersByPublicKey().get("peer1").getSmoothedReceiveBytesPerSecond();
+        // one window later a 1/e share of the old rate is left
+        assertEquals(1_000.0 / Math.E, smoothed, 10.0);
+        assertEquals(0.0, idle.getPeersByPublicKey().get("peer1").getReceiveBytesPerSecond(), 0.0);
+
+        for (int i = 41; i < 100; i++) {
+            now += 10_000;
+            idle = publish(idle, snapshot(rx, 0, 0), i, now);
+        }
+        assertEquals(0.0, idle.getPeersByPublicKey().get("peer1").getSmoothedReceiveBytesPerSecond(), 0.0);
+    }
+}
@@ -0,0 +1,16 @@
+package com.brcsrc.yaws.system;
+
+import com.brcsrc.yaws.system.WireguardInformationProvider.WireguardConnectionData;
+
+/**
+ * Gives tests outside this package snapshots tagged like the provider publishes them
+ */
+public final class VersionedSnapshots {
+
+    private VersionedSnapshots() {
+    }
+
+    public static WireguardConnectionData withVersion(WireguardConnectionData data, long version) {
+        return data.withVersion(version, System.currentTimeMillis());
+    }
+}
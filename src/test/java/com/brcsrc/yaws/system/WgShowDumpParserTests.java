@@ -0,0 +1,354 @@
+package com.brcsrc.yaws.system;
+
+import com.brcsrc.yaws.system.WireguardInformationProvider.WireguardConnectionData;
+import org.junit.jupiter.api.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.Map;
+import java.util.Random;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class WgShowDumpParserTests {
+
+    private static final Logger logger = LoggerFactory.getLogger(WgShowDumpParserTests.class);
+
+    private static final int FIXTURE_INTERFACES = 4;
+    private static final int FIXTURE_PEERS = 10_000;
+
+    @Test
+    public void testParseMatchesSplitParserOn10kPeerFixture() throws IOException {
+        String dump = generateDump(FIXTURE_INTERFACES, FIXTURE_PEERS, 42);
+
+        WireguardConnectionData expected = SplitParser.parse(dump);
+        WireguardConnectionData actual = new WgShowDumpParser().parse(toStream(dump));
+
+        assertSameConnectionData(expected, actual);
+        assertEquals(FIXTURE_PEERS, actual.getPeersByPublicKey().size());
+    }
+
+    @Test
+    public void testParseHandlesLinesSplitAcrossReads() throws IOException {
+        String dump = generateDump(2, 200, 7);
+        WireguardConnectionData expected = SplitParser.parse(dump);
+
+        // a tiny buffer forces partial lines, compaction and growth, a trickling stream forces short reads
+        WgShowDumpParser parser = new WgShowDumpParser(16);
+        InputStream trickle = new ByteArrayInputStream(dump.getBytes(StandardCharsets.UTF_8)) {
+            @Override
+            public synchronized int read(byte[] b, int off, int len) {
+                return super.read(b, off, Math.min(len, 7));
+            }
+        };
+
+        assertSameConnectionData(expected, parser.parse(trickle));
+    }
+
+    @Test
+    public void testParseHandlesMissingTrailingNewlineAndMalformedLines() throws IOException {
+        String dump = "wg0\tprivate\tnetworkKey=\t51820\toff\n" +
+                "\n" +
+                "   \n" +
+                "wg0\tonly\tthree\n" +
+                "wg0\ta\tb\tc\td\te\n" +
+                "wg0\tpeerKey=\t(none)\t(none)\t10.0.0.2/32\t0\t0\t0\toff";
+
+        WireguardConnectionData expected = SplitParser.parse(dump);
+        WireguardConnectionData actual = new WgShowDumpParser().parse(toStream(dump));
+
+        assertSameConnectionData(expected, actual);
+        ClientConnectionInformation peer = actual.getPeersByPublicKey().get("peerKey=");
+        assertNotNull(peer);
+        assertNull(peer.getLatestHandshakeEpochSeconds());
+        assertNull(peer.getPersistentKeepalive());
+        assertEquals(51820, actual.getNetworksByPublicKey().get("networkKey=").getListeningPort());
+    }
+
+    @Test
+    public void testParseColumnarMatchesSplitParserOn10kPeerFixture() throws IOException {
+        String dump = generateDump(FIXTURE_INTERFACES, FIXTURE_PEERS, 42);
+
+        WireguardConnectionData expected = SplitParser.parse(dump);
+        WireguardConnectionData actual = new WgShowDumpParser().parseColumnar(toStream(dump), 0);
+
+        assertNotNull(actual.getColumns());
+        assertSameConnectionData(expected, actual);
+        for (ClientConnectionInformation peer : expected.getPeersByPublicKey().values()) {
+            assertEquals(peer.getPublicKey(), actual.getPeerByAllowedIp(peer.getAllowedIps()).getPublicKey());
+        }
+        assertNull(actual.getPeersByPublicKey().get("notAKey="));
+    }
+
+    @Test
+    public void testParseColumnarKeepsKeysThatAreNotBase64() throws IOException {
+        String dump = "wg0\tprivate\tnetworkKey=\t51820\toff\n" +
+                "wg0\tpeerKey=\t(none)\t(none)\t10.0.0.2/32\t0\t0\t0\toff\n" +
+                "wg1\tprivate\tnetworkKey2=\t51821\toff\n" +
+                "wg1\t" + randomKey(new Random(5)) + "\t(none)\t(none)\t10.0.1.2/32\t1700000000\t10\t20\t25\n";
+
+        WireguardConnectionData expected = SplitParser.parse(dump);
+        WireguardConnectionData actual = new WgShowDumpParser().parseColumnar(toStream(dump), 0);
+
+        assertSameConnectionData(expected, actual);
+        assertEquals("peerKey=", actual.getPeerByAllowedIp("10.0.0.2/32").getPublicKey());
+        assertEquals(1, actual.getNetworksByPublicKey().get("networkKey2=").getPeers().size());
+    }
+
+    @Test
+    public void testParseColumnarCountsAPeerOnTwoInterfacesOnce() throws IOException {
+        String sharedKey = randomKey(new Random(11));
+        String dump = "wg0\tprivate\tnetworkKey=\t51820\toff\n" +
+                "wg0\t" + sharedKey + "\t(none)\t(none)\t10.0.0.2/32\t0\t100\t0\toff\n" +
+                "wg0\tsharedIrregular=\t(none)\t(none)\t10.0.0.3/32\t0\t300\t0\toff\n" +
+                "wg1\tprivate\tnetworkKey2=\t51821\toff\n" +
+                "wg1\t" + sharedKey + "\t(none)\t(none)\t10.0.1.2/32\t0\t200\t0\toff\n" +
+                "wg1\tsharedIrregular=\t(none)\t(none)\t10.0.1.3/32\t0\t400\t0\toff\n";
+
+        WireguardConnectionData expected = new WgShowDumpParser().parse(toStream(dump));
+        WireguardConnectionData actual = new WgShowDumpParser().parseColumnar(toStream(dump), 0);
+
+        assertSameConnectionData(expected, actual);
+        Map<String, ClientConnectionInformation> peers = actual.getPeersByPublicKey();
+        assertEquals(2, peers.size());
+        assertEquals(2, peers.entrySet().stream().count());
+        // the later interface wins, for every way of reading the map
+        assertEquals(200L, peers.get(sharedKey).getBytesReceived());
+        assertEquals(400L, peers.get("sharedIrregular=").getBytesReceived());
+        for (Map.Entry<String, ClientConnectionInformation> entry : peers.entrySet()) {
+            assertEquals(peers.get(entry.getKey()).getBytesReceived(), entry.getValue().getBytesReceived());
+        }
+        // each network still has its own row of the peer
+        Map<String, ClientConnectionInformation> wg0Peers = actual.getNetworksByPublicKey().get("networkKey=").getPeers();
+        assertEquals(2, wg0Peers.size());
+        assertEquals(100L, wg0Peers.get(sharedKey).getBytesReceived());
+        assertEquals(300L, wg0Peers.get("sharedIrregular=").getBytesReceived());
+        assertEquals(200L, actual.getNetworksByPublicKey().get("networkKey2=").getPeers().get(sharedKey).getBytesReceived());
+    }
+
+    @Test
+    public void testParseColumnarIndexesAllowedIpsLikeTheObjectSnapshot() throws IOException {
+        Random random = new Random(9);
+        String dump = "wg0\tprivate\tnetworkKey=\t51820\toff\n" +
+                "wg0\t" + randomKey(random) + "\t(none)\t(none)\t10.0.0.2/32, fd00::2/128,192.168.5.0/24\t0\t0\t0\toff\n" +
+                "wg0\t" + randomKey(random) + "\t(none)\t(none)\t10.0.0.3/32\t0\t0\t0\toff\n" +
+                "wg0\t" + randomKey(random) + "\t(none)\t(none)\t(none)\t0\t0\t0\toff\n" +
+                "wg1\tprivate\tnetworkKey2=\t51821\toff\n" +
+                "wg1\t" + randomKey(random) + "\t(none)\t(none)\t10.0.0.3/32\t0\t0\t0\toff\n";
+
+        WireguardConnectionData expected = new WgShowDumpParser().parse(toStream(dump));
+        WireguardConnectionData actual = new WgShowDumpParser().parseColumnar(toStream(dump), 0);
+
+        for (String allowedIp : new String[] {"10.0.0.2/32", "10.0.0.2", "fd00::2", "192.168.5.0/24", "10.0.0.3"}) {
+            assertEquals(expected.getPeerByAllowedIp(allowedIp).getPublicKey(),
+                    actual.getPeerByAllowedIp(allowedIp).getPublicKey(), allowedIp);
+        }
+        // a /24 is not a host route, and the later peer on wg1 routes the duplicate entry
+        assertNull(actual.getPeerByAllowedIp("192.168.5.0"));
+        assertNull(actual.getPeerByAllowedIp("(none)"));
+        assertEquals(1, actual.getNetworksByPublicKey().get("networkKey2=").getPeers().size());
+        assertTrue(actual.getNetworksByPublicKey().get("networkKey2=").getPeers()
+                .containsKey(actual.getPeerByAllowedIp("10.0.0.3/32").getPublicKey()));
+    }
+
+    @Test
+    public void testParseSingleInterfaceDump() throws IOException {
+        String dump = generateDump(2, 200, 11);
+        WireguardConnectionData expected = SplitParser.parse(dump.lines()
+                .filter(line -> line.startsWith("wg1\t"))
+                .collect(Collectors.joining("\n")));
+
+        // 'wg show wg1 dump' prints the lines of wg1 without the interface column
+        String interfaceDump = dump.lines()
+                .filter(line -> line.startsWith("wg1\t"))
+                .map(line -> line.substring("wg1\t".length()))
+                .collect(Collectors.joining("\n"));
+        WgShowDumpParser parser = new WgShowDumpParser();
+        WireguardConnectionData actual = parser.parse(toStream(interfaceDump), "wg1");
+
+        assertSameConnectionData(expected, actual);
+        assertEquals(100, actual.getNetworkByInterface("wg1").getPeers().size());
+        // the parser goes back to full dumps afterwards
+        assertSameConnectionData(SplitParser.parse(dump), parser.parse(toStream(dump)));
+    }
+
+    @Test
+    public void testKeysAreReusedAcrossRefreshes() throws IOException {
+        WgShowDumpParser parser = new WgShowDumpParser();
+        String dump = generateDump(1, 100, 3);
+
+        WireguardConnectionData first = parser.parse(toStream(dump));
+        WireguardConnectionData second = parser.parse(toStream(dump));
+
+        for (Map.Entry<String, ClientConnectionInformation> entry : first.getPeersByPublicKey().entrySet()) {
+            ClientConnectionInformation again = second.getPeersByPublicKey().get(entry.getKey());
+            assertSame(entry.getValue().getPublicKey(), again.getPublicKey());
+            assertSame(entry.getValue().getEndpoint(), again.getEndpoint());
+            assertSame(entry.getValue().getAllowedIps(), again.getAllowedIps());
+        }
+    }
+
+    @Test
+    public void testStaleInternedValuesAreSwept() throws IOException {
+        WgShowDumpParser fresh = new WgShowDumpParser();
+        fresh.parse(toStream(generateDump(1, 2000, 2)));
+
+        // after a completely different set of peers the first set must not be retained
+        WgShowDumpParser parser = new WgShowDumpParser();
+        parser.parse(toStream(generateDump(1, 2000, 1)));
+        parser.parse(toStream(generateDump(1, 2000, 2)));
+
+        assertEquals(fresh.internedCount(), parser.internedCount());
+    }
+
+    /**
+     * Not a substitute for a proper benchmark harness, but enough to spot a regression: times
+     * both parsers on the 10k peer fixture after a warm up and logs the result.
+     */
+    @Test
+    public void testCompareWithSplitParserOn10kPeerFixture() throws IOException {
+        String dump = generateDump(FIXTURE_INTERFACES, FIXTURE_PEERS, 42);
+        byte[] dumpBytes = dump.getBytes(StandardCharsets.UTF_8);
+        WgShowDumpParser parser = new WgShowDumpParser();
+        int warmupIterations = 20;
+        int measuredIterations = 20;
+
+        for (int i = 0; i < warmupIterations; i++) {
+            SplitParser.parse(new String(dumpBytes, StandardCharsets.UTF_8));
+            parser.parse(new ByteArrayInputStream(dumpBytes));
+        }
+
+        long splitStart = System.nanoTime();
+        for (int i = 0; i < measuredIterations; i++) {
+            // the old path decoded the whole stdout into a String before splitting
+            SplitParser.parse(new String(dumpBytes, StandardCharsets.UTF_8));
+        }
+        long splitNanos = (System.nanoTime() - splitStart) / measuredIterations;
+
+        long streamingStart = System.nanoTime();
+        for (int i = 0; i < measuredIterations; i++) {
+            parser.parse(new ByteArrayInputStream(dumpBytes));
+        }
+        long streamingNanos = (System.nanoTime() - streamingStart) / measuredIterations;
+
+        logger.info(String.format("wg show dump with %d peers: split parser %.2fms, streaming parser %.2fms",
+                FIXTURE_PEERS, splitNanos / 1e6, streamingNanos / 1e6));
+        assertEquals(FIXTURE_PEERS, parser.parse(new ByteArrayInputStream(dumpBytes)).getPeersByPublicKey().size());
+    }
+
+    private static InputStream toStream(String dump) {
+        return new ByteArrayInputStream(dump.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static String generateDump(int interfaces, int peers, long seed) {
+        Random random = new Random(seed);
+        StringBuilder dump = new StringBuilder();
+        for (int i = 0; i < interfaces; i++) {
+            dump.append("wg").append(i).append('\t')
+                    .append(randomKey(random)).append('\t')
+                    .append(randomKey(random)).append('\t')
+                    .append(51820 + i).append('\t')
+                    .append("off").append('\n');
+        }
+        for (int p = 0; p < peers; p++) {
+            boolean connected = random.nextInt(4) != 0;
+            dump.append("wg").append(p % interfaces).append('\t')
+                    .append(randomKey(random)).append('\t')
+                    .append(random.nextBoolean() ? randomKey(random) : "(none)").append('\t')
+                    .append(connected ? String.format("172.%d.%d.%d:%d", random.nextInt(32), random.nextInt(256),
+                            random.nextInt(256), 1024 + random.nextInt(60000)) : "(none)").append('\t')
+                    .append(String.format("10.%d.%d.%d/32", p % interfaces, p / 256, p % 256)).append('\t')
+                    .append(connected ? 1700000000L + random.nextInt(1000000) : 0).append('\t')
+                    .append(connected ? Math.abs(random.nextLong() % 100_000_000_000L) : 0).append('\t')
+                    .append(connected ? Math.abs(random.nextLong() % 100_000_000_000L) : 0).append('\t')
+                    .append(random.nextBoolean() ? "off" : "25").append('\n');
+        }
+        return dump.toString();
+    }
+
+    private static String randomKey(Random random) {
+        byte[] key = new byte[32];
+        random.nextBytes(key);
+        return Base64.getEncoder().encodeToString(key);
+    }
+
+    private static void assertSameConnectionData(WireguardConnectionData expected, WireguardConnectionData actual) {
+        assertEquals(expected.getNetworksByPublicKey().keySet(), actual.getNetworksByPublicKey().keySet());
+        for (Map.Entry<String, NetworkConnectionInformation> entry : expected.getNetworksByPublicKey().entrySet()) {
+            NetworkConnectionInformation network = actual.getNetworksByPublicKey().get(entry.getKey());
+            assertEquals(entry.getValue().getInterfaceName(), network.getInterfaceName());
+            assertEquals(entry.getValue().getListeningPort(), network.getListeningPort());
+            assertEquals(entry.getValue().getPeers().keySet(), network.getPeers().keySet());
+        }
+
+        assertEquals(expected.getPeersByPublicKey().keySet(), actual.getPeersByPublicKey().keySet());
+        for (Map.Entry<String, ClientConnectionInformation> entry : expected.getPeersByPublicKey().entrySet()) {
+            ClientConnectionInformation want = entry.getValue();
+            ClientConnectionInformation got = actual.getPeersByPublicKey().get(entry.getKey());
+            assertEquals(want.getPresharedKey(), got.getPresharedKey());
+            assertEquals(want.getEndpoint(), got.getEndpoint());
+            assertEquals(want.getAllowedIps(), got.getAllowedIps());
+            assertEquals(want.getLatestHandshakeEpochSeconds(), got.getLatestHandshakeEpochSeconds());
+            assertEquals(want.getBytesReceived(), got.getBytesReceived());
+            assertEquals(want.getBytesSent(), got.getBytesSent());
+            assertEquals(want.getPersistentKeepalive(), got.getPersistentKeepalive());
+        }
+    }
+
+    /**
+     * The String.split based parser WireguardInformationProvider used before, kept here as the
+     * reference for the streaming parser's output
+     */
+    private static class SplitParser {
+        static WireguardConnectionData parse(String output) {
+            WireguardConnectionData.Builder data = WireguardConnectionData.builder();
+            if (output == null || output.trim().isEmpty()) {
+                return data.build();
+            }
+            for (String line : output.split("\n")) {
+                if (line.trim().isEmpty()) {
+                    continue;
+                }
+                String[] parts = line.split("\t");
+                if (parts.length == 5) {
+                    data.addNetwork(new NetworkConnectionInformation(parts[0], parts[2], parseIntOrDefault(parts[3])));
+                } else if (parts.length >= 8) {
+                    ClientConnectionInformation clientInfo = new ClientConnectionInformation(
+                            parts[1], parts[2], parts[3], parts[4],
+                            parseLongOrNull(parts[5]),
+                            parseLongOrNull(parts[6]),
+                            parseLongOrNull(parts[7]),
+                            parts.length > 8 ? parseLongOrNull(parts[8]) : null
+                    );
+                    data.addPeer(parts[0], clientInfo);
+                }
+            }
+            return data.build();
+        }
+
+        private static int parseIntOrDefault(String value) {
+            try {
+                return Integer.parseInt(value);
+            } catch (NumberFormatException e) {
+                return 0;
+            }
+        }
+
+        private static Long parseLongOrNull(String value) {
+            try {
+                if (value == null || value.trim().isEmpty() || value.equals("0")) {
+                    return null;
+                }
+                return Long.parseLong(value);
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        }
+    }
+}
@@ -0,0 +1,160 @@
+package com.brcsrc.yaws.system;
+
+import com.brcsrc.yaws.shell.ExecutionResult;
+import com.brcsrc.yaws.system.WireguardInformationProvider.WireguardConnectionData;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+
+import static com.brcsrc.yaws.system.PeerSnapshots.snapshot;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class WireguardConnectionDiffTests {
+
+    private static final String INTERFACE_LINE = "wg0\tprivateKey\tnetworkKey\t51820\toff\n";
+
+    private final WireguardInformationProvider provider = new WireguardInformationProvider(
+            command -> new ExecutionResult("", "", 0),
+            Executors.newSingleThreadScheduledExecutor()
+    );
+
+    private WireguardConnectionData parse(String... peerLines) {
+        return provider.parseWgShowDump(INTERFACE_LINE + String.join("", peerLines));
+    }
+
+    private static String peer(String key, String endpoint, long handshake, long rx, long tx) {
+        return String.format("wg0\t%s\t(none)\t%s\t10.0.0.2/32\t%d\t%d\t%d\toff\n", key, endpoint, handshake, rx, tx);
+    }
+
+    @Test
+    public void testIdenticalSnapshotsProduceEmptyDiff() {
+        WireguardConnectionData previous = parse(peer("peer1", "1.2.3.4:1000", 100, 10, 20));
+        WireguardConnectionData current = parse(peer("peer1", "1.2.3.4:1000", 100, 10, 20));
+
+        WireguardConnectionDiff diff = WireguardConnectionDiff.between(previous, current);
+
+        assertTrue(diff.isEmpty());
+        assertSame(previous, diff.getPrevious());
+        assertSame(current, diff.getCurrent());
+    }
+
+    @Test
+    public void testFirstRefreshReportsEverythingAdded() {
+        WireguardConnectionData current = parse(peer("peer1", "1.2.3.4:1000", 100, 10, 20));
+
+        WireguardConnectionDiff diff = WireguardConnectionDiff.between(new WireguardConnectionData(), current);
+
+        assertEquals(1, diff.getAddedNetworks().size());
+        assertEquals(1, diff.getAddedPeers().size());
+        assertEquals(Set.of("networkKey"), diff.getAffectedNetworkKeys());
+        assertEquals(Set.of("peer1"), diff.getAffectedPeerKeys());
+    }
+
+    @Test
+    public void testPeerChangesAreClassified() {
+        WireguardConnectionData previous = parse(
+                peer("handshake", "1.1.1.1:1", 100, 10, 20),
+                peer("transfer", "2.2.2.2:2", 100, 10, 20),
+                peer("roamed", "3.3.3.3:3", 100, 10, 20),
+                peer("idle", "4.4.4.4:4", 100, 10, 20)
+        );
+        WireguardConnectionData current = parse(
+                peer("handshake", "1.1.1.1:1", 200, 10, 20),
+                peer("transfer", "2.2.2.2:2", 100, 11, 20),
+                peer("roamed", "3.3.3.9:3", 100, 10, 20),
+                peer("idle", "4.4.4.4:4", 100, 10, 20)
+        );
+
+        WireguardConnectionDiff diff = WireguardConnectionDiff.between(previous, current);
+
+        assertEquals(Set.of("handshake", "transfer", "roamed"), diff.getChangedPeers().keySet());
+        WireguardConnectionDiff.PeerChange handshake = diff.getChangedPeers().get("handshake");
+        assertTrue(handshake.handshakeAdvanced());
+        assertFalse(handshake.transferChanged());
+        assertTrue(diff.getChangedPeers().get("transfer").transferChanged());
+        assertTrue(diff.getChangedPeers().get("roamed").endpointChanged());
+        assertFalse(diff.getChangedPeers().get("roamed").handshakeAdvanced());
+
+        WireguardConnectionDiff.NetworkChange network = diff.getChangedNetworks().get("networkKey");
+        assertNotNull(network);
+        assertTrue(network.peersChanged());
+        assertFalse(network.listeningPortChanged());
+    }
+
+    @Test
+    public void testPeersAddedAndRemoved() {
+        WireguardConnectionData previous = parse(peer("stays", "(none)", 0, 0, 0), peer("leaves", "(none)", 0, 0, 0));
+        WireguardConnectionData current = parse(peer("stays", "(none)", 0, 0, 0), peer("joins", "(none)", 0, 0, 0));
+
+        WireguardConnectionDiff diff = WireguardConnectionDiff.between(previous, current);
+
+        assertEquals(1, diff.getAddedPeers().size());
+        assertEquals("joins", diff.getAddedPeers().get(0).getPublicKey());
+        assertEquals(1, diff.getRemovedPeers().size());
+        assertEquals("leaves", diff.getRemovedPeers().get(0).getPublicKey());
+        assertTrue(diff.getChangedPeers().isEmpty());
+        // same peer count, but the membership of the network changed
+        assertTrue(diff.getChangedNetworks().get("networkKey").peersChanged());
+    }
+
+    @Test
+    public void testNetworkRemoved() {
+        WireguardConnectionData previous = parse(peer("peer1", "(none)", 0, 0, 0));
+
+        WireguardConnectionDiff diff = WireguardConnectionDiff.between(previous, new WireguardConnectionData());
+
+        assertEquals(1, diff.getRemovedNetworks().size());
+        assertEquals(1, diff.getRemovedPeers().size());
+        assertEquals(Set.of("networkKey"), diff.getAffectedNetworkKeys());
+    }
+
+    @Test
+    public void testComposedSnapshotsOnlyWalkTheReplacedInterface() {
+        WireguardConnectionData wg0 = snapshot(Map.of("wg0", List.of(PeerSnapshots.peer("peer0", "1.1.1.1:1", 100L, 10, 20))));
+        WireguardConnectionData wg1 = snapshot(Map.of("wg1", List.of(PeerSnapshots.peer("peer1", "2.2.2.2:2", 100L, 10, 20))));
+        WireguardConnectionData previous = new WireguardConnectionData().replacing("wg0", wg0).replacing("wg1", wg1);
+
+        WireguardConnectionData wg0Polled = snapshot(Map.of("wg0", List.of(PeerSnapshots.peer("peer0", "1.1.1.1:1", 100L, 50, 20))));
+        WireguardConnectionData current = previous.replacing("wg0", wg0Polled);
+
+        // wg1 is still the partial it was published with, only wg0 is walked
+        assertEquals(List.of(wg0Polled), current.partsChangedSince(previous));
+        assertSame(previous.getPeersByPublicKey().get("peer1"), current.getPeersByPublicKey().get("peer1"));
+        assertEquals(2, current.getPeersByPublicKey().size());
+        assertSame(wg1.getNetworkByInterface("wg1"), current.getNetworkByInterface("wg1"));
+
+        WireguardConnectionDiff diff = WireguardConnectionDiff.between(previous, current);
+        assertEquals(Set.of("peer0"), diff.getChangedPeers().keySet());
+        assertTrue(diff.getChangedPeers().get("peer0").transferChanged());
+        assertEquals(Set.of("wg0Key"), diff.getChangedNetworks().keySet());
+        assertTrue(diff.getAddedPeers().isEmpty());
+        assertTrue(diff.getRemovedPeers().isEmpty());
+
+        // both peers are on 10.0.0.2/32, the interface published last wins until it goes away
+        assertEquals("peer0", current.getPeerByAllowedIp("10.0.0.2/32").getPublicKey());
+        WireguardConnectionData removed = current.replacing("wg1", null);
+        diff = WireguardConnectionDiff.between(current, removed);
+        assertEquals(Set.of("peer1"), diff.getAffectedPeerKeys());
+        assertEquals(1, diff.getRemovedPeers().size());
+        assertEquals(Set.of("wg1Key"), diff.getAffectedNetworkKeys());
+        assertEquals("peer0", removed.getPeerByAllowedIp("10.0.0.2/32").getPublicKey());
+    }
+
+    @Test
+    public void testShadowedEntryIsComparedAgainstTheOneThatShadowedIt() {
+        WireguardConnectionData wg0 = snapshot(Map.of("wg0", List.of(PeerSnapshots.peer("shared", "1.1.1.1:1", 100L, 10, 20))));
+        WireguardConnectionData wg1 = snapshot(Map.of("wg1", List.of(PeerSnapshots.peer("shared", "2.2.2.2:2", 100L, 10, 20))));
+        WireguardConnectionData previous = new WireguardConnectionData().replacing("wg0", wg0).replacing("wg1", wg1);
+        assertEquals("2.2.2.2:2", previous.getPeersByPublicKey().get("shared").getEndpoint());
+
+        // wg1 no longer has the peer, it is now seen through wg0
+        WireguardConnectionData current = previous.replacing("wg1", snapshot(Map.of("wg1", List.of())));
+
+        WireguardConnectionDiff diff = WireguardConnectionDiff.between(previous, current);
+        assertTrue(diff.getRemovedPeers().isEmpty());
+        assertTrue(diff.getChangedPeers().get("shared").endpointChanged());
+    }
+}
@@ -6,9 +6,19 @@ import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.Executors;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -231,4 +241,285 @@ public class WireguardInformationProviderTests {
         assertTrue(peers.containsKey("peer1"));
         assertTrue(peers.containsKey("peer2"));
     }
+
+    @Test
+    void testSnapshots_AreVersionedAndImmutable() {
+        CommandExecutor mockExecutor = command -> {
+            String mockOutput = "wg0\tprivateKey\tnetworkKey\t62230\t0\n" +
+                    "wg0\tpeer1\tpsk1\t1.2.3.4:1234\t10.0.0.1/32\t1000\t100\t200\t0\n";
+            return new ExecutionResult(mockOutput, "", 0);
+        };
+
+        provider = new WireguardInformationProvider(mockExecutor, testScheduler);
+        assertEquals(0, provider.getConnectionData().getVersion());
+
+        provider.refreshConnectionData();
+        WireguardInformationProvider.WireguardConnectionData first = provider.getConnectionData();
+        provider.refreshConnectionData();
+        WireguardInformationProvider.WireguardConnectionData second = provider.getConnectionData();
+
+        assertEquals(1, first.getVersion());
+        assertEquals(2, second.getVersion());
+        assertTrue(second.getRefreshedEpochMillis() >= first.getRefreshedEpochMillis());
+
+        // readers get the snapshot's own maps, which can not be modified
+        assertSame(second.getPeersByPublicKey(), provider.getAllPeers());
+        assertThrows(UnsupportedOperationException.class, () -> provider.getAllPeers().clear());
+        assertThrows(UnsupportedOperationException.class,
+                () -> provider.getNetworkByPublicKey("networkKey").getPeers().clear());
+    }
+
+    @Test
+    void testSnapshots_IndexInterfaceAndAllowedIps() {
+        CommandExecutor mockExecutor = command -> {
+            String mockOutput = "wg0\tprivateKey\tnetworkKey\t62230\t0\n" +
+                    "wg0\tpeer1\tpsk1\t1.2.3.4:1234\t10.0.0.1/32,fd00::1/128\t1000\t100\t200\t0\n" +
+                    "wg0\tpeer2\tpsk2\t(none)\t10.1.0.0/16\t0\t0\t0\t0\n" +
+                    "wg0\tpeer3\tpsk3\t(none)\t(none)\t0\t0\t0\t0\n";
+            return new ExecutionResult(mockOutput, "", 0);
+        };
+
+        provider = new WireguardInformationProvider(mockExecutor, testScheduler);
+        provider.refreshConnectionData();
+
+        assertEquals("networkKey", provider.getNetworkByInterface("wg0").getPublicKey());
+        assertNull(provider.getNetworkByInterface("wg1"));
+        assertEquals("peer1", provider.getPeerByAllowedIp("10.0.0.1/32").getPublicKey());
+        assertEquals("peer1", provider.getPeerByAllowedIp("10.0.0.1").getPublicKey());
+        assertEquals("peer1", provider.getPeerByAllowedIp("fd00::1").getPublicKey());
+        assertEquals("peer2", provider.getPeerByAllowedIp("10.1.0.0/16").getPublicKey());
+        assertNull(provider.getPeerByAllowedIp("10.1.0.0"));
+        assertNull(provider.getPeerByAllowedIp("(none)"));
+        assertEquals(3, provider.getNetworkByInterface("wg0").getPeers().size());
+    }
+
+    @Test
+    void testAwaitVersion_CompletesOnNextRefresh() throws Exception {
+        CommandExecutor mockExecutor = command -> new ExecutionResult("wg0\tprivateKey\tnetworkKey\t62230\t0\n", "", 0);
+        provider = new WireguardInformationProvider(mockExecutor, testScheduler,
+                WireguardRefreshSettings.defaults().withIntervals(60_000, 60_000));
+        provider.refreshConnectionData();
+
+        // an already published version is returned right away without subscribing
+        assertEquals(1, provider.awaitVersion(1).get(0, TimeUnit.SECONDS).getVersion());
+        assertEquals(0, provider.getRefreshStatus().subscribers());
+
+        CompletableFuture<WireguardInformationProvider.WireguardConnectionData> next = provider.awaitVersion(2);
+        assertFalse(next.isDone());
+        assertEquals(WireguardInformationProvider.RefreshMode.ACTIVE, provider.getRefreshMode());
+
+        provider.refreshConnectionData();
+        assertEquals(2, next.get(0, TimeUnit.SECONDS).getVersion());
+        assertEquals(WireguardInformationProvider.RefreshMode.IDLE, provider.getRefreshMode());
+
+        // giving up on a wait releases its subscription too
+        CompletableFuture<WireguardInformationProvider.WireguardConnectionData> abandoned = provider.awaitVersion(10);
+        abandoned.cancel(false);
+        assertEquals(0, provider.getRefreshStatus().subscribers());
+    }
+
+    @Test
+    void testRefreshMode_FollowsSubscribers() throws Exception {
+        AtomicInteger dumps = new AtomicInteger();
+        CommandExecutor mockExecutor = command -> {
+            dumps.incrementAndGet();
+            return new ExecutionResult("", "", 0);
+        };
+        provider = new WireguardInformationProvider(mockExecutor, testScheduler,
+                WireguardRefreshSettings.defaults().withIntervals(60_000, 50));
+        provider.initialize();
+
+        assertEquals(WireguardInformationProvider.RefreshMode.IDLE, provider.getRefreshMode());
+        assertEquals(60_000, provider.getEffectiveIntervalMs());
+        assertEquals(1, dumps.get());
+
+        provider.acquireSubscriber();
+        assertEquals(WireguardInformationProvider.RefreshMode.ACTIVE, provider.getRefreshMode());
+        assertEquals(50, provider.getEffectiveIntervalMs());
+        Thread.sleep(500);
+        assertTrue(dumps.get() >= 4, "expected active refreshes, got " + dumps.get());
+
+        provider.releaseSubscriber();
+        assertEquals(WireguardInformationProvider.RefreshMode.IDLE, provider.getRefreshMode());
+        // at most the refresh already scheduled at the active interval runs after release
+        Thread.sleep(200);
+        int afterRelease = dumps.get();
+        Thread.sleep(300);
+        assertEquals(afterRelease, dumps.get());
+    }
+
+    @Test
+    void testReleaseSubscriber_NeverGoesNegative() {
+        CommandExecutor mockExecutor = command -> new ExecutionResult("", "", 0);
+        provider = new WireguardInformationProvider(mockExecutor, testScheduler);
+
+        provider.releaseSubscriber();
+        provider.acquireSubscriber();
+
+        assertEquals(WireguardInformationProvider.RefreshMode.ACTIVE, provider.getRefreshMode());
+        assertEquals(1, provider.getRefreshStatus().subscribers());
+    }
+
+    @Test
+    void testRequestRefresh_CoalescesPendingRequests() throws Exception {
+        AtomicInteger dumps = new AtomicInteger();
+        CommandExecutor mockExecutor = command -> {
+            dumps.incrementAndGet();
+            return new ExecutionResult("", "", 0);
+        };
+        provider = new WireguardInformationProvider(mockExecutor, testScheduler,
+                WireguardRefreshSettings.defaults().withIntervals(60_000, 60_000));
+
+        // hold the scheduler thread so every request below is still pending
+        CountDownLatch blocker = new CountDownLatch(1);
+        testScheduler.execute(() -> {
+            try {
+                blocker.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        for (int i = 0; i < 10; i++) {
+            provider.requestRefresh();
+        }
+        blocker.countDown();
+
+        // a marker queued after the requests runs once the coalesced refresh is done
+        testScheduler.submit(() -> null).get(5, TimeUnit.SECONDS);
+        assertEquals(1, dumps.get());
+
+        provider.requestRefresh();
+        testScheduler.submit(() -> null).get(5, TimeUnit.SECONDS);
+        assertEquals(2, dumps.get());
+    }
+
+    @Test
+    void testGetRefreshStatus() {
+        CommandExecutor mockExecutor = command -> new ExecutionResult("", "", 0);
+        provider = new WireguardInformationProvider(mockExecutor, testScheduler,
+                WireguardRefreshSettings.defaults().withIntervals(30_000, 1_000));
+
+        WireguardInformationProvider.RefreshStatus before = provider.getRefreshStatus();
+        assertNull(before.lastRefreshEpochMillis());
+        assertNull(before.nextRefreshInMs());
+
+        provider.initialize();
+        WireguardInformationProvider.RefreshStatus status = provider.getRefreshStatus();
+
+        assertEquals(WireguardInformationProvider.RefreshMode.IDLE, status.mode());
+        assertEquals(30_000, status.effectiveIntervalMs());
+        assertEquals(30_000, status.idleIntervalMs());
+        assertEquals(1_000, status.activeIntervalMs());
+        assertEquals(0, status.subscribers());
+        assertNotNull(status.lastRefreshEpochMillis());
+        assertNotNull(status.nextRefreshInMs());
+        assertTrue(status.nextRefreshInMs() <= 30_000);
+    }
+
+    @Test
+    void testChangeListeners_ReceiveDiffOfEachRefresh() {
+        AtomicReference<String> handshake = new AtomicReference<>("1000");
+        CommandExecutor mockExecutor = command -> new ExecutionResult(
+                "wg0\tprivateKey\tnetworkKey\t62230\t0\n" +
+                "wg0\tpeerKey\tpsk\t1.2.3.4:1234\t10.0.0.1/32\t" + handshake.get() + "\t100\t200\t0\n",
+                "", 0);
+        provider = new WireguardInformationProvider(mockExecutor, testScheduler);
+        List<WireguardConnectionDiff> diffs = new ArrayList<>();
+        provider.addChangeListener(diffs::add);
+        // a failing listener must not keep the others from being notified
+        provider.addChangeListener(diff -> {
+            throw new IllegalStateException("listener failure");
+        });
+
+        provider.refreshConnectionData();
+        provider.refreshConnectionData();
+        handshake.set("2000");
+        provider.refreshConnectionData();
+
+        assertEquals(3, diffs.size());
+        assertEquals(1, diffs.get(0).getAddedPeers().size());
+        assertTrue(diffs.get(1).isEmpty());
+        assertTrue(diffs.get(2).getChangedPeers().get("peerKey").handshakeAdvanced());
+    }
+
+    @Test
+    void testPerInterfacePolling_MergesAndIsolatesInterfaces() {
+        AtomicReference<String> interfaces = new AtomicReference<>("wg0 wg1\n");
+        AtomicReference<String> wg0Received = new AtomicReference<>("100");
+        AtomicInteger wg1ExitCode = new AtomicInteger(0);
+        List<String> commands = new CopyOnWriteArrayList<>();
+        CommandExecutor mockExecutor = command -> {
+            commands.add(command);
+            return switch (command) {
+                case "wg show interfaces" -> new ExecutionResult(interfaces.get(), "", 0);
+                case "wg show wg0 dump" -> new ExecutionResult(
+                        "privateKey0\tnetworkKey0\t51820\toff\n" +
+                        "peerKey0\t(none)\t1.2.3.4:1234\t10.0.0.2/32\t1000\t" + wg0Received.get() + "\t200\t0\n",
+                        "", 0);
+                case "wg show wg1 dump" -> new ExecutionResult(
+                        "privateKey1\tnetworkKey1\t51821\toff\n" +
+                        "peerKey1\t(none)\t5.6.7.8:1234\t10.1.0.2/32\t1000\t300\t400\t25\n",
+                        wg1ExitCode.get() == 0 ? "" : "Unable to access interface", wg1ExitCode.get());
+                default -> new ExecutionResult("", "unexpected command " + command, 1);
+            };
+        };
+        provider = new WireguardInformationProvider(mockExecutor, testScheduler,
+                WireguardRefreshSettings.defaults().withInterfacePoolSize(2));
+
+        provider.refreshConnectionData();
+
+        assertFalse(commands.contains("wg show all dump"));
+        assertEquals("wg0", provider.getNetworkByPublicKey("networkKey0").getInterfaceName());
+        assertEquals(51821, provider.getNetworkByInterface("wg1").getListeningPort());
+        assertEquals(2, provider.getAllPeers().size());
+        assertEquals("peerKey1", provider.getPeerByAllowedIp("10.1.0.2").getPublicKey());
+        assertEquals(1, provider.getNetworkByInterface("wg0").getPeers().size());
+
+        // a failing interface keeps its last state, the others are still updated
+        wg1ExitCode.set(1);
+        wg0Received.set("500");
+        ClientConnectionInformation wg1Peer = provider.getPeerByPublicKey("peerKey1");
+        provider.refreshConnectionData();
+
+        assertEquals(500L, provider.getPeerByPublicKey("peerKey0").getBytesReceived());
+        assertSame(wg1Peer, provider.getPeerByPublicKey("peerKey1"));
+
+        interfaces.set("wg0\n");
+        provider.refreshConnectionData();
+
+        assertNull(provider.getNetworkByInterface("wg1"));
+        assertNull(provider.getPeerByPublicKey("peerKey1"));
+        assertNull(provider.getPeerByAllowedIp("10.1.0.2/32"));
+        assertEquals(1, provider.getAllPeers().size());
+    }
+
+    @Test
+    void testNetlinkSource_FallsBackToCommand() throws Exception {
+        List<String> commands = new CopyOnWriteArrayList<>();
+        CommandExecutor mockExecutor = command -> {
+            commands.add(command);
+            return new ExecutionResult("wg0\tprivateKey\tcommandKey\t62230\t0\n", "", 0);
+        };
+        Path sysClassNet = Files.createTempDirectory("sys-class-net");
+        Files.createDirectories(sysClassNet.resolve("wg0"));
+        Files.writeString(sysClassNet.resolve("wg0/uevent"), "DEVTYPE=wireguard\nINTERFACE=wg0\n");
+        WireguardNetlinkReaderTests.FixtureTransport transport = new WireguardNetlinkReaderTests.FixtureTransport(
+                WireguardNetlinkReaderTests.fixture("ctrl-getfamily-wireguard.hex"),
+                WireguardNetlinkReaderTests.fixture("wg-get-device-wg0.hex"));
+        provider = new WireguardInformationProvider(mockExecutor, testScheduler,
+                WireguardRefreshSettings.defaults(), new WireguardNetlinkReader(transport, sysClassNet));
+
+        provider.refreshConnectionData();
+
+        assertTrue(commands.isEmpty());
+        assertEquals(3, provider.getAllPeers().size());
+        assertEquals(1L, provider.getConnectionData().getVersion());
+
+        // the fixture is used up, the next read times out and the command takes over
+        provider.refreshConnectionData();
+
+        assertEquals(List.of("wg show all dump"), commands);
+        assertNotNull(provider.getNetworkByPublicKey("commandKey"));
+        assertEquals(0, provider.getAllPeers().size());
+    }
 }
@@ -0,0 +1,167 @@
+package com.brcsrc.yaws.system;
+
+import com.brcsrc.yaws.system.WireguardInformationProvider.WireguardConnectionData;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class WireguardNetlinkReaderTests {
+
+    // what 'wg show all dump' prints for the state in the wg-get-device-wg0 fixture
+    private static final String EQUIVALENT_DUMP =
+            "wg0\tprivateKey\tJTA7RlFcZ3J9iJOeqbS/ytXg6/YBDBciLThDTllkb3o=\t62230\toff\n" +
+            "wg0\tb3qFkJumsbzH0t3o8/4JFB8qNUBLVmFsd4KNmKOuucQ=\tlJ+qtcDL1uHs9wINGCMuOURPWmVwe4aRnKeyvcjT3uk=\t172.56.149.120:62118\t10.6.0.6/32\t1700000000\t2764800000\t14400000000\toff\n" +
+            "wg0\tucTP2uXw+wYRHCcyPUhTXml0f4qVoKu2wczX4u34Aw4=\t(none)\t[2001:db8::1]:51820\t10.6.0.7/32,fd00::7/128\t1700000100\t1024000\t2048000\t25\n" +
+            "wg0\t3un0/woVICs2QUxXYm14g46ZpK+6xdDb5vH8BxIdKDM=\t(none)\t(none)\t(none)\t0\t0\t0\toff\n";
+
+    @Test
+    public void testReadMatchesDumpOfTheSameState() throws IOException {
+        FixtureTransport transport = new FixtureTransport(
+                fixture("ctrl-getfamily-wireguard.hex"),
+                fixture("wg-get-device-wg0.hex"));
+        WireguardNetlinkReader reader = new WireguardNetlinkReader(transport, sysClassNet());
+
+        WireguardConnectionData actual = reader.read();
+        WireguardConnectionData expected = new WgShowDumpParser()
+                .parse(new ByteArrayInputStream(EQUIVALENT_DUMP.getBytes(StandardCharsets.UTF_8)));
+
+        assertEquals(expected.getNetworksByPublicKey().keySet(), actual.getNetworksByPublicKey().keySet());
+        assertEquals(62230, actual.getNetworkByInterface("wg0").getListeningPort());
+        assertEquals(3, actual.getNetworkByInterface("wg0").getPeers().size());
+        assertEquals(expected.getPeersByPublicKey().keySet(), actual.getPeersByPublicKey().keySet());
+        for (Map.Entry<String, ClientConnectionInformation> entry : expected.getPeersByPublicKey().entrySet()) {
+            ClientConnectionInformation want = entry.getValue();
+            ClientConnectionInformation got = actual.getPeersByPublicKey().get(entry.getKey());
+            assertEquals(want.getPresharedKey(), got.getPresharedKey());
+            assertEquals(want.getEndpoint(), got.getEndpoint());
+            assertEquals(want.getAllowedIps(), got.getAllowedIps());
+            assertEquals(want.getLatestHandshakeEpochSeconds(), got.getLatestHandshakeEpochSeconds());
+            assertEquals(want.getBytesReceived(), got.getBytesReceived());
+            assertEquals(want.getBytesSent(), got.getBytesSent());
+            assertEquals(want.getPersistentKeepalive(), got.getPersistentKeepalive());
+        }
+        assertEquals("ucTP2uXw+wYRHCcyPUhTXml0f4qVoKu2wczX4u34Aw4=", actual.getPeerByAllowedIp("fd00::7").getPublicKey());
+
+        // the family is resolved once, eth0 has no DEVTYPE=wireguard and is never requested
+        assertEquals(2, transport.sent.size());
+        ByteBuffer deviceRequest = transport.sent.get(1);
+        assertEquals(0x1d, Short.toUnsignedInt(deviceRequest.getShort(4)));
+        assertEquals(WireguardNetlinkCodec.NLM_F_DUMP, deviceRequest.getShort(6) & WireguardNetlinkCodec.NLM_F_DUMP);
+        assertTrue(new String(deviceRequest.array(), 0, deviceRequest.limit(), StandardCharsets.UTF_8).contains("wg0\0"));
+    }
+
+    @Test
+    public void testKernelErrorFailsTheRead() throws IOException {
+        // what the kernel answers when the wireguard module is not loaded
+        ByteBuffer error = ByteBuffer.allocate(36).order(ByteOrder.nativeOrder());
+        error.putInt(36).putShort((short) WireguardNetlinkCodec.NLMSG_ERROR).putShort((short) 0).putInt(1).putInt(0);
+        error.putInt(-2).putInt(32).putShort((short) WireguardNetlinkCodec.GENL_ID_CTRL).putShort((short) 1).putInt(1).putInt(0);
+        WireguardNetlinkReader reader = new WireguardNetlinkReader(new FixtureTransport(List.of(error.flip())), sysClassNet());
+
+        WireguardNetlinkCodec.NetlinkException e = assertThrows(WireguardNetlinkCodec.NetlinkException.class, reader::read);
+        assertEquals(2, e.getErrno());
+    }
+
+    @Test
+    public void testFormatAddressLikeInetNtop() {
+        assertEquals("2001:db8::1", format("2001:0db8:0000:0000:0000:0000:0000:0001"));
+        assertEquals("::", format("0000:0000:0000:0000:0000:0000:0000:0000"));
+        assertEquals("fd00:0:1::", format("fd00:0000:0001:0000:0000:0000:0000:0000"));
+        // a single zero group is not collapsed, of two equal runs the first is
+        assertEquals("2001:db8:0:1:1:1:1:1", format("2001:0db8:0000:0001:0001:0001:0001:0001"));
+        assertEquals("1::1:0:0:1:1", format("0001:0000:0000:0001:0000:0000:0001:0001"));
+        assertEquals("1:0:0:1::1", format("0001:0000:0000:0001:0000:0000:0000:0001"));
+    }
+
+    private static String format(String fullAddress) {
+        ByteBuffer address = ByteBuffer.allocate(16);
+        for (String group : fullAddress.split(":")) {
+            address.putShort((short) Integer.parseInt(group, 16));
+        }
+        return WireguardNetlinkCodec.formatAddress(address, 0, 16);
+    }
+
+    private static Path sysClassNet() throws IOException {
+        Path sysClassNet = Files.createTempDirectory("sys-class-net");
+        Files.createDirectories(sysClassNet.resolve("wg0"));
+        Files.writeString(sysClassNet.resolve("wg0/uevent"), "DEVTYPE=wireguard\nINTERFACE=wg0\nIFINDEX=5\n");
+        Files.createDirectories(sysClassNet.resolve("eth0"));
+        Files.writeString(sysClassNet.resolve("eth0/uevent"), "INTERFACE=eth0\nIFINDEX=2\n");
+        return sysClassNet;
+    }
+
+    /**
+     * Reads a hex fixture from src/test/resources/netlink, datagrams are separated by lines
+     * starting with -- and # starts a comment
+     */
+    static List<ByteBuffer> fixture(String name) throws IOException {
+        List<ByteBuffer> datagrams = new ArrayList<>();
+        try (InputStream in = WireguardNetlinkReaderTests.class.getResourceAsStream("/netlink/" + name)) {
+            if (in == null) {
+                throw new IOException("missing fixture " + name);
+            }
+            String text = new String(in.readAllBytes(), StandardCharsets.US_ASCII);
+            for (String datagram : text.split("(?m)^--.*$")) {
+                StringBuilder hex = new StringBuilder();
+                for (String line : datagram.split("\n")) {
+                    int comment = line.indexOf('#');
+                    hex.append((comment < 0 ? line : line.substring(0, comment)).replaceAll("\\s", ""));
+                }
+                byte[] bytes = new byte[hex.length() / 2];
+                for (int i = 0; i < bytes.length; i++) {
+                    bytes[i] = (byte) Integer.parseInt(hex.substring(2 * i, 2 * i + 2), 16);
+                }
+                datagrams.add(ByteBuffer.wrap(bytes).order(ByteOrder.nativeOrder()));
+            }
+        }
+        return datagrams;
+    }
+
+    /**
+     * Replays recorded datagrams in order, whatever the requests
+     */
+    static class FixtureTransport implements NetlinkTransport {
+        final List<ByteBuffer> sent = new ArrayList<>();
+        private final Deque<ByteBuffer> replies = new ArrayDeque<>();
+
+        @SafeVarargs
+        FixtureTransport(List<ByteBuffer>... replies) {
+            for (List<ByteBuffer> reply : replies) {
+                this.replies.addAll(reply);
+            }
+        }
+
+        @Override
+        public void send(ByteBuffer message) {
+            ByteBuffer copy = ByteBuffer.allocate(message.remaining()).order(ByteOrder.nativeOrder());
+            copy.put(message.duplicate()).flip();
+            sent.add(copy);
+        }
+
+        @Override
+        public ByteBuffer receive() throws IOException {
+            if (replies.isEmpty()) {
+                throw new IOException("no netlink reply within the test's fixture");
+            }
+            return replies.poll();
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}